@@ -0,0 +1,44 @@
+package io.github.shamsimam;
+
+import io.grpc.MethodDescriptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * Fixtures shared by the benchmarks.
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    static MethodDescriptor<byte[], byte[]> methodDescriptor(final String fullMethodName) {
+        final BytesMarshaller marshaller = new BytesMarshaller();
+        return MethodDescriptor.newBuilder(marshaller, marshaller).
+            setFullMethodName(fullMethodName).
+            setType(MethodDescriptor.MethodType.UNARY).
+            build();
+    }
+
+    static MethodDescriptor<?, ?>[] methodDescriptors(final int methodCount) {
+        final MethodDescriptor<?, ?>[] methodDescriptors = new MethodDescriptor<?, ?>[methodCount];
+        for (int i = 0; i < methodCount; i++) {
+            final String serviceName = "io.github.shamsimam.bench.Service" + (i % 16);
+            methodDescriptors[i] = methodDescriptor(serviceName + "/Method" + i);
+        }
+        return methodDescriptors;
+    }
+
+    private static class BytesMarshaller implements MethodDescriptor.Marshaller<byte[]> {
+        @Override
+        public InputStream stream(final byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+
+        @Override
+        public byte[] parse(final InputStream stream) {
+            return new byte[0];
+        }
+    }
+}
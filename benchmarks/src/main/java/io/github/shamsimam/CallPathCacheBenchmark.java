@@ -0,0 +1,63 @@
+package io.github.shamsimam;
+
+import io.grpc.MethodDescriptor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building the call path URI on every call against looking it up in the CallPathCache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CallPathCacheBenchmark {
+
+    private static final String AUTHORITY = "api.service.test.com:443";
+
+    @Param({"10", "300"})
+    public int methodCount;
+
+    private MethodDescriptor<?, ?>[] methodDescriptors;
+    private CallPathCache callPathCache;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        methodDescriptors = BenchmarkSupport.methodDescriptors(methodCount);
+        callPathCache = new CallPathCache(false, CallPathCache.DEFAULT_MAXIMUM_SIZE);
+        for (final MethodDescriptor<?, ?> methodDescriptor : methodDescriptors) {
+            callPathCache.get(AUTHORITY, methodDescriptor);
+        }
+    }
+
+    private MethodDescriptor<?, ?> nextMethod() {
+        final int index = next;
+        next = index + 1 == methodDescriptors.length ? 0 : index + 1;
+        return methodDescriptors[index];
+    }
+
+    @Benchmark
+    public URI createUri() {
+        return URI.create("https://" + AUTHORITY + "/" + nextMethod().getFullMethodName());
+    }
+
+    @Benchmark
+    public URI cachedUri() {
+        return callPathCache.get(AUTHORITY, nextMethod());
+    }
+}
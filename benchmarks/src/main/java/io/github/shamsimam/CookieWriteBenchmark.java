@@ -0,0 +1,92 @@
+package io.github.shamsimam;
+
+import io.grpc.Metadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the throughput of storing the cookies of responses received concurrently, with the
+ * CookieManager storing each response on its own thread and with a {@link CombiningCookieManager}.
+ * <p>
+ * Every response sets a new value for one of the 16 cookies of its thread's host, run the benchmark with
+ * 1 to 128 threads, e.g. {@code java -jar target/benchmarks.jar CookieWriteBenchmark -t 32}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CookieWriteBenchmark {
+
+    private static final Metadata.Key<String> SET_COOKIE_KEY =
+        Metadata.Key.of("set-cookie", Metadata.ASCII_STRING_MARSHALLER);
+    private static final int COOKIES_PER_HOST = 16;
+
+    /**
+     * The jar shared by the threads.
+     */
+    @State(Scope.Benchmark)
+    public static class JarState {
+
+        @Param({"inMemory", "concurrent"})
+        public String cookieStore;
+
+        @Param({"false", "true"})
+        public boolean combineWrites;
+
+        CookieJar cookieJar;
+        final AtomicInteger threadCount = new AtomicInteger();
+
+        @Setup
+        public void setUp() {
+            final CookieManager cookieManager = "inMemory".equals(cookieStore)
+                ? new CookieManager(null, CookiePolicy.ACCEPT_ALL)
+                : new CookieManager(new ConcurrentCookieStore(), CookiePolicy.ACCEPT_ALL);
+            cookieJar = new CookieJar(combineWrites ? new CombiningCookieManager(cookieManager) : cookieManager);
+        }
+    }
+
+    /**
+     * The responses received by a thread.
+     */
+    @State(Scope.Thread)
+    public static class ResponseState {
+
+        URI callPathUri;
+        int next;
+
+        @Setup
+        public void setUp(final JarState jarState) {
+            final int thread = jarState.threadCount.getAndIncrement();
+            callPathUri = URI.create("https://s" + thread + ".api.test.com/grpc.Service/GetCookies");
+        }
+
+        Metadata nextResponseHeaders() {
+            final int response = next++;
+            final Metadata responseHeaders = new Metadata();
+            final String cookie = "c" + (response % COOKIES_PER_HOST) + "=v" + response;
+            responseHeaders.put(SET_COOKIE_KEY, cookie + "; Path=/");
+            return responseHeaders;
+        }
+    }
+
+    @Benchmark
+    public void processResponseCookies(final JarState jarState, final ResponseState responseState) {
+        jarState.cookieJar.processResponseCookies(responseState.callPathUri, responseState.nextResponseHeaders());
+    }
+}
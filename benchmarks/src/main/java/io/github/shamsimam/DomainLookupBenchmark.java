@@ -0,0 +1,121 @@
+package io.github.shamsimam;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.CookieManager;
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of looking up the cookies of a host as the number of stored cookies grows.
+ * <p>
+ * Cookies are spread over subdomains of a shared parent domain, ten cookies per subdomain, and each
+ * lookup returns the cookies of one subdomain. The default JDK store is limited to 100k cookies as
+ * adding a cookie performs a linear scan of all stored cookies.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DomainLookupBenchmark {
+
+    private static final int COOKIES_PER_DOMAIN = 10;
+    private static final int LOOKUP_URIS = 64;
+
+    static void populate(final CookieStore cookieStore, final int cookieCount) {
+        for (int i = 0; i < cookieCount; i++) {
+            final String host = "s" + (i / COOKIES_PER_DOMAIN) + ".api.test.com";
+            final HttpCookie cookie = new HttpCookie("c" + (i % COOKIES_PER_DOMAIN), "v" + i);
+            cookie.setVersion(0);
+            cookie.setDomain(host);
+            cookie.setPath("/");
+            cookieStore.add(URI.create("https://" + host + "/"), cookie);
+        }
+    }
+
+    static URI[] lookupUris(final int cookieCount) {
+        final int domainCount = Math.max(1, cookieCount / COOKIES_PER_DOMAIN);
+        final URI[] uris = new URI[LOOKUP_URIS];
+        for (int i = 0; i < uris.length; i++) {
+            final int domain = (int) ((i * 2654435761L) % domainCount);
+            uris[i] = URI.create("https://s" + domain + ".api.test.com/grpc.Service/GetCookies");
+        }
+        return uris;
+    }
+
+    /**
+     * The lookups into a CookieStore.
+     */
+    public abstract static class LookupState {
+
+        CookieStore cookieStore;
+        URI[] uris;
+        int next;
+
+        void setUp(final CookieStore cookieStore, final int cookieCount) {
+            this.cookieStore = cookieStore;
+            populate(cookieStore, cookieCount);
+            this.uris = lookupUris(cookieCount);
+        }
+
+        List<HttpCookie> lookup() {
+            final int index = next;
+            next = (index + 1) & (LOOKUP_URIS - 1);
+            return cookieStore.get(uris[index]);
+        }
+    }
+
+    /**
+     * The default JDK CookieStore.
+     */
+    @State(Scope.Thread)
+    public static class InMemoryState extends LookupState {
+
+        @Param({"10", "1000", "10000", "100000"})
+        public int cookieCount;
+
+        @Setup
+        public void setUp() {
+            setUp(new CookieManager().getCookieStore(), cookieCount);
+        }
+    }
+
+    /**
+     * The trie-indexed ConcurrentCookieStore, without limits on the number of cookies.
+     */
+    @State(Scope.Thread)
+    public static class ConcurrentState extends LookupState {
+
+        @Param({"10", "1000", "10000", "100000", "1000000"})
+        public int cookieCount;
+
+        @Setup
+        public void setUp() {
+            setUp(new ConcurrentCookieStore(Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE), cookieCount);
+        }
+    }
+
+    @Benchmark
+    public List<HttpCookie> inMemoryCookieStore(final InMemoryState state) {
+        return state.lookup();
+    }
+
+    @Benchmark
+    public List<HttpCookie> concurrentCookieStore(final ConcurrentState state) {
+        return state.lookup();
+    }
+}
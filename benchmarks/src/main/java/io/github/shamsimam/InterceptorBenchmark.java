@@ -0,0 +1,249 @@
+package io.github.shamsimam;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.annotation.Nullable;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost the CookieStoreInterceptor adds to a call: intercepting and starting a call, adding the
+ * cookies to the request headers, storing the cookies of the response headers and the lookups and additions
+ * of the store.
+ * <p>
+ * The store holds the given number of cookies, four of which match the calls, and the request and response
+ * headers carry the given number of other entries. The processResponseCookies benchmark receives the same
+ * cookie every time, as a load balancer affinity cookie is, which the store already holds and which is hence
+ * skipped. The processChangedResponseCookies benchmark receives a new value of a session cookie every time,
+ * which is parsed and written to the store. The state is shared by the threads, vary their number with
+ * {@code -t} and report the allocations with {@code -prof gc}, e.g.
+ * {@code java -jar target/benchmarks.jar InterceptorBenchmark -t 8 -prof gc}.
+ * The baselineMetadata and baselineResponseMetadata benchmarks measure the copies of the request and
+ * response headers the other benchmarks start from.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterceptorBenchmark {
+
+    private static final String AUTHORITY = "www.test.com";
+    private static final URI CALL_PATH_URI = URI.create("https://" + AUTHORITY + "/grpc.Service/GetCookies");
+    private static final Metadata.Key<String> SET_COOKIE_KEY =
+        Metadata.Key.of("set-cookie", Metadata.ASCII_STRING_MARSHALLER);
+
+    /**
+     * The interceptor and its store shared by the threads.
+     */
+    @State(Scope.Benchmark)
+    public static class InterceptorState {
+
+        @Param({"10", "1000", "100000"})
+        public int cookieCount;
+
+        @Param({"0", "8", "32"})
+        public int metadataEntries;
+
+        ConcurrentCookieStore cookieStore;
+        CookieStoreInterceptor interceptor;
+        MethodDescriptor<byte[], byte[]> methodDescriptor;
+        CallOptions callOptions;
+        Channel channel;
+        Metadata requestHeaders;
+        Metadata responseHeaders;
+        // The other entries of the response headers, without a cookie
+        Metadata responseEntries;
+
+        @Setup
+        public void setUp() {
+            cookieStore = new ConcurrentCookieStore(Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+            DomainLookupBenchmark.populate(cookieStore, Math.max(0, cookieCount - 4));
+            for (int i = 0; i < 4; i++) {
+                final HttpCookie cookie = new HttpCookie("session" + i, "s" + i);
+                cookie.setPath("/");
+                cookieStore.add(CALL_PATH_URI, cookie);
+            }
+            interceptor = new CookieStoreInterceptor(new FastCookieManager(cookieStore, null));
+            methodDescriptor = BenchmarkSupport.methodDescriptor("grpc.Service/GetCookies");
+            callOptions = CallOptions.DEFAULT.withAuthority(AUTHORITY);
+            channel = new NoopChannel();
+
+            requestHeaders = new Metadata();
+            responseEntries = new Metadata();
+            for (int i = 0; i < metadataEntries; i++) {
+                final Metadata.Key<String> key = Metadata.Key.of("x-entry-" + i, Metadata.ASCII_STRING_MARSHALLER);
+                requestHeaders.put(key, "value-" + i);
+                responseEntries.put(key, "value-" + i);
+            }
+            responseHeaders = new Metadata();
+            responseHeaders.merge(responseEntries);
+            responseHeaders.put(SET_COOKIE_KEY, "affinity=node-1; Path=/; HttpOnly");
+            interceptor.processResponseCookies(CALL_PATH_URI, responseHeaders);
+        }
+
+        Metadata newRequestHeaders() {
+            final Metadata headers = new Metadata();
+            headers.merge(requestHeaders);
+            return headers;
+        }
+    }
+
+    /**
+     * The cookies a thread adds to the store, each thread replaces the cookies of its own host.
+     */
+    @State(Scope.Thread)
+    public static class PutState {
+
+        private static int threadCount;
+
+        URI uri;
+        int next;
+
+        @Setup
+        public void setUp() {
+            synchronized (PutState.class) {
+                uri = URI.create("https://t" + threadCount++ + ".api.test.com/grpc.Service/GetCookies");
+            }
+        }
+
+        HttpCookie nextCookie() {
+            final int cookie = next++;
+            final HttpCookie httpCookie = new HttpCookie("c" + (cookie & 15), "v" + cookie);
+            httpCookie.setPath("/");
+            return httpCookie;
+        }
+    }
+
+    /**
+     * The session cookie of the responses a thread receives, each thread replaces its own cookie.
+     */
+    @State(Scope.Thread)
+    public static class ResponseState {
+
+        private static int threadCount;
+
+        String cookieName;
+        int next;
+
+        @Setup
+        public void setUp() {
+            synchronized (ResponseState.class) {
+                cookieName = "session-t" + threadCount++;
+            }
+        }
+
+        Metadata newResponseHeaders(final InterceptorState state) {
+            final Metadata headers = new Metadata();
+            headers.merge(state.responseEntries);
+            headers.put(SET_COOKIE_KEY, cookieName + "=s" + next++ + "; Path=/; Max-Age=3600; Secure");
+            return headers;
+        }
+    }
+
+    @Benchmark
+    public Metadata baselineMetadata(final InterceptorState state) {
+        return state.newRequestHeaders();
+    }
+
+    @Benchmark
+    public Metadata interceptCallAndStart(final InterceptorState state) {
+        final Metadata requestHeaders = state.newRequestHeaders();
+        final ClientCall<byte[], byte[]> call =
+            state.interceptor.interceptCall(state.methodDescriptor, state.callOptions, state.channel);
+        call.start(new ClientCall.Listener<byte[]>() {
+        }, requestHeaders);
+        return requestHeaders;
+    }
+
+    @Benchmark
+    public Metadata addRequestCookies(final InterceptorState state) {
+        final Metadata requestHeaders = state.newRequestHeaders();
+        state.interceptor.addRequestCookies(CALL_PATH_URI, requestHeaders);
+        return requestHeaders;
+    }
+
+    @Benchmark
+    public void processResponseCookies(final InterceptorState state) {
+        state.interceptor.processResponseCookies(CALL_PATH_URI, state.responseHeaders);
+    }
+
+    @Benchmark
+    public Metadata baselineResponseMetadata(final InterceptorState state, final ResponseState responseState) {
+        return responseState.newResponseHeaders(state);
+    }
+
+    @Benchmark
+    public void processChangedResponseCookies(final InterceptorState state, final ResponseState responseState) {
+        state.interceptor.processResponseCookies(CALL_PATH_URI, responseState.newResponseHeaders(state));
+    }
+
+    @Benchmark
+    public List<HttpCookie> storeGet(final InterceptorState state) {
+        return state.cookieStore.get(CALL_PATH_URI);
+    }
+
+    @Benchmark
+    public void storePut(final InterceptorState state, final PutState putState) {
+        state.cookieStore.add(putState.uri, putState.nextCookie());
+    }
+
+    /**
+     * A channel whose calls do nothing, the cost of the transport is left out.
+     */
+    private static final class NoopChannel extends Channel {
+
+        @Override
+        public <RequestT, ResponseT> ClientCall<RequestT, ResponseT> newCall(
+            final MethodDescriptor<RequestT, ResponseT> methodDescriptor, final CallOptions callOptions) {
+            return new ClientCall<RequestT, ResponseT>() {
+                @Override
+                public void start(final Listener<ResponseT> responseListener, final Metadata headers) {
+                    // do nothing
+                }
+
+                @Override
+                public void request(final int numMessages) {
+                    // do nothing
+                }
+
+                @Override
+                public void cancel(@Nullable final String message, @Nullable final Throwable cause) {
+                    // do nothing
+                }
+
+                @Override
+                public void halfClose() {
+                    // do nothing
+                }
+
+                @Override
+                public void sendMessage(final RequestT message) {
+                    // do nothing
+                }
+            };
+        }
+
+        @Override
+        public String authority() {
+            return AUTHORITY;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package io.github.shamsimam;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.net.CookieManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures the latency the CookieStoreInterceptor adds to complete unary calls made over the in-process
+ * transport of gRPC, for each store engine, against calls made without the interceptor.
+ * <p>
+ * Every response sets the same affinity cookie along with a new session cookie every 100 calls, which the
+ * following calls send back. The client and the server run the calls on the calling thread, hence the
+ * latency is that of the interceptor, the stubs and the in-process transport rather than of thread hand-offs.
+ * <p>
+ * Each thread either makes its calls back to back (closed loop), optionally paced at its share of the rate,
+ * or at fixed times given by its share of the rate (open loop). The latencies are recorded in HDR histograms
+ * and corrected for coordinated omission: a closed loop with a rate records the calls a stalled thread did
+ * not make, an open loop measures each call from the time it was scheduled to start at. Run it with e.g.
+ * <pre>
+ * java -cp target/benchmarks.jar io.github.shamsimam.LatencyHarness --mode=open --rate=20000 --threads=4
+ * </pre>
+ * Options, with their defaults: {@code --mode=closed}, {@code --threads=4}, {@code --rate=0} calls per second
+ * across the threads (0 for unpaced closed loops), {@code --warmup=5} and {@code --duration=10} seconds and
+ * {@code --stores=none,inMemory,concurrent,offHeap}.
+ */
+public final class LatencyHarness {
+
+    private static final String SERVICE_NAME = "io.github.shamsimam.bench.LatencyService";
+    private static final MethodDescriptor<byte[], byte[]> METHOD =
+        BenchmarkSupport.methodDescriptor(SERVICE_NAME + "/Call");
+    private static final Metadata.Key<String> SET_COOKIE_KEY =
+        Metadata.Key.of("set-cookie", Metadata.ASCII_STRING_MARSHALLER);
+    private static final byte[] PAYLOAD = new byte[0];
+    // The highest latency the histograms record, higher latencies are clamped to it
+    private static final long HIGHEST_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final boolean openLoop;
+    private final int threadCount;
+    private final double rate;
+    private final long warmupNanos;
+    private final long durationNanos;
+
+    private LatencyHarness(final Map<String, String> options) {
+        this.openLoop = "open".equals(options.getOrDefault("mode", "closed"));
+        this.threadCount = Integer.parseInt(options.getOrDefault("threads", "4"));
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup", "5")));
+        this.durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "10")));
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threadCount);
+        }
+        if (openLoop && rate <= 0) {
+            throw new IllegalArgumentException("rate must be positive in an open loop: " + rate);
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<>();
+        for (final String arg : args) {
+            final int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("options are given as --name=value: " + arg);
+            }
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        final LatencyHarness harness = new LatencyHarness(options);
+        final List<String> stores =
+            Arrays.asList(options.getOrDefault("stores", "none,inMemory,concurrent,offHeap").split(","));
+
+        System.out.printf("%-12s %10s %10s %10s %10s %10s %12s%n",
+            "store", "calls", "p50 (us)", "p99 (us)", "p999 (us)", "max (us)", "p99 added");
+        Histogram baseline = null;
+        for (final String store : stores) {
+            final Histogram histogram = harness.run(store);
+            if ("none".equals(store)) {
+                baseline = histogram;
+            }
+            System.out.printf("%-12s %10d %10.1f %10.1f %10.1f %10.1f %12s%n", store, histogram.getTotalCount(),
+                micros(histogram.getValueAtPercentile(50)), micros(histogram.getValueAtPercentile(99)),
+                micros(histogram.getValueAtPercentile(99.9)), micros(histogram.getMaxValue()),
+                baseline == null ? "-" : String.format("%.1f",
+                    micros(histogram.getValueAtPercentile(99) - baseline.getValueAtPercentile(99))));
+        }
+    }
+
+    private static double micros(final long nanos) {
+        return nanos / 1000.0;
+    }
+
+    /**
+     * Runs the warm-up and the measured workload against a new server with the store engine.
+     */
+    private Histogram run(final String store) throws IOException, InterruptedException {
+        final String serverName = "latency-harness-" + store + "-" + System.nanoTime();
+        final Server server = InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(ServerServiceDefinition.builder(SERVICE_NAME).addMethod(METHOD, new CookieHandler()).build())
+            .build()
+            .start();
+        final ManagedChannel managedChannel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+        final OffHeapCookieStore offHeapStore = "offHeap".equals(store) ? new OffHeapCookieArena().newStore() : null;
+        try {
+            final Channel channel = interceptedChannel(managedChannel, store, offHeapStore);
+            runWorkload(channel, warmupNanos);
+            return runWorkload(channel, durationNanos);
+        } finally {
+            managedChannel.shutdownNow();
+            server.shutdownNow();
+            if (offHeapStore != null) {
+                offHeapStore.close();
+            }
+        }
+    }
+
+    private static Channel interceptedChannel(final ManagedChannel channel, final String store,
+                                              final OffHeapCookieStore offHeapStore) {
+        switch (store) {
+            case "none":
+                return channel;
+            case "inMemory":
+                return ClientInterceptors.intercept(channel, new CookieStoreInterceptor(new CookieManager()));
+            case "concurrent":
+                return ClientInterceptors.intercept(channel, new CookieStoreInterceptor());
+            case "offHeap":
+                return ClientInterceptors.intercept(channel,
+                    new CookieStoreInterceptor(new FastCookieManager(offHeapStore, null)));
+            default:
+                throw new IllegalArgumentException("unknown store: " + store);
+        }
+    }
+
+    /**
+     * Runs the calls of all threads for the duration.
+     *
+     * @return the latencies of the calls of all threads.
+     */
+    private Histogram runWorkload(final Channel channel, final long runNanos) throws InterruptedException {
+        final long intervalNanos = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * threadCount / rate) : 0;
+        final List<Histogram> histograms = new ArrayList<>(threadCount);
+        final List<Thread> threads = new ArrayList<>(threadCount);
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        // the first failure of a call, which stops its thread and fails the run
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        for (int t = 0; t < threadCount; t++) {
+            final Histogram histogram = new Histogram(HIGHEST_LATENCY_NANOS, 3);
+            histograms.add(histogram);
+            final Thread thread = new Thread(() -> {
+                try {
+                    startLatch.await();
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    runThread(channel, histogram, intervalNanos, System.nanoTime() + runNanos);
+                } catch (final RuntimeException ex) {
+                    failure.compareAndSet(null, ex);
+                }
+            }, "latency-harness-" + t);
+            threads.add(thread);
+            thread.start();
+        }
+        startLatch.countDown();
+        final Histogram histogram = new Histogram(HIGHEST_LATENCY_NANOS, 3);
+        for (int t = 0; t < threadCount; t++) {
+            threads.get(t).join();
+            histogram.add(histograms.get(t));
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return histogram;
+    }
+
+    private void runThread(final Channel channel, final Histogram histogram, final long intervalNanos,
+                           final long endNanos) {
+        long scheduledNanos = System.nanoTime();
+        while (scheduledNanos < endNanos) {
+            if (intervalNanos > 0) {
+                // waits for the start of the call, a call started late is measured from its scheduled start
+                // in an open loop and pads the histogram with the calls it delayed in a closed loop
+                long now;
+                while ((now = System.nanoTime()) < scheduledNanos) {
+                    LockSupport.parkNanos(scheduledNanos - now);
+                }
+            }
+            final long startNanos = openLoop ? scheduledNanos : System.nanoTime();
+            call(channel);
+            final long latencyNanos = Math.min(System.nanoTime() - startNanos, HIGHEST_LATENCY_NANOS);
+            if (openLoop || intervalNanos == 0) {
+                histogram.recordValue(latencyNanos);
+            } else {
+                histogram.recordValueWithExpectedInterval(latencyNanos, intervalNanos);
+            }
+            scheduledNanos = intervalNanos > 0 ? scheduledNanos + intervalNanos : System.nanoTime();
+            if (!openLoop && intervalNanos > 0) {
+                // a closed loop does not catch up with the calls a late call delayed
+                scheduledNanos = Math.max(scheduledNanos, System.nanoTime());
+            }
+        }
+    }
+
+    /**
+     * Makes a unary call, the call completes on the calling thread as the transport runs on direct executors.
+     */
+    private static void call(final Channel channel) {
+        final CountDownLatch closedLatch = new CountDownLatch(1);
+        final AtomicReference<Status> closedStatus = new AtomicReference<>();
+        final ClientCall<byte[], byte[]> call = channel.newCall(METHOD, CallOptions.DEFAULT);
+        call.start(new ClientCall.Listener<byte[]>() {
+            @Override
+            public void onClose(final Status status, final Metadata trailers) {
+                closedStatus.set(status);
+                closedLatch.countDown();
+            }
+        }, new Metadata());
+        call.request(1);
+        call.sendMessage(PAYLOAD);
+        call.halfClose();
+        try {
+            closedLatch.await();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (!closedStatus.get().isOk()) {
+            throw new IllegalStateException("call failed: " + closedStatus.get());
+        }
+    }
+
+    /**
+     * Answers every call with an empty message and sets the affinity and session cookies.
+     */
+    private static final class CookieHandler implements ServerCallHandler<byte[], byte[]> {
+
+        private long callCount;
+
+        @Override
+        public ServerCall.Listener<byte[]> startCall(final ServerCall<byte[], byte[]> call, final Metadata headers) {
+            final long session;
+            synchronized (this) {
+                session = callCount++ / 100;
+            }
+            call.request(1);
+            return new ServerCall.Listener<byte[]>() {
+                @Override
+                public void onHalfClose() {
+                    final Metadata responseHeaders = new Metadata();
+                    responseHeaders.put(SET_COOKIE_KEY, "affinity=node-1; Path=/; HttpOnly");
+                    responseHeaders.put(SET_COOKIE_KEY, "session=s" + session + "; Path=/; Max-Age=3600; Secure");
+                    call.sendHeaders(responseHeaders);
+                    call.sendMessage(PAYLOAD);
+                    call.close(Status.OK, new Metadata());
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package io.github.shamsimam;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the time from opening a persisted cookie store to the cookies of the first call, i.e. the delay
+ * a restarted client adds before it can make calls, as the number of persisted cookies grows.
+ * <p>
+ * The PersistentCookieStore replays its snapshot into memory while the MappedCookieStore only maps its
+ * file. The files are written once per trial and remain in the page cache, the time to read them from the
+ * storage device is not included.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class WarmRestartBenchmark {
+
+    /**
+     * The stores persisted by a previous run of the client.
+     */
+    @State(Scope.Benchmark)
+    public static class PersistedState {
+
+        @Param({"1000", "10000", "100000", "500000"})
+        public int cookieCount;
+
+        Path directory;
+        Path mappedFile;
+        Path persistentDirectory;
+        URI uri;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("cookies");
+            mappedFile = directory.resolve("cookies.bin");
+            persistentDirectory = directory.resolve("persistent");
+            try (final MappedCookieStore cookieStore = new MappedCookieStore(mappedFile)) {
+                DomainLookupBenchmark.populate(cookieStore, cookieCount);
+            }
+            try (final PersistentCookieStore cookieStore = newPersistentCookieStore(persistentDirectory)) {
+                DomainLookupBenchmark.populate(cookieStore, cookieCount);
+            }
+            uri = DomainLookupBenchmark.lookupUris(cookieCount)[1];
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            try (final Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    static PersistentCookieStore newPersistentCookieStore(final Path directory) throws IOException {
+        final ConcurrentCookieStore cookieStore =
+            new ConcurrentCookieStore(Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+        return new PersistentCookieStore(
+            directory, cookieStore, true, PersistentCookieStore.DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    @Benchmark
+    public List<HttpCookie> mappedCookieStore(final PersistedState state) throws IOException {
+        try (final MappedCookieStore cookieStore = new MappedCookieStore(state.mappedFile)) {
+            return cookieStore.getMatching(state.uri);
+        }
+    }
+
+    @Benchmark
+    public List<HttpCookie> persistentCookieStore(final PersistedState state) throws IOException {
+        try (final PersistentCookieStore cookieStore = newPersistentCookieStore(state.persistentDirectory)) {
+            return cookieStore.getMatching(state.uri);
+        }
+    }
+}
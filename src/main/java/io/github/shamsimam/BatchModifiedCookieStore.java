@@ -0,0 +1,20 @@
+package io.github.shamsimam;
+
+import java.net.CookieStore;
+
+/**
+ * A CookieStore whose modifications take a reentrant lock of the store, which can be held across a batch of
+ * modifications.
+ * <p>
+ * The {@link CookieWriteCombiner} applies the cookies of a batch of responses while holding the lock, hence
+ * the lock is acquired once per batch and the modifications of the batch only re-enter it.
+ */
+interface BatchModifiedCookieStore extends CookieStore {
+
+    /**
+     * Runs the modifications while holding the lock the modifications of the store take.
+     *
+     * @param modifications the modifications, which must not wait for other threads to modify the store.
+     */
+    void modifyInBatch(Runnable modifications);
+}
@@ -0,0 +1,87 @@
+package io.github.shamsimam;
+
+import io.grpc.MethodDescriptor;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded, concurrent cache of the call path URIs used to store and filter cookies.
+ * <p>
+ * Entries are keyed on the authority and the MethodDescriptor of the call, the scheme is fixed for
+ * the lifetime of the cache. Generated stubs use a single MethodDescriptor instance per method,
+ * hence lookups are identity based and avoid re-parsing the URI on every call.
+ * When the cache grows beyond its maximum size it is cleared and refilled on subsequent calls.
+ */
+final class CallPathCache {
+
+    static final int DEFAULT_MAXIMUM_SIZE = 4096;
+
+    // The scheme, including the "://" separator, used to build call path URIs
+    private final String schemePrefix;
+    // The maximum number of URIs retained across all authorities
+    private final int maximumSize;
+    // The cached URIs indexed by authority and then by method
+    private final ConcurrentMap<String, ConcurrentMap<MethodDescriptor<?, ?>, URI>> callPathUris =
+        new ConcurrentHashMap<>();
+    // The approximate number of URIs retained across all authorities
+    private final AtomicInteger size = new AtomicInteger();
+
+    CallPathCache(final boolean usePlainText, final int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        this.schemePrefix = usePlainText ? "http://" : "https://";
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Retrieves the call path URI for the specified method invoked through the specified authority.
+     *
+     * @param authority        the authority the call is made to
+     * @param methodDescriptor the method being invoked
+     * @return the call path URI, never null
+     */
+    URI get(final String authority, final MethodDescriptor<?, ?> methodDescriptor) {
+        final ConcurrentMap<MethodDescriptor<?, ?>, URI> methodUris = callPathUris.get(authority);
+        if (methodUris != null) {
+            final URI callPathUri = methodUris.get(methodDescriptor);
+            if (callPathUri != null) {
+                return callPathUri;
+            }
+        }
+        return load(authority, methodDescriptor);
+    }
+
+    /**
+     * @return the approximate number of URIs retained in the cache.
+     */
+    int size() {
+        return size.get();
+    }
+
+    private URI load(final String authority, final MethodDescriptor<?, ?> methodDescriptor) {
+        final URI callPathUri = createUri(authority, methodDescriptor.getFullMethodName());
+        if (size.get() >= maximumSize) {
+            // unbounded method descriptors (e.g. created per call) would otherwise leak,
+            // start over rather than paying for recency tracking on the lookup path
+            callPathUris.clear();
+            size.set(0);
+        }
+        final URI existingUri = callPathUris
+            .computeIfAbsent(authority, key -> new ConcurrentHashMap<>())
+            .putIfAbsent(methodDescriptor, callPathUri);
+        if (existingUri != null) {
+            return existingUri;
+        }
+        size.incrementAndGet();
+        return callPathUri;
+    }
+
+    private URI createUri(final String authority, final String fullMethodName) {
+        final String url = schemePrefix + authority + "/" + fullMethodName;
+        return URI.create(url);
+    }
+}
@@ -0,0 +1,72 @@
+package io.github.shamsimam;
+
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.CookieStore;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A CookieManager which stores the cookies of concurrent responses in batches with a {@link CookieWriteCombiner}
+ * and otherwise delegates to another CookieManager.
+ * <p>
+ * Clients receiving many responses at once from several transport threads, whose store takes a lock for every
+ * modification, e.g. the in-memory store of the JDK or a {@link PersistentCookieStore}, may see fewer contended
+ * lock acquisitions when one thread applies the cookies of all threads. The lock of a PersistentCookieStore,
+ * {@link MappedCookieStore}, {@link OffHeapCookieStore} or {@link WriteBehindCookieStore} is acquired once for
+ * each batch, the private lock of the JDK store still once for each cookie. Waiting threads hand over to the
+ * combiner by parking, which costs more than an uncontended lock, hence the stage is optional; measure it
+ * with the CookieWriteBenchmark first. The cookies of requests are retrieved as with the wrapped CookieManager.
+ */
+public final class CombiningCookieManager extends CookieManager {
+
+    // The CookieManager storing and filtering the cookies
+    private final CookieManager cookieManager;
+    // The stage applying the responses of concurrent threads in batches
+    private final CookieWriteCombiner writeCombiner;
+
+    /**
+     * Create a new CombiningCookieManager.
+     *
+     * @param cookieManager the CookieManager storing and filtering the cookies.
+     */
+    public CombiningCookieManager(final CookieManager cookieManager) {
+        super(cookieManager.getCookieStore(), null);
+        this.cookieManager = cookieManager;
+        this.writeCombiner = new CookieWriteCombiner(cookieManager);
+    }
+
+    CookieManager cookieManager() {
+        return cookieManager;
+    }
+
+    @Override
+    public void setCookiePolicy(final CookiePolicy cookiePolicy) {
+        cookieManager.setCookiePolicy(cookiePolicy);
+    }
+
+    @Override
+    public CookieStore getCookieStore() {
+        return cookieManager.getCookieStore();
+    }
+
+    @Override
+    public Map<String, List<String>> get(final URI uri, final Map<String, List<String>> requestHeaders)
+        throws IOException {
+        return cookieManager.get(uri, requestHeaders);
+    }
+
+    /**
+     * Stores the cookies of the response headers, errors of the wrapped CookieManager are logged rather than
+     * thrown as they may surface on the thread of another response.
+     */
+    @Override
+    public void put(final URI uri, final Map<String, List<String>> responseHeaders) {
+        if (uri == null || responseHeaders == null) {
+            throw new IllegalArgumentException("Argument is null");
+        }
+        writeCombiner.put(uri, responseHeaders);
+    }
+}
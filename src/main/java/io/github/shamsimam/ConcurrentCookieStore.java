@@ -0,0 +1,684 @@
+package io.github.shamsimam;
+
+import java.net.HttpCookie;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * A CookieStore tuned for concurrent access from many threads.
+ * <p>
+ * Cookies are indexed by domain in a {@link DomainTrie} of reversed domain labels, hence looking up the
+ * cookies of {@code a.b.test.com} only visits the cookies of {@code a.b.test.com}, {@code b.test.com},
+ * {@code test.com} and {@code com}. Each domain holds an immutable array of cookies which is replaced with
+ * a compare-and-set on every modification, hence reads never block and writes to different domains never
+ * contend. The matching rules follow the default CookieStore of the JDK: cookies are returned for the
+ * domains matching the host of the URI and secure cookies are only returned for https URIs. Unlike the
+ * default CookieStore, domains only match on label boundaries, i.e. cookies of {@code test.com} are not
+ * returned for {@code xtest.com}.
+ * <p>
+ * Cookies are kept as compact {@link CookieRecord}s and the retrieval methods return new HttpCookie
+ * instances equal to the cookies which were added, with a max age counting down from the time they were
+ * added.
+ * <p>
+ * Cookies with a Max-Age or Expires attribute are scheduled on an {@link ExpiryWheel} which removes them,
+ * from a background thread shared by all stores, within about a second of their expiry. Until then lookups
+ * skip the cookies which have expired.
+ * <p>
+ * The store is bounded by a number of cookies per domain, a total number of cookies and a budget of
+ * estimated heap bytes, by default the limits suggested by RFC 6265 of 50 cookies per domain and 3000
+ * cookies in total. Recency is recorded when cookies are looked up. Adding a cookie to a full domain
+ * evicts the least recently used cookie of that domain, exceeding the total limits evicts the least
+ * recently used cookies of the whole store until it is back below 95% of the limits.
+ */
+public class ConcurrentCookieStore implements VersionedCookieStore {
+
+    /**
+     * The default maximum number of cookies per domain.
+     */
+    public static final int DEFAULT_MAX_COOKIES_PER_DOMAIN = 50;
+    /**
+     * The default maximum number of cookies in the store.
+     */
+    public static final int DEFAULT_MAX_COOKIES = 3000;
+    /**
+     * The default maximum estimated size, in bytes, of the cookies in the store.
+     */
+    public static final long DEFAULT_MAX_BYTES = 8L * 1024 * 1024;
+
+    // The heap bytes of a stored cookie besides its packed fields, including its index entries
+    private static final int STORED_COOKIE_OVERHEAD_BYTES = 96;
+    // Orders cookies from the least to the most recently used
+    private static final Comparator<StoredCookie> LEAST_RECENTLY_USED =
+        Comparator.<StoredCookie>comparingLong(storedCookie -> storedCookie.lastAccess)
+            .thenComparingLong(storedCookie -> storedCookie.created);
+
+    private static final DomainCookies EMPTY = new DomainCookies(new StoredCookie[0]);
+    // Marks the cookies of a domain which has been removed from the index and must no longer be written to
+    private static final DomainCookies DETACHED = new DomainCookies(new StoredCookie[0]);
+
+    // The cookies indexed by domain
+    private final DomainTrie<DomainCookies> domains = new DomainTrie<>(EMPTY, DETACHED);
+    // The number of modifications made to the store
+    private final AtomicLong version = new AtomicLong();
+    // The expiry of the stored cookies which have a Max-Age or Expires attribute
+    private final ExpiryWheel expiryWheel = new ExpiryWheel(System.currentTimeMillis(), this::expire);
+    // The periodic task advancing the expiry wheel, started once the first expiring cookie is stored
+    private final AtomicReference<ScheduledFuture<?>> expiryTask = new AtomicReference<>();
+    // The number of cookies removed because they expired
+    private final LongAdder expiredCount = new LongAdder();
+    // The number of cookies deleted by the server sending an already expired cookie
+    private final LongAdder purgedCount = new LongAdder();
+    // The number of cookies evicted to add a cookie to a full domain
+    private final LongAdder domainEvictedCount = new LongAdder();
+    // The number of cookies evicted, or rejected, to keep the store within its total limits
+    private final LongAdder capacityEvictedCount = new LongAdder();
+    // The number of cookies in the store
+    private final AtomicInteger cookieCount = new AtomicInteger();
+    // The estimated size of the cookies in the store
+    private final AtomicLong byteCount = new AtomicLong();
+    // Serializes the eviction of cookies beyond the total limits
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final int maxCookiesPerDomain;
+    private final int maxCookies;
+    private final long maxBytes;
+
+    /**
+     * Create a new, empty, ConcurrentCookieStore bounded by the default limits.
+     */
+    public ConcurrentCookieStore() {
+        this(DEFAULT_MAX_COOKIES_PER_DOMAIN, DEFAULT_MAX_COOKIES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Create a new, empty, ConcurrentCookieStore bounded by the specified limits.
+     *
+     * @param maxCookiesPerDomain the maximum number of cookies of a single domain.
+     * @param maxCookies the maximum number of cookies in the store.
+     * @param maxBytes the maximum estimated heap size, in bytes, of the cookies in the store.
+     */
+    public ConcurrentCookieStore(final int maxCookiesPerDomain, final int maxCookies, final long maxBytes) {
+        if (maxCookiesPerDomain <= 0) {
+            throw new IllegalArgumentException("maxCookiesPerDomain must be positive: " + maxCookiesPerDomain);
+        }
+        if (maxCookies <= 0) {
+            throw new IllegalArgumentException("maxCookies must be positive: " + maxCookies);
+        }
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.maxCookiesPerDomain = maxCookiesPerDomain;
+        this.maxCookies = maxCookies;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * @return true, expired cookies are removed by the store and change its version.
+     */
+    @Override
+    public boolean removesExpiredCookies() {
+        return true;
+    }
+
+    /**
+     * @return a snapshot of the counters of the store.
+     */
+    public CookieStoreStats stats() {
+        return new CookieStoreStats(expiredCount.sum(), purgedCount.sum(), domainEvictedCount.sum(),
+            capacityEvictedCount.sum(), cookieCount.get(), byteCount.get());
+    }
+
+    @Override
+    public void add(final URI uri, final HttpCookie cookie) {
+        if (cookie == null) {
+            throw new NullPointerException("cookie is null");
+        }
+        final String host = uri == null ? null : uri.getHost();
+        final String domain = indexDomain(cookie, host);
+        if (cookie.getMaxAge() == 0) {
+            // an expired cookie removes the stored one
+            final DomainTrie.Node<DomainCookies> node = domains.find(domain);
+            if (node != null && remove(node, cookie)) {
+                purgedCount.increment();
+            }
+            return;
+        }
+        DomainTrie.Node<DomainCookies> node = domains.findOrCreate(domain);
+        final StoredCookie storedCookie = new StoredCookie(cookie, System.currentTimeMillis(),
+            sharedDomain(node.value(), cookie.getDomain()), host, version.get());
+        if (storedCookie.size() > maxBytes) {
+            // the cookie alone exceeds the budget of the store
+            capacityEvictedCount.increment();
+            domains.prune(node);
+            return;
+        }
+        while (true) {
+            final DomainCookies current = node.value();
+            if (domains.isDetached(current)) {
+                // the domain was removed from the index since it was retrieved
+                node = domains.findOrCreate(domain);
+                continue;
+            }
+            final int index = current.indexOf(cookie);
+            // a cookie added to a full domain takes the place of its least recently used cookie
+            final int victim = index < 0 && current.cookies.length >= maxCookiesPerDomain
+                ? current.leastRecentlyUsed() : -1;
+            if (node.compareAndSet(current, current.with(index >= 0 ? index : victim, storedCookie))) {
+                version.incrementAndGet();
+                cookieCount.incrementAndGet();
+                byteCount.addAndGet(storedCookie.size());
+                if (index >= 0) {
+                    release(current.cookies[index]);
+                } else if (victim >= 0) {
+                    release(current.cookies[victim]);
+                    domainEvictedCount.increment();
+                }
+                if (storedCookie.expiresAt() != Long.MAX_VALUE) {
+                    scheduleExpiry(storedCookie);
+                }
+                if (cookieCount.get() > maxCookies || byteCount.get() > maxBytes) {
+                    evictLeastRecentlyUsed();
+                }
+                return;
+            }
+        }
+    }
+
+    @Override
+    public List<HttpCookie> get(final URI uri) {
+        if (uri == null) {
+            throw new NullPointerException("uri is null");
+        }
+        final String host = uri.getHost();
+        if (host == null) {
+            return Collections.emptyList();
+        }
+        final boolean secureLink = "https".equalsIgnoreCase(uri.getScheme());
+        final String normalizedHost = DomainTrie.normalize(host);
+        final long accessVersion = version.get();
+        final long nowMillis = System.currentTimeMillis();
+
+        List<HttpCookie> cookies = null;
+        for (final DomainTrie.Node<DomainCookies> node : candidateNodes(normalizedHost)) {
+            for (final StoredCookie storedCookie : node.value().cookies) {
+                if ((secureLink || !storedCookie.isSecure()) && storedCookie.expiresAt() > nowMillis
+                    && storedCookie.matches(normalizedHost)) {
+                    storedCookie.touch(accessVersion);
+                    if (cookies == null) {
+                        cookies = new ArrayList<>();
+                    }
+                    cookies.add(storedCookie.toHttpCookie(nowMillis));
+                }
+            }
+        }
+        return cookies == null ? Collections.emptyList() : cookies;
+    }
+
+    /**
+     * Retrieves the cookies matching the domain as {@link #get(URI)} does and whose path is a prefix of the
+     * path of the uri. Cookie paths are looked up in the {@link PathIndex} of each matching domain.
+     */
+    @Override
+    public List<HttpCookie> getMatching(final URI uri) {
+        if (uri == null) {
+            throw new NullPointerException("uri is null");
+        }
+        final String host = uri.getHost();
+        if (host == null) {
+            return Collections.emptyList();
+        }
+        final boolean secureLink = "https".equalsIgnoreCase(uri.getScheme());
+        final String normalizedHost = DomainTrie.normalize(host);
+        final String path = CookieHeaders.requestPath(uri);
+        final long accessVersion = version.get();
+        final long nowMillis = System.currentTimeMillis();
+
+        final List<HttpCookie> cookies = new ArrayList<>();
+        for (final DomainTrie.Node<DomainCookies> node : candidateNodes(normalizedHost)) {
+            node.value().paths.forEachMatch(path, storedCookie -> {
+                if ((secureLink || !storedCookie.isSecure()) && storedCookie.expiresAt() > nowMillis
+                    && storedCookie.matches(normalizedHost)) {
+                    storedCookie.touch(accessVersion);
+                    cookies.add(storedCookie.toHttpCookie(nowMillis));
+                }
+            });
+        }
+        return cookies;
+    }
+
+    @Override
+    public List<HttpCookie> getCookies() {
+        final List<HttpCookie> cookies = new ArrayList<>();
+        final long nowMillis = System.currentTimeMillis();
+        domains.forEach(node -> {
+            for (final StoredCookie storedCookie : node.value().cookies) {
+                if (storedCookie.expiresAt() > nowMillis) {
+                    cookies.add(storedCookie.toHttpCookie(nowMillis));
+                }
+            }
+        });
+        return Collections.unmodifiableList(cookies);
+    }
+
+    @Override
+    public List<URI> getURIs() {
+        final Set<String> hosts = new LinkedHashSet<>();
+        final long nowMillis = System.currentTimeMillis();
+        domains.forEach(node -> {
+            for (final StoredCookie storedCookie : node.value().cookies) {
+                if (storedCookie.host != null && storedCookie.expiresAt() > nowMillis) {
+                    hosts.add(storedCookie.host);
+                }
+            }
+        });
+        final List<URI> uris = new ArrayList<>(hosts.size());
+        for (final String host : hosts) {
+            final URI uri = effectiveUri(host);
+            if (uri != null) {
+                uris.add(uri);
+            }
+        }
+        return Collections.unmodifiableList(uris);
+    }
+
+    /**
+     * Visits the stored cookies along with the host they were received from, which may be null.
+     */
+    void forEachCookie(final BiConsumer<String, HttpCookie> action) {
+        final long nowMillis = System.currentTimeMillis();
+        domains.forEach(node -> {
+            for (final StoredCookie storedCookie : node.value().cookies) {
+                if (storedCookie.expiresAt() > nowMillis) {
+                    action.accept(storedCookie.host, storedCookie.toHttpCookie(nowMillis));
+                }
+            }
+        });
+    }
+
+    /**
+     * Whether adding the cookie would leave the store unchanged, i.e. the store holds an equal cookie received
+     * from the same host which expires within a second of the cookie. The lookup takes no lock.
+     */
+    boolean contains(final URI uri, final HttpCookie cookie) {
+        if (cookie.getMaxAge() == 0) {
+            return false;
+        }
+        final String host = uri == null ? null : uri.getHost();
+        final DomainTrie.Node<DomainCookies> node = domains.find(indexDomain(cookie, host));
+        if (node == null) {
+            return false;
+        }
+        final DomainCookies current = node.value();
+        final int index = current.indexOf(cookie);
+        if (index < 0) {
+            return false;
+        }
+        final StoredCookie storedCookie = current.cookies[index];
+        final long nowMillis = System.currentTimeMillis();
+        return Objects.equals(storedCookie.host, host) && storedCookie.expiresAt() > nowMillis
+            && storedCookie.isUnchangedBy(cookie, nowMillis);
+    }
+
+    @Override
+    public boolean remove(final URI uri, final HttpCookie cookie) {
+        if (cookie == null) {
+            throw new NullPointerException("cookie is null");
+        }
+        if (cookie.getDomain() != null || uri != null) {
+            final DomainTrie.Node<DomainCookies> node = domains.find(indexDomain(cookie, uri == null ? null : uri.getHost()));
+            return node != null && remove(node, cookie);
+        }
+        final boolean[] modified = {false};
+        domains.forEach(node -> modified[0] |= remove(node, cookie));
+        return modified[0];
+    }
+
+    @Override
+    public boolean removeAll() {
+        final boolean[] modified = {false};
+        domains.forEach(node -> {
+            while (true) {
+                final DomainCookies current = node.value();
+                if (current.cookies.length == 0) {
+                    break;
+                }
+                if (node.compareAndSet(current, EMPTY)) {
+                    modified[0] = true;
+                    for (final StoredCookie storedCookie : current.cookies) {
+                        release(storedCookie);
+                    }
+                    domains.prune(node);
+                    break;
+                }
+            }
+        });
+        if (modified[0]) {
+            version.incrementAndGet();
+        }
+        return modified[0];
+    }
+
+    private List<DomainTrie.Node<DomainCookies>> candidateNodes(final String host) {
+        final List<DomainTrie.Node<DomainCookies>> nodes = domains.path(host);
+        if (host.indexOf('.') == -1) {
+            // cookies of hosts without dots are stored under the .local domain
+            nodes.addAll(domains.path(host + ".local"));
+        }
+        return nodes;
+    }
+
+    private boolean remove(final DomainTrie.Node<DomainCookies> node, final HttpCookie cookie) {
+        while (true) {
+            final DomainCookies current = node.value();
+            final int index = current.indexOf(cookie);
+            if (index < 0) {
+                return false;
+            }
+            final DomainCookies updated = current.without(index);
+            if (node.compareAndSet(current, updated)) {
+                version.incrementAndGet();
+                release(current.cookies[index]);
+                if (updated.cookies.length == 0) {
+                    domains.prune(node);
+                }
+                return true;
+            }
+        }
+    }
+
+    private void scheduleExpiry(final StoredCookie storedCookie) {
+        expiryWheel.schedule(storedCookie);
+        if (expiryTask.get() == null) {
+            final ScheduledFuture<?> task = ExpiryScheduler.schedule(this, ConcurrentCookieStore::expireCookies);
+            if (!expiryTask.compareAndSet(null, task)) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Removes the cookies which expired at or before the specified time.
+     */
+    synchronized void expireCookies(final long nowMillis) {
+        expiryWheel.advance(nowMillis);
+    }
+
+    private void expire(final ExpiryWheel.Entry entry) {
+        if (remove((StoredCookie) entry)) {
+            expiredCount.increment();
+        }
+    }
+
+    /**
+     * Evicts the least recently used cookies of the store until it is back below 95% of its limits.
+     * Threads which find another thread evicting rely on it instead of waiting.
+     */
+    private void evictLeastRecentlyUsed() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            final List<StoredCookie> candidates = new ArrayList<>(cookieCount.get());
+            domains.forEach(node -> Collections.addAll(candidates, node.value().cookies));
+            candidates.sort(LEAST_RECENTLY_USED);
+            final int targetCookies = maxCookies - maxCookies / 20;
+            final long targetBytes = maxBytes - maxBytes / 20;
+            for (final StoredCookie storedCookie : candidates) {
+                if (cookieCount.get() <= targetCookies && byteCount.get() <= targetBytes) {
+                    break;
+                }
+                if (remove(storedCookie)) {
+                    capacityEvictedCount.increment();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the stored cookie instance, unless it has already been replaced or removed.
+     */
+    private boolean remove(final StoredCookie storedCookie) {
+        final DomainTrie.Node<DomainCookies> node = domains.find(storedCookie.indexDomain());
+        if (node == null) {
+            return false;
+        }
+        while (true) {
+            final DomainCookies current = node.value();
+            final int index = current.identityIndexOf(storedCookie);
+            if (index < 0) {
+                return false;
+            }
+            final DomainCookies updated = current.without(index);
+            if (node.compareAndSet(current, updated)) {
+                version.incrementAndGet();
+                release(storedCookie);
+                if (updated.cookies.length == 0) {
+                    domains.prune(node);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Accounts for a cookie which is no longer stored.
+     */
+    private void release(final StoredCookie storedCookie) {
+        expiryWheel.cancel(storedCookie);
+        cookieCount.decrementAndGet();
+        byteCount.addAndGet(-storedCookie.size());
+    }
+
+    /**
+     * Retrieves the instance of the domain attribute already held by the cookies of a domain, so that the
+     * cookies of a domain share a single String.
+     */
+    private static String sharedDomain(final DomainCookies current, final String domain) {
+        if (domain != null) {
+            for (final StoredCookie storedCookie : current.cookies) {
+                if (domain.equals(storedCookie.domain)) {
+                    return storedCookie.domain;
+                }
+            }
+        }
+        return domain;
+    }
+
+    /**
+     * Cookies without a domain are indexed under the host they were received from.
+     */
+    private static String indexDomain(final HttpCookie cookie, final String host) {
+        final String domain = cookie.getDomain();
+        return DomainTrie.normalize(domain == null ? host : domain);
+    }
+
+    /**
+     * The effective URI of a cookie only retains the host of the URI it was received from.
+     */
+    private static URI effectiveUri(final String host) {
+        try {
+            return new URI("http", host, null, null, null);
+        } catch (final URISyntaxException ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * The domain-match rules of the default CookieStore, Netscape cookies use a more lenient suffix
+     * match than RFC 2965 cookies.
+     */
+    static boolean domainMatches(final int version, final String domain, final String host) {
+        if (version == 0) {
+            return netscapeDomainMatches(domain, host);
+        }
+        return HttpCookie.domainMatches(domain, host);
+    }
+
+    private static boolean netscapeDomainMatches(final String domain, final String host) {
+        if (domain == null || host == null) {
+            return false;
+        }
+        // if there's no embedded dot in domain and domain is not .local
+        final boolean isLocalDomain = ".local".equalsIgnoreCase(domain);
+        int embeddedDotInDomain = domain.indexOf('.');
+        if (embeddedDotInDomain == 0) {
+            embeddedDotInDomain = domain.indexOf('.', 1);
+        }
+        if (!isLocalDomain && (embeddedDotInDomain == -1 || embeddedDotInDomain == domain.length() - 1)) {
+            return false;
+        }
+        // if the host name contains no dot and the domain name is .local
+        if (host.indexOf('.') == -1 && isLocalDomain) {
+            return true;
+        }
+        final int lengthDiff = host.length() - domain.length();
+        if (lengthDiff == 0) {
+            return host.equalsIgnoreCase(domain);
+        } else if (lengthDiff > 0) {
+            return host.regionMatches(true, lengthDiff, domain, 0, domain.length());
+        } else if (lengthDiff == -1) {
+            // if domain is actually .host
+            return domain.charAt(0) == '.' && domain.regionMatches(true, 1, host, 0, host.length());
+        }
+        return false;
+    }
+
+    /**
+     * A cookie record along with its domain attribute, the host it was received from and the store versions
+     * it was created and last looked up at.
+     */
+    private static final class StoredCookie extends CookieRecord {
+
+        // The domain attribute, shared by the cookies of a domain, or null for host-only cookies
+        private final String domain;
+        // The host the cookie was received from, shared with the URI of the request
+        private final String host;
+        private final long created;
+        private volatile long lastAccess;
+
+        private StoredCookie(final HttpCookie cookie, final long nowMillis, final String domain,
+                             final String host, final long created) {
+            super(cookie, nowMillis);
+            this.domain = domain;
+            this.host = host;
+            this.created = created;
+            this.lastAccess = created;
+        }
+
+        private String indexDomain() {
+            return DomainTrie.normalize(domain == null ? host : domain);
+        }
+
+        private long size() {
+            return STORED_COOKIE_OVERHEAD_BYTES + dataLength();
+        }
+
+        private HttpCookie toHttpCookie(final long nowMillis) {
+            return toHttpCookie(domain, nowMillis);
+        }
+
+        /**
+         * Records a lookup, the field is only written once per store version to keep readers from
+         * contending on it.
+         */
+        private void touch(final long accessVersion) {
+            if (lastAccess < accessVersion) {
+                lastAccess = accessVersion;
+            }
+        }
+
+        private boolean matches(final String host) {
+            if (domainMatches(version(), domain, host)) {
+                return true;
+            }
+            // cookies are also returned for the host they were received from
+            return this.host != null && host.equalsIgnoreCase(this.host);
+        }
+    }
+
+    /**
+     * The cookies of a single domain, in the order they were created, along with their path index.
+     */
+    private static final class DomainCookies {
+
+        private final StoredCookie[] cookies;
+        private final PathIndex<StoredCookie> paths;
+
+        private DomainCookies(final StoredCookie[] cookies) {
+            this.cookies = cookies;
+            this.paths = PathIndex.of(cookies, CookieRecord::path);
+        }
+
+        private int indexOf(final HttpCookie cookie) {
+            for (int i = 0; i < cookies.length; i++) {
+                final String domain = cookies[i].domain;
+                if ((domain == null ? cookie.getDomain() == null : domain.equalsIgnoreCase(cookie.getDomain()))
+                    && cookies[i].hasNameAndPath(cookie)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int leastRecentlyUsed() {
+            int victim = 0;
+            for (int i = 1; i < cookies.length; i++) {
+                if (LEAST_RECENTLY_USED.compare(cookies[i], cookies[victim]) < 0) {
+                    victim = i;
+                }
+            }
+            return victim;
+        }
+
+        private int identityIndexOf(final StoredCookie storedCookie) {
+            for (int i = 0; i < cookies.length; i++) {
+                if (cookies[i] == storedCookie) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Adds the cookie, replacing the equal stored cookie at the index which moves to the end as the
+         * most recent one.
+         */
+        private DomainCookies with(final int index, final StoredCookie storedCookie) {
+            final StoredCookie[] retained = index < 0 ? cookies : without(index).cookies;
+            final StoredCookie[] updated = Arrays.copyOf(retained, retained.length + 1);
+            updated[retained.length] = storedCookie;
+            return new DomainCookies(updated);
+        }
+
+        private DomainCookies without(final int index) {
+            if (cookies.length == 1) {
+                return EMPTY;
+            }
+            final StoredCookie[] updated = new StoredCookie[cookies.length - 1];
+            System.arraycopy(cookies, 0, updated, 0, index);
+            System.arraycopy(cookies, index + 1, updated, index, cookies.length - index - 1);
+            return new DomainCookies(updated);
+        }
+    }
+}
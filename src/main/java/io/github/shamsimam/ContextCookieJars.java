@@ -0,0 +1,70 @@
+package io.github.shamsimam;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+
+
+/**
+ * Cookie jars scoped to an {@link io.grpc.Context}, e.g. to the inbound request of a server which fans out
+ * to downstream services.
+ * <p>
+ * Calls made through a {@link CookieStoreInterceptor} while a context holding a jar is current use the
+ * cookies of that jar rather than those shared by the whole process. The jar is a small in-memory store
+ * confined to the request, it is dropped along with its cookies when the context is cancelled, e.g. once
+ * the inbound call completes. Calls selecting a tenant with {@link CookieJarRegistry#TENANT_KEY} keep using
+ * the jar of their tenant.
+ */
+public final class ContextCookieJars {
+
+    // The jar of the current context, if any
+    static final Context.Key<CookieJar> JAR_KEY = Context.key("io.github.shamsimam.cookieJar");
+
+    private ContextCookieJars() {
+    }
+
+    /**
+     * Creates a new context holding a new, empty, cookie jar.
+     * <p>
+     * Calls made while the returned context is current use the jar, the jar is dropped when the context
+     * is cancelled.
+     *
+     * @param context the parent context, e.g. {@link Context#current()}
+     * @return the context holding the jar
+     */
+    public static Context withNewJar(final Context context) {
+        final RequestCookieStore cookieStore = new RequestCookieStore();
+        final Context jarContext = context.withValue(JAR_KEY, new CookieJar(new FastCookieManager(cookieStore, null)));
+        jarContext.addListener(cancelledContext -> cookieStore.close(), Runnable::run);
+        return jarContext;
+    }
+
+    /**
+     * Creates a ServerInterceptor which handles each inbound call in a context holding a new cookie jar,
+     * hence the calls made on its behalf share the cookies they receive.
+     *
+     * @return the ServerInterceptor
+     */
+    public static ServerInterceptor newServerInterceptor() {
+        return new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+                final ServerCall<ReqT, RespT> serverCall,
+                final Metadata requestHeaders,
+                final ServerCallHandler<ReqT, RespT> nextHandler) {
+
+                return Contexts.interceptCall(withNewJar(Context.current()), serverCall, requestHeaders, nextHandler);
+            }
+        };
+    }
+
+    /**
+     * @return the jar of the current context, or null if the context holds no jar.
+     */
+    static CookieJar currentJar() {
+        return JAR_KEY.get();
+    }
+}
@@ -0,0 +1,21 @@
+package io.github.shamsimam;
+
+/**
+ * The guarantee a {@link CookieStoreInterceptor} processing response cookies on an executor gives to the calls
+ * made after a response was received.
+ */
+public enum CookieConsistency {
+
+    /**
+     * Calls do not wait for the cookies of earlier responses to be stored, a call made right after a response
+     * may be sent without the cookies the response set.
+     */
+    EVENTUAL,
+
+    /**
+     * Calls wait for the cookies of the responses received from their authority before they started to be
+     * stored, the waiting thread stores them itself if the executor has not run yet. A call made after a
+     * response was observed, e.g. on the thread of a blocking stub, sends the cookies the response set.
+     */
+    READ_YOUR_WRITES
+}
@@ -0,0 +1,126 @@
+package io.github.shamsimam;
+
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Selects and formats the cookies to forward with a request directly from a CookieStore.
+ * <p>
+ * The rules mirror the ones applied by {@link java.net.CookieManager#get(URI, java.util.Map)}:
+ * the path must match, secure cookies are only sent over https, http-only cookies are only sent
+ * over http(s) and port lists must include the request port. The cookie header values are sorted
+ * with longer paths first, as defined in RFC 6265.
+ * Unlike CookieManager, no map of the request headers is required to perform the selection.
+ */
+final class CookieHeaders {
+
+    // Longer paths precede shorter ones, the sort is stable and preserves the store order otherwise
+    private static final Comparator<HttpCookie> PATH_LENGTH_COMPARATOR =
+        (c1, c2) -> Integer.compare(pathLength(c2), pathLength(c1));
+
+    private CookieHeaders() {
+    }
+
+    /**
+     * Retrieves the cookies from the store which should be sent with a request to the specified uri.
+     *
+     * @param cookieStore the store to retrieve the cookies from
+     * @param uri         the call path URI of the request
+     * @return the matching cookies, sorted in the order they are sent to the server
+     */
+    static List<HttpCookie> select(final CookieStore cookieStore, final URI uri) {
+        final List<HttpCookie> storedCookies = cookieStore instanceof VersionedCookieStore
+            ? ((VersionedCookieStore) cookieStore).getMatching(uri)
+            : cookieStore.get(uri);
+        if (storedCookies.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final String scheme = uri.getScheme();
+        final boolean secureLink = "https".equalsIgnoreCase(scheme);
+        final boolean httpLink = secureLink || "http".equalsIgnoreCase(scheme);
+        final String path = requestPath(uri);
+
+        List<HttpCookie> cookies = null;
+        for (final HttpCookie cookie : storedCookies) {
+            if (matches(cookie, path, secureLink, httpLink) && portMatches(cookie, uri)) {
+                if (cookies == null) {
+                    cookies = new ArrayList<>(storedCookies.size());
+                }
+                cookies.add(cookie);
+            }
+        }
+        if (cookies == null) {
+            return Collections.emptyList();
+        }
+        if (cookies.size() > 1) {
+            cookies.sort(PATH_LENGTH_COMPARATOR);
+        }
+        return cookies;
+    }
+
+    /**
+     * Formats the cookies as the values of the cookie request header.
+     *
+     * @param cookies the cookies in the order returned by {@link #select(CookieStore, URI)}
+     * @return the header values, one entry per cookie
+     */
+    static String[] render(final List<HttpCookie> cookies) {
+        if (cookies.isEmpty()) {
+            return new String[0];
+        }
+        // RFC 2965 requires a leading $Version="1" string while the Netscape cookie spec does not
+        final int offset = cookies.get(0).getVersion() > 0 ? 1 : 0;
+        final String[] headerValues = new String[cookies.size() + offset];
+        if (offset > 0) {
+            headerValues[0] = "$Version=\"1\"";
+        }
+        for (int i = 0; i < cookies.size(); i++) {
+            headerValues[i + offset] = cookies.get(i).toString();
+        }
+        return headerValues;
+    }
+
+    static String requestPath(final URI uri) {
+        final String path = uri.getPath();
+        return path == null || path.isEmpty() ? "/" : path;
+    }
+
+    private static boolean matches(
+        final HttpCookie cookie, final String path, final boolean secureLink, final boolean httpLink) {
+        final String cookiePath = cookie.getPath();
+        return cookiePath != null && path.startsWith(cookiePath)
+            && (secureLink || !cookie.getSecure())
+            && (httpLink || !cookie.isHttpOnly());
+    }
+
+    private static boolean portMatches(final HttpCookie cookie, final URI uri) {
+        final String ports = cookie.getPortlist();
+        if (ports == null || ports.isEmpty()) {
+            return true;
+        }
+        int port = uri.getPort();
+        if (port == -1) {
+            port = "https".equals(uri.getScheme()) ? 443 : 80;
+        }
+        for (final String portEntry : ports.split(",")) {
+            try {
+                if (Integer.parseInt(portEntry) == port) {
+                    return true;
+                }
+            } catch (final NumberFormatException ignored) {
+                // malformed entries never match, as in CookieManager
+            }
+        }
+        return false;
+    }
+
+    private static int pathLength(final HttpCookie cookie) {
+        final String path = cookie.getPath();
+        return path == null ? 0 : path.length();
+    }
+}
@@ -0,0 +1,112 @@
+package io.github.shamsimam;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the tasks storing the cookies of responses on an executor, the tasks of an authority run one at a
+ * time in the order they were submitted.
+ * <p>
+ * The tasks of an authority are queued and drained while holding the lock of the queue, hence a thread
+ * awaiting the tasks can drain the queue itself when the executor has not run them yet, e.g. because it is
+ * busy, rather than waiting for the executor.
+ */
+final class CookieIngestionQueues {
+
+    private static final Logger logger = Logger.getLogger(CookieIngestionQueues.class.getName());
+
+    // The executor draining the queues
+    private final Executor executor;
+    // The queues indexed by authority, the authorities of a channel are few
+    private final ConcurrentMap<String, TaskQueue> queues = new ConcurrentHashMap<>();
+
+    CookieIngestionQueues(final Executor executor) {
+        if (executor == null) {
+            throw new NullPointerException("executor is null");
+        }
+        this.executor = executor;
+    }
+
+    /**
+     * Queues a task which runs after the tasks submitted earlier for the authority.
+     */
+    void submit(final String authority, final Runnable task) {
+        queues.computeIfAbsent(authority, key -> new TaskQueue()).submit(task);
+    }
+
+    /**
+     * Returns once the tasks submitted for the authority before the method was invoked have run, the tasks
+     * which the executor has not started yet are run by the current thread.
+     */
+    void awaitSubmitted(final String authority) {
+        final TaskQueue queue = queues.get(authority);
+        if (queue != null) {
+            queue.await();
+        }
+    }
+
+    private final class TaskQueue {
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // Held while tasks are polled and run
+        private final ReentrantLock drainLock = new ReentrantLock();
+        // Whether a drain was handed to the executor and has not started yet
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        // The number of tasks submitted
+        private final AtomicLong submitted = new AtomicLong();
+        // The number of tasks run, only written while the lock is held
+        private volatile long completed;
+
+        private void submit(final Runnable task) {
+            tasks.add(task);
+            submitted.incrementAndGet();
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this::drainScheduled);
+                } catch (final RejectedExecutionException ex) {
+                    // a shut down or saturated executor leaves the task to the current thread
+                    drainScheduled();
+                }
+            }
+        }
+
+        private void drainScheduled() {
+            scheduled.set(false);
+            drain(Long.MAX_VALUE);
+        }
+
+        private void await() {
+            // the tasks counted as submitted are already queued, the later ones are left to the executor
+            final long target = submitted.get();
+            if (completed < target) {
+                drain(target);
+            }
+        }
+
+        private void drain(final long target) {
+            drainLock.lock();
+            try {
+                Runnable task;
+                while (completed < target && (task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (final Throwable th) {
+                        logger.log(Level.SEVERE, "error in processing cookies", th);
+                    }
+                    completed++;
+                }
+            } finally {
+                drainLock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package io.github.shamsimam;
+
+import io.grpc.Metadata;
+import io.grpc.Metadata.Key;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.CookieStore;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The cookies of one client identity, i.e. a CookieManager along with the means to read its store
+ * efficiently, which adds cookies to requests and stores the cookies of responses.
+ */
+final class CookieJar {
+
+    private static final Logger logger = Logger.getLogger(CookieJar.class.getName());
+
+    private static final Key<String> COOKIE_KEY = Key.of("cookie", Metadata.ASCII_STRING_MARSHALLER);
+
+    // The CookieManager used to store and filter cookies
+    private final CookieManager cookieManager;
+    // The CookieStore read directly when the CookieManager is not customized, null otherwise
+    private final CookieStore directCookieStore;
+    // The cookie headers rendered per call path when the direct CookieStore is versioned, null otherwise
+    private final RenderedCookieCache renderedCookieCache;
+    // The time, in milliseconds since the epoch, the jar was last used by a call
+    private volatile long lastAccessMillis;
+    // The number of calls in flight which retrieved the jar from a registry
+    private final AtomicInteger callCount = new AtomicInteger();
+
+    CookieJar(final CookieManager cookieManager) {
+        this.cookieManager = cookieManager;
+        this.directCookieStore = supportsDirectStoreAccess(cookieManager) ? cookieManager.getCookieStore() : null;
+        this.renderedCookieCache = directCookieStore instanceof VersionedCookieStore
+            ? new RenderedCookieCache((VersionedCookieStore) directCookieStore, CallPathCache.DEFAULT_MAXIMUM_SIZE)
+            : null;
+        this.lastAccessMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Whether cookies can be read straight from the CookieStore of the CookieManager.
+     * <p>
+     * The stock CookieManager, and the FastCookieManager, ignore the request headers they are given, hence the
+     * map of request headers required by the CookieHandler API need not be built. Subclasses may rely on the
+     * request headers, in which case the CookieHandler API is used. A CombiningCookieManager retrieves cookies
+     * as the CookieManager it wraps.
+     */
+    private static boolean supportsDirectStoreAccess(final CookieManager cookieManager) {
+        if (cookieManager instanceof CombiningCookieManager) {
+            return supportsDirectStoreAccess(((CombiningCookieManager) cookieManager).cookieManager());
+        }
+        return (cookieManager.getClass() == CookieManager.class || cookieManager instanceof FastCookieManager)
+            && cookieManager.getCookieStore() != null;
+    }
+
+    CookieManager cookieManager() {
+        return cookieManager;
+    }
+
+    long lastAccessMillis() {
+        return lastAccessMillis;
+    }
+
+    /**
+     * Closes the CookieStore of the jar if it holds resources, e.g. the blocks of an {@link OffHeapCookieStore},
+     * once the jar can no longer be used by new calls.
+     */
+    void close() {
+        final CookieStore cookieStore = cookieManager.getCookieStore();
+        if (cookieStore instanceof Closeable) {
+            try {
+                ((Closeable) cookieStore).close();
+            } catch (final IOException ex) {
+                logger.log(Level.SEVERE, "error in closing cookie store", ex);
+            }
+        }
+    }
+
+    void callStarted() {
+        callCount.incrementAndGet();
+    }
+
+    void callEnded() {
+        callCount.decrementAndGet();
+    }
+
+    /**
+     * Whether calls in flight use the jar, which must then not be closed.
+     */
+    boolean hasCalls() {
+        return callCount.get() > 0;
+    }
+
+    /**
+     * Records a use of the jar, the field is only written once per second to keep calls from contending on it.
+     */
+    void touch(final long nowMillis) {
+        if (nowMillis - lastAccessMillis >= 1000) {
+            lastAccessMillis = nowMillis;
+        }
+    }
+
+    void addRequestCookies(final URI callPathUri, final Metadata requestHeaders) {
+        if (directCookieStore != null) {
+            addStoreCookies(callPathUri, requestHeaders);
+            return;
+        }
+        final Map<String, List<String>> httpCookies = getCookies(callPathUri, requestHeaders);
+        if (!httpCookies.isEmpty()) {
+            for (final Map.Entry<String, List<String>> entry : httpCookies.entrySet()) {
+                final String headerKey = entry.getKey();
+                final List<String> headerValues = entry.getValue();
+                if (headerValues != null) {
+                    final Key<String> metadataKey = Key.of(headerKey, Metadata.ASCII_STRING_MARSHALLER);
+                    for (final String headerValue : headerValues) {
+                        requestHeaders.put(metadataKey, headerValue);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the cookies of every Set-Cookie header of the response with a single put, servers may send
+     * several headers in one response.
+     */
+    void processResponseCookies(final URI callPathUri, final Metadata responseHeaders) {
+        Map<String, List<String>> headers = null;
+        for (final Key<String> headerKey : CookieStoreInterceptor.SET_COOKIE_KEYS) {
+            final List<String> headerValues = headerValues(responseHeaders, headerKey);
+            if (headerValues == null) {
+                continue;
+            }
+            if (headers == null) {
+                headers = Collections.singletonMap(headerKey.originalName(), headerValues);
+            } else {
+                // responses rarely carry both set-cookie and set-cookie2 headers
+                headers = new LinkedHashMap<>(headers);
+                headers.put(headerKey.originalName(), headerValues);
+            }
+        }
+        if (headers != null) {
+            try {
+                cookieManager.put(callPathUri, headers);
+            } catch (final Throwable th) {
+                logger.log(Level.SEVERE, "error is parsing cookies", th);
+            }
+        }
+    }
+
+    /**
+     * @return the values of the header, or null if the response has none.
+     */
+    private static List<String> headerValues(final Metadata responseHeaders, final Key<String> headerKey) {
+        final Iterable<String> metadataValues = responseHeaders.getAll(headerKey);
+        if (metadataValues == null) {
+            return null;
+        }
+        final Iterator<String> iterator = metadataValues.iterator();
+        final String firstValue = iterator.next();
+        if (!iterator.hasNext()) {
+            return Collections.singletonList(firstValue);
+        }
+        final List<String> headerValues = new ArrayList<>(4);
+        headerValues.add(firstValue);
+        while (iterator.hasNext()) {
+            headerValues.add(iterator.next());
+        }
+        return headerValues;
+    }
+
+    private void addStoreCookies(final URI callPathUri, final Metadata requestHeaders) {
+        try {
+            final String[] headerValues = renderedCookieCache != null
+                ? renderedCookieCache.get(callPathUri)
+                : CookieHeaders.render(CookieHeaders.select(directCookieStore, callPathUri));
+            for (final String headerValue : headerValues) {
+                requestHeaders.put(COOKIE_KEY, headerValue);
+            }
+        } catch (Throwable th) {
+            logger.log(Level.SEVERE, "error in retrieving cookies", th);
+        }
+    }
+
+    private Map<String, List<String>> getCookies(final URI callPathUri, final Metadata requestMetadata) {
+        try {
+            final Set<String> requestMetadataKeys = requestMetadata.keys();
+            final Map<String, List<String>> requestHeaders = new HashMap<>(requestMetadataKeys.size());
+            for (final String key : requestMetadataKeys) {
+                final Key<String> metadataKey = Key.of(key, Metadata.ASCII_STRING_MARSHALLER);
+                final Iterable<String> metadataValues = requestMetadata.getAll(metadataKey);
+                if (metadataValues != null) {
+                    final List<String> headerValues = new ArrayList<>();
+                    for (final String metadataValue : metadataValues) {
+                        if (metadataValue != null) {
+                            headerValues.add(metadataValue);
+                        }
+                    }
+                    requestHeaders.put(key, headerValues);
+                }
+            }
+            return cookieManager.get(callPathUri, requestHeaders);
+        } catch (Throwable th) {
+            logger.log(Level.SEVERE, "error in retrieving cookies", th);
+        }
+        return Collections.emptyMap();
+    }
+}
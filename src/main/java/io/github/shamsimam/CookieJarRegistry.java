@@ -0,0 +1,173 @@
+package io.github.shamsimam;
+
+import io.grpc.CallOptions;
+
+import java.net.CookieManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * The cookie jars of the tenants, e.g. end users, whose calls share a channel and a
+ * {@link CookieStoreInterceptor}.
+ * <p>
+ * Calls select the jar of a tenant with the {@link #TENANT_KEY} call option, e.g.
+ * {@code stub.withOption(CookieJarRegistry.TENANT_KEY, userId)}, calls without the option use the
+ * CookieManager the interceptor was created with. Jars are created on first use and removed once no call
+ * in flight uses them and they have not been used for the idle timeout, along with their cookies, by the
+ * background thread which expires cookies. The stores of removed jars are closed if they are
+ * {@link java.io.Closeable}, e.g. an {@link OffHeapCookieStore} then returns its blocks to its arena.
+ */
+public final class CookieJarRegistry {
+
+    /**
+     * The call option naming the tenant whose cookie jar is used by a call.
+     */
+    public static final CallOptions.Key<String> TENANT_KEY =
+        CallOptions.Key.createWithDefault("io.github.shamsimam.cookieJarTenant", null);
+
+    /**
+     * The default time after which unused jars are removed.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MINUTES = 30;
+
+    // The jars by tenant
+    private final ConcurrentMap<String, CookieJar> jars = new ConcurrentHashMap<>();
+    // Creates the CookieManager of a new jar
+    private final Supplier<CookieManager> cookieManagerFactory;
+    private final long idleTimeoutMillis;
+    // The time, in milliseconds since the epoch, idle jars are next looked for
+    private long nextEvictionMillis;
+    // The periodic task removing idle jars, started once the first jar is created
+    private final AtomicReference<ScheduledFuture<?>> evictionTask = new AtomicReference<>();
+
+    /**
+     * Create a new CookieJarRegistry whose jars use a {@link ConcurrentCookieStore} and the default accept
+     * policy, and are removed after the default idle timeout.
+     */
+    public CookieJarRegistry() {
+        this(FastCookieManager::new,
+            DEFAULT_IDLE_TIMEOUT_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Create a new CookieJarRegistry.
+     *
+     * @param cookieManagerFactory creates the CookieManager of each jar.
+     * @param idleTimeout          the time after which unused jars are removed.
+     * @param unit                 the unit of the idle timeout.
+     */
+    public CookieJarRegistry(final Supplier<CookieManager> cookieManagerFactory,
+                             final long idleTimeout, final TimeUnit unit) {
+        if (idleTimeout <= 0) {
+            throw new IllegalArgumentException("idleTimeout must be positive: " + idleTimeout);
+        }
+        this.cookieManagerFactory = cookieManagerFactory;
+        this.idleTimeoutMillis = unit.toMillis(idleTimeout);
+    }
+
+    /**
+     * @return the CookieManager of the tenant or null if the tenant has no jar.
+     */
+    public CookieManager cookieManager(final String tenant) {
+        final CookieJar jar = jars.get(tenant);
+        return jar == null ? null : jar.cookieManager();
+    }
+
+    /**
+     * Removes the jar of the tenant along with its cookies, closing its store.
+     *
+     * @return true if the tenant had a jar.
+     */
+    public boolean remove(final String tenant) {
+        final CookieJar jar = jars.remove(tenant);
+        if (jar == null) {
+            return false;
+        }
+        jar.close();
+        return true;
+    }
+
+    /**
+     * @return the number of jars in the registry.
+     */
+    public int size() {
+        return jars.size();
+    }
+
+    /**
+     * Retrieves the jar of the tenant, creating it as needed, and records its use.
+     */
+    CookieJar jar(final String tenant, final long nowMillis) {
+        return retrieveJar(tenant, nowMillis, false);
+    }
+
+    /**
+     * Retrieves the jar of the tenant for a call, creating it as needed, the jar is not removed until the call
+     * {@link #endCall(CookieJar, long) ends}.
+     */
+    CookieJar startCall(final String tenant, final long nowMillis) {
+        return retrieveJar(tenant, nowMillis, true);
+    }
+
+    /**
+     * Records the end of a call started with {@link #startCall(String, long)}, the jar becomes idle once it has
+     * no other call.
+     */
+    void endCall(final CookieJar jar, final long nowMillis) {
+        jar.touch(nowMillis);
+        jar.callEnded();
+    }
+
+    private CookieJar retrieveJar(final String tenant, final long nowMillis, final boolean callStarted) {
+        // the use is recorded while the entry is locked, hence an eviction either precedes it or sees it
+        final CookieJar jar = jars.compute(tenant, (key, currentJar) -> {
+            final CookieJar tenantJar = currentJar == null ? new CookieJar(cookieManagerFactory.get()) : currentJar;
+            tenantJar.touch(nowMillis);
+            if (callStarted) {
+                tenantJar.callStarted();
+            }
+            return tenantJar;
+        });
+        if (evictionTask.get() == null) {
+            final ScheduledFuture<?> task = ExpiryScheduler.schedule(this, CookieJarRegistry::evictIdleJars);
+            if (!evictionTask.compareAndSet(null, task)) {
+                task.cancel(false);
+            }
+        }
+        return jar;
+    }
+
+    /**
+     * Removes the jars which no call in flight uses and which have not been used since the idle timeout before
+     * the specified time.
+     */
+    synchronized void evictIdleJars(final long nowMillis) {
+        if (nowMillis < nextEvictionMillis) {
+            return;
+        }
+        // jars are looked for ten times per idle timeout, they are removed within 110% of the timeout
+        nextEvictionMillis = nowMillis + Math.max(ExpiryScheduler.TICK_MILLIS, idleTimeoutMillis / 10);
+        final long idleSinceMillis = nowMillis - idleTimeoutMillis;
+        final List<CookieJar> evictedJars = new ArrayList<>();
+        for (final String tenant : jars.keySet()) {
+            // jars used concurrently are retained
+            jars.computeIfPresent(tenant, (key, jar) -> {
+                if (!jar.hasCalls() && jar.lastAccessMillis() < idleSinceMillis) {
+                    evictedJars.add(jar);
+                    return null;
+                }
+                return jar;
+            });
+        }
+        // the evicted jars are no longer handed out to new calls
+        for (final CookieJar jar : evictedJars) {
+            jar.close();
+        }
+    }
+}
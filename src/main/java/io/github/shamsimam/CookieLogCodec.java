@@ -0,0 +1,153 @@
+package io.github.shamsimam;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.zip.CRC32;
+
+/**
+ * The encoding of the modifications of a CookieStore as records, shared by the stores which persist or
+ * share their modifications.
+ * <p>
+ * A record holds the operation and, unless all cookies are removed, the host the cookie was received from,
+ * its domain attribute and the packed fields of its {@link CookieRecord}, including its expiry time.
+ */
+final class CookieLogCodec {
+
+    // The operations of the records
+    static final byte ADD = 1;
+    static final byte REMOVE = 2;
+    static final byte REMOVE_ALL = 3;
+
+    private CookieLogCodec() {
+    }
+
+    /**
+     * Encodes a modification, the cookie is null for {@link #REMOVE_ALL}.
+     */
+    static byte[] encode(final byte operation, final String host, final HttpCookie cookie, final long nowMillis) {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+        final DataOutputStream payload = new DataOutputStream(buffer);
+        try {
+            payload.writeByte(operation);
+            if (cookie != null) {
+                final CookieRecord record = new CookieRecord(cookie, nowMillis);
+                payload.writeUTF(host == null ? "" : host);
+                payload.writeUTF(cookie.getDomain() == null ? "" : cookie.getDomain());
+                payload.writeShort(record.flags());
+                payload.writeLong(record.expiresAt());
+                payload.writeInt(record.dataLength());
+                payload.write(record.data(), 0, record.dataLength());
+            }
+        } catch (final IOException ex) {
+            // byte arrays are not written to any device
+            throw new UncheckedIOException(ex);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Applies an encoded modification to the store, cookies which expired since they were encoded remove
+     * the stored cookie.
+     */
+    static void apply(final byte[] payload, final CookieStore cookieStore, final long nowMillis) throws IOException {
+        decode(payload, 0, payload.length, nowMillis).applyTo(cookieStore);
+    }
+
+    /**
+     * Decodes a modification, cookies which expired since they were encoded have a max age of 0.
+     */
+    static Modification decode(final byte[] payload, final int offset, final int length, final long nowMillis)
+        throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload, offset, length));
+        final byte operation = in.readByte();
+        if (operation == REMOVE_ALL) {
+            return new Modification(operation, null, null);
+        }
+        if (operation != ADD && operation != REMOVE) {
+            throw new IOException("unknown cookie operation: " + operation);
+        }
+        final String host = emptyToNull(in.readUTF());
+        final String domain = emptyToNull(in.readUTF());
+        final short flags = in.readShort();
+        final long expiresAt = in.readLong();
+        final byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        final HttpCookie cookie = new CookieRecord(data, flags, expiresAt).toHttpCookie(domain, nowMillis);
+        return new Modification(operation, host == null ? null : uri(host), cookie);
+    }
+
+    /**
+     * @return the CRC-32 checksum of the bytes.
+     */
+    static int checksum(final byte[] bytes, final int offset, final int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static String emptyToNull(final String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private static URI uri(final String host) throws IOException {
+        try {
+            return new URI("http", host, null, null, null);
+        } catch (final URISyntaxException ex) {
+            throw new IOException("invalid host in cookie record: " + host, ex);
+        }
+    }
+
+    /**
+     * A decoded modification.
+     */
+    static final class Modification {
+
+        private final byte operation;
+        // The host the cookie was received from, or null
+        private final URI uri;
+        // The cookie, null when all cookies are removed
+        private final HttpCookie cookie;
+
+        private Modification(final byte operation, final URI uri, final HttpCookie cookie) {
+            this.operation = operation;
+            this.uri = uri;
+            this.cookie = cookie;
+        }
+
+        byte operation() {
+            return operation;
+        }
+
+        URI uri() {
+            return uri;
+        }
+
+        HttpCookie cookie() {
+            return cookie;
+        }
+
+        /**
+         * Applies the modification to the store, an expired cookie removes the stored cookie.
+         *
+         * @return whether the store was modified, always true for additions.
+         */
+        boolean applyTo(final CookieStore cookieStore) {
+            if (operation == ADD) {
+                cookieStore.add(uri, cookie);
+                return true;
+            } else if (operation == REMOVE) {
+                return cookieStore.remove(uri, cookie);
+            } else {
+                return cookieStore.removeAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package io.github.shamsimam;
+
+import java.net.HttpCookie;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A compact representation of a cookie which packs its strings in a single byte array.
+ * <p>
+ * The name, value, path, port list, comment and comment URL are encoded in UTF-8, i.e. one byte per
+ * character for the usual ASCII cookies, each prefixed with its length as a variable-length integer.
+ * Absent attributes are recorded as flags and take no space. The expiry is kept as an absolute time and
+ * the version, secure, http-only and discard attributes as flags. A record holds two objects per cookie
+ * whereas an {@link HttpCookie} holds the cookie and a String, with its backing array, per attribute.
+ * <p>
+ * The domain of the cookie is not part of the record, the store indexes cookies by domain already.
+ */
+class CookieRecord extends ExpiryWheel.Entry {
+
+    private static final int NAME = 0;
+    private static final int VALUE = 1;
+    private static final int PATH = 2;
+    private static final int PORTLIST = 3;
+    private static final int COMMENT = 4;
+    private static final int COMMENT_URL = 5;
+    private static final int FIELDS = 6;
+
+    // The low bits of the flags mark the fields which are present, one bit per field
+    private static final int VERSION_1 = 1 << FIELDS;
+    private static final int SECURE = 1 << (FIELDS + 1);
+    private static final int HTTP_ONLY = 1 << (FIELDS + 2);
+    private static final int DISCARD = 1 << (FIELDS + 3);
+
+    // The length-prefixed fields
+    private final byte[] data;
+    // The time, in milliseconds since the epoch, the cookie expires at or Long.MAX_VALUE
+    private final long expiresAt;
+    // The present fields and the boolean attributes
+    private final short flags;
+
+    CookieRecord(final HttpCookie cookie, final long nowMillis) {
+        final String[] fields = new String[FIELDS];
+        fields[NAME] = cookie.getName();
+        fields[VALUE] = cookie.getValue();
+        fields[PATH] = cookie.getPath();
+        fields[PORTLIST] = cookie.getPortlist();
+        fields[COMMENT] = cookie.getComment();
+        fields[COMMENT_URL] = cookie.getCommentURL();
+
+        final byte[][] encoded = new byte[FIELDS][];
+        int flags = 0;
+        int length = 0;
+        for (int field = 0; field < FIELDS; field++) {
+            if (fields[field] != null) {
+                encoded[field] = fields[field].getBytes(StandardCharsets.UTF_8);
+                flags |= 1 << field;
+                length += varIntLength(encoded[field].length) + encoded[field].length;
+            }
+        }
+        final byte[] data = new byte[length];
+        int position = 0;
+        for (final byte[] bytes : encoded) {
+            if (bytes != null) {
+                position = writeVarInt(data, position, bytes.length);
+                System.arraycopy(bytes, 0, data, position, bytes.length);
+                position += bytes.length;
+            }
+        }
+
+        this.data = data;
+        this.flags = (short) (flags | attributeFlags(cookie));
+        this.expiresAt = expiresAt(cookie.getMaxAge(), nowMillis);
+    }
+
+    /**
+     * Recreates a record from the fields of another record, e.g. copied out of an off-heap block.
+     */
+    CookieRecord(final byte[] data, final short flags, final long expiresAt) {
+        this.data = data;
+        this.flags = flags;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @return the flags of the version, secure, http-only and discard attributes.
+     */
+    private static int attributeFlags(final HttpCookie cookie) {
+        int flags = 0;
+        if (cookie.getVersion() == 1) {
+            flags |= VERSION_1;
+        }
+        if (cookie.getSecure()) {
+            flags |= SECURE;
+        }
+        if (cookie.isHttpOnly()) {
+            flags |= HTTP_ONLY;
+        }
+        if (cookie.getDiscard()) {
+            flags |= DISCARD;
+        }
+        return flags;
+    }
+
+    private static long expiresAt(final long maxAge, final long nowMillis) {
+        if (maxAge < 0) {
+            return Long.MAX_VALUE;
+        }
+        return maxAge >= (Long.MAX_VALUE - nowMillis) / 1000 ? Long.MAX_VALUE - 1 : nowMillis + maxAge * 1000;
+    }
+
+    private static int varIntLength(final int value) {
+        int length = 1;
+        for (int remaining = value >>> 7; remaining != 0; remaining >>>= 7) {
+            length++;
+        }
+        return length;
+    }
+
+    private static int writeVarInt(final byte[] data, final int offset, final int value) {
+        int position = offset;
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            data[position++] = (byte) ((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        data[position++] = (byte) remaining;
+        return position;
+    }
+
+    /**
+     * @return the offset of the length prefix of the field or -1 if the field is absent.
+     */
+    private int offsetOf(final int field) {
+        if ((flags & (1 << field)) == 0) {
+            return -1;
+        }
+        int position = 0;
+        for (int i = 0; i < field; i++) {
+            if ((flags & (1 << i)) != 0) {
+                final int length = readVarInt(position);
+                position = skipVarInt(position) + length;
+            }
+        }
+        return position;
+    }
+
+    private int readVarInt(final int offset) {
+        int value = 0;
+        int shift = 0;
+        int position = offset;
+        byte b;
+        do {
+            b = data[position++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private int skipVarInt(final int offset) {
+        int position = offset;
+        while (data[position++] < 0) {
+            // continuation byte
+        }
+        return position;
+    }
+
+    private String field(final int field) {
+        final int offset = offsetOf(field);
+        if (offset < 0) {
+            return null;
+        }
+        return new String(data, skipVarInt(offset), readVarInt(offset), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares a field with a string without decoding the field, unless it has non-ASCII characters.
+     */
+    private boolean fieldEquals(final int field, final String expected, final boolean ignoreCase) {
+        final int offset = offsetOf(field);
+        if (offset < 0 || expected == null) {
+            return offset < 0 && expected == null;
+        }
+        final int length = readVarInt(offset);
+        final int start = skipVarInt(offset);
+        if (length < expected.length()) {
+            // UTF-8 never takes fewer bytes than characters
+            return false;
+        }
+        boolean ascii = true;
+        for (int i = 0; i < length && ascii; i++) {
+            ascii = data[start + i] >= 0;
+        }
+        if (!ascii) {
+            final String decoded = new String(data, start, length, StandardCharsets.UTF_8);
+            return ignoreCase ? decoded.equalsIgnoreCase(expected) : decoded.equals(expected);
+        }
+        if (length != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            final char stored = (char) data[start + i];
+            final char other = expected.charAt(i);
+            if (stored != other && (!ignoreCase || Character.toUpperCase(stored) != Character.toUpperCase(other)
+                && Character.toLowerCase(stored) != Character.toLowerCase(other))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    String name() {
+        return field(NAME);
+    }
+
+    String value() {
+        return field(VALUE);
+    }
+
+    String path() {
+        return field(PATH);
+    }
+
+    int version() {
+        return (flags & VERSION_1) != 0 ? 1 : 0;
+    }
+
+    boolean isSecure() {
+        return (flags & SECURE) != 0;
+    }
+
+    long expiresAt() {
+        return expiresAt;
+    }
+
+    @Override
+    long deadline() {
+        return expiresAt;
+    }
+
+    /**
+     * @return the packed fields, which must not be modified.
+     */
+    byte[] data() {
+        return data;
+    }
+
+    short flags() {
+        return flags;
+    }
+
+    /**
+     * @return the number of bytes used by the packed fields.
+     */
+    int dataLength() {
+        return data.length;
+    }
+
+    /**
+     * @return true if the name and path of the record equal those of the cookie, with the rules of
+     * {@link HttpCookie#equals(Object)}, i.e. names are compared ignoring case.
+     */
+    boolean hasNameAndPath(final HttpCookie cookie) {
+        return fieldEquals(NAME, cookie.getName(), true) && fieldEquals(PATH, cookie.getPath(), false);
+    }
+
+    /**
+     * Whether a record created from the cookie would equal this record, the fields are compared without
+     * encoding the cookie and expiries less than a second apart are deemed equal since max ages are counted
+     * in seconds.
+     */
+    boolean isUnchangedBy(final HttpCookie cookie, final long nowMillis) {
+        final long otherExpiresAt = expiresAt(cookie.getMaxAge(), nowMillis);
+        if (otherExpiresAt != expiresAt && (otherExpiresAt == Long.MAX_VALUE || expiresAt == Long.MAX_VALUE
+            || Math.abs(otherExpiresAt - expiresAt) >= 1000)) {
+            return false;
+        }
+        return (flags & ~((1 << FIELDS) - 1)) == attributeFlags(cookie)
+            && fieldEquals(NAME, cookie.getName(), false)
+            && fieldEquals(VALUE, cookie.getValue(), false)
+            && fieldEquals(PATH, cookie.getPath(), false)
+            && fieldEquals(PORTLIST, cookie.getPortlist(), false)
+            && fieldEquals(COMMENT, cookie.getComment(), false)
+            && fieldEquals(COMMENT_URL, cookie.getCommentURL(), false);
+    }
+
+    /**
+     * Creates an HttpCookie equal to the cookie the record was created from, the max age is the time
+     * left until the record expires.
+     *
+     * @param domain the domain of the cookie, may be null.
+     */
+    HttpCookie toHttpCookie(final String domain, final long nowMillis) {
+        final HttpCookie cookie = new HttpCookie(name(), value());
+        cookie.setVersion(version());
+        cookie.setDomain(domain);
+        cookie.setPath(path());
+        cookie.setPortlist(field(PORTLIST));
+        cookie.setComment(field(COMMENT));
+        cookie.setCommentURL(field(COMMENT_URL));
+        cookie.setSecure(isSecure());
+        cookie.setHttpOnly((flags & HTTP_ONLY) != 0);
+        cookie.setDiscard((flags & DISCARD) != 0);
+        if (expiresAt != Long.MAX_VALUE) {
+            cookie.setMaxAge(Math.max(0, (expiresAt - nowMillis + 999) / 1000));
+        }
+        return cookie;
+    }
+}
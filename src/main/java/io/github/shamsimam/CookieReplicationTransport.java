@@ -0,0 +1,31 @@
+package io.github.shamsimam;
+
+import java.io.Closeable;
+import java.util.function.Consumer;
+
+/**
+ * The transport a {@link ReplicatedCookieStore} broadcasts its modifications over to the stores of the other
+ * nodes, e.g. a multicast group or a message broker topic.
+ * <p>
+ * Deltas are opaque byte arrays, the transport need not order nor deduplicate them since stores merge them
+ * with last-writer-wins, yet it should deliver them at least once to the stores which should converge.
+ */
+public interface CookieReplicationTransport extends Closeable {
+
+    /**
+     * Starts delivering the deltas broadcast by the other nodes, called once by the store.
+     *
+     * @param receiver receives the deltas, possibly from several threads, it never throws.
+     */
+    void start(Consumer<byte[]> receiver);
+
+    /**
+     * Broadcasts a delta to the other nodes, the node itself need not receive it.
+     * <p>
+     * Called by the thread modifying the store, e.g. a transport thread receiving response headers,
+     * hence the transport should not block on the network.
+     *
+     * @param delta the delta, which the transport must not modify.
+     */
+    void broadcast(byte[] delta);
+}
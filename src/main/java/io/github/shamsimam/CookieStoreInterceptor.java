@@ -9,56 +9,61 @@ import io.grpc.ForwardingClientCallListener.SimpleForwardingClientCallListener;
 import io.grpc.Metadata;
 import io.grpc.Metadata.Key;
 import io.grpc.MethodDescriptor;
+import io.grpc.Status;
 
 import java.net.CookieManager;
 import java.net.URI;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.concurrent.Executor;
 
 /**
  * A client interceptor to manage cookies by inspecting set-cookie headers received in the response
- * from the server and by forwarding cookies using the cookie header in the request to the server.
+ * or trailers from the server and by forwarding cookies using the cookie header in the request to the server.
  * <p>
  * The implementation uses a CookieManager, initialized with a CookieStore and a CookiePolicy,
  * which makes policy decisions on cookie acceptance/rejection based on gRPC methods being invoked.
+ * Calls carrying the {@link CookieJarRegistry#TENANT_KEY} option use the cookie jar of their tenant
+ * when the interceptor is created with a {@link CookieJarRegistry}, other calls made while the current
+ * {@link io.grpc.Context} holds a jar, see {@link ContextCookieJars}, use the jar of the context.
  *
  * @author <a href="https://shamsimam.github.io/">Shams Imam</a> (shams.imam@gmail.com)
  */
 public class CookieStoreInterceptor implements ClientInterceptor {
 
-    private static final Logger logger = Logger.getLogger(CookieStoreInterceptor.class.getName());
-
     private static final Key<String> SET_COOKIE_KEY = createMetadataKey("set-cookie");
     private static final Key<String> SET_COOKIE2_KEY = createMetadataKey("set-cookie2");
 
     protected static final List<Key<String>> SET_COOKIE_KEYS = Arrays.asList(SET_COOKIE_KEY, SET_COOKIE2_KEY);
+    private static final Set<Key<?>> SET_COOKIE_KEY_SET = new HashSet<>(SET_COOKIE_KEYS);
 
     private static Key<String> createMetadataKey(String headerKey) {
         return Key.of(headerKey, Metadata.ASCII_STRING_MARSHALLER);
     }
 
-    // The CookieManager used to store and filter cookies
-    private final CookieManager cookieManager;
-    // Whether or not to assume prior knowledge that the client is using plaintext
-    // Plaintext connections will have secure cookies excluded from being sent to the server.
-    private final boolean usePlainText;
+    // The jar of the CookieManager used to store and filter cookies
+    private final CookieJar cookieJar;
+    // The jars of the tenants selected with a call option, null if calls always use the cookie jar
+    private final CookieJarRegistry cookieJarRegistry;
+    // The call path URIs for the methods invoked through this interceptor
+    // Plaintext connections use http URIs and will have secure cookies excluded from being sent to the server.
+    private final CallPathCache callPathCache;
+    // The queues storing the cookies of responses on an executor, null if they are stored on the transport thread
+    private final CookieIngestionQueues ingestionQueues;
+    // Whether calls wait for the cookies of earlier responses queued for their authority
+    private final boolean awaitIngestion;
 
     /**
      * Create a new CookieStoreInterceptor.
      *
      * The created CookieStoreInterceptor instance assumes the client uses encrypted connections and
      * forwards secure cookies to the server.
-     * The instance uses a default CookieManager with default cookie store and accept policy.
+     * The instance uses a {@link FastCookieManager} with a {@link ConcurrentCookieStore} and default accept policy.
      */
     public CookieStoreInterceptor() {
-        this(new CookieManager());
+        this(new FastCookieManager());
     }
 
     /**
@@ -66,6 +71,9 @@ public class CookieStoreInterceptor implements ClientInterceptor {
      *
      * The created CookieStoreInterceptor instance assumes the client uses encrypted connections and
      * forwards secure cookies to the server.
+     * The cookie headers sent with each call path are reused until the store is modified when the
+     * CookieManager is not customized, or is a {@link FastCookieManager}, and its store is a
+     * {@link VersionedCookieStore}.
      *
      * @param cookieManager the CookieManager used to store and filter cookies
      */
@@ -73,6 +81,20 @@ public class CookieStoreInterceptor implements ClientInterceptor {
         this(false, cookieManager);
     }
 
+    /**
+     * Create a new CookieStoreInterceptor.
+     *
+     * The created CookieStoreInterceptor instance assumes the client uses encrypted connections and
+     * forwards secure cookies to the server.
+     * Calls without a tenant use a default CookieManager with a {@link ConcurrentCookieStore} and default
+     * accept policy.
+     *
+     * @param cookieJarRegistry the jars of the tenants selected with {@link CookieJarRegistry#TENANT_KEY}
+     */
+    public CookieStoreInterceptor(final CookieJarRegistry cookieJarRegistry) {
+        this(false, new FastCookieManager(), cookieJarRegistry);
+    }
+
     /**
      * Create a new CookieStoreInterceptor.
      *
@@ -80,8 +102,49 @@ public class CookieStoreInterceptor implements ClientInterceptor {
      * @param cookieManager the CookieManager used to store and filter cookies
      */
     public CookieStoreInterceptor(final boolean usePlainText, final CookieManager cookieManager) {
-        this.usePlainText = usePlainText;
-        this.cookieManager = cookieManager;
+        this(usePlainText, cookieManager, null);
+    }
+
+    /**
+     * Create a new CookieStoreInterceptor.
+     *
+     * @param usePlainText      whether or not to assume prior knowledge that the client is using plaintext.
+     * @param cookieManager     the CookieManager used to store and filter cookies of calls without a tenant
+     * @param cookieJarRegistry the jars of the tenants selected with {@link CookieJarRegistry#TENANT_KEY},
+     *                          may be null
+     */
+    public CookieStoreInterceptor(final boolean usePlainText, final CookieManager cookieManager,
+                                  final CookieJarRegistry cookieJarRegistry) {
+        this(usePlainText, cookieManager, cookieJarRegistry, null, CookieConsistency.EVENTUAL);
+    }
+
+    /**
+     * Create a new CookieStoreInterceptor which stores the cookies of responses on an executor rather than on
+     * the transport thread receiving the response, e.g. a Netty event loop, so that a contended or slow store
+     * does not delay the other calls of the connection. The cookies of the responses from an authority are
+     * stored in the order the responses were received.
+     *
+     * @param usePlainText           whether or not to assume prior knowledge that the client is using plaintext.
+     * @param cookieManager          the CookieManager used to store and filter cookies of calls without a tenant
+     * @param cookieJarRegistry      the jars of the tenants selected with {@link CookieJarRegistry#TENANT_KEY},
+     *                               may be null
+     * @param responseCookieExecutor the executor storing the cookies of responses, the cookies are stored on the
+     *                               transport thread if null
+     * @param consistency            whether calls wait for the cookies of the responses received before to be
+     *                               stored
+     */
+    public CookieStoreInterceptor(final boolean usePlainText, final CookieManager cookieManager,
+                                  final CookieJarRegistry cookieJarRegistry, final Executor responseCookieExecutor,
+                                  final CookieConsistency consistency) {
+        if (consistency == null) {
+            throw new NullPointerException("consistency is null");
+        }
+        this.cookieJar = new CookieJar(cookieManager);
+        this.cookieJarRegistry = cookieJarRegistry;
+        this.callPathCache = new CallPathCache(usePlainText, CallPathCache.DEFAULT_MAXIMUM_SIZE);
+        this.ingestionQueues =
+            responseCookieExecutor == null ? null : new CookieIngestionQueues(responseCookieExecutor);
+        this.awaitIngestion = ingestionQueues != null && consistency == CookieConsistency.READ_YOUR_WRITES;
     }
 
     @Override
@@ -90,28 +153,109 @@ public class CookieStoreInterceptor implements ClientInterceptor {
         final CallOptions callOptions,
         final Channel nextChannel) {
 
+        final String tenant = retrieveTenant(callOptions);
+        final CookieJar contextJar = tenant == null ? ContextCookieJars.currentJar() : null;
         return new SimpleForwardingClientCall<ReqT, RespT>(nextChannel.newCall(methodDescriptor, callOptions)) {
 
             @Override
             public void start(final Listener<RespT> responseListener, final Metadata requestHeaders) {
 
+                // the jar of the tenant is retained by the registry until the call ends
+                final CookieJar scopedJar =
+                    tenant == null ? contextJar : cookieJarRegistry.startCall(tenant, System.currentTimeMillis());
+                try {
+                    startCall(scopedJar, responseListener, requestHeaders);
+                } catch (final RuntimeException | Error ex) {
+                    if (tenant != null) {
+                        cookieJarRegistry.endCall(scopedJar, System.currentTimeMillis());
+                    }
+                    throw ex;
+                }
+            }
+
+            private void startCall(final CookieJar scopedJar, final Listener<RespT> responseListener,
+                                   final Metadata requestHeaders) {
+
                 final String authority = retrieveAuthority(callOptions, nextChannel);
-                final String fullMethodName = methodDescriptor.getFullMethodName();
-                final URI callPathUri = createUri(authority, fullMethodName);
+                final URI callPathUri = callPathCache.get(authority, methodDescriptor);
+                if (awaitIngestion) {
+                    ingestionQueues.awaitSubmitted(authority);
+                }
                 // adds cookies to the request headers
-                addRequestCookies(callPathUri, requestHeaders);
+                if (scopedJar == null) {
+                    addRequestCookies(callPathUri, requestHeaders);
+                } else {
+                    scopedJar.addRequestCookies(callPathUri, requestHeaders);
+                }
                 super.start(new SimpleForwardingClientCallListener<RespT>(responseListener) {
+
+                    // The headers of the response, the callbacks of a listener are not run concurrently
+                    private Metadata receivedHeaders;
+
                     @Override
                     public void onHeaders(final Metadata responseHeaders) {
                         // extract the cookies from the response
-                        processResponseCookies(callPathUri, responseHeaders);
+                        receivedHeaders = responseHeaders;
+                        processCookies(responseHeaders);
                         super.onHeaders(responseHeaders);
                     }
+
+                    @Override
+                    public void onClose(final Status status, final Metadata trailers) {
+                        // trailers-only responses, e.g. of calls failing fast, and trailers also set cookies
+                        if (trailers != null && trailers != receivedHeaders) {
+                            processCookies(trailers);
+                        }
+                        if (tenant != null) {
+                            endCall();
+                        }
+                        super.onClose(status, trailers);
+                    }
+
+                    /**
+                     * Releases the jar of the tenant once the cookies of the call are stored.
+                     */
+                    private void endCall() {
+                        if (ingestionQueues == null) {
+                            cookieJarRegistry.endCall(scopedJar, System.currentTimeMillis());
+                        } else {
+                            ingestionQueues.submit(
+                                authority, () -> cookieJarRegistry.endCall(scopedJar, System.currentTimeMillis()));
+                        }
+                    }
+
+                    private void processCookies(final Metadata responseMetadata) {
+                        if (ingestionQueues == null) {
+                            storeCookies(responseMetadata);
+                        } else if (responseMetadata.containsKey(SET_COOKIE_KEY)
+                            || responseMetadata.containsKey(SET_COOKIE2_KEY)) {
+                            // the listeners of the call may still use the metadata, the task gets a copy
+                            final Metadata cookieMetadata = new Metadata();
+                            cookieMetadata.merge(responseMetadata, SET_COOKIE_KEY_SET);
+                            ingestionQueues.submit(authority, () -> storeCookies(cookieMetadata));
+                        }
+                    }
+
+                    private void storeCookies(final Metadata responseMetadata) {
+                        if (scopedJar == null) {
+                            processResponseCookies(callPathUri, responseMetadata);
+                        } else {
+                            scopedJar.processResponseCookies(callPathUri, responseMetadata);
+                        }
+                    }
                 }, requestHeaders);
             }
         };
     }
 
+    /**
+     * @return the tenant whose jar of the registry is used by the call, or null if the call uses the jar of
+     * the current context or the default jar.
+     */
+    private String retrieveTenant(final CallOptions callOptions) {
+        return cookieJarRegistry == null ? null : callOptions.getOption(CookieJarRegistry.TENANT_KEY);
+    }
+
     protected String retrieveAuthority(final CallOptions callOptions, final Channel channel) {
         final String callOptionsAuthority = callOptions.getAuthority();
         if (callOptionsAuthority != null) {
@@ -125,64 +269,10 @@ public class CookieStoreInterceptor implements ClientInterceptor {
     }
 
     protected void addRequestCookies(final URI callPathUri, final Metadata requestHeaders) {
-        final Map<String, List<String>> httpCookies = getCookies(callPathUri, requestHeaders);
-        if (!httpCookies.isEmpty()) {
-            for (final Map.Entry<String, List<String>> entry : httpCookies.entrySet()) {
-                final String headerKey = entry.getKey();
-                final List<String> headerValues = entry.getValue();
-                if (headerValues != null) {
-                    final Key<String> metadataKey = createMetadataKey(headerKey);
-                    for (final String headerValue : headerValues) {
-                        requestHeaders.put(metadataKey, headerValue);
-                    }
-                }
-            }
-        }
+        cookieJar.addRequestCookies(callPathUri, requestHeaders);
     }
 
     protected void processResponseCookies(final URI callPathUri, final Metadata responseHeaders) {
-        final Map<String, List<String>> headers = new HashMap<>(SET_COOKIE_KEYS.size());
-        for (final Key<String> headerKey : SET_COOKIE_KEYS) {
-            if (responseHeaders.containsKey(headerKey)) {
-                final String headerValue = String.valueOf(responseHeaders.get(headerKey));
-                headers.put(headerKey.originalName(), Collections.singletonList(headerValue));
-            }
-        }
-        if (!headers.isEmpty()) {
-            try {
-                cookieManager.put(callPathUri, headers);
-            } catch (final Throwable th) {
-                logger.log(Level.SEVERE, "error is parsing cookies", th);
-            }
-        }
-    }
-
-    private URI createUri(final String authority, final String fullMethodName) {
-        final String url = (usePlainText ? "http://" : "https://") + authority + "/" + fullMethodName;
-        return URI.create(url);
-    }
-
-    private Map<String, List<String>> getCookies(final URI callPathUri, final Metadata requestMetadata) {
-        try {
-            final Set<String> requestMetadataKeys = requestMetadata.keys();
-            final Map<String, List<String>> requestHeaders = new HashMap<>(requestMetadataKeys.size());
-            for (final String key : requestMetadataKeys) {
-                final Key<String> metadataKey = createMetadataKey(key);
-                final Iterable<String> metadataValues = requestMetadata.getAll(metadataKey);
-                if (metadataValues != null) {
-                    final List<String> headerValues = new ArrayList<>();
-                    for (final String metadataValue : metadataValues) {
-                        if (metadataValue != null) {
-                            headerValues.add(metadataValue);
-                        }
-                    }
-                    requestHeaders.put(key, headerValues);
-                }
-            }
-            return cookieManager.get(callPathUri, requestHeaders);
-        } catch (Throwable th) {
-            logger.log(Level.SEVERE, "error in retrieving cookies", th);
-        }
-        return Collections.emptyMap();
+        cookieJar.processResponseCookies(callPathUri, responseHeaders);
     }
 }
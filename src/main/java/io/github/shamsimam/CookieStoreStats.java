@@ -0,0 +1,82 @@
+package io.github.shamsimam;
+
+/**
+ * A snapshot of the counters maintained by a cookie store.
+ */
+public final class CookieStoreStats {
+
+    // The number of cookies removed because their Max-Age or Expires passed
+    private final long expiredCount;
+    // The number of stored cookies deleted by the server sending an already expired cookie
+    private final long purgedCount;
+    // The number of cookies evicted to add a cookie to a full domain
+    private final long domainEvictedCount;
+    // The number of cookies evicted, or rejected, to keep the store within its total limits
+    private final long capacityEvictedCount;
+    // The number of cookies in the store
+    private final long cookieCount;
+    // The estimated heap size of the cookies in the store
+    private final long estimatedBytes;
+
+    CookieStoreStats(final long expiredCount, final long purgedCount, final long domainEvictedCount,
+                     final long capacityEvictedCount, final long cookieCount, final long estimatedBytes) {
+        this.expiredCount = expiredCount;
+        this.purgedCount = purgedCount;
+        this.domainEvictedCount = domainEvictedCount;
+        this.capacityEvictedCount = capacityEvictedCount;
+        this.cookieCount = cookieCount;
+        this.estimatedBytes = estimatedBytes;
+    }
+
+    /**
+     * @return the number of cookies removed from the store because their Max-Age or Expires passed.
+     */
+    public long expiredCount() {
+        return expiredCount;
+    }
+
+    /**
+     * @return the number of stored cookies deleted by the server sending an already expired cookie,
+     * e.g. with {@code Max-Age=0}.
+     */
+    public long purgedCount() {
+        return purgedCount;
+    }
+
+    /**
+     * @return the number of cookies evicted to make room for a new cookie of a domain which reached
+     * its maximum number of cookies.
+     */
+    public long domainEvictedCount() {
+        return domainEvictedCount;
+    }
+
+    /**
+     * @return the number of cookies evicted, or rejected, because the store exceeded its maximum number
+     * of cookies or bytes.
+     */
+    public long capacityEvictedCount() {
+        return capacityEvictedCount;
+    }
+
+    /**
+     * @return the number of cookies in the store.
+     */
+    public long cookieCount() {
+        return cookieCount;
+    }
+
+    /**
+     * @return the estimated heap size, in bytes, of the cookies in the store.
+     */
+    public long estimatedBytes() {
+        return estimatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "CookieStoreStats{expiredCount=" + expiredCount + ", purgedCount=" + purgedCount
+            + ", domainEvictedCount=" + domainEvictedCount + ", capacityEvictedCount=" + capacityEvictedCount
+            + ", cookieCount=" + cookieCount + ", estimatedBytes=" + estimatedBytes + "}";
+    }
+}
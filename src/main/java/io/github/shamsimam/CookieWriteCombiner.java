@@ -0,0 +1,125 @@
+package io.github.shamsimam;
+
+import java.net.CookieManager;
+import java.net.CookieStore;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stores the cookies of concurrent responses in batches, in the style of flat combining.
+ * <p>
+ * Each thread queues its response headers on a lock-free queue and then either becomes the combiner, which
+ * applies the queued headers of all threads back to back while holding the combiner lock, or waits for the
+ * combiner to apply its headers. The store is then written by one thread at a time rather than by every
+ * transport thread at once. The combiner applies a batch under one acquisition of the lock of a
+ * {@link BatchModifiedCookieStore}, other stores take their locks for each cookie, without contention. A put
+ * returns once its headers are applied, as a put on the CookieManager does, and the errors of a put are logged.
+ */
+final class CookieWriteCombiner {
+
+    private static final Logger logger = Logger.getLogger(CookieWriteCombiner.class.getName());
+
+    // The number of puts a combiner applies before it leaves the remaining ones to another thread
+    static final int MAX_BATCH_SIZE = 64;
+    // The number of times a waiting thread checks its put before it parks, waiting threads only spin when
+    // other processors may run the combiner meanwhile
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 128 : 0;
+    // The time a waiting thread parks before it checks whether the combiner left, a safety net since the
+    // leaving combiner wakes the thread of the oldest waiting put
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // The CookieManager storing the cookies
+    private final CookieManager cookieManager;
+    // The puts waiting to be applied
+    private final Queue<Put> pending = new ConcurrentLinkedQueue<>();
+    // Held by the combiner
+    private final ReentrantLock combinerLock = new ReentrantLock();
+
+    CookieWriteCombiner(final CookieManager cookieManager) {
+        this.cookieManager = cookieManager;
+    }
+
+    /**
+     * Stores the cookies of the response headers, the method returns once they are stored.
+     */
+    void put(final URI uri, final Map<String, List<String>> responseHeaders) {
+        final Put put = new Put(uri, responseHeaders, Thread.currentThread());
+        pending.add(put);
+        int spins = SPINS;
+        while (!put.applied) {
+            if (combinerLock.tryLock()) {
+                try {
+                    combine(put);
+                } finally {
+                    combinerLock.unlock();
+                }
+                // a put queued while the lock was released would otherwise wait for its park to time out
+                final Put next = pending.peek();
+                if (next != null) {
+                    LockSupport.unpark(next.thread);
+                }
+            } else if (spins > 0) {
+                spins--;
+            } else {
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+        }
+    }
+
+    private void combine(final Put own) {
+        final List<Put> batch = new ArrayList<>();
+        final CookieStore cookieStore = cookieManager.getCookieStore();
+        if (cookieStore instanceof BatchModifiedCookieStore) {
+            // the store's lock is acquired once for the batch rather than once for each cookie
+            ((BatchModifiedCookieStore) cookieStore).modifyInBatch(() -> applyBatch(own, batch));
+        } else {
+            applyBatch(own, batch);
+        }
+        for (final Put put : batch) {
+            put.applied = true;
+            if (put != own) {
+                LockSupport.unpark(put.thread);
+            }
+        }
+    }
+
+    /**
+     * Applies the queued puts, at least up to the put of the combiner, and adds them to the batch.
+     */
+    private void applyBatch(final Put own, final List<Put> batch) {
+        boolean ownApplied = false;
+        Put put;
+        while ((batch.size() < MAX_BATCH_SIZE || !ownApplied) && (put = pending.poll()) != null) {
+            try {
+                cookieManager.put(put.uri, put.responseHeaders);
+            } catch (final Throwable th) {
+                logger.log(Level.SEVERE, "error in storing cookies", th);
+            }
+            batch.add(put);
+            ownApplied |= put == own;
+        }
+    }
+
+    private static final class Put {
+
+        private final URI uri;
+        private final Map<String, List<String>> responseHeaders;
+        private final Thread thread;
+        private volatile boolean applied;
+
+        private Put(final URI uri, final Map<String, List<String>> responseHeaders, final Thread thread) {
+            this.uri = uri;
+            this.responseHeaders = responseHeaders;
+            this.thread = thread;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package io.github.shamsimam;
+
+import java.net.HttpCookie;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An open-addressing table of domains whose cookies are chained records kept outside of the Java heap,
+ * shared by the {@link OffHeapCookieStore} and the {@link MappedCookieStore}.
+ * <p>
+ * Each slot holds the hash of a domain key and the reference of the first cookie of the domain, a slot without
+ * a first cookie is free. Slots are probed linearly and removed with a backward shift, hence the table holds no
+ * tombstones. Lookups visit the suffixes of the host starting at a label, whose hashes are computed from the
+ * last character of the host. Cookies are referred to by a long, e.g. the handle of an arena block or the offset
+ * of a file, the stores read and link them and keep the slots, this class only holds the algorithms.
+ */
+abstract class DomainChainTable {
+
+    // Marks the absence of a cookie
+    private final long none;
+
+    DomainChainTable(final long none) {
+        this.none = none;
+    }
+
+    /**
+     * @return the number of slots, a power of two.
+     */
+    abstract int capacity();
+
+    /**
+     * @return the first cookie of the domain of the slot, or the absent reference for free slots.
+     */
+    abstract long head(int slot);
+
+    abstract void setHead(int slot, long cookie);
+
+    abstract int hash(int slot);
+
+    abstract void setHash(int slot, int hash);
+
+    abstract int domainCount();
+
+    abstract void setDomainCount(int domainCount);
+
+    abstract long next(long cookie);
+
+    abstract void setNext(long cookie, long next);
+
+    abstract CookieRecord record(long cookie);
+
+    /**
+     * @return the domain attribute of the cookie, or null for host-only cookies.
+     */
+    abstract String domain(long cookie);
+
+    /**
+     * @return the host the cookie was received from, or null.
+     */
+    abstract String host(long cookie);
+
+    /**
+     * Releases the storage of a cookie which has been unlinked from its domain.
+     */
+    abstract void release(long cookie);
+
+    /**
+     * The key of a domain in the table, cookies of {@code .test.com} and {@code test.com} share a key.
+     */
+    static String key(final String domain) {
+        final String normalized = DomainTrie.normalize(domain);
+        return normalized.startsWith(".") ? normalized.substring(1) : normalized;
+    }
+
+    private static int spread(final int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return the slot of the domain with the key, or -1.
+     */
+    final int find(final String key) {
+        return find(key.hashCode(), key, 0);
+    }
+
+    /**
+     * @return the slot of the domain which is the suffix of the name from the start index, or -1.
+     */
+    private int find(final int hash, final String name, final int start) {
+        final int mask = capacity() - 1;
+        for (int slot = spread(hash) & mask; head(slot) != none; slot = (slot + 1) & mask) {
+            if (hash(slot) == hash) {
+                final long cookie = head(slot);
+                final String domain = domain(cookie);
+                final String key = key(domain == null ? host(cookie) : domain);
+                if (key.length() == name.length() - start && name.startsWith(key, start)) {
+                    return slot;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds the slot of a new domain whose first cookie is linked, the table must have room for it.
+     */
+    final int insertSlot(final int hash, final long cookie) {
+        final int slot = freeSlot(hash);
+        setHash(slot, hash);
+        setHead(slot, cookie);
+        setDomainCount(domainCount() + 1);
+        return slot;
+    }
+
+    final int freeSlot(final int hash) {
+        final int mask = capacity() - 1;
+        int slot = spread(hash) & mask;
+        while (head(slot) != none) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Removes the slot of an empty domain, shifting back the following slots of the probe sequence.
+     *
+     * @return -1, i.e. no slot.
+     */
+    final int removeSlot(final int slot) {
+        final int mask = capacity() - 1;
+        int hole = slot;
+        setHead(hole, none);
+        for (int i = (hole + 1) & mask; head(i) != none; i = (i + 1) & mask) {
+            final int ideal = spread(hash(i)) & mask;
+            if (((i - ideal) & mask) >= ((i - hole) & mask)) {
+                setHash(hole, hash(i));
+                setHead(hole, head(i));
+                setHead(i, none);
+                hole = i;
+            }
+        }
+        setDomainCount(domainCount() - 1);
+        return -1;
+    }
+
+    /**
+     * Links the cookie at the end of the domain of the slot, cookies are kept in the order they were added.
+     */
+    final void append(final int slot, final long cookie) {
+        long tail = head(slot);
+        for (long next = next(tail); next != none; next = next(tail)) {
+            tail = next;
+        }
+        setNext(tail, cookie);
+    }
+
+    /**
+     * Whether the domain of the slot holds a cookie equal to the specified cookie, with the rules of
+     * {@link HttpCookie#equals(Object)}.
+     */
+    final boolean contains(final int slot, final HttpCookie cookie) {
+        for (long storedCookie = head(slot); storedCookie != none; storedCookie = next(storedCookie)) {
+            if (isEqual(storedCookie, cookie)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Unlinks and releases the first cookie of the domain equal to the specified cookie, with the rules of
+     * {@link HttpCookie#equals(Object)}, and removes the slot once the domain is empty.
+     */
+    final boolean unlink(final int slot, final HttpCookie cookie) {
+        long previous = none;
+        for (long storedCookie = head(slot); storedCookie != none; storedCookie = next(storedCookie)) {
+            if (isEqual(storedCookie, cookie)) {
+                unlink(slot, previous, storedCookie);
+                if (head(slot) == none) {
+                    removeSlot(slot);
+                }
+                return true;
+            }
+            previous = storedCookie;
+        }
+        return false;
+    }
+
+    private boolean isEqual(final long storedCookie, final HttpCookie cookie) {
+        final String domain = domain(storedCookie);
+        return (domain == null ? cookie.getDomain() == null : domain.equalsIgnoreCase(cookie.getDomain()))
+            && record(storedCookie).hasNameAndPath(cookie);
+    }
+
+    private void unlink(final int slot, final long previous, final long cookie) {
+        final long next = next(cookie);
+        if (previous == none) {
+            setHead(slot, next);
+        } else {
+            setNext(previous, next);
+        }
+        release(cookie);
+    }
+
+    /**
+     * Removes the cookie equal to the specified cookie, looking in every domain when the cookie has no domain
+     * and was not received from a host.
+     */
+    final boolean remove(final String host, final HttpCookie cookie) {
+        if (cookie.getDomain() == null && host == null) {
+            for (int slot = 0; slot < capacity(); slot++) {
+                if (head(slot) != none && unlink(slot, cookie)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        final int slot = find(key(cookie.getDomain() == null ? host : cookie.getDomain()));
+        return slot >= 0 && unlink(slot, cookie);
+    }
+
+    /**
+     * Adds the cookies matching the host, removing the expired cookies of the domains it visits.
+     *
+     * @return whether expired cookies were removed.
+     */
+    final boolean collect(final String host, final boolean secureLink, final long nowMillis,
+                          final List<HttpCookie> cookies) {
+        boolean removed = collect(host, host, secureLink, nowMillis, cookies);
+        if (host.indexOf('.') == -1) {
+            // cookies of hosts without dots are stored under the .local domain
+            removed |= collect(host + ".local", host, secureLink, nowMillis, cookies);
+        }
+        return removed;
+    }
+
+    /**
+     * Adds the cookies of the domains of the candidate name, i.e. its suffixes starting at a label, which
+     * match the host.
+     */
+    private boolean collect(final String candidate, final String host, final boolean secureLink,
+                            final long nowMillis, final List<HttpCookie> cookies) {
+        boolean removed = false;
+        // the String hash code of each suffix, computed from the last character
+        int hash = 0;
+        int multiplier = 1;
+        for (int start = candidate.length() - 1; start >= 0; start--) {
+            hash += candidate.charAt(start) * multiplier;
+            multiplier *= 31;
+            if (start > 0 && candidate.charAt(start - 1) != '.') {
+                continue;
+            }
+            final int slot = find(hash, candidate, start);
+            if (slot < 0) {
+                continue;
+            }
+            long previous = none;
+            for (long cookie = head(slot); cookie != none; ) {
+                final long next = next(cookie);
+                final CookieRecord record = record(cookie);
+                if (record.expiresAt() <= nowMillis) {
+                    unlink(slot, previous, cookie);
+                    removed = true;
+                } else {
+                    final String domain = domain(cookie);
+                    if ((secureLink || !record.isSecure()) && matches(record, domain, cookie, host)) {
+                        cookies.add(record.toHttpCookie(domain, nowMillis));
+                    }
+                    previous = cookie;
+                }
+                cookie = next;
+            }
+            if (head(slot) == none) {
+                removeSlot(slot);
+            }
+        }
+        return removed;
+    }
+
+    private boolean matches(final CookieRecord record, final String domain, final long cookie, final String host) {
+        if (ConcurrentCookieStore.domainMatches(record.version(), domain, host)) {
+            return true;
+        }
+        // cookies are also returned for the host they were received from
+        final String originHost = host(cookie);
+        return originHost != null && host.equalsIgnoreCase(originHost);
+    }
+
+    /**
+     * Adds the cookies of every domain which have not expired.
+     */
+    final void collectAll(final long nowMillis, final List<HttpCookie> cookies) {
+        for (int slot = 0; slot < capacity(); slot++) {
+            for (long cookie = head(slot); cookie != none; cookie = next(cookie)) {
+                final CookieRecord record = record(cookie);
+                if (record.expiresAt() > nowMillis) {
+                    cookies.add(record.toHttpCookie(domain(cookie), nowMillis));
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the hosts the cookies of every domain were received from.
+     */
+    final void collectHosts(final Set<String> hosts) {
+        for (int slot = 0; slot < capacity(); slot++) {
+            for (long cookie = head(slot); cookie != none; cookie = next(cookie)) {
+                final String host = host(cookie);
+                if (host != null) {
+                    hosts.add(host);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package io.github.shamsimam;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * A concurrent trie of reversed domain labels, e.g. the value for {@code a.b.test.com} is stored in the
+ * node reached through {@code com}, {@code test}, {@code b} and {@code a}.
+ * <p>
+ * Looking up a host only visits the nodes of the host and its parent domains, independently of the
+ * number of domains stored in the trie. Node values are immutable and replaced with a compare-and-set.
+ * Adding and pruning nodes is serialized by a lock, nodes with an empty value and no children are
+ * pruned by first replacing their value with a detached marker which fails concurrent writes.
+ *
+ * @param <V> the type of the value stored in each node
+ */
+final class DomainTrie<V> {
+
+    // The value of nodes without content
+    private final V emptyValue;
+    // The value of nodes which have been pruned from the trie
+    private final V detachedValue;
+    // The node of the empty domain
+    private final Node<V> root;
+    // Serializes the addition and removal of nodes
+    private final ReentrantLock structureLock = new ReentrantLock();
+
+    DomainTrie(final V emptyValue, final V detachedValue) {
+        this.emptyValue = emptyValue;
+        this.detachedValue = detachedValue;
+        this.root = new Node<>(null, "", emptyValue);
+    }
+
+    /**
+     * Normalizes a domain or host name to the form used as key in the trie.
+     */
+    static String normalize(final String domain) {
+        return domain == null ? "" : domain.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return true if the value marks a node pruned from the trie, writers must retrieve the node again.
+     */
+    boolean isDetached(final V value) {
+        return value == detachedValue;
+    }
+
+    /**
+     * Retrieves the node of the specified normalized domain.
+     *
+     * @return the node or null if the domain has no node in the trie.
+     */
+    Node<V> find(final String domain) {
+        Node<V> node = root;
+        int end = domain.length();
+        while (end > 0) {
+            final int start = domain.lastIndexOf('.', end - 1) + 1;
+            if (start < end) {
+                node = node.children.get(domain.substring(start, end));
+                if (node == null) {
+                    return null;
+                }
+            }
+            end = start - 1;
+        }
+        return node;
+    }
+
+    /**
+     * Retrieves the node of the specified normalized domain, adding nodes as necessary.
+     *
+     * @return the node, which may have been concurrently detached by the time its value is read.
+     */
+    Node<V> findOrCreate(final String domain) {
+        while (true) {
+            final Node<V> node = findOrCreateAttached(domain);
+            if (node != null) {
+                return node;
+            }
+        }
+    }
+
+    private Node<V> findOrCreateAttached(final String domain) {
+        Node<V> node = root;
+        int end = domain.length();
+        while (end > 0) {
+            final int start = domain.lastIndexOf('.', end - 1) + 1;
+            if (start < end) {
+                final String label = domain.substring(start, end);
+                Node<V> child = node.children.get(label);
+                if (child == null) {
+                    structureLock.lock();
+                    try {
+                        if (isDetached(node.value())) {
+                            // the parent was pruned since it was read, start over from the root
+                            return null;
+                        }
+                        final Node<V> parent = node;
+                        child = node.children.computeIfAbsent(label, key -> new Node<>(parent, key, emptyValue));
+                    } finally {
+                        structureLock.unlock();
+                    }
+                }
+                node = child;
+            }
+            end = start - 1;
+        }
+        return node;
+    }
+
+    /**
+     * Retrieves the existing nodes of a normalized host and its parent domains, parent domains first.
+     */
+    List<Node<V>> path(final String host) {
+        final List<Node<V>> nodes = new ArrayList<>(4);
+        Node<V> node = root;
+        int end = host.length();
+        while (end > 0) {
+            final int start = host.lastIndexOf('.', end - 1) + 1;
+            if (start < end) {
+                node = node.children.get(host.substring(start, end));
+                if (node == null) {
+                    break;
+                }
+                nodes.add(node);
+            }
+            end = start - 1;
+        }
+        return nodes;
+    }
+
+    /**
+     * Visits every node of the trie, including the root.
+     */
+    void forEach(final Consumer<Node<V>> visitor) {
+        forEach(root, visitor);
+    }
+
+    private static <V> void forEach(final Node<V> node, final Consumer<Node<V>> visitor) {
+        visitor.accept(node);
+        for (final Node<V> child : node.children.values()) {
+            forEach(child, visitor);
+        }
+    }
+
+    /**
+     * Removes the node, and then its parents, from the trie while they hold an empty value and no children.
+     */
+    void prune(final Node<V> node) {
+        structureLock.lock();
+        try {
+            Node<V> current = node;
+            while (current != root && current.children.isEmpty()
+                && current.compareAndSet(emptyValue, detachedValue)) {
+                current.parent.children.remove(current.label, current);
+                current = current.parent;
+            }
+        } finally {
+            structureLock.unlock();
+        }
+    }
+
+    /**
+     * A node of the trie.
+     *
+     * @param <V> the type of the value stored in the node
+     */
+    static final class Node<V> {
+
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Node, Object> VALUE_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(Node.class, Object.class, "value");
+
+        private final Node<V> parent;
+        private final String label;
+        private final ConcurrentMap<String, Node<V>> children = new ConcurrentHashMap<>();
+        private volatile Object value;
+
+        private Node(final Node<V> parent, final String label, final V value) {
+            this.parent = parent;
+            this.label = label;
+            this.value = value;
+        }
+
+        @SuppressWarnings("unchecked")
+        V value() {
+            return (V) value;
+        }
+
+        boolean compareAndSet(final V expectedValue, final V newValue) {
+            return VALUE_UPDATER.compareAndSet(this, expectedValue, newValue);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.shamsimam;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ObjLongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The background scheduler, shared by all cookie stores and jar registries, which periodically expires
+ * cookies and idle cookie jars.
+ * <p>
+ * The scheduler runs on a single daemon thread. Owners are only weakly referenced and their periodic
+ * task is cancelled once they have been garbage collected.
+ */
+final class ExpiryScheduler {
+
+    private static final Logger logger = Logger.getLogger(ExpiryScheduler.class.getName());
+
+    static final long TICK_MILLIS = 1000;
+
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "grpc-cookie-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ExpiryScheduler() {
+    }
+
+    /**
+     * Performs the action with the current time in milliseconds every {@link #TICK_MILLIS} milliseconds
+     * while the owner is reachable.
+     *
+     * @return the future of the periodic task, which may be cancelled to stop it.
+     */
+    static <T> ScheduledFuture<?> schedule(final T owner, final ObjLongConsumer<T> tickAction) {
+        final WeakReference<T> ownerReference = new WeakReference<>(owner);
+        final AtomicReference<ScheduledFuture<?>> futureReference = new AtomicReference<>();
+        final ScheduledFuture<?> future = executor.scheduleWithFixedDelay(() -> {
+            final T currentOwner = ownerReference.get();
+            if (currentOwner == null) {
+                final ScheduledFuture<?> currentFuture = futureReference.get();
+                if (currentFuture != null) {
+                    currentFuture.cancel(false);
+                }
+                return;
+            }
+            try {
+                tickAction.accept(currentOwner, System.currentTimeMillis());
+            } catch (final Throwable th) {
+                logger.log(Level.SEVERE, "error in expiring cookies", th);
+            }
+        }, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        futureReference.set(future);
+        return future;
+    }
+}
@@ -0,0 +1,166 @@
+package io.github.shamsimam;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel with a resolution of one second which fires entries once their deadline passes.
+ * <p>
+ * The wheel has {@value #LEVELS} levels of {@value #SLOTS} slots, each slot of a level spans all the slots
+ * of the level below, i.e. the levels cover about a minute, an hour, three days, six months and 34 years.
+ * Entries are cascaded to the lower levels as time advances, hence scheduling and firing an entry are
+ * constant time operations independently of the number of scheduled entries.
+ * <p>
+ * Entries may be scheduled and cancelled from any thread, they are handed over to the wheel through a
+ * lock-free queue. The wheel itself is only advanced by a single thread at a time.
+ */
+final class ExpiryWheel {
+
+    static final int LEVELS = 5;
+    static final int SLOTS = 64;
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    // The entries scheduled since the wheel last advanced
+    private final Queue<Entry> pendingEntries = new ConcurrentLinkedQueue<>();
+    // The number of cancelled entries still referenced by the wheel
+    private final AtomicInteger cancelledEntries = new AtomicInteger();
+    // The action performed on the entries whose deadline passed
+    private final Consumer<Entry> expiryAction;
+    // The entries in each slot of each level, only accessed while advancing
+    private final List<List<Entry>> slots = new ArrayList<>(LEVELS * SLOTS);
+    // The second up to which the wheel has advanced, only accessed while advancing
+    private long currentTick;
+    // The number of entries in the slots, only accessed while advancing
+    private int scheduledEntries;
+
+    ExpiryWheel(final long nowMillis, final Consumer<Entry> expiryAction) {
+        this.expiryAction = expiryAction;
+        this.currentTick = toTick(nowMillis);
+        for (int i = 0; i < LEVELS * SLOTS; i++) {
+            slots.add(new ArrayList<>(0));
+        }
+    }
+
+    private static long toTick(final long millis) {
+        return millis / 1000;
+    }
+
+    /**
+     * Schedules the entry to fire once its deadline passes.
+     */
+    void schedule(final Entry entry) {
+        pendingEntries.add(entry);
+    }
+
+    /**
+     * Cancels the entry, it will not fire and is discarded from the wheel.
+     */
+    void cancel(final Entry entry) {
+        if (!entry.cancelled) {
+            entry.cancelled = true;
+            cancelledEntries.incrementAndGet();
+        }
+    }
+
+    /**
+     * Fires the entries whose deadline is at or before the specified time.
+     * Must not be invoked concurrently.
+     */
+    void advance(final long nowMillis) {
+        final long nowTick = toTick(nowMillis);
+        for (Entry entry = pendingEntries.poll(); entry != null; entry = pendingEntries.poll()) {
+            place(entry);
+        }
+        while (currentTick < nowTick) {
+            currentTick++;
+            // cascade the higher levels whose slot starts at the current tick, highest level first
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    processSlot(level);
+                }
+            }
+            processSlot(0);
+        }
+        if (cancelledEntries.get() > Math.max(SLOTS, scheduledEntries / 2)) {
+            purgeCancelled();
+        }
+    }
+
+    private void place(final Entry entry) {
+        if (entry.cancelled) {
+            cancelledEntries.decrementAndGet();
+            return;
+        }
+        final long deadlineTick = entry.deadlineTick();
+        final long delta = deadlineTick - currentTick;
+        if (delta <= 0) {
+            // fired entries are marked cancelled so that a later cancellation is not accounted
+            entry.cancelled = true;
+            expiryAction.accept(entry);
+            return;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1)))) {
+            level++;
+        }
+        final int slot = (int) ((deadlineTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        slots.get(level * SLOTS + slot).add(entry);
+        scheduledEntries++;
+    }
+
+    private void processSlot(final int level) {
+        final int slot = (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        final List<Entry> entries = slots.get(level * SLOTS + slot);
+        if (entries.isEmpty()) {
+            return;
+        }
+        slots.set(level * SLOTS + slot, new ArrayList<>(0));
+        scheduledEntries -= entries.size();
+        // entries beyond the range of the top level, or of a later lap, are placed again
+        for (final Entry entry : entries) {
+            place(entry);
+        }
+    }
+
+    private void purgeCancelled() {
+        for (final List<Entry> entries : slots) {
+            final int size = entries.size();
+            if (entries.removeIf(entry -> entry.cancelled)) {
+                final int removed = size - entries.size();
+                scheduledEntries -= removed;
+                cancelledEntries.addAndGet(-removed);
+            }
+        }
+    }
+
+    /**
+     * @return the number of entries waiting for their deadline, including the pending ones.
+     */
+    int size() {
+        return scheduledEntries + pendingEntries.size();
+    }
+
+    /**
+     * An entry scheduled on the wheel.
+     */
+    abstract static class Entry {
+
+        private volatile boolean cancelled;
+
+        /**
+         * @return the time, in milliseconds since the epoch, after which the entry fires.
+         */
+        abstract long deadline();
+
+        private long deadlineTick() {
+            // fire at the end of the second the deadline falls in, an entry never fires before its deadline
+            return toTick(deadline() + 999);
+        }
+    }
+}
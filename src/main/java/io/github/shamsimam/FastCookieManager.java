@@ -0,0 +1,171 @@
+package io.github.shamsimam;
+
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A CookieManager which parses the cookies of responses with a {@link SetCookieParser} rather than with
+ * {@link HttpCookie#parse(String)}, the cookies it stores are otherwise those a CookieManager stores.
+ * <p>
+ * Header values received before are not parsed again, see {@link SetCookieCache}. A cookie which a
+ * {@link ConcurrentCookieStore} already holds unchanged is not added again, hence servers sending the same
+ * cookie with every response do not modify the store, a cookie with a max-age attribute has its expiry
+ * refreshed at most once a second.
+ * <p>
+ * The path, domain and port list of the cookies default as in CookieManager and the cookies are stored if
+ * the policy accepts them. The cookies of requests are retrieved straight from the store by the
+ * {@link CookieStoreInterceptor}, as with a CookieManager which is not subclassed.
+ */
+public final class FastCookieManager extends CookieManager {
+
+    private static final Logger logger = Logger.getLogger(FastCookieManager.class.getName());
+
+    // The policy deciding which cookies are stored
+    private volatile CookiePolicy cookiePolicy;
+    // The cookies of the header values received before
+    private final SetCookieCache setCookieCache = new SetCookieCache(SetCookieCache.DEFAULT_MAXIMUM_SIZE);
+    // The store when it can tell whether it holds a cookie already, null otherwise
+    private final ConcurrentCookieStore concurrentCookieStore;
+
+    /**
+     * Create a new FastCookieManager with a {@link ConcurrentCookieStore} and the default accept policy.
+     */
+    public FastCookieManager() {
+        this(new ConcurrentCookieStore(), null);
+    }
+
+    /**
+     * Create a new FastCookieManager.
+     *
+     * @param cookieStore  the store of the cookies, an in-memory store of the JDK if null.
+     * @param cookiePolicy the policy deciding which cookies are stored, accepting the cookies of the
+     *                     original server if null.
+     */
+    public FastCookieManager(final CookieStore cookieStore, final CookiePolicy cookiePolicy) {
+        super(cookieStore, cookiePolicy);
+        this.cookiePolicy = cookiePolicy == null ? CookiePolicy.ACCEPT_ORIGINAL_SERVER : cookiePolicy;
+        this.concurrentCookieStore =
+            cookieStore instanceof ConcurrentCookieStore ? (ConcurrentCookieStore) cookieStore : null;
+    }
+
+    @Override
+    public void setCookiePolicy(final CookiePolicy cookiePolicy) {
+        super.setCookiePolicy(cookiePolicy);
+        if (cookiePolicy != null) {
+            this.cookiePolicy = cookiePolicy;
+        }
+    }
+
+    @Override
+    public void put(final URI uri, final Map<String, List<String>> responseHeaders) {
+        if (uri == null || responseHeaders == null) {
+            throw new IllegalArgumentException("Argument is null");
+        }
+        final CookieStore cookieStore = getCookieStore();
+        final long nowMillis = System.currentTimeMillis();
+        for (final Map.Entry<String, List<String>> entry : responseHeaders.entrySet()) {
+            final String headerKey = entry.getKey();
+            if (headerKey == null
+                || !(headerKey.equalsIgnoreCase("Set-Cookie2") || headerKey.equalsIgnoreCase("Set-Cookie"))) {
+                continue;
+            }
+            for (final String headerValue : entry.getValue()) {
+                final HttpCookie[] cookies;
+                try {
+                    cookies = setCookieCache.get(headerValue, nowMillis);
+                } catch (final IllegalArgumentException ex) {
+                    logger.log(Level.SEVERE, "invalid cookie for " + uri + ": " + headerValue);
+                    continue;
+                }
+                try {
+                    for (final HttpCookie cookie : cookies) {
+                        store(cookieStore, uri, cookie);
+                    }
+                } catch (final IllegalArgumentException ex) {
+                    // stores rejecting a cookie skip the rest of the header, as in CookieManager
+                }
+            }
+        }
+    }
+
+    private void store(final CookieStore cookieStore, final URI uri, final HttpCookie cookie) {
+        if (cookie.getPath() == null) {
+            // the path defaults to the directory of the request path
+            String path = uri.getPath();
+            if (!path.endsWith("/")) {
+                final int slash = path.lastIndexOf('/');
+                path = slash > 0 ? path.substring(0, slash + 1) : "/";
+            }
+            cookie.setPath(path);
+        }
+        if (cookie.getDomain() == null) {
+            // the domain defaults to the request host, as per RFC 2965 section 3.3.1
+            String host = uri.getHost();
+            if (host != null && !host.contains(".")) {
+                host += ".local";
+            }
+            cookie.setDomain(host);
+        }
+        final String ports = cookie.getPortlist();
+        if (ports != null) {
+            int port = uri.getPort();
+            if (port == -1) {
+                port = "https".equals(uri.getScheme()) ? 443 : 80;
+            }
+            if (ports.isEmpty()) {
+                // an empty port list restricts the cookie to the request port
+                cookie.setPortlist(String.valueOf(port));
+            } else if (!isInPortList(ports, port)) {
+                return;
+            }
+        }
+        if (concurrentCookieStore != null && concurrentCookieStore.contains(uri, cookie)) {
+            // storing the cookie again would change nothing, whether or not the policy accepts it
+            return;
+        }
+        if (shouldAccept(uri, cookie)) {
+            cookieStore.add(uri, cookie);
+        }
+    }
+
+    private boolean shouldAccept(final URI uri, final HttpCookie cookie) {
+        try {
+            return cookiePolicy.shouldAccept(uri, cookie);
+        } catch (final Exception ex) {
+            // a failing policy rejects the cookie, as in CookieManager
+            return false;
+        }
+    }
+
+    /**
+     * Whether the port is in the comma-separated list, entries which are not numbers are skipped.
+     */
+    private static boolean isInPortList(final String ports, final int port) {
+        int start = 0;
+        int comma = ports.indexOf(',');
+        // as in CookieManager, the entries after an empty entry are parsed as one
+        while (comma > start) {
+            if (parsePort(ports, start, comma) == port) {
+                return true;
+            }
+            start = comma + 1;
+            comma = ports.indexOf(',', start);
+        }
+        return start < ports.length() && parsePort(ports, start, ports.length()) == port;
+    }
+
+    private static int parsePort(final String ports, final int start, final int end) {
+        try {
+            return Integer.parseInt(ports.substring(start, end));
+        } catch (final NumberFormatException ex) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package io.github.shamsimam;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * A {@link CookieReplicationTransport} connecting the stores of a single process, e.g. in tests.
+ * <p>
+ * Each transport is a node of a group of peers created with {@link #newPeer()}, deltas are delivered to the
+ * other peers of the group on the broadcasting thread.
+ */
+public final class LoopbackReplicationTransport implements CookieReplicationTransport {
+
+    // The open peers of the group, including this one
+    private final List<LoopbackReplicationTransport> peers;
+    private volatile Consumer<byte[]> receiver;
+
+    /**
+     * Create a new LoopbackReplicationTransport, the first node of a new group.
+     */
+    public LoopbackReplicationTransport() {
+        this(new CopyOnWriteArrayList<>());
+    }
+
+    private LoopbackReplicationTransport(final List<LoopbackReplicationTransport> peers) {
+        this.peers = peers;
+        peers.add(this);
+    }
+
+    /**
+     * Creates a new node of the group of this transport.
+     *
+     * @return the transport of the new node.
+     */
+    public LoopbackReplicationTransport newPeer() {
+        return new LoopbackReplicationTransport(peers);
+    }
+
+    @Override
+    public void start(final Consumer<byte[]> receiver) {
+        this.receiver = receiver;
+    }
+
+    @Override
+    public void broadcast(final byte[] delta) {
+        for (final LoopbackReplicationTransport peer : peers) {
+            final Consumer<byte[]> peerReceiver = peer.receiver;
+            if (peer != this && peerReceiver != null) {
+                peerReceiver.accept(delta);
+            }
+        }
+    }
+
+    /**
+     * Leaves the group, the transport no longer receives deltas.
+     */
+    @Override
+    public void close() {
+        peers.remove(this);
+    }
+}
@@ -0,0 +1,522 @@
+package io.github.shamsimam;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A CookieStore which keeps its cookies in a memory-mapped file, in a fixed binary layout, so that a
+ * restarted client serves lookups from the file straight away.
+ * <p>
+ * The file holds a header, an open-addressing table of domain hashes and chain offsets, and the cookies,
+ * each in the layout of an {@link OffHeapCookieStore} block holding the packed fields of a
+ * {@link CookieRecord}. Opening the store only maps the file, hence the operating system loads the pages
+ * lookups touch and nothing is deserialized up front. Lookups decode the matching cookies into short-lived
+ * HttpCookie instances. The matching rules are those of {@link ConcurrentCookieStore}, expired cookies are
+ * removed when they are looked up.
+ * <p>
+ * Cookies are appended to the file and the space of removed cookies is reclaimed when the file is full,
+ * by rewriting the live cookies into a new file, twice as large as needed, which atomically replaces the
+ * file. Operations are synchronized on the store and the file is locked against other processes.
+ * Modifications reach the file once they return, the store must be {@link #close() closed} to force them
+ * to the storage device.
+ */
+public final class MappedCookieStore implements VersionedCookieStore, BatchModifiedCookieStore, Closeable {
+
+    /**
+     * The default size, in bytes, of a new file.
+     */
+    public static final int DEFAULT_INITIAL_SIZE = 1 << 20;
+
+    private static final int MAGIC = 0x434b4d31;
+    private static final int FORMAT = 1;
+    private static final int MIN_TABLE_CAPACITY = 64;
+    // Marks the absence of a cookie, offset 0 is the header
+    private static final int NO_OFFSET = 0;
+
+    // The layout of the header
+    private static final int MAGIC_FIELD = 0;
+    private static final int FORMAT_FIELD = 4;
+    private static final int TABLE_CAPACITY = 8;
+    private static final int DOMAIN_COUNT = 12;
+    private static final int DATA_END = 16;
+    private static final int GARBAGE_BYTES = 20;
+    private static final int HEADER_SIZE = 64;
+    // The layout of a table slot
+    private static final int SLOT_HASH = 0;
+    private static final int SLOT_HEAD = 4;
+    private static final int SLOT_SIZE = 8;
+    // The layout of a cookie, aligned on 8 bytes
+    private static final int NEXT = 0;
+    private static final int RECORD_LENGTH = 4;
+    private static final int EXPIRES_AT = 8;
+    private static final int FLAGS = 16;
+    private static final int DOMAIN_LENGTH = 20;
+    private static final int HOST_LENGTH = 24;
+    private static final int DATA = 28;
+
+    private final Path file;
+    private FileChannel channel;
+    private FileLock lock;
+    private MappedByteBuffer buffer;
+    // The domain table of the mapped file
+    private Table table;
+    private boolean closed;
+    // The number of modifications made to the store
+    private volatile long version;
+
+    /**
+     * Create a new MappedCookieStore, mapping the cookies stored in the file, if any.
+     *
+     * @param file the file holding the cookies, created as needed.
+     * @throws IOException if the file cannot be mapped or is used by another process.
+     */
+    public MappedCookieStore(final Path file) throws IOException {
+        this(file, DEFAULT_INITIAL_SIZE);
+    }
+
+    /**
+     * Create a new MappedCookieStore, mapping the cookies stored in the file, if any.
+     *
+     * @param file        the file holding the cookies, created as needed.
+     * @param initialSize the size, in bytes, of the file when it is created.
+     * @throws IOException if the file cannot be mapped or is used by another process.
+     */
+    public MappedCookieStore(final Path file, final int initialSize) throws IOException {
+        if (initialSize <= HEADER_SIZE + MIN_TABLE_CAPACITY * SLOT_SIZE) {
+            throw new IllegalArgumentException("initialSize must be larger than the table: " + initialSize);
+        }
+        this.file = file;
+        final boolean exists = Files.exists(file) && Files.size(file) > 0;
+        channel = FileChannel.open(file,
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            lock = lock(channel, file);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, exists ? channel.size() : initialSize);
+            if (exists) {
+                if (buffer.capacity() < HEADER_SIZE || buffer.getInt(MAGIC_FIELD) != MAGIC) {
+                    throw new IOException("not a cookie store file: " + file);
+                }
+                if (buffer.getInt(FORMAT_FIELD) != FORMAT) {
+                    throw new IOException("unsupported cookie store format: " + buffer.getInt(FORMAT_FIELD));
+                }
+            } else {
+                initialize(buffer, MIN_TABLE_CAPACITY);
+            }
+            table = new Table(buffer);
+        } catch (final IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private static FileLock lock(final FileChannel channel, final Path file) throws IOException {
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (final OverlappingFileLockException ex) {
+            // the file is used by another store of this process
+            lock = null;
+        }
+        if (lock == null) {
+            throw new IOException("cookie store file is used by another process: " + file);
+        }
+        return lock;
+    }
+
+    private static void initialize(final ByteBuffer buffer, final int tableCapacity) {
+        buffer.putInt(MAGIC_FIELD, MAGIC);
+        buffer.putInt(FORMAT_FIELD, FORMAT);
+        buffer.putInt(TABLE_CAPACITY, tableCapacity);
+        buffer.putInt(DOMAIN_COUNT, 0);
+        buffer.putInt(DATA_END, HEADER_SIZE + tableCapacity * SLOT_SIZE);
+        buffer.putInt(GARBAGE_BYTES, 0);
+        for (int slot = 0; slot < tableCapacity; slot++) {
+            buffer.putInt(slotOffset(slot) + SLOT_HEAD, NO_OFFSET);
+        }
+    }
+
+    @Override
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public synchronized void modifyInBatch(final Runnable modifications) {
+        modifications.run();
+    }
+
+    @Override
+    public synchronized void add(final URI uri, final HttpCookie cookie) {
+        if (cookie == null) {
+            throw new NullPointerException("cookie is null");
+        }
+        ensureOpen();
+        final String host = uri == null ? null : uri.getHost();
+        final String key = DomainChainTable.key(cookie.getDomain() == null ? host : cookie.getDomain());
+        int slot = table.find(key);
+        if (cookie.getMaxAge() == 0) {
+            // an expired cookie only removes the stored one
+            if (slot >= 0 && table.unlink(slot, cookie)) {
+                version++;
+            }
+            return;
+        }
+
+        final boolean replaces = slot >= 0 && table.contains(slot, cookie);
+        final CookieRecord record = new CookieRecord(cookie, System.currentTimeMillis());
+        final byte[] domainBytes = bytes(cookie.getDomain());
+        final byte[] hostBytes = bytes(host);
+        final int size = align(DATA + record.dataLength() + length(domainBytes) + length(hostBytes));
+        if (!reserve(size, slot < 0 ? 1 : 0)) {
+            // the table was rebuilt, the slot has moved
+            slot = table.find(key);
+        }
+        final int offset = buffer.getInt(DATA_END);
+        buffer.putInt(offset + NEXT, NO_OFFSET);
+        buffer.putInt(offset + RECORD_LENGTH, record.dataLength());
+        buffer.putLong(offset + EXPIRES_AT, record.expiresAt());
+        buffer.putShort(offset + FLAGS, record.flags());
+        buffer.putInt(offset + DOMAIN_LENGTH, domainBytes == null ? -1 : domainBytes.length);
+        buffer.putInt(offset + HOST_LENGTH, hostBytes == null ? -1 : hostBytes.length);
+        int position = put(offset + DATA, record.data(), record.dataLength());
+        position = put(position, domainBytes, length(domainBytes));
+        put(position, hostBytes, length(hostBytes));
+        // the cookie is linked once written, a crash in between leaves unreachable bytes
+        buffer.putInt(DATA_END, offset + size);
+        if (slot < 0) {
+            table.insertSlot(key.hashCode(), offset);
+        } else {
+            table.append(slot, offset);
+        }
+        if (replaces) {
+            // the replaced cookie precedes the new one and is only unlinked once the new one is linked, a crash
+            // in between leaves both cookies rather than neither
+            table.unlink(slot, cookie);
+        }
+        version++;
+    }
+
+    @Override
+    public List<HttpCookie> get(final URI uri) {
+        if (uri == null) {
+            throw new NullPointerException("uri is null");
+        }
+        final String host = uri.getHost();
+        if (host == null) {
+            return Collections.emptyList();
+        }
+        final boolean secureLink = "https".equalsIgnoreCase(uri.getScheme());
+        final String normalizedHost = DomainTrie.normalize(host);
+        final long nowMillis = System.currentTimeMillis();
+        final List<HttpCookie> cookies = new ArrayList<>();
+        synchronized (this) {
+            ensureOpen();
+            if (table.collect(normalizedHost, secureLink, nowMillis, cookies)) {
+                version++;
+            }
+        }
+        return cookies;
+    }
+
+    @Override
+    public synchronized List<HttpCookie> getCookies() {
+        ensureOpen();
+        final List<HttpCookie> cookies = new ArrayList<>();
+        table.collectAll(System.currentTimeMillis(), cookies);
+        return Collections.unmodifiableList(cookies);
+    }
+
+    @Override
+    public synchronized List<URI> getURIs() {
+        ensureOpen();
+        final Set<String> hosts = new LinkedHashSet<>();
+        table.collectHosts(hosts);
+        final List<URI> uris = new ArrayList<>(hosts.size());
+        for (final String host : hosts) {
+            try {
+                uris.add(new URI("http", host, null, null, null));
+            } catch (final URISyntaxException ignored) {
+                // hosts received in a URI are valid
+            }
+        }
+        return Collections.unmodifiableList(uris);
+    }
+
+    @Override
+    public synchronized boolean remove(final URI uri, final HttpCookie cookie) {
+        if (cookie == null) {
+            throw new NullPointerException("cookie is null");
+        }
+        ensureOpen();
+        if (!table.remove(uri == null ? null : uri.getHost(), cookie)) {
+            return false;
+        }
+        version++;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean removeAll() {
+        ensureOpen();
+        if (buffer.getInt(DOMAIN_COUNT) == 0) {
+            return false;
+        }
+        initialize(buffer, table.capacity());
+        version++;
+        return true;
+    }
+
+    /**
+     * Forces the cookies to the storage device and unmaps the file, the store can no longer be used.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            buffer.force();
+            buffer = null;
+            table = null;
+            lock.release();
+            channel.close();
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("cookie store is closed");
+        }
+    }
+
+    /**
+     * Makes room for a cookie of the specified size and for the specified number of new domains, rebuilding
+     * the file when it is full.
+     *
+     * @return true if the table was left in place.
+     */
+    private boolean reserve(final int size, final int newDomains) {
+        final int dataEnd = buffer.getInt(DATA_END);
+        final int domainCount = buffer.getInt(DOMAIN_COUNT);
+        if ((long) dataEnd + size <= buffer.capacity() && (domainCount + newDomains) * 2 <= table.capacity()) {
+            return true;
+        }
+        try {
+            rebuild(size, domainCount + newDomains);
+        } catch (final IOException ex) {
+            throw new IllegalStateException("error in growing cookie store file: " + file, ex);
+        }
+        return false;
+    }
+
+    /**
+     * Rewrites the live cookies into a new file which replaces the current file.
+     */
+    private void rebuild(final int size, final int domainCount) throws IOException {
+        int tableCapacity = MIN_TABLE_CAPACITY;
+        // the table is left half empty for the domains added later
+        while (domainCount * 4 > tableCapacity) {
+            tableCapacity *= 2;
+        }
+        final int dataStart = HEADER_SIZE + tableCapacity * SLOT_SIZE;
+        final long liveBytes = buffer.getInt(DATA_END) - HEADER_SIZE - (long) table.capacity() * SLOT_SIZE
+            - buffer.getInt(GARBAGE_BYTES);
+        final long fileSize = Math.max(buffer.capacity(), dataStart + 2 * (liveBytes + size));
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException("cookie store file is full: " + file);
+        }
+
+        final Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        final FileChannel newChannel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final FileLock newLock;
+        final MappedByteBuffer target;
+        try {
+            newLock = lock(newChannel, temporaryFile);
+            target = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        } catch (final IOException | RuntimeException ex) {
+            newChannel.close();
+            throw ex;
+        }
+        initialize(target, tableCapacity);
+        int dataEnd = dataStart;
+        final Table targetTable = new Table(target);
+        for (int slot = 0; slot < table.capacity(); slot++) {
+            int previous = NO_OFFSET;
+            for (int offset = (int) table.head(slot); offset != NO_OFFSET; offset = (int) table.next(offset)) {
+                final int cookieSize = table.cookieSize(offset);
+                for (int i = 0; i < cookieSize; i++) {
+                    target.put(dataEnd + i, buffer.get(offset + i));
+                }
+                target.putInt(dataEnd + NEXT, NO_OFFSET);
+                if (previous == NO_OFFSET) {
+                    targetTable.insertSlot(table.hash(slot), dataEnd);
+                } else {
+                    target.putInt(previous + NEXT, dataEnd);
+                }
+                previous = dataEnd;
+                dataEnd += cookieSize;
+            }
+        }
+        target.putInt(DATA_END, dataEnd);
+        target.force();
+
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lock.release();
+        channel.close();
+        channel = newChannel;
+        lock = newLock;
+        buffer = target;
+        table = targetTable;
+    }
+
+    private static int slotOffset(final int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static byte[] bytes(final String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(final byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static int align(final int size) {
+        return (size + 7) & ~7;
+    }
+
+    private int put(final int offset, final byte[] bytes, final int length) {
+        for (int i = 0; i < length; i++) {
+            buffer.put(offset + i, bytes[i]);
+        }
+        return offset + length;
+    }
+
+    /**
+     * The domain table held by a mapped file, whose cookies are referred to by their offset in the file.
+     */
+    private static final class Table extends DomainChainTable {
+
+        private final ByteBuffer buffer;
+
+        private Table(final ByteBuffer buffer) {
+            super(NO_OFFSET);
+            this.buffer = buffer;
+        }
+
+        @Override
+        int capacity() {
+            return buffer.getInt(TABLE_CAPACITY);
+        }
+
+        @Override
+        long head(final int slot) {
+            return buffer.getInt(slotOffset(slot) + SLOT_HEAD);
+        }
+
+        @Override
+        void setHead(final int slot, final long cookie) {
+            buffer.putInt(slotOffset(slot) + SLOT_HEAD, (int) cookie);
+        }
+
+        @Override
+        int hash(final int slot) {
+            return buffer.getInt(slotOffset(slot) + SLOT_HASH);
+        }
+
+        @Override
+        void setHash(final int slot, final int hash) {
+            buffer.putInt(slotOffset(slot) + SLOT_HASH, hash);
+        }
+
+        @Override
+        int domainCount() {
+            return buffer.getInt(DOMAIN_COUNT);
+        }
+
+        @Override
+        void setDomainCount(final int domainCount) {
+            buffer.putInt(DOMAIN_COUNT, domainCount);
+        }
+
+        @Override
+        long next(final long cookie) {
+            return buffer.getInt((int) cookie + NEXT);
+        }
+
+        @Override
+        void setNext(final long cookie, final long next) {
+            buffer.putInt((int) cookie + NEXT, (int) next);
+        }
+
+        @Override
+        CookieRecord record(final long cookie) {
+            final int offset = (int) cookie;
+            final byte[] data = new byte[buffer.getInt(offset + RECORD_LENGTH)];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = buffer.get(offset + DATA + i);
+            }
+            return new CookieRecord(data, buffer.getShort(offset + FLAGS), buffer.getLong(offset + EXPIRES_AT));
+        }
+
+        @Override
+        String domain(final long cookie) {
+            final int offset = (int) cookie;
+            return string(offset + DOMAIN_LENGTH, offset + DATA + buffer.getInt(offset + RECORD_LENGTH));
+        }
+
+        @Override
+        String host(final long cookie) {
+            final int offset = (int) cookie;
+            final int domainLength = Math.max(0, buffer.getInt(offset + DOMAIN_LENGTH));
+            return string(offset + HOST_LENGTH, offset + DATA + buffer.getInt(offset + RECORD_LENGTH) + domainLength);
+        }
+
+        /**
+         * The space of unlinked cookies is reclaimed once the file is rebuilt.
+         */
+        @Override
+        void release(final long cookie) {
+            buffer.putInt(GARBAGE_BYTES, buffer.getInt(GARBAGE_BYTES) + cookieSize((int) cookie));
+        }
+
+        private int cookieSize(final int offset) {
+            return align(DATA + buffer.getInt(offset + RECORD_LENGTH)
+                + Math.max(0, buffer.getInt(offset + DOMAIN_LENGTH))
+                + Math.max(0, buffer.getInt(offset + HOST_LENGTH)));
+        }
+
+        /**
+         * Decodes the string whose length is at the specified position and whose bytes start at the specified
+         * position.
+         */
+        private String string(final int lengthPosition, final int position) {
+            final int length = buffer.getInt(lengthPosition);
+            if (length < 0) {
+                return null;
+            }
+            final byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = buffer.get(position + i);
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
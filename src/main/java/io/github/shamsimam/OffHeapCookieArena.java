@@ -0,0 +1,146 @@
+package io.github.shamsimam;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A region of memory outside of the Java heap, made of direct ByteBuffer slabs, which holds the cookies
+ * of many {@link OffHeapCookieStore}s.
+ * <p>
+ * Blocks are allocated in power-of-two size classes, from 64 bytes, by bumping an offset into the current
+ * slab, blocks larger than a slab get a slab of their own. Freed blocks are kept in a free list per size
+ * class which is threaded through the blocks themselves, hence the arena holds no object per block.
+ * Memory is never returned to the operating system, the slabs are released once the arena is garbage
+ * collected.
+ */
+public final class OffHeapCookieArena {
+
+    /**
+     * The default size, in bytes, of a slab.
+     */
+    public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+    // Marks the absence of a block
+    static final long NO_HANDLE = -1;
+
+    private static final int MIN_SIZE_CLASS = 6;
+
+    private final int slabSize;
+    // The slabs, replaced by a larger copy as slabs are added so that blocks are read without locking
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+    // The first free block of each size class
+    private final long[] freeBlocks = new long[Integer.SIZE];
+    // The slab blocks are currently carved out of, or -1
+    private int currentSlab = -1;
+    // The offset of the next block in the current slab
+    private int currentOffset;
+    private long reservedBytes;
+    private long usedBytes;
+
+    /**
+     * Create a new arena with slabs of the default size.
+     */
+    public OffHeapCookieArena() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * Create a new arena.
+     *
+     * @param slabSize the size, in bytes, of the slabs, a power of two of at least 64 bytes.
+     */
+    public OffHeapCookieArena(final int slabSize) {
+        if (slabSize < 1 << MIN_SIZE_CLASS || Integer.bitCount(slabSize) != 1) {
+            throw new IllegalArgumentException("slabSize must be a power of two of at least 64: " + slabSize);
+        }
+        this.slabSize = slabSize;
+        Arrays.fill(freeBlocks, NO_HANDLE);
+    }
+
+    /**
+     * @return a new, empty, store which keeps its cookies in this arena.
+     */
+    public OffHeapCookieStore newStore() {
+        return new OffHeapCookieStore(this);
+    }
+
+    /**
+     * @return the number of bytes of the slabs allocated by the arena.
+     */
+    public synchronized long reservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * @return the number of bytes of the blocks in use, including the unused tail of each block.
+     */
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    private static int sizeClass(final int size) {
+        return Math.max(MIN_SIZE_CLASS, Integer.SIZE - Integer.numberOfLeadingZeros(size - 1));
+    }
+
+    /**
+     * Allocates a block of at least the specified size.
+     *
+     * @return the handle of the block.
+     */
+    synchronized long allocate(final int size) {
+        final int sizeClass = sizeClass(size);
+        final int blockSize = 1 << sizeClass;
+        usedBytes += blockSize;
+        final long freeBlock = freeBlocks[sizeClass];
+        if (freeBlock != NO_HANDLE) {
+            freeBlocks[sizeClass] = buffer(freeBlock).getLong(offset(freeBlock));
+            return freeBlock;
+        }
+        if (blockSize > slabSize) {
+            return handle(addSlab(blockSize), 0);
+        }
+        if (currentSlab < 0 || currentOffset + blockSize > slabSize) {
+            currentSlab = addSlab(slabSize);
+            currentOffset = 0;
+        }
+        final long handle = handle(currentSlab, currentOffset);
+        currentOffset += blockSize;
+        return handle;
+    }
+
+    private int addSlab(final int size) {
+        final ByteBuffer[] updated = Arrays.copyOf(slabs, slabs.length + 1);
+        updated[slabs.length] = ByteBuffer.allocateDirect(size);
+        slabs = updated;
+        reservedBytes += size;
+        return updated.length - 1;
+    }
+
+    /**
+     * Frees a block, the size must be the one the block was allocated with.
+     */
+    synchronized void free(final long handle, final int size) {
+        final int sizeClass = sizeClass(size);
+        usedBytes -= 1 << sizeClass;
+        buffer(handle).putLong(offset(handle), freeBlocks[sizeClass]);
+        freeBlocks[sizeClass] = handle;
+    }
+
+    private static long handle(final int slab, final int offset) {
+        return ((long) slab << Integer.SIZE) | offset;
+    }
+
+    /**
+     * @return the slab of the block, blocks must only be accessed with absolute get and put operations.
+     */
+    ByteBuffer buffer(final long handle) {
+        return slabs[(int) (handle >>> Integer.SIZE)];
+    }
+
+    /**
+     * @return the offset of the block in its slab.
+     */
+    static int offset(final long handle) {
+        return (int) handle;
+    }
+}
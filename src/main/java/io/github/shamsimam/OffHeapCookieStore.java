@@ -0,0 +1,384 @@
+package io.github.shamsimam;
+
+import java.io.Closeable;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static io.github.shamsimam.OffHeapCookieArena.NO_HANDLE;
+
+/**
+ * A CookieStore which keeps its cookies outside of the Java heap, in the slabs of an
+ * {@link OffHeapCookieArena}.
+ * <p>
+ * Each cookie is a block of the arena holding the packed fields of a {@link CookieRecord} along with its
+ * expiry, domain and the host it was received from. The cookies of a domain are chained through their
+ * blocks and the store only keeps an open-addressing table of domain hashes and chain handles on the heap,
+ * i.e. two small arrays. Stores sharing an arena, e.g. one store per simulated user of a load generator,
+ * hence retain very few objects for the garbage collector to trace. Lookups decode the matching cookies
+ * into short-lived HttpCookie instances.
+ * <p>
+ * The matching rules are those of {@link ConcurrentCookieStore}, expired cookies are removed when they are
+ * looked up. Operations are synchronized on the store. The store must be {@link #close() closed} to return
+ * its blocks to the arena.
+ */
+public final class OffHeapCookieStore implements VersionedCookieStore, BatchModifiedCookieStore, Closeable {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    // The layout of a cookie block
+    private static final int NEXT = 0;
+    private static final int EXPIRES_AT = 8;
+    private static final int FLAGS = 16;
+    private static final int RECORD_LENGTH = 20;
+    private static final int DOMAIN_LENGTH = 24;
+    private static final int HOST_LENGTH = 28;
+    private static final int DATA = 32;
+
+    private final OffHeapCookieArena arena;
+    // The domain table over the slot arrays and the blocks of the arena
+    private final DomainChainTable table = new Table();
+    // The handle of the first cookie of each domain, or NO_HANDLE for free slots
+    private long[] chains = newChains(INITIAL_CAPACITY);
+    // The hash code of the domain of each slot
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int domainCount;
+    private boolean closed;
+    // The number of modifications made to the store
+    private volatile long version;
+
+    OffHeapCookieStore(final OffHeapCookieArena arena) {
+        this.arena = arena;
+    }
+
+    private static long[] newChains(final int capacity) {
+        final long[] chains = new long[capacity];
+        Arrays.fill(chains, NO_HANDLE);
+        return chains;
+    }
+
+    @Override
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public synchronized void modifyInBatch(final Runnable modifications) {
+        modifications.run();
+    }
+
+    @Override
+    public synchronized void add(final URI uri, final HttpCookie cookie) {
+        if (cookie == null) {
+            throw new NullPointerException("cookie is null");
+        }
+        ensureOpen();
+        final String host = uri == null ? null : uri.getHost();
+        final String key = DomainChainTable.key(cookie.getDomain() == null ? host : cookie.getDomain());
+        int slot = table.find(key);
+        if (slot >= 0 && table.unlink(slot, cookie)) {
+            version++;
+            // the slot is removed along with the last cookie of the domain
+            slot = table.find(key);
+        }
+        if (cookie.getMaxAge() == 0) {
+            // an expired cookie only removes the stored one
+            return;
+        }
+
+        final long handle = write(new CookieRecord(cookie, System.currentTimeMillis()), cookie.getDomain(), host);
+        if (slot < 0) {
+            if ((domainCount + 1) * 2 > chains.length) {
+                grow();
+            }
+            table.insertSlot(key.hashCode(), handle);
+        } else {
+            table.append(slot, handle);
+        }
+        version++;
+    }
+
+    @Override
+    public List<HttpCookie> get(final URI uri) {
+        if (uri == null) {
+            throw new NullPointerException("uri is null");
+        }
+        final String host = uri.getHost();
+        if (host == null) {
+            return Collections.emptyList();
+        }
+        final boolean secureLink = "https".equalsIgnoreCase(uri.getScheme());
+        final String normalizedHost = DomainTrie.normalize(host);
+        final long nowMillis = System.currentTimeMillis();
+        final List<HttpCookie> cookies = new ArrayList<>();
+        synchronized (this) {
+            ensureOpen();
+            if (table.collect(normalizedHost, secureLink, nowMillis, cookies)) {
+                version++;
+            }
+        }
+        return cookies;
+    }
+
+    @Override
+    public synchronized List<HttpCookie> getCookies() {
+        ensureOpen();
+        final List<HttpCookie> cookies = new ArrayList<>();
+        table.collectAll(System.currentTimeMillis(), cookies);
+        return Collections.unmodifiableList(cookies);
+    }
+
+    @Override
+    public synchronized List<URI> getURIs() {
+        ensureOpen();
+        final Set<String> hosts = new LinkedHashSet<>();
+        table.collectHosts(hosts);
+        final List<URI> uris = new ArrayList<>(hosts.size());
+        for (final String host : hosts) {
+            try {
+                uris.add(new URI("http", host, null, null, null));
+            } catch (final URISyntaxException ignored) {
+                // hosts received in a URI are valid
+            }
+        }
+        return Collections.unmodifiableList(uris);
+    }
+
+    @Override
+    public synchronized boolean remove(final URI uri, final HttpCookie cookie) {
+        if (cookie == null) {
+            throw new NullPointerException("cookie is null");
+        }
+        ensureOpen();
+        if (!table.remove(uri == null ? null : uri.getHost(), cookie)) {
+            return false;
+        }
+        version++;
+        return true;
+    }
+
+    @Override
+    public synchronized boolean removeAll() {
+        ensureOpen();
+        return freeAll();
+    }
+
+    /**
+     * Returns the blocks of the store to the arena, the store can no longer be used.
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            freeAll();
+            closed = true;
+        }
+    }
+
+    private boolean freeAll() {
+        if (domainCount == 0) {
+            return false;
+        }
+        for (final long head : chains) {
+            for (long handle = head; handle != NO_HANDLE; ) {
+                final long next = next(handle);
+                arena.free(handle, blockSize(handle));
+                handle = next;
+            }
+        }
+        chains = newChains(INITIAL_CAPACITY);
+        hashes = new int[INITIAL_CAPACITY];
+        domainCount = 0;
+        version++;
+        return true;
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("cookie store is closed");
+        }
+    }
+
+    /**
+     * Doubles the capacity of the table.
+     */
+    private void grow() {
+        final long[] oldChains = chains;
+        final int[] oldHashes = hashes;
+        chains = newChains(oldChains.length * 2);
+        hashes = new int[oldChains.length * 2];
+        for (int i = 0; i < oldChains.length; i++) {
+            if (oldChains[i] != NO_HANDLE) {
+                final int slot = table.freeSlot(oldHashes[i]);
+                chains[slot] = oldChains[i];
+                hashes[slot] = oldHashes[i];
+            }
+        }
+    }
+
+    private long write(final CookieRecord record, final String domain, final String host) {
+        final byte[] data = record.data();
+        final byte[] domainBytes = domain == null ? null : domain.getBytes(StandardCharsets.UTF_8);
+        final byte[] hostBytes = host == null ? null : host.getBytes(StandardCharsets.UTF_8);
+        final int size = DATA + data.length + length(domainBytes) + length(hostBytes);
+        final long handle = arena.allocate(size);
+        final ByteBuffer buffer = arena.buffer(handle);
+        final int offset = OffHeapCookieArena.offset(handle);
+        buffer.putLong(offset + NEXT, NO_HANDLE);
+        buffer.putLong(offset + EXPIRES_AT, record.expiresAt());
+        buffer.putShort(offset + FLAGS, record.flags());
+        buffer.putInt(offset + RECORD_LENGTH, data.length);
+        buffer.putInt(offset + DOMAIN_LENGTH, domainBytes == null ? -1 : domainBytes.length);
+        buffer.putInt(offset + HOST_LENGTH, hostBytes == null ? -1 : hostBytes.length);
+        int position = put(buffer, offset + DATA, data);
+        position = put(buffer, position, domainBytes);
+        put(buffer, position, hostBytes);
+        return handle;
+    }
+
+    private static int length(final byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static int put(final ByteBuffer buffer, final int offset, final byte[] bytes) {
+        if (bytes == null) {
+            return offset;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            buffer.put(offset + i, bytes[i]);
+        }
+        return offset + bytes.length;
+    }
+
+    private long next(final long handle) {
+        return arena.buffer(handle).getLong(OffHeapCookieArena.offset(handle) + NEXT);
+    }
+
+    private int recordLength(final long handle) {
+        return arena.buffer(handle).getInt(OffHeapCookieArena.offset(handle) + RECORD_LENGTH);
+    }
+
+    private int blockSize(final long handle) {
+        final ByteBuffer buffer = arena.buffer(handle);
+        final int offset = OffHeapCookieArena.offset(handle);
+        return DATA + buffer.getInt(offset + RECORD_LENGTH)
+            + Math.max(0, buffer.getInt(offset + DOMAIN_LENGTH)) + Math.max(0, buffer.getInt(offset + HOST_LENGTH));
+    }
+
+    private CookieRecord record(final long handle) {
+        final ByteBuffer buffer = arena.buffer(handle);
+        final int offset = OffHeapCookieArena.offset(handle);
+        final byte[] data = new byte[buffer.getInt(offset + RECORD_LENGTH)];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = buffer.get(offset + DATA + i);
+        }
+        return new CookieRecord(data, buffer.getShort(offset + FLAGS), buffer.getLong(offset + EXPIRES_AT));
+    }
+
+    private String host(final long handle) {
+        final ByteBuffer buffer = arena.buffer(handle);
+        final int offset = OffHeapCookieArena.offset(handle);
+        final int domainLength = Math.max(0, buffer.getInt(offset + DOMAIN_LENGTH));
+        return string(handle, HOST_LENGTH, DATA + recordLength(handle) + domainLength);
+    }
+
+    /**
+     * Decodes the string whose length is at the specified field of the block and whose bytes start at the
+     * specified position of the block.
+     */
+    private String string(final long handle, final int lengthField, final int position) {
+        final ByteBuffer buffer = arena.buffer(handle);
+        final int offset = OffHeapCookieArena.offset(handle);
+        final int length = buffer.getInt(offset + lengthField);
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + position + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The domain table of the store, whose slots are the arrays of the store and whose cookies are blocks.
+     */
+    private final class Table extends DomainChainTable {
+
+        private Table() {
+            super(NO_HANDLE);
+        }
+
+        @Override
+        int capacity() {
+            return chains.length;
+        }
+
+        @Override
+        long head(final int slot) {
+            return chains[slot];
+        }
+
+        @Override
+        void setHead(final int slot, final long cookie) {
+            chains[slot] = cookie;
+        }
+
+        @Override
+        int hash(final int slot) {
+            return hashes[slot];
+        }
+
+        @Override
+        void setHash(final int slot, final int hash) {
+            hashes[slot] = hash;
+        }
+
+        @Override
+        int domainCount() {
+            return domainCount;
+        }
+
+        @Override
+        void setDomainCount(final int count) {
+            domainCount = count;
+        }
+
+        @Override
+        long next(final long cookie) {
+            return OffHeapCookieStore.this.next(cookie);
+        }
+
+        @Override
+        void setNext(final long cookie, final long next) {
+            arena.buffer(cookie).putLong(OffHeapCookieArena.offset(cookie) + NEXT, next);
+        }
+
+        @Override
+        CookieRecord record(final long cookie) {
+            return OffHeapCookieStore.this.record(cookie);
+        }
+
+        @Override
+        String domain(final long cookie) {
+            return string(cookie, DOMAIN_LENGTH, DATA + recordLength(cookie));
+        }
+
+        @Override
+        String host(final long cookie) {
+            return OffHeapCookieStore.this.host(cookie);
+        }
+
+        @Override
+        void release(final long cookie) {
+            arena.free(cookie, blockSize(cookie));
+        }
+    }
+}
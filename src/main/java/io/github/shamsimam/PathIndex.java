@@ -0,0 +1,114 @@
+package io.github.shamsimam;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * An immutable index of items, e.g. cookies, by path which finds the items whose path is a prefix of a
+ * request path without comparing the request path with every item.
+ * <p>
+ * Items are grouped by path in an open-addressing hash table, and the distinct path lengths are recorded.
+ * A lookup hashes the request path incrementally and probes the table once per recorded length.
+ * The call paths of gRPC requests have the shape {@code /package.Service/Method} and cookie paths are
+ * typically {@code /}, the service prefix or the full method path, hence a lookup amounts to a couple of
+ * hash probes. Prefixes are matched exactly as {@link String#startsWith(String)}, i.e. the rules of
+ * {@link java.net.CookieManager} are retained.
+ *
+ * @param <T> the type of the indexed items
+ */
+final class PathIndex<T> {
+
+    private static final PathIndex<?> EMPTY = new PathIndex<>(new int[0], new String[1], new Object[1][]);
+
+    // The distinct path lengths, in ascending order
+    private final int[] lengths;
+    // The paths, indexed by their hash code
+    private final String[] paths;
+    // The items of each path, in the order they were indexed
+    private final Object[][] items;
+
+    private PathIndex(final int[] lengths, final String[] paths, final Object[][] items) {
+        this.lengths = lengths;
+        this.paths = paths;
+        this.items = items;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> PathIndex<T> empty() {
+        return (PathIndex<T>) EMPTY;
+    }
+
+    /**
+     * Builds the index of the specified items, items without a path are not indexed.
+     */
+    static <T> PathIndex<T> of(final T[] items, final Function<? super T, String> pathFunction) {
+        final Map<String, List<T>> itemsByPath = new LinkedHashMap<>();
+        for (final T item : items) {
+            final String path = pathFunction.apply(item);
+            if (path != null) {
+                itemsByPath.computeIfAbsent(path, key -> new ArrayList<>(2)).add(item);
+            }
+        }
+        if (itemsByPath.isEmpty()) {
+            return empty();
+        }
+
+        final int capacity = Integer.highestOneBit(Math.max(1, itemsByPath.size() * 2 - 1)) << 1;
+        final String[] paths = new String[capacity];
+        final Object[][] pathItems = new Object[capacity][];
+        final int[] lengths = new int[itemsByPath.size()];
+        int numLengths = 0;
+        for (final Map.Entry<String, List<T>> entry : itemsByPath.entrySet()) {
+            final String path = entry.getKey();
+            int slot = path.hashCode() & (capacity - 1);
+            while (paths[slot] != null) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            paths[slot] = path;
+            pathItems[slot] = entry.getValue().toArray();
+            lengths[numLengths++] = path.length();
+        }
+        Arrays.sort(lengths, 0, numLengths);
+        int numDistinct = 0;
+        for (int i = 0; i < numLengths; i++) {
+            if (numDistinct == 0 || lengths[numDistinct - 1] != lengths[i]) {
+                lengths[numDistinct++] = lengths[i];
+            }
+        }
+        return new PathIndex<>(Arrays.copyOf(lengths, numDistinct), paths, pathItems);
+    }
+
+    /**
+     * Performs the action on every item whose path is a prefix of the request path, longer paths last.
+     */
+    @SuppressWarnings("unchecked")
+    void forEachMatch(final String requestPath, final Consumer<? super T> action) {
+        final int mask = paths.length - 1;
+        final int requestLength = requestPath.length();
+        int hash = 0;
+        int position = 0;
+        for (final int length : lengths) {
+            if (length > requestLength) {
+                return;
+            }
+            // String.hashCode of the request path prefix, computed incrementally
+            while (position < length) {
+                hash = 31 * hash + requestPath.charAt(position++);
+            }
+            for (int slot = hash & mask; paths[slot] != null; slot = (slot + 1) & mask) {
+                final String path = paths[slot];
+                if (path.length() == length && requestPath.startsWith(path)) {
+                    for (final Object item : items[slot]) {
+                        action.accept((T) item);
+                    }
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package io.github.shamsimam;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A CookieStore which persists its cookies in a directory so that they survive restarts of the client.
+ * <p>
+ * Lookups are served by an in-memory {@link ConcurrentCookieStore}, with the default limits unless one is
+ * passed to the constructor. Every modification is also appended as a record to a log file,
+ * {@value #LOG_FILE}, and once the log holds more records than the compaction threshold, and than there
+ * are cookies in the store, the cookies are written to a snapshot file, {@value #SNAPSHOT_FILE}, and the
+ * log is started over. Opening the store loads the snapshot and replays
+ * the log, records torn by a crash at the end of the log are discarded, records of an unknown operation are
+ * skipped. Cookies which expired while the client was down are not restored.
+ * <p>
+ * Modifications are synchronized on the store and handed to the operating system before they return, or
+ * once the batch of a {@link #modifyInBatch(Runnable)} ends, hence they survive a crash of the client but not
+ * necessarily a power loss: only snapshots are forced to the storage device. The store must be
+ * {@link #close() closed} to release the log file. Session cookies, i.e. cookies without an expiry, are
+ * persisted unless the store is created to exclude them.
+ */
+public final class PersistentCookieStore implements VersionedCookieStore, BatchModifiedCookieStore, Closeable {
+
+    private static final Logger logger = Logger.getLogger(PersistentCookieStore.class.getName());
+
+    /**
+     * The default number of log records written before the log is compacted into a snapshot.
+     */
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 10_000;
+
+    /**
+     * The name of the snapshot file in the directory of the store.
+     */
+    public static final String SNAPSHOT_FILE = "cookies.snapshot";
+
+    /**
+     * The name of the log file in the directory of the store.
+     */
+    public static final String LOG_FILE = "cookies.log";
+
+    private static final int SNAPSHOT_MAGIC = 0x434b5331;
+    private static final int LOG_MAGIC = 0x434b4c31;
+    // The magic number and the generation of the snapshot
+    private static final int HEADER_LENGTH = 12;
+    // The length and the checksum of the payload
+    private static final int RECORD_HEADER_LENGTH = 8;
+
+    // The store serving lookups
+    private final ConcurrentCookieStore cookieStore;
+    private final Path directory;
+    private final Path snapshotFile;
+    private final Path logFile;
+    private final boolean persistSessionCookies;
+    private final int compactionThreshold;
+    // The generation of the snapshot, the log only applies to the snapshot of its generation
+    private long generation;
+    private DataOutputStream log;
+    // The number of records in the log
+    private int logRecords;
+    // The depth of the batches being modified, the log is flushed once the outermost batch ends
+    private int batchDepth;
+    // The number of times the records of the log were flushed to the operating system
+    private long logFlushes;
+    private boolean closed;
+
+    /**
+     * Create a new PersistentCookieStore which persists all cookies, loading the cookies persisted in the
+     * directory, if any.
+     *
+     * @param directory the directory holding the files of the store, created as needed.
+     * @throws IOException if the files of the store cannot be read or written.
+     */
+    public PersistentCookieStore(final Path directory) throws IOException {
+        this(directory, new ConcurrentCookieStore(), true, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Create a new PersistentCookieStore, loading the cookies persisted in the directory, if any.
+     *
+     * @param directory             the directory holding the files of the store, created as needed.
+     * @param persistSessionCookies whether cookies without an expiry are persisted.
+     * @param compactionThreshold   the number of log records written before the log is compacted.
+     * @throws IOException if the files of the store cannot be read or written.
+     */
+    public PersistentCookieStore(final Path directory, final boolean persistSessionCookies,
+                                 final int compactionThreshold) throws IOException {
+        this(directory, new ConcurrentCookieStore(), persistSessionCookies, compactionThreshold);
+    }
+
+    /**
+     * Create a new PersistentCookieStore, loading the cookies persisted in the directory, if any.
+     *
+     * @param directory             the directory holding the files of the store, created as needed.
+     * @param cookieStore           the empty store serving lookups, e.g. a store with custom limits.
+     * @param persistSessionCookies whether cookies without an expiry are persisted.
+     * @param compactionThreshold   the number of log records written before the log is compacted.
+     * @throws IOException if the files of the store cannot be read or written.
+     */
+    public PersistentCookieStore(final Path directory, final ConcurrentCookieStore cookieStore,
+                                 final boolean persistSessionCookies, final int compactionThreshold)
+        throws IOException {
+        if (compactionThreshold <= 0) {
+            throw new IllegalArgumentException("compactionThreshold must be positive: " + compactionThreshold);
+        }
+        this.cookieStore = cookieStore;
+        this.directory = directory;
+        this.snapshotFile = directory.resolve(SNAPSHOT_FILE);
+        this.logFile = directory.resolve(LOG_FILE);
+        this.persistSessionCookies = persistSessionCookies;
+        this.compactionThreshold = compactionThreshold;
+        Files.createDirectories(directory);
+        open();
+    }
+
+    private synchronized void open() throws IOException {
+        if (Files.exists(snapshotFile)) {
+            final long[] header = new long[1];
+            replay(snapshotFile, SNAPSHOT_MAGIC, header);
+            generation = header[0];
+        }
+        long logLength = -1;
+        if (Files.exists(logFile)) {
+            final long[] header = {generation};
+            logLength = replay(logFile, LOG_MAGIC, header);
+        }
+        if (logLength < 0) {
+            // the log is missing or was written before the snapshot
+            startLog();
+        } else {
+            try (final FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+                // discards the records torn by a crash
+                channel.truncate(logLength);
+            }
+            log = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(logFile, StandardOpenOption.APPEND)));
+        }
+        if (logRecords >= compactionThreshold) {
+            compact();
+        }
+    }
+
+    /**
+     * Applies the records of the file to the store.
+     *
+     * @param header holds the generation the file must have, if any, and receives the generation it has.
+     * @return the length of the valid records of the file, or -1 if the file does not match the header.
+     */
+    private long replay(final Path file, final int magic, final long[] header) throws IOException {
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            final long generation;
+            try {
+                if (in.readInt() != magic) {
+                    throw new IOException("not a cookie store file: " + file);
+                }
+                generation = in.readLong();
+            } catch (final EOFException ex) {
+                return -1;
+            }
+            if (magic == LOG_MAGIC && generation != header[0]) {
+                return -1;
+            }
+            header[0] = generation;
+            final long nowMillis = System.currentTimeMillis();
+            long length = HEADER_LENGTH;
+            while (true) {
+                final byte[] payload;
+                try {
+                    final int payloadLength = in.readInt();
+                    final int checksum = in.readInt();
+                    if (payloadLength <= 0) {
+                        break;
+                    }
+                    payload = new byte[payloadLength];
+                    in.readFully(payload);
+                    if (CookieLogCodec.checksum(payload, 0, payload.length) != checksum) {
+                        break;
+                    }
+                } catch (final EOFException ex) {
+                    break;
+                }
+                try {
+                    CookieLogCodec.apply(payload, cookieStore, nowMillis);
+                } catch (final IOException ex) {
+                    // e.g. an operation of a later version, the record is skipped rather than failing the store
+                    logger.log(Level.SEVERE, "error in replaying a cookie record of " + file, ex);
+                }
+                length += RECORD_HEADER_LENGTH + payload.length;
+                if (magic == LOG_MAGIC) {
+                    logRecords++;
+                }
+            }
+            return length;
+        }
+    }
+
+    @Override
+    public long version() {
+        return cookieStore.version();
+    }
+
+    @Override
+    public boolean removesExpiredCookies() {
+        return cookieStore.removesExpiredCookies();
+    }
+
+    /**
+     * Runs the modifications while holding the lock of the store, their log records are handed to the operating
+     * system once the modifications end rather than one at a time.
+     */
+    @Override
+    public synchronized void modifyInBatch(final Runnable modifications) {
+        batchDepth++;
+        try {
+            modifications.run();
+        } finally {
+            batchDepth--;
+            if (batchDepth == 0 && !closed) {
+                try {
+                    flushLog();
+                } catch (final IOException ex) {
+                    logger.log(Level.SEVERE, "error in persisting cookies", ex);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void add(final URI uri, final HttpCookie cookie) {
+        ensureOpen();
+        cookieStore.add(uri, cookie);
+        final String host = uri == null ? null : uri.getHost();
+        if (persistSessionCookies || cookie.getMaxAge() != -1) {
+            append(CookieLogCodec.ADD, host, cookie);
+        } else {
+            // keeps a persisted cookie the session cookie replaced from being restored
+            append(CookieLogCodec.REMOVE, host, cookie);
+        }
+    }
+
+    @Override
+    public List<HttpCookie> get(final URI uri) {
+        return cookieStore.get(uri);
+    }
+
+    @Override
+    public List<HttpCookie> getMatching(final URI uri) {
+        return cookieStore.getMatching(uri);
+    }
+
+    @Override
+    public List<HttpCookie> getCookies() {
+        return cookieStore.getCookies();
+    }
+
+    @Override
+    public List<URI> getURIs() {
+        return cookieStore.getURIs();
+    }
+
+    @Override
+    public synchronized boolean remove(final URI uri, final HttpCookie cookie) {
+        ensureOpen();
+        if (!cookieStore.remove(uri, cookie)) {
+            return false;
+        }
+        append(CookieLogCodec.REMOVE, uri == null ? null : uri.getHost(), cookie);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean removeAll() {
+        ensureOpen();
+        if (!cookieStore.removeAll()) {
+            return false;
+        }
+        append(CookieLogCodec.REMOVE_ALL, null, null);
+        return true;
+    }
+
+    /**
+     * Compacts the log into a snapshot and releases the log file, the store can no longer be modified.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (logRecords > 0) {
+                compact();
+            }
+        } finally {
+            log.close();
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("cookie store is closed");
+        }
+    }
+
+    private void append(final byte operation, final String host, final HttpCookie cookie) {
+        try {
+            writeRecord(log, operation, host, cookie);
+            if (batchDepth == 0) {
+                flushLog();
+            }
+            logRecords++;
+            if (logRecords >= compactionThreshold && logRecords >= cookieStore.stats().cookieCount()) {
+                compact();
+            }
+        } catch (final IOException ex) {
+            logger.log(Level.SEVERE, "error in persisting cookies", ex);
+        }
+    }
+
+    private void flushLog() throws IOException {
+        log.flush();
+        logFlushes++;
+    }
+
+    synchronized long logFlushes() {
+        return logFlushes;
+    }
+
+    private static void writeRecord(final DataOutputStream out, final byte operation, final String host,
+                                    final HttpCookie cookie) throws IOException {
+        final byte[] payload = CookieLogCodec.encode(operation, host, cookie, System.currentTimeMillis());
+        out.writeInt(payload.length);
+        out.writeInt(CookieLogCodec.checksum(payload, 0, payload.length));
+        out.write(payload);
+    }
+
+    /**
+     * Writes the cookies to a new snapshot, which atomically replaces the previous one, and starts a new log.
+     * The snapshot is forced to the storage device before it replaces the previous one, since the log of the
+     * previous snapshot is ignored from then on.
+     */
+    private void compact() throws IOException {
+        final Path temporaryFile = snapshotFile.resolveSibling(SNAPSHOT_FILE + ".tmp");
+        final long snapshotGeneration = generation + 1;
+        final FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            Channels.newOutputStream(channel)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(snapshotGeneration);
+            cookieStore.forEachCookie((host, cookie) -> {
+                if (persistSessionCookies || cookie.getMaxAge() != -1) {
+                    try {
+                        writeRecord(out, CookieLogCodec.ADD, host, cookie);
+                    } catch (final IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                }
+            });
+            out.flush();
+            channel.force(true);
+        } catch (final UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        Files.move(temporaryFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory();
+        // a crash before the log is started over leaves a log of the previous generation, which is ignored
+        generation = snapshotGeneration;
+        if (log != null) {
+            log.close();
+        }
+        startLog();
+    }
+
+    /**
+     * Forces the renaming of the snapshot to the storage device before the log is started over, where the
+     * platform allows directories to be opened.
+     */
+    private void forceDirectory() {
+        try (final FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (final IOException ignored) {
+            // e.g. Windows, where directories cannot be opened
+        }
+    }
+
+    private void startLog() throws IOException {
+        log = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(logFile)));
+        log.writeInt(LOG_MAGIC);
+        log.writeLong(generation);
+        log.flush();
+        logRecords = 0;
+    }
+}
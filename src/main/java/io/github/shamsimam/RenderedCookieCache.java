@@ -0,0 +1,119 @@
+package io.github.shamsimam;
+
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A concurrent cache of the cookie header values rendered for each call path URI.
+ * <p>
+ * Each entry is tagged with the version of the store it was rendered from and remembers when its cookies
+ * expire: the cookies that carry an expiry or, for stores which remove expired cookies themselves, the time
+ * the first of its cookies expires, since such stores change their version only some time after. An entry is
+ * reused as long as the store version is unchanged and none of its cookies have expired, otherwise the header
+ * values are selected and rendered again.
+ * When the cache grows beyond its maximum size it is cleared and refilled on subsequent calls.
+ */
+final class RenderedCookieCache {
+
+    private static final HttpCookie[] NO_COOKIES = new HttpCookie[0];
+
+    // The store the cookies are read from
+    private final VersionedCookieStore cookieStore;
+    // The maximum number of call path URIs retained
+    private final int maximumSize;
+    // The rendered header values indexed by call path URI
+    private final ConcurrentMap<URI, Entry> entries = new ConcurrentHashMap<>();
+
+    RenderedCookieCache(final VersionedCookieStore cookieStore, final int maximumSize) {
+        this.cookieStore = cookieStore;
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Retrieves the cookie header values to send with a request to the specified call path.
+     *
+     * @param callPathUri the call path URI of the request
+     * @return the header values, the returned array must not be modified
+     */
+    String[] get(final URI callPathUri) {
+        final Entry entry = entries.get(callPathUri);
+        if (entry != null && entry.version == cookieStore.version() && !entry.hasExpired()) {
+            return entry.headerValues;
+        }
+        return load(callPathUri);
+    }
+
+    private String[] load(final URI callPathUri) {
+        // read the version first, a concurrent modification then leaves the new entry already stale
+        final long version = cookieStore.version();
+        final long nowMillis = System.currentTimeMillis();
+        final List<HttpCookie> cookies = CookieHeaders.select(cookieStore, callPathUri);
+        final Entry entry = cookieStore.removesExpiredCookies()
+            ? new Entry(version, CookieHeaders.render(cookies), NO_COOKIES, expiresAt(cookies, nowMillis))
+            : new Entry(version, CookieHeaders.render(cookies), expiringCookies(cookies), Long.MAX_VALUE);
+        if (entries.size() >= maximumSize) {
+            entries.clear();
+        }
+        entries.put(callPathUri, entry);
+        return entry.headerValues;
+    }
+
+    private static HttpCookie[] expiringCookies(final List<HttpCookie> cookies) {
+        List<HttpCookie> expiringCookies = null;
+        for (final HttpCookie cookie : cookies) {
+            if (cookie.getMaxAge() >= 0) {
+                if (expiringCookies == null) {
+                    expiringCookies = new ArrayList<>(cookies.size());
+                }
+                expiringCookies.add(cookie);
+            }
+        }
+        return expiringCookies == null ? NO_COOKIES : expiringCookies.toArray(NO_COOKIES);
+    }
+
+    /**
+     * The earliest time the cookies may expire, their max age counts down from the time they were retrieved
+     * and is rounded up to a second, hence a cookie expires more than a second before its max age elapses.
+     */
+    private static long expiresAt(final List<HttpCookie> cookies, final long nowMillis) {
+        long expiresAt = Long.MAX_VALUE;
+        for (final HttpCookie cookie : cookies) {
+            if (cookie.getMaxAge() >= 0) {
+                expiresAt = Math.min(expiresAt, nowMillis + (cookie.getMaxAge() - 1) * 1000);
+            }
+        }
+        return expiresAt;
+    }
+
+    private static final class Entry {
+
+        private final long version;
+        private final String[] headerValues;
+        private final HttpCookie[] expiringCookies;
+        private final long expiresAt;
+
+        private Entry(final long version, final String[] headerValues, final HttpCookie[] expiringCookies,
+                      final long expiresAt) {
+            this.version = version;
+            this.headerValues = headerValues;
+            this.expiringCookies = expiringCookies;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean hasExpired() {
+            if (expiresAt != Long.MAX_VALUE && expiresAt <= System.currentTimeMillis()) {
+                return true;
+            }
+            for (final HttpCookie cookie : expiringCookies) {
+                if (cookie.hasExpired()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
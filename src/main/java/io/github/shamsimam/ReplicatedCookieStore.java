@@ -0,0 +1,398 @@
+package io.github.shamsimam;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A CookieStore replicated across the nodes of a client fleet, so that a cookie, e.g. a session, received by
+ * one node is sent by the other nodes too.
+ * <p>
+ * Lookups are served by a local store, a {@link ConcurrentCookieStore} unless one is passed to the constructor.
+ * Every modification is broadcast over a {@link CookieReplicationTransport} as a delta holding the modification,
+ * in the encoding of {@link PersistentCookieStore}, stamped with its creation time and the id of its node.
+ * Stores merge the deltas with last-writer-wins: a delta is applied only if its stamp is later than that of the
+ * last modification of the cookie, removals included, hence the nodes converge whatever the order the deltas
+ * are delivered in. Creation times come from a clock which never falls behind the stamps received, so that the
+ * modifications of a node whose clock lags are not discarded by the other nodes.
+ * <p>
+ * The stamps of removed cookies are kept for {@value #TOMBSTONE_RETENTION_MINUTES} minutes, those of other
+ * cookies for as long as the local store holds the cookies, which it may evict under its limits. Nodes only
+ * receive the modifications made after they joined.
+ */
+public final class ReplicatedCookieStore implements VersionedCookieStore, Closeable {
+
+    private static final Logger logger = Logger.getLogger(ReplicatedCookieStore.class.getName());
+
+    /**
+     * The time the stamps of removed cookies are kept, deltas delivered later may resurrect the cookies.
+     */
+    public static final long TOMBSTONE_RETENTION_MINUTES = 10;
+
+    private static final long TOMBSTONE_RETENTION_MILLIS = TimeUnit.MINUTES.toMillis(TOMBSTONE_RETENTION_MINUTES);
+    // The id of the node and the creation time preceding the modification
+    private static final int DELTA_HEADER_LENGTH = 16;
+    // The number of stamps above which they are pruned before the next scheduled prune
+    private static final int MIN_PRUNE_THRESHOLD = 256;
+
+    // The store serving lookups
+    private final VersionedCookieStore cookieStore;
+    private final CookieReplicationTransport transport;
+    private final long nodeId;
+    // The stamps of the last modification of each cookie, guarded by this
+    private final Map<CookieKey, Stamp> stamps = new HashMap<>();
+    // The stamp of the last removal of all cookies, guarded by this
+    private Stamp clearedStamp = new Stamp(Long.MIN_VALUE, Long.MIN_VALUE, null, null, true, Long.MAX_VALUE);
+    // The last creation time stamped or received, guarded by this
+    private long lastTimestamp;
+    private long nextPruneMillis;
+    // The number of stamps which triggers a prune, twice the number of stamps left by the last prune
+    private int pruneThreshold = MIN_PRUNE_THRESHOLD;
+    private volatile boolean closed;
+
+    /**
+     * Create a new ReplicatedCookieStore serving lookups from a {@link ConcurrentCookieStore} with the default
+     * limits.
+     *
+     * @param transport the transport connecting the store to the other nodes.
+     */
+    public ReplicatedCookieStore(final CookieReplicationTransport transport) {
+        this(new ConcurrentCookieStore(), transport);
+    }
+
+    /**
+     * Create a new ReplicatedCookieStore.
+     *
+     * @param cookieStore the empty store serving lookups.
+     * @param transport   the transport connecting the store to the other nodes.
+     */
+    public ReplicatedCookieStore(final VersionedCookieStore cookieStore, final CookieReplicationTransport transport) {
+        this.cookieStore = cookieStore;
+        this.transport = transport;
+        this.nodeId = ThreadLocalRandom.current().nextLong();
+        transport.start(this::receive);
+    }
+
+    @Override
+    public long version() {
+        return cookieStore.version();
+    }
+
+    @Override
+    public boolean removesExpiredCookies() {
+        return cookieStore.removesExpiredCookies();
+    }
+
+    @Override
+    public void add(final URI uri, final HttpCookie cookie) {
+        if (cookie == null) {
+            throw new NullPointerException("cookie is null");
+        }
+        ensureOpen();
+        final long timestamp;
+        synchronized (this) {
+            timestamp = nextTimestamp();
+            cookieStore.add(uri, cookie);
+            stamp(uri, cookie, timestamp, nodeId, CookieLogCodec.ADD);
+        }
+        broadcast(CookieLogCodec.ADD, uri, cookie, timestamp);
+    }
+
+    @Override
+    public List<HttpCookie> get(final URI uri) {
+        return cookieStore.get(uri);
+    }
+
+    @Override
+    public List<HttpCookie> getMatching(final URI uri) {
+        return cookieStore.getMatching(uri);
+    }
+
+    @Override
+    public List<HttpCookie> getCookies() {
+        return cookieStore.getCookies();
+    }
+
+    @Override
+    public List<URI> getURIs() {
+        return cookieStore.getURIs();
+    }
+
+    @Override
+    public boolean remove(final URI uri, final HttpCookie cookie) {
+        if (cookie == null) {
+            throw new NullPointerException("cookie is null");
+        }
+        ensureOpen();
+        final long timestamp;
+        synchronized (this) {
+            if (!cookieStore.remove(uri, cookie)) {
+                return false;
+            }
+            timestamp = nextTimestamp();
+            stamp(uri, cookie, timestamp, nodeId, CookieLogCodec.REMOVE);
+        }
+        broadcast(CookieLogCodec.REMOVE, uri, cookie, timestamp);
+        return true;
+    }
+
+    @Override
+    public boolean removeAll() {
+        ensureOpen();
+        final long timestamp;
+        final boolean modified;
+        synchronized (this) {
+            timestamp = nextTimestamp();
+            modified = clear(new Stamp(timestamp, nodeId, null, null, true, Long.MAX_VALUE)) | cookieStore.removeAll();
+        }
+        // the other nodes may hold cookies this node has not received
+        broadcast(CookieLogCodec.REMOVE_ALL, null, null, timestamp);
+        return modified;
+    }
+
+    /**
+     * Leaves the other nodes by closing the transport, the store can no longer be modified.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            transport.close();
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("cookie store is closed");
+        }
+    }
+
+    /**
+     * Merges a delta broadcast by another node.
+     */
+    private void receive(final byte[] delta) {
+        if (closed) {
+            return;
+        }
+        try {
+            if (delta.length <= DELTA_HEADER_LENGTH) {
+                throw new IOException("truncated cookie delta: " + delta.length + " bytes");
+            }
+            final ByteBuffer header = ByteBuffer.wrap(delta, 0, DELTA_HEADER_LENGTH);
+            final long senderId = header.getLong();
+            final long timestamp = header.getLong();
+            if (senderId == nodeId) {
+                return;
+            }
+            final CookieLogCodec.Modification modification = CookieLogCodec.decode(
+                delta, DELTA_HEADER_LENGTH, delta.length - DELTA_HEADER_LENGTH, System.currentTimeMillis());
+            synchronized (this) {
+                lastTimestamp = Math.max(lastTimestamp, timestamp);
+                if (modification.operation() == CookieLogCodec.REMOVE_ALL) {
+                    clear(new Stamp(timestamp, senderId, null, null, true, Long.MAX_VALUE));
+                    return;
+                }
+                final CookieKey key = new CookieKey(modification.uri(), modification.cookie());
+                final Stamp current = stamps.get(key);
+                if (isAfter(timestamp, senderId, current == null ? clearedStamp : current)) {
+                    modification.applyTo(cookieStore);
+                    stamp(modification.uri(), modification.cookie(), timestamp, senderId, modification.operation());
+                }
+            }
+        } catch (final IOException | RuntimeException ex) {
+            logger.log(Level.SEVERE, "error in merging replicated cookies", ex);
+        }
+    }
+
+    private void broadcast(final byte operation, final URI uri, final HttpCookie cookie, final long timestamp) {
+        try {
+            final byte[] payload = CookieLogCodec.encode(
+                operation, uri == null ? null : uri.getHost(), cookie, System.currentTimeMillis());
+            transport.broadcast(ByteBuffer.allocate(DELTA_HEADER_LENGTH + payload.length)
+                .putLong(nodeId)
+                .putLong(timestamp)
+                .put(payload)
+                .array());
+        } catch (final RuntimeException ex) {
+            logger.log(Level.SEVERE, "error in replicating cookies", ex);
+        }
+    }
+
+    private long nextTimestamp() {
+        lastTimestamp = Math.max(System.currentTimeMillis(), lastTimestamp + 1);
+        return lastTimestamp;
+    }
+
+    private void stamp(final URI uri, final HttpCookie cookie, final long timestamp, final long stampNodeId,
+                       final byte operation) {
+        final long retainUntil;
+        if (operation == CookieLogCodec.REMOVE) {
+            retainUntil = timestamp + TOMBSTONE_RETENTION_MILLIS;
+        } else if (cookie.getMaxAge() < 0) {
+            retainUntil = Long.MAX_VALUE;
+        } else {
+            retainUntil = timestamp + Math.min(cookie.getMaxAge(), TimeUnit.DAYS.toSeconds(365_000)) * 1000
+                + TOMBSTONE_RETENTION_MILLIS;
+        }
+        final String host = uri == null ? null : uri.getHost();
+        stamps.put(new CookieKey(uri, cookie),
+            new Stamp(timestamp, stampNodeId, host, cookie, operation == CookieLogCodec.REMOVE, retainUntil));
+        prune(System.currentTimeMillis());
+    }
+
+    /**
+     * Removes the cookies modified before the removal of all cookies.
+     *
+     * @return whether cookies were removed.
+     */
+    private boolean clear(final Stamp stamp) {
+        if (!isAfter(stamp.timestamp, stamp.nodeId, clearedStamp)) {
+            return false;
+        }
+        boolean modified = false;
+        clearedStamp = stamp;
+        final Iterator<Stamp> iterator = stamps.values().iterator();
+        while (iterator.hasNext()) {
+            final Stamp cookieStamp = iterator.next();
+            if (isAfter(stamp.timestamp, stamp.nodeId, cookieStamp)) {
+                modified |= cookieStore.remove(cookieStamp.uri(), cookieStamp.cookie());
+                iterator.remove();
+            }
+        }
+        return modified;
+    }
+
+    /**
+     * Drops the stamps which are no longer needed, i.e. whose retention ended or whose cookies the local store
+     * no longer holds, at most once per tenth of the tombstone retention unless the stamps doubled since.
+     */
+    private void prune(final long nowMillis) {
+        if (nowMillis < nextPruneMillis && stamps.size() < pruneThreshold) {
+            return;
+        }
+        nextPruneMillis = nowMillis + TOMBSTONE_RETENTION_MILLIS / 10;
+        // the cookies of each host looked up, a host usually has the stamps of several cookies
+        final Map<URI, List<HttpCookie>> storedCookies = new HashMap<>();
+        stamps.values().removeIf(stamp -> stamp.retainUntil < nowMillis
+            || (!stamp.removal && !isStored(stamp, storedCookies)));
+        pruneThreshold = Math.max(MIN_PRUNE_THRESHOLD, stamps.size() * 2);
+    }
+
+    /**
+     * Whether the local store holds the cookie of the stamp, cookies without a host or domain can not be
+     * looked up and are deemed stored.
+     */
+    private boolean isStored(final Stamp stamp, final Map<URI, List<HttpCookie>> storedCookies) {
+        final URI lookupUri = stamp.lookupUri();
+        return lookupUri == null || storedCookies.computeIfAbsent(lookupUri, cookieStore::get).contains(stamp.cookie());
+    }
+
+    int stampCount() {
+        synchronized (this) {
+            return stamps.size();
+        }
+    }
+
+    private static boolean isAfter(final long timestamp, final long stampNodeId, final Stamp other) {
+        return timestamp > other.timestamp || (timestamp == other.timestamp && stampNodeId > other.nodeId);
+    }
+
+    /**
+     * Identifies a cookie by its name, domain and path, the domain of a host-only cookie is its host.
+     */
+    private static final class CookieKey {
+
+        private final String name;
+        private final String domain;
+        private final String path;
+
+        private CookieKey(final URI uri, final HttpCookie cookie) {
+            final String cookieDomain = cookie.getDomain() != null
+                ? cookie.getDomain() : (uri == null ? null : uri.getHost());
+            final String normalizedDomain = DomainTrie.normalize(cookieDomain);
+            this.name = cookie.getName().toLowerCase(Locale.ROOT);
+            this.domain = normalizedDomain.startsWith(".") ? normalizedDomain.substring(1) : normalizedDomain;
+            this.path = cookie.getPath();
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (!(other instanceof CookieKey)) {
+                return false;
+            }
+            final CookieKey key = (CookieKey) other;
+            return name.equals(key.name) && domain.equals(key.domain) && Objects.equals(path, key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return (name.hashCode() * 31 + domain.hashCode()) * 31 + Objects.hashCode(path);
+        }
+    }
+
+    /**
+     * The creation time and node of the last modification of a cookie, along with what identifies the
+     * cookie in the store.
+     */
+    private static final class Stamp {
+
+        private final long timestamp;
+        private final long nodeId;
+        // The host the cookie was received from, or null
+        private final String host;
+        private final String name;
+        private final String domain;
+        private final String path;
+        // Whether the stamp is that of a removal, whose cookie the store does not hold
+        private final boolean removal;
+        // The time after which the stamp is no longer needed
+        private final long retainUntil;
+
+        private Stamp(final long timestamp, final long nodeId, final String host, final HttpCookie cookie,
+                      final boolean removal, final long retainUntil) {
+            this.timestamp = timestamp;
+            this.nodeId = nodeId;
+            this.host = host;
+            this.name = cookie == null ? null : cookie.getName();
+            this.domain = cookie == null ? null : cookie.getDomain();
+            this.path = cookie == null ? null : cookie.getPath();
+            this.removal = removal;
+            this.retainUntil = retainUntil;
+        }
+
+        private URI uri() {
+            return host == null ? null : URI.create("http://" + host);
+        }
+
+        /**
+         * @return the secure uri of the host or else of the domain of the cookie, whose lookup returns the cookie,
+         * or null.
+         */
+        private URI lookupUri() {
+            final String lookupHost = host != null ? host : DomainChainTable.key(domain);
+            return lookupHost.isEmpty() ? null : URI.create("https://" + lookupHost);
+        }
+
+        /**
+         * @return a cookie equal to the cookie of the stamp, i.e. with the same name, domain and path.
+         */
+        private HttpCookie cookie() {
+            final HttpCookie cookie = new HttpCookie(name, "");
+            cookie.setDomain(domain);
+            cookie.setPath(path);
+            return cookie;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package io.github.shamsimam;
+
+import java.net.HttpCookie;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A small CookieStore holding the cookies received by the calls made on behalf of a single request.
+ * <p>
+ * The store is meant to live as long as one request and to hold a handful of cookies, hence it keeps them
+ * in one immutable array which is scanned by lookups and replaced with a compare-and-set on every
+ * modification. The calls of the request may complete on different threads, yet the store never blocks.
+ * The matching rules are those of {@link ConcurrentCookieStore}, expired cookies are skipped by lookups.
+ * <p>
+ * Once {@link #close() closed} the store drops its cookies and ignores the cookies of calls which
+ * complete afterwards.
+ */
+final class RequestCookieStore implements VersionedCookieStore {
+
+    private static final StoredCookie[] EMPTY = new StoredCookie[0];
+    // Marks a closed store
+    private static final StoredCookie[] CLOSED = new StoredCookie[0];
+
+    // The cookies in the order they were added, or CLOSED
+    private final AtomicReference<StoredCookie[]> cookies = new AtomicReference<>(EMPTY);
+    // The number of modifications made to the store
+    private final AtomicLong version = new AtomicLong();
+
+    @Override
+    public long version() {
+        return version.get();
+    }
+
+    @Override
+    public void add(final URI uri, final HttpCookie cookie) {
+        if (cookie == null) {
+            throw new NullPointerException("cookie is null");
+        }
+        final StoredCookie storedCookie = new StoredCookie(cookie, uri == null ? null : uri.getHost());
+        while (true) {
+            final StoredCookie[] current = cookies.get();
+            if (current == CLOSED) {
+                return;
+            }
+            final int index = indexOf(current, storedCookie);
+            final StoredCookie[] updated;
+            if (cookie.getMaxAge() == 0) {
+                // an expired cookie only removes the stored one
+                if (index < 0) {
+                    return;
+                }
+                updated = without(current, index);
+            } else if (index >= 0) {
+                updated = current.clone();
+                updated[index] = storedCookie;
+            } else {
+                updated = Arrays.copyOf(current, current.length + 1);
+                updated[current.length] = storedCookie;
+            }
+            if (cookies.compareAndSet(current, updated)) {
+                version.incrementAndGet();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public List<HttpCookie> get(final URI uri) {
+        if (uri == null) {
+            throw new NullPointerException("uri is null");
+        }
+        final String host = uri.getHost();
+        if (host == null) {
+            return Collections.emptyList();
+        }
+        final boolean secureLink = "https".equalsIgnoreCase(uri.getScheme());
+        final String normalizedHost = DomainTrie.normalize(host);
+        List<HttpCookie> matches = null;
+        for (final StoredCookie storedCookie : cookies.get()) {
+            final HttpCookie cookie = storedCookie.cookie;
+            if ((secureLink || !cookie.getSecure()) && storedCookie.matches(normalizedHost) && !cookie.hasExpired()) {
+                if (matches == null) {
+                    matches = new ArrayList<>();
+                }
+                matches.add(cookie);
+            }
+        }
+        return matches == null ? Collections.emptyList() : matches;
+    }
+
+    @Override
+    public List<HttpCookie> getCookies() {
+        final List<HttpCookie> result = new ArrayList<>();
+        for (final StoredCookie storedCookie : cookies.get()) {
+            if (!storedCookie.cookie.hasExpired()) {
+                result.add(storedCookie.cookie);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    @Override
+    public List<URI> getURIs() {
+        final Set<String> hosts = new LinkedHashSet<>();
+        for (final StoredCookie storedCookie : cookies.get()) {
+            if (storedCookie.host != null) {
+                hosts.add(storedCookie.host);
+            }
+        }
+        final List<URI> uris = new ArrayList<>(hosts.size());
+        for (final String host : hosts) {
+            try {
+                uris.add(new URI("http", host, null, null, null));
+            } catch (final URISyntaxException ignored) {
+                // hosts received in a URI are valid
+            }
+        }
+        return Collections.unmodifiableList(uris);
+    }
+
+    @Override
+    public boolean remove(final URI uri, final HttpCookie cookie) {
+        if (cookie == null) {
+            throw new NullPointerException("cookie is null");
+        }
+        final String host = uri == null ? null : uri.getHost();
+        while (true) {
+            final StoredCookie[] current = cookies.get();
+            int index = -1;
+            for (int i = 0; i < current.length && index < 0; i++) {
+                // without a domain or a uri the cookie is removed from any host
+                if (current[i].cookie.equals(cookie)
+                    && (cookie.getDomain() != null || host == null || host.equalsIgnoreCase(current[i].host))) {
+                    index = i;
+                }
+            }
+            if (index < 0) {
+                return false;
+            }
+            if (cookies.compareAndSet(current, without(current, index))) {
+                version.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean removeAll() {
+        while (true) {
+            final StoredCookie[] current = cookies.get();
+            if (current.length == 0) {
+                return false;
+            }
+            if (cookies.compareAndSet(current, EMPTY)) {
+                version.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Drops the cookies of the store, cookies added afterwards are ignored.
+     */
+    void close() {
+        if (cookies.getAndSet(CLOSED) != CLOSED) {
+            version.incrementAndGet();
+        }
+    }
+
+    private static int indexOf(final StoredCookie[] storedCookies, final StoredCookie storedCookie) {
+        for (int i = 0; i < storedCookies.length; i++) {
+            if (storedCookies[i].sameCookie(storedCookie)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static StoredCookie[] without(final StoredCookie[] storedCookies, final int index) {
+        final StoredCookie[] updated = new StoredCookie[storedCookies.length - 1];
+        System.arraycopy(storedCookies, 0, updated, 0, index);
+        System.arraycopy(storedCookies, index + 1, updated, index, updated.length - index);
+        return updated;
+    }
+
+    /**
+     * A cookie along with the host it was received from.
+     */
+    private static final class StoredCookie {
+
+        private final HttpCookie cookie;
+        // The host the cookie was received from, or null
+        private final String host;
+        // The domain the cookie applies to, without a leading dot
+        private final String key;
+
+        private StoredCookie(final HttpCookie cookie, final String host) {
+            this.cookie = cookie;
+            this.host = host;
+            final String domain =
+                DomainTrie.normalize(cookie.getDomain() == null ? String.valueOf(host) : cookie.getDomain());
+            this.key = domain.startsWith(".") ? domain.substring(1) : domain;
+        }
+
+        /**
+         * Whether the cookies have the same name, domain and path, host-only cookies must also have been
+         * received from the same host.
+         */
+        private boolean sameCookie(final StoredCookie other) {
+            return cookie.equals(other.cookie) && key.equals(other.key);
+        }
+
+        /**
+         * Whether the cookie is returned for the normalized host, i.e. its domain is the host or a parent
+         * domain of the host and either domain-matches the host or the cookie was received from the host.
+         */
+        private boolean matches(final String normalizedHost) {
+            if (!isDomainOf(key, normalizedHost)
+                && !(normalizedHost.indexOf('.') == -1 && isDomainOf(key, normalizedHost + ".local"))) {
+                return false;
+            }
+            return ConcurrentCookieStore.domainMatches(cookie.getVersion(), cookie.getDomain(), normalizedHost)
+                || normalizedHost.equalsIgnoreCase(host);
+        }
+
+        private static boolean isDomainOf(final String domain, final String name) {
+            final int start = name.length() - domain.length();
+            return name.endsWith(domain) && (start == 0 || (start > 0 && name.charAt(start - 1) == '.'));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package io.github.shamsimam;
+
+import java.net.HttpCookie;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A bounded, concurrent cache of the cookies parsed from Set-Cookie header values.
+ * <p>
+ * Servers often send the same header value with every response, e.g. a load balancer affinity cookie, which
+ * is then parsed once. The cached cookies serve as templates which are copied for every response since stores
+ * may keep the cookies they are given. The max age of a cookie with an expires attribute is shortened by the
+ * time since the header was parsed, that of a cookie with a max-age attribute is kept, hence its expiry is
+ * relative to the response. Headers with both attributes are not cached.
+ * When the cache grows beyond its maximum size it is cleared and refilled on subsequent responses.
+ */
+final class SetCookieCache {
+
+    static final int DEFAULT_MAXIMUM_SIZE = 256;
+
+    // The maximum number of header values retained
+    private final int maximumSize;
+    // The parsed cookies indexed by header value
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    SetCookieCache(final int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Retrieves the cookies of a header value, parsing the header unless it was parsed before.
+     *
+     * @param header    the header value.
+     * @param nowMillis the current time, in milliseconds since the epoch.
+     * @return new cookies which the caller may modify.
+     * @throws IllegalArgumentException if the header is malformed.
+     */
+    HttpCookie[] get(final String header, final long nowMillis) {
+        final Entry entry = entries.get(header);
+        if (entry != null) {
+            return entry.cookies(nowMillis);
+        }
+        final HttpCookie[] cookies = SetCookieParser.parse(header).toArray(new HttpCookie[0]);
+        final boolean expiresAttribute = containsIgnoreCase(header, "expires=");
+        if (!expiresAttribute || !containsIgnoreCase(header, "max-age")) {
+            if (entries.size() >= maximumSize) {
+                entries.clear();
+            }
+            entries.put(header, new Entry(copies(cookies, 0), expiresAttribute, nowMillis));
+        }
+        return cookies;
+    }
+
+    /**
+     * @return the approximate number of header values retained in the cache.
+     */
+    int size() {
+        return entries.size();
+    }
+
+    private static boolean containsIgnoreCase(final String header, final String attribute) {
+        for (int i = 0; i <= header.length() - attribute.length(); i++) {
+            if (header.regionMatches(true, i, attribute, 0, attribute.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies the cookies, the max ages which are not negative are shortened by the elapsed seconds.
+     */
+    private static HttpCookie[] copies(final HttpCookie[] cookies, final long elapsedSeconds) {
+        final HttpCookie[] copies = new HttpCookie[cookies.length];
+        for (int i = 0; i < cookies.length; i++) {
+            final HttpCookie cookie = cookies[i];
+            final HttpCookie copy = new HttpCookie(cookie.getName(), cookie.getValue());
+            copy.setVersion(cookie.getVersion());
+            copy.setDomain(cookie.getDomain());
+            copy.setPath(cookie.getPath());
+            copy.setPortlist(cookie.getPortlist());
+            copy.setComment(cookie.getComment());
+            copy.setCommentURL(cookie.getCommentURL());
+            copy.setSecure(cookie.getSecure());
+            copy.setHttpOnly(cookie.isHttpOnly());
+            copy.setDiscard(cookie.getDiscard());
+            final long maxAge = cookie.getMaxAge();
+            copy.setMaxAge(maxAge < 0 ? maxAge : Math.max(0, maxAge - elapsedSeconds));
+            copies[i] = copy;
+        }
+        return copies;
+    }
+
+    private static final class Entry {
+
+        // The cookies of the header, which are never handed out
+        private final HttpCookie[] cookies;
+        // Whether the max ages were computed from an expires attribute, i.e. from an absolute time
+        private final boolean absoluteExpiry;
+        // The time, in milliseconds since the epoch, the header was parsed at
+        private final long parsedMillis;
+
+        private Entry(final HttpCookie[] cookies, final boolean absoluteExpiry, final long parsedMillis) {
+            this.cookies = cookies;
+            this.absoluteExpiry = absoluteExpiry;
+            this.parsedMillis = parsedMillis;
+        }
+
+        private HttpCookie[] cookies(final long nowMillis) {
+            return copies(cookies, absoluteExpiry ? Math.max(0, nowMillis - parsedMillis) / 1000 : 0);
+        }
+    }
+}
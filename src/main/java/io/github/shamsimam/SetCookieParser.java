@@ -0,0 +1,424 @@
+package io.github.shamsimam;
+
+import java.net.HttpCookie;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Parses Set-Cookie and Set-Cookie2 header values into cookies in a single pass over the header.
+ * <p>
+ * The cookies are those {@link HttpCookie#parse(String)} creates, including its version guessing, its
+ * handling of malformed attributes and the IllegalArgumentException it throws, yet the header is scanned with
+ * index arithmetic: attribute names are matched in place rather than lowercased and looked up in a map, and
+ * strings are only created for the name, the value and the attributes the cookie keeps. Expiry dates in the
+ * IMF-fixdate format of RFC 6265, e.g. {@code Wed, 21 Oct 2015 07:28:00 GMT}, are decoded directly, other
+ * dates go through the date formats of HttpCookie.
+ */
+final class SetCookieParser {
+
+    private static final String SET_COOKIE = "set-cookie:";
+    private static final String SET_COOKIE2 = "set-cookie2:";
+
+    // The date formats of HttpCookie, used for the dates which are not IMF-fixdates
+    private static final String[] COOKIE_DATE_FORMATS = {
+        "EEE',' dd-MMM-yyyy HH:mm:ss 'GMT'",
+        "EEE',' dd MMM yyyy HH:mm:ss 'GMT'",
+        "EEE MMM dd yyyy HH:mm:ss 'GMT'Z",
+        "EEE',' dd-MMM-yy HH:mm:ss 'GMT'",
+        "EEE',' dd MMM yy HH:mm:ss 'GMT'",
+        "EEE MMM dd yy HH:mm:ss 'GMT'Z"
+    };
+    private static final TimeZone GMT = TimeZone.getTimeZone("GMT");
+
+    private static final String DAYS = "MonTueWedThuFriSatSun";
+    private static final String MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec";
+    // The length of an IMF-fixdate, e.g. Wed, 21 Oct 2015 07:28:00 GMT
+    private static final int FIXDATE_LENGTH = 29;
+
+    private SetCookieParser() {
+    }
+
+    /**
+     * Parses a header value, which may start with its header name.
+     *
+     * @param header the header value.
+     * @return the cookies of the header, one for Netscape cookies.
+     * @throws IllegalArgumentException if the header is malformed.
+     */
+    static List<HttpCookie> parse(final String header) {
+        final int version = guessVersion(header);
+        int start = 0;
+        if (header.regionMatches(true, 0, SET_COOKIE2, 0, SET_COOKIE2.length())) {
+            start = SET_COOKIE2.length();
+        } else if (header.regionMatches(true, 0, SET_COOKIE, 0, SET_COOKIE.length())) {
+            start = SET_COOKIE.length();
+        }
+        if (version == 0) {
+            // the expires attribute of Netscape cookies may contain commas
+            final HttpCookie cookie = parseCookie(header, start, header.length());
+            cookie.setVersion(0);
+            return Collections.singletonList(cookie);
+        }
+        // RFC 2965 cookies are separated by commas outside of double quotes
+        final List<HttpCookie> cookies = new ArrayList<>(1);
+        int quotes = 0;
+        int cookieStart = start;
+        for (int i = start; i < header.length(); i++) {
+            final char c = header.charAt(i);
+            if (c == '"') {
+                quotes++;
+            } else if (c == ',' && (quotes & 1) == 0) {
+                cookies.add(versionOne(parseCookie(header, cookieStart, i)));
+                cookieStart = i + 1;
+            }
+        }
+        cookies.add(versionOne(parseCookie(header, cookieStart, header.length())));
+        return cookies;
+    }
+
+    private static HttpCookie versionOne(final HttpCookie cookie) {
+        cookie.setVersion(1);
+        return cookie;
+    }
+
+    /**
+     * Guesses the version of the cookies, only Netscape cookies have an expires attribute.
+     */
+    private static int guessVersion(final String header) {
+        boolean versionAttribute = false;
+        boolean maxAgeAttribute = false;
+        for (int i = 0; i < header.length(); i++) {
+            final char c = header.charAt(i);
+            if ((c == 'e' || c == 'E') && header.regionMatches(true, i, "expires=", 0, 8)) {
+                return 0;
+            }
+            if ((c == 'v' || c == 'V') && header.regionMatches(true, i, "version=", 0, 8)) {
+                versionAttribute = true;
+            } else if ((c == 'm' || c == 'M') && header.regionMatches(true, i, "max-age", 0, 7)) {
+                maxAgeAttribute = true;
+            }
+        }
+        return versionAttribute || maxAgeAttribute
+            || header.regionMatches(true, 0, SET_COOKIE2, 0, SET_COOKIE2.length()) ? 1 : 0;
+    }
+
+    /**
+     * Parses the cookie between the offsets, its name-value pair and its attributes separated by semicolons.
+     */
+    private static HttpCookie parseCookie(final String header, final int from, final int to) {
+        int tokenStart = skipSemicolons(header, from, to);
+        if (tokenStart == to) {
+            throw new IllegalArgumentException("Empty cookie header string");
+        }
+        int tokenEnd = tokenEnd(header, tokenStart, to);
+        final int equals = indexOf(header, '=', tokenStart, tokenEnd);
+        if (equals < 0) {
+            throw new IllegalArgumentException("Invalid cookie name-value pair");
+        }
+        final HttpCookie cookie = new HttpCookie(
+            trimmed(header, tokenStart, equals), unquoted(header, equals + 1, tokenEnd));
+
+        tokenStart = skipSemicolons(header, tokenEnd, to);
+        while (tokenStart < to) {
+            tokenEnd = tokenEnd(header, tokenStart, to);
+            final int attributeEquals = indexOf(header, '=', tokenStart, tokenEnd);
+            final int nameEnd = attributeEquals < 0 ? tokenEnd : attributeEquals;
+            final int nameStart = trimStart(header, tokenStart, nameEnd);
+            assignAttribute(cookie, header, nameStart, trimEnd(header, nameStart, nameEnd),
+                attributeEquals < 0 ? -1 : attributeEquals + 1, tokenEnd);
+            tokenStart = skipSemicolons(header, tokenEnd, to);
+        }
+        return cookie;
+    }
+
+    /**
+     * Assigns an attribute, the value lies between valueFrom and valueTo unless valueFrom is -1.
+     */
+    private static void assignAttribute(final HttpCookie cookie, final String header, final int nameFrom,
+                                        final int nameTo, final int valueFrom, final int valueTo) {
+        switch (nameTo - nameFrom) {
+            case 4:
+                if (nameMatches(header, nameFrom, "path")) {
+                    if (cookie.getPath() == null) {
+                        cookie.setPath(value(header, valueFrom, valueTo));
+                    }
+                } else if (nameMatches(header, nameFrom, "port")) {
+                    if (cookie.getPortlist() == null) {
+                        final String portlist = value(header, valueFrom, valueTo);
+                        cookie.setPortlist(portlist == null ? "" : portlist);
+                    }
+                }
+                break;
+            case 6:
+                if (nameMatches(header, nameFrom, "domain")) {
+                    if (cookie.getDomain() == null) {
+                        cookie.setDomain(value(header, valueFrom, valueTo));
+                    }
+                } else if (nameMatches(header, nameFrom, "secure")) {
+                    cookie.setSecure(true);
+                }
+                break;
+            case 7:
+                if (nameMatches(header, nameFrom, "max-age")) {
+                    final long maxAge = parseMaxAge(header, valueFrom, valueTo);
+                    if (cookie.getMaxAge() == -1) {
+                        cookie.setMaxAge(maxAge);
+                    }
+                } else if (nameMatches(header, nameFrom, "expires")) {
+                    if (cookie.getMaxAge() == -1) {
+                        final long delta = expiresDeltaSeconds(header, valueFrom, valueTo);
+                        cookie.setMaxAge(delta > 0 ? delta : 0);
+                    }
+                } else if (nameMatches(header, nameFrom, "comment")) {
+                    if (cookie.getComment() == null) {
+                        cookie.setComment(value(header, valueFrom, valueTo));
+                    }
+                } else if (nameMatches(header, nameFrom, "discard")) {
+                    cookie.setDiscard(true);
+                } else if (nameMatches(header, nameFrom, "version")) {
+                    final String version = value(header, valueFrom, valueTo);
+                    try {
+                        cookie.setVersion(Integer.parseInt(version));
+                    } catch (final NumberFormatException ignored) {
+                        // bogus versions are ignored, the version is set once the cookie is parsed
+                    }
+                }
+                break;
+            case 8:
+                if (nameMatches(header, nameFrom, "httponly")) {
+                    cookie.setHttpOnly(true);
+                }
+                break;
+            case 10:
+                if (nameMatches(header, nameFrom, "commenturl")) {
+                    if (cookie.getCommentURL() == null) {
+                        cookie.setCommentURL(value(header, valueFrom, valueTo));
+                    }
+                }
+                break;
+            default:
+                // unknown attributes are ignored as per RFC 2965
+        }
+    }
+
+    private static boolean nameMatches(final String header, final int nameFrom, final String name) {
+        return header.regionMatches(true, nameFrom, name, 0, name.length());
+    }
+
+    /**
+     * Parses a max-age made of digits in place, other values are left to Long.parseLong.
+     */
+    private static long parseMaxAge(final String header, final int valueFrom, final int valueTo) {
+        if (valueFrom >= 0) {
+            final int start = trimStart(header, valueFrom, valueTo);
+            final int end = trimEnd(header, start, valueTo);
+            if (end > start && end - start <= 18) {
+                long maxAge = 0;
+                int i = start;
+                while (i < end && header.charAt(i) >= '0' && header.charAt(i) <= '9') {
+                    maxAge = maxAge * 10 + (header.charAt(i) - '0');
+                    i++;
+                }
+                if (i == end) {
+                    return maxAge;
+                }
+            }
+        }
+        try {
+            return Long.parseLong(value(header, valueFrom, valueTo));
+        } catch (final NumberFormatException ex) {
+            throw new IllegalArgumentException("Illegal cookie max-age attribute");
+        }
+    }
+
+    /**
+     * @return the seconds from now until the expiry date, or 0 if the date cannot be parsed.
+     */
+    private static long expiresDeltaSeconds(final String header, final int valueFrom, final int valueTo) {
+        final long nowMillis = System.currentTimeMillis();
+        if (valueFrom < 0) {
+            return 0;
+        }
+        final int start = trimStart(header, valueFrom, valueTo);
+        final int end = trimEnd(header, start, valueTo);
+        if (end - start == FIXDATE_LENGTH) {
+            final long expiresAt = parseFixdate(header, start);
+            if (expiresAt != Long.MIN_VALUE) {
+                return (expiresAt - nowMillis) / 1000;
+            }
+        }
+        return formattedDeltaSeconds(value(header, valueFrom, valueTo), nowMillis);
+    }
+
+    /**
+     * Parses an IMF-fixdate, with spaces or dashes around the month.
+     *
+     * @return the time in milliseconds since the epoch, or Long.MIN_VALUE if the date is not an IMF-fixdate
+     * of a year since 1970.
+     */
+    private static long parseFixdate(final String header, final int start) {
+        final int dayOfWeek = indexOfName(DAYS, header, start);
+        final char separator = header.charAt(start + 7);
+        if (dayOfWeek < 0 || header.charAt(start + 3) != ',' || header.charAt(start + 4) != ' '
+            || (separator != ' ' && separator != '-') || header.charAt(start + 11) != separator
+            || header.charAt(start + 16) != ' ' || header.charAt(start + 19) != ':'
+            || header.charAt(start + 22) != ':' || !header.startsWith(" GMT", start + 25)) {
+            return Long.MIN_VALUE;
+        }
+        final int month = indexOfName(MONTHS, header, start + 8);
+        final int day = digits(header, start + 5, 2);
+        final int year = digits(header, start + 12, 4);
+        final int hour = digits(header, start + 17, 2);
+        final int minute = digits(header, start + 20, 2);
+        final int second = digits(header, start + 23, 2);
+        if (month < 0 || year < 1970 || day < 1 || day > daysInMonth(year, month)
+            || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return Long.MIN_VALUE;
+        }
+        final long epochDay = epochDay(year, month + 1, day);
+        // the epoch was a Thursday, the formats of HttpCookie reject dates on the wrong day of the week
+        if (Math.floorMod(epochDay + 3, 7) != dayOfWeek) {
+            return Long.MIN_VALUE;
+        }
+        return ((epochDay * 24 + hour) * 60 + minute) * 60_000L + second * 1000L;
+    }
+
+    private static int indexOfName(final String names, final String header, final int start) {
+        for (int i = 0; i < names.length(); i += 3) {
+            if (header.regionMatches(start, names, i, 3)) {
+                return i / 3;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number made of the digits, or -1 if a character is not a digit.
+     */
+    private static int digits(final String header, final int start, final int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            final char c = header.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int daysInMonth(final int year, final int month) {
+        if (month == 1) {
+            return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+        }
+        return month == 3 || month == 5 || month == 8 || month == 10 ? 30 : 31;
+    }
+
+    /**
+     * @return the days since the epoch of a date of the proleptic Gregorian calendar, the month starting at 1.
+     */
+    private static long epochDay(final int year, final int month, final int day) {
+        final int y = month <= 2 ? year - 1 : year;
+        final int era = y / 400;
+        final int yearOfEra = y - era * 400;
+        final int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097L + dayOfEra - 719_468;
+    }
+
+    /**
+     * Parses the date with the formats of HttpCookie, which only accept dates on their day of the week.
+     */
+    private static long formattedDeltaSeconds(final String date, final long nowMillis) {
+        final Calendar calendar = new GregorianCalendar(GMT);
+        for (final String format : COOKIE_DATE_FORMATS) {
+            final SimpleDateFormat dateFormat = new SimpleDateFormat(format, Locale.US);
+            calendar.set(1970, Calendar.JANUARY, 1, 0, 0, 0);
+            dateFormat.setTimeZone(GMT);
+            dateFormat.setLenient(false);
+            dateFormat.set2DigitYearStart(calendar.getTime());
+            try {
+                calendar.setTime(dateFormat.parse(date));
+                if (!format.contains("yyyy")) {
+                    // two-digit years as per RFC 6265
+                    int year = calendar.get(Calendar.YEAR) % 100;
+                    year += year < 70 ? 2000 : 1900;
+                    calendar.set(Calendar.YEAR, year);
+                }
+                return (calendar.getTimeInMillis() - nowMillis) / 1000;
+            } catch (final Exception ignored) {
+                // tries the next format
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the trimmed value without surrounding quotes, or null if the attribute has no value.
+     */
+    private static String value(final String header, final int valueFrom, final int valueTo) {
+        return valueFrom < 0 ? null : unquoted(header, valueFrom, valueTo);
+    }
+
+    private static String unquoted(final String header, final int from, final int to) {
+        int start = trimStart(header, from, to);
+        int end = trimEnd(header, start, to);
+        if (end - start > 2) {
+            final char first = header.charAt(start);
+            if ((first == '"' || first == '\'') && header.charAt(end - 1) == first) {
+                start++;
+                end--;
+            }
+        }
+        return header.substring(start, end);
+    }
+
+    private static String trimmed(final String header, final int from, final int to) {
+        final int start = trimStart(header, from, to);
+        return header.substring(start, trimEnd(header, start, to));
+    }
+
+    private static int trimStart(final String header, final int from, final int to) {
+        int start = from;
+        while (start < to && header.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(final String header, final int from, final int to) {
+        int end = to;
+        while (end > from && header.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private static int skipSemicolons(final String header, final int from, final int to) {
+        int start = from;
+        while (start < to && header.charAt(start) == ';') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int tokenEnd(final String header, final int from, final int to) {
+        final int end = indexOf(header, ';', from, to);
+        return end < 0 ? to : end;
+    }
+
+    private static int indexOf(final String header, final char c, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            if (header.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
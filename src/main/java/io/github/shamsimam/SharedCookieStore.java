@@ -0,0 +1,530 @@
+package io.github.shamsimam;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A CookieStore shared by the processes of a host through a memory-mapped file, so that the processes
+ * talking to the same backends reuse the cookies, e.g. the sessions, any one of them received.
+ * <p>
+ * The file holds a header and the modifications of the store, appended as records in the encoding of
+ * {@link PersistentCookieStore}. Each store replays the records into an in-memory {@link ConcurrentCookieStore}
+ * serving its lookups. Writers lock the file, against the other stores of the process and against other
+ * processes, append their record and publish the end of the records with a sequence lock: the sequence is odd
+ * while the end is updated. Lookups first replay the records appended since, unless another thread of the
+ * store is replaying them, and never wait for a lock: a reader which finds the sequence odd, or a record
+ * whose checksum does not match yet, serves the cookies it has and catches up on its next lookup.
+ * <p>
+ * The JDK offers no memory fences on mapped buffers before Java 9, hence the ordering of the record and of the
+ * end is only as strong as the platform makes it and the checksums of the records are what keeps a reader from
+ * applying a record it sees partly written.
+ * <p>
+ * Once the file is full the writer compacts the cookies into a new file, twice as large as needed, which
+ * atomically replaces the file, and marks the previous file as superseded. The other stores then map the new
+ * file and replay it from the start. Modifications reach the file once they return, the file is not forced to
+ * the storage device.
+ */
+public final class SharedCookieStore implements VersionedCookieStore, Closeable {
+
+    private static final Logger logger = Logger.getLogger(SharedCookieStore.class.getName());
+
+    /**
+     * The default size, in bytes, of a new file.
+     */
+    public static final int DEFAULT_INITIAL_SIZE = 1 << 20;
+
+    private static final int MAGIC = 0x434b5831;
+    private static final int FORMAT = 1;
+
+    // The layout of the header
+    private static final int MAGIC_FIELD = 0;
+    private static final int FORMAT_FIELD = 4;
+    private static final int SEQUENCE = 8;
+    private static final int SUPERSEDED = 12;
+    private static final int END = 16;
+    private static final int HEADER_SIZE = 64;
+    // The length and the checksum of the payload
+    private static final int RECORD_HEADER_LENGTH = 8;
+    // The number of times a reader reads a sequence which is odd before it gives up
+    private static final int MAX_SEQUENCE_RETRIES = 64;
+
+    // The locks keeping the stores of this process from locking the same file twice, which the JDK rejects
+    private static final ConcurrentMap<Path, ReentrantLock> PROCESS_LOCKS = new ConcurrentHashMap<>();
+
+    private final Path file;
+    private final int initialSize;
+    private final ReentrantLock processLock;
+    // Guards the mapping and the position, held by the thread replaying records
+    private final ReentrantLock replayLock = new ReentrantLock();
+    private volatile View view;
+    private Mapping mapping;
+    // The offset of the first record not replayed yet
+    private long position;
+    private volatile boolean closed;
+
+    /**
+     * Create a new SharedCookieStore, sharing the cookies of the file, if any.
+     *
+     * @param file the file holding the cookies, created as needed.
+     * @throws IOException if the file cannot be mapped.
+     */
+    public SharedCookieStore(final Path file) throws IOException {
+        this(file, DEFAULT_INITIAL_SIZE);
+    }
+
+    /**
+     * Create a new SharedCookieStore, sharing the cookies of the file, if any.
+     *
+     * @param file        the file holding the cookies, created as needed.
+     * @param initialSize the size, in bytes, of the file when it is created.
+     * @throws IOException if the file cannot be mapped.
+     */
+    public SharedCookieStore(final Path file, final int initialSize) throws IOException {
+        if (initialSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("initialSize must be larger than the header: " + initialSize);
+        }
+        this.file = file;
+        this.initialSize = initialSize;
+        this.processLock = PROCESS_LOCKS.computeIfAbsent(file.toAbsolutePath().normalize(), p -> new ReentrantLock());
+        replayLock.lock();
+        try {
+            reopen(0);
+        } finally {
+            replayLock.unlock();
+        }
+    }
+
+    @Override
+    public long version() {
+        refresh();
+        return view.version();
+    }
+
+    @Override
+    public boolean removesExpiredCookies() {
+        return true;
+    }
+
+    @Override
+    public void add(final URI uri, final HttpCookie cookie) {
+        if (cookie == null) {
+            throw new NullPointerException("cookie is null");
+        }
+        write(CookieLogCodec.ADD, uri, cookie, cookieStore -> {
+            cookieStore.add(uri, cookie);
+            return true;
+        });
+    }
+
+    @Override
+    public List<HttpCookie> get(final URI uri) {
+        refresh();
+        return view.cookies.get(uri);
+    }
+
+    @Override
+    public List<HttpCookie> getMatching(final URI uri) {
+        refresh();
+        return view.cookies.getMatching(uri);
+    }
+
+    @Override
+    public List<HttpCookie> getCookies() {
+        refresh();
+        return view.cookies.getCookies();
+    }
+
+    @Override
+    public List<URI> getURIs() {
+        refresh();
+        return view.cookies.getURIs();
+    }
+
+    @Override
+    public boolean remove(final URI uri, final HttpCookie cookie) {
+        if (cookie == null) {
+            throw new NullPointerException("cookie is null");
+        }
+        return write(CookieLogCodec.REMOVE, uri, cookie, cookieStore -> cookieStore.remove(uri, cookie));
+    }
+
+    @Override
+    public boolean removeAll() {
+        return write(CookieLogCodec.REMOVE_ALL, null, null, ConcurrentCookieStore::removeAll);
+    }
+
+    /**
+     * Releases the file, the store can no longer be modified and serves the cookies it has.
+     */
+    @Override
+    public void close() throws IOException {
+        replayLock.lock();
+        try {
+            if (!closed) {
+                closed = true;
+                mapping.channel.close();
+            }
+        } finally {
+            replayLock.unlock();
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("cookie store is closed");
+        }
+    }
+
+    /**
+     * Replays the records appended since the last replay, unless another thread is replaying them.
+     */
+    private void refresh() {
+        if (closed || !replayLock.tryLock()) {
+            return;
+        }
+        try {
+            if (!closed) {
+                replay();
+            }
+        } catch (final IOException | RuntimeException ex) {
+            logger.log(Level.SEVERE, "error in reading shared cookies", ex);
+        } finally {
+            replayLock.unlock();
+        }
+    }
+
+    /**
+     * Replays the committed records which are visible, mapping the file anew when it was superseded.
+     */
+    private void replay() throws IOException {
+        if (mapping.buffer.getInt(SUPERSEDED) != 0 || !mapping.channel.isOpen()) {
+            reopen(view.version() + 1);
+        } else {
+            replay(view.cookies);
+        }
+    }
+
+    private void replay(final ConcurrentCookieStore cookies) throws IOException {
+        final long end = committedEnd(mapping.buffer);
+        if (end < 0) {
+            // a writer is publishing the end, the records are replayed on the next lookup
+            return;
+        }
+        final ByteBuffer records = mapping.buffer.duplicate();
+        final long nowMillis = System.currentTimeMillis();
+        while (position + RECORD_HEADER_LENGTH <= end) {
+            final int offset = (int) position;
+            final int payloadLength = records.getInt(offset);
+            final int checksum = records.getInt(offset + 4);
+            if (payloadLength <= 0 || position + RECORD_HEADER_LENGTH + payloadLength > end) {
+                break;
+            }
+            final byte[] payload = new byte[payloadLength];
+            records.position(offset + RECORD_HEADER_LENGTH);
+            records.get(payload);
+            if (CookieLogCodec.checksum(payload, 0, payloadLength) != checksum) {
+                // the record is not fully visible yet
+                break;
+            }
+            CookieLogCodec.apply(payload, cookies, nowMillis);
+            position += RECORD_HEADER_LENGTH + payloadLength;
+        }
+    }
+
+    /**
+     * Maps the file and replays it into a new view, whose versions follow those of the previous view.
+     */
+    private void reopen(final long versionBase) throws IOException {
+        final Mapping previous = mapping;
+        mapping = open();
+        if (previous != null) {
+            previous.channel.close();
+        }
+        position = HEADER_SIZE;
+        final ConcurrentCookieStore cookies = newCookieStore();
+        // the records are replayed before the view is published to lookups
+        replay(cookies);
+        view = new View(cookies, versionBase);
+    }
+
+    private Mapping open() throws IOException {
+        final FileChannel channel = FileChannel.open(file,
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.size() >= HEADER_SIZE
+                ? channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()) : null;
+            if (buffer == null || buffer.getInt(MAGIC_FIELD) == 0) {
+                // the file is new, it is initialized by the first store to lock it
+                final FileLock lock = lock(channel);
+                try {
+                    if (channel.size() < HEADER_SIZE) {
+                        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, initialSize);
+                        initialize(buffer);
+                    } else {
+                        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+                    }
+                } finally {
+                    release(lock);
+                }
+            }
+            if (buffer.getInt(MAGIC_FIELD) != MAGIC) {
+                throw new IOException("not a shared cookie store file: " + file);
+            }
+            if (buffer.getInt(FORMAT_FIELD) != FORMAT) {
+                throw new IOException("unsupported cookie store format: " + buffer.getInt(FORMAT_FIELD));
+            }
+            return new Mapping(channel, buffer);
+        } catch (final IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private static void initialize(final ByteBuffer buffer) {
+        buffer.putInt(FORMAT_FIELD, FORMAT);
+        buffer.putInt(SEQUENCE, 0);
+        buffer.putInt(SUPERSEDED, 0);
+        buffer.putLong(END, HEADER_SIZE);
+        // the magic number marks an initialized file
+        buffer.putInt(MAGIC_FIELD, MAGIC);
+    }
+
+    /**
+     * Reads the end of the committed records.
+     *
+     * @return the end, or -1 if a writer kept publishing it.
+     */
+    private static long committedEnd(final ByteBuffer buffer) {
+        for (int i = 0; i < MAX_SEQUENCE_RETRIES; i++) {
+            final int sequence = buffer.getInt(SEQUENCE);
+            final long end = buffer.getLong(END);
+            if ((sequence & 1) == 0 && buffer.getInt(SEQUENCE) == sequence) {
+                return end;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Applies the modification to the cookies of the store and, if it modified them, appends it to the file.
+     *
+     * @return whether the modification modified the cookies.
+     */
+    private boolean write(final byte operation, final URI uri, final HttpCookie cookie,
+                          final Predicate<ConcurrentCookieStore> modification) {
+        ensureOpen();
+        final byte[] payload = CookieLogCodec.encode(operation, uri == null ? null : uri.getHost(), cookie,
+            System.currentTimeMillis());
+        replayLock.lock();
+        try {
+            ensureOpen();
+            if (!mapping.channel.isOpen()) {
+                // the channel was closed by an interrupt
+                reopen(view.version() + 1);
+            }
+            FileLock lock = lock(mapping.channel);
+            try {
+                while (mapping.buffer.getInt(SUPERSEDED) != 0) {
+                    release(lock);
+                    lock = null;
+                    reopen(view.version() + 1);
+                    lock = lock(mapping.channel);
+                }
+                // the records of the other stores come first
+                replay();
+                if (position + RECORD_HEADER_LENGTH + payload.length > mapping.buffer.capacity()) {
+                    lock = compact(lock, payload.length);
+                }
+                if (!modification.test(view.cookies)) {
+                    return false;
+                }
+                append(payload);
+                return true;
+            } finally {
+                if (lock != null) {
+                    release(lock);
+                }
+            }
+        } catch (final IOException ex) {
+            logger.log(Level.SEVERE, "error in sharing cookies", ex);
+            return false;
+        } finally {
+            replayLock.unlock();
+        }
+    }
+
+    /**
+     * Appends the record at the end of the records and publishes the new end.
+     */
+    private void append(final byte[] payload) {
+        final MappedByteBuffer buffer = mapping.buffer;
+        final int offset = (int) position;
+        final ByteBuffer record = buffer.duplicate();
+        record.position(offset);
+        record.putInt(payload.length);
+        record.putInt(CookieLogCodec.checksum(payload, 0, payload.length));
+        record.put(payload);
+        position += RECORD_HEADER_LENGTH + payload.length;
+        final int sequence = buffer.getInt(SEQUENCE);
+        buffer.putInt(SEQUENCE, sequence + 1);
+        buffer.putLong(END, position);
+        buffer.putInt(SEQUENCE, sequence + 2);
+    }
+
+    /**
+     * Writes the cookies of the store to a new file, with room for a record of the specified length, which
+     * replaces the current file and marks the current file as superseded.
+     *
+     * @return the lock of the new file.
+     */
+    private FileLock compact(final FileLock lock, final int payloadLength) throws IOException {
+        final List<byte[]> payloads = new ArrayList<>();
+        final long nowMillis = System.currentTimeMillis();
+        view.cookies.forEachCookie((host, cookie) ->
+            payloads.add(CookieLogCodec.encode(CookieLogCodec.ADD, host, cookie, nowMillis)));
+        long liveBytes = RECORD_HEADER_LENGTH + payloadLength;
+        for (final byte[] payload : payloads) {
+            liveBytes += RECORD_HEADER_LENGTH + payload.length;
+        }
+        final long fileSize = Math.max(initialSize, HEADER_SIZE + 2 * liveBytes);
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException("cookie store file is full: " + file);
+        }
+
+        final Path temporaryFile = createTemporaryFile();
+        final FileChannel newChannel = FileChannel.open(temporaryFile,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final FileLock newLock;
+        final MappedByteBuffer target;
+        try {
+            newLock = lock(newChannel);
+            target = newChannel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        } catch (final IOException | RuntimeException ex) {
+            newChannel.close();
+            Files.deleteIfExists(temporaryFile);
+            throw ex;
+        }
+        initialize(target);
+        final Mapping previous = mapping;
+        mapping = new Mapping(newChannel, target);
+        position = HEADER_SIZE;
+        for (final byte[] payload : payloads) {
+            append(payload);
+        }
+        target.force();
+
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // the stores still mapping the previous file map the new file on their next lookup
+        previous.buffer.putInt(SUPERSEDED, 1);
+        release(lock);
+        previous.channel.close();
+        return newLock;
+    }
+
+    /**
+     * Creates the file replacing the file on compaction, with the permissions and, where allowed, the group of
+     * the file, so that the processes of other users sharing the file can still open it.
+     */
+    private Path createTemporaryFile() throws IOException {
+        final Path temporaryFile = Files.createTempFile(file.toAbsolutePath().getParent(),
+            file.getFileName().toString(), ".tmp");
+        if (!Files.getFileStore(file).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            return temporaryFile;
+        }
+        try {
+            final PosixFileAttributes attributes = Files.readAttributes(file, PosixFileAttributes.class);
+            // set rather than passed to the creation of the file, which would be subject to the umask
+            Files.setPosixFilePermissions(temporaryFile, attributes.permissions());
+            try {
+                Files.getFileAttributeView(temporaryFile, PosixFileAttributeView.class)
+                    .setGroup(attributes.group());
+            } catch (final IOException ignored) {
+                // the user is not a member of the group of the file
+            }
+        } catch (final IOException | RuntimeException ex) {
+            Files.deleteIfExists(temporaryFile);
+            throw ex;
+        }
+        return temporaryFile;
+    }
+
+    /**
+     * Locks the file against the other stores of the process and against other processes.
+     */
+    private FileLock lock(final FileChannel channel) throws IOException {
+        processLock.lock();
+        try {
+            return channel.lock();
+        } catch (final IOException | RuntimeException ex) {
+            processLock.unlock();
+            throw ex;
+        }
+    }
+
+    private void release(final FileLock lock) throws IOException {
+        try {
+            if (lock.channel().isOpen()) {
+                lock.release();
+            }
+        } finally {
+            processLock.unlock();
+        }
+    }
+
+    private static ConcurrentCookieStore newCookieStore() {
+        // the stores of all processes hold the same cookies, hence no store evicts any
+        return new ConcurrentCookieStore(Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * The mapping of a file.
+     */
+    private static final class Mapping {
+
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private Mapping(final FileChannel channel, final MappedByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * The cookies replayed from a file, the versions of a view follow those of the view it replaced.
+     */
+    private static final class View {
+
+        private final ConcurrentCookieStore cookies;
+        private final long versionBase;
+
+        private View(final ConcurrentCookieStore cookies, final long versionBase) {
+            this.cookies = cookies;
+            this.versionBase = versionBase;
+        }
+
+        private long version() {
+            return versionBase + cookies.version();
+        }
+    }
+}
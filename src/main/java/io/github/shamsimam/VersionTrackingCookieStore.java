@@ -0,0 +1,79 @@
+package io.github.shamsimam;
+
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A VersionedCookieStore which tracks the modifications made to a delegate CookieStore.
+ * <p>
+ * Modifications made to the delegate store without going through this instance are not tracked.
+ */
+public class VersionTrackingCookieStore implements VersionedCookieStore {
+
+    // The store holding the cookies
+    private final CookieStore delegate;
+    // The number of modifications made through this instance
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Create a new VersionTrackingCookieStore.
+     *
+     * @param delegate the store holding the cookies
+     */
+    public VersionTrackingCookieStore(final CookieStore delegate) {
+        if (delegate == null) {
+            throw new NullPointerException("delegate is null");
+        }
+        this.delegate = delegate;
+    }
+
+    @Override
+    public long version() {
+        return version.get();
+    }
+
+    @Override
+    public void add(final URI uri, final HttpCookie cookie) {
+        try {
+            delegate.add(uri, cookie);
+        } finally {
+            version.incrementAndGet();
+        }
+    }
+
+    @Override
+    public List<HttpCookie> get(final URI uri) {
+        return delegate.get(uri);
+    }
+
+    @Override
+    public List<HttpCookie> getCookies() {
+        return delegate.getCookies();
+    }
+
+    @Override
+    public List<URI> getURIs() {
+        return delegate.getURIs();
+    }
+
+    @Override
+    public boolean remove(final URI uri, final HttpCookie cookie) {
+        try {
+            return delegate.remove(uri, cookie);
+        } finally {
+            version.incrementAndGet();
+        }
+    }
+
+    @Override
+    public boolean removeAll() {
+        try {
+            return delegate.removeAll();
+        } finally {
+            version.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package io.github.shamsimam;
+
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A CookieStore which exposes a version that changes whenever its contents are modified.
+ * <p>
+ * The version allows the CookieStoreInterceptor to reuse the cookie headers it rendered for a call path
+ * until cookies are added to or removed from the store.
+ */
+public interface VersionedCookieStore extends CookieStore {
+
+    /**
+     * Retrieves the current version of the store.
+     * <p>
+     * The version increases monotonically and changes on every add or remove operation.
+     * Cookies that expire are not required to change the version, see {@link #removesExpiredCookies()}.
+     *
+     * @return the current version of the store.
+     */
+    long version();
+
+    /**
+     * Whether the store removes cookies once they expire, changing its version, without waiting for them
+     * to be looked up. Lookups of such stores skip the expired cookies the store has not removed yet and
+     * return cookies whose max age counts down from the lookup, rounded up to a second.
+     *
+     * @return false by default.
+     */
+    default boolean removesExpiredCookies() {
+        return false;
+    }
+
+    /**
+     * Retrieves the cookies to consider for a request to the uri, i.e. the cookies returned by
+     * {@link #get(URI)} whose path is a prefix of the path of the uri.
+     * <p>
+     * The default implementation filters the cookies returned by {@link #get(URI)}, stores which index
+     * cookies by path can avoid visiting cookies of unrelated paths.
+     *
+     * @param uri the uri of the request
+     * @return the matching cookies, an empty list if there are none
+     */
+    default List<HttpCookie> getMatching(final URI uri) {
+        final List<HttpCookie> storedCookies = get(uri);
+        final String path = CookieHeaders.requestPath(uri);
+        final List<HttpCookie> cookies = new ArrayList<>(storedCookies.size());
+        for (final HttpCookie cookie : storedCookies) {
+            final String cookiePath = cookie.getPath();
+            if (cookiePath != null && path.startsWith(cookiePath)) {
+                cookies.add(cookie);
+            }
+        }
+        return cookies;
+    }
+}
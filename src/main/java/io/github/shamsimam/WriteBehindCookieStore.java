@@ -0,0 +1,388 @@
+package io.github.shamsimam;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A CookieStore which applies its modifications to a backing store, e.g. a {@link PersistentCookieStore},
+ * from a background thread so that the threads adding cookies, i.e. the transport threads receiving the
+ * response headers, never wait for the backing store.
+ * <p>
+ * Lookups are served by an in-memory {@link ConcurrentCookieStore}, loaded with the cookies of the backing
+ * store when the store is created and modified right away. The modifications are queued and applied to the
+ * backing store in batches: a batch is applied once it holds the batch size or once its first modification
+ * has waited for the flush interval. A batch is applied to a {@link BatchModifiedCookieStore} under one
+ * {@link BatchModifiedCookieStore#modifyInBatch(Runnable)}, e.g. a PersistentCookieStore then flushes its log
+ * once per batch. When the queue is full, threads modifying the store wait for room in the queue.
+ * Modifications are made to the in-memory store and queued under a lock, hence the backing store sees them in
+ * the order the lookups do. Closing the store applies the queued modifications before closing the
+ * backing store, modifications made after the store is closed are rejected.
+ */
+public final class WriteBehindCookieStore implements VersionedCookieStore, BatchModifiedCookieStore, Closeable {
+
+    private static final Logger logger = Logger.getLogger(WriteBehindCookieStore.class.getName());
+
+    /**
+     * The default number of modifications the queue holds.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+
+    /**
+     * The default maximum number of modifications applied in a batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /**
+     * The default time a modification waits for its batch to fill up.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 100;
+
+    // The operations of the modifications
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final byte REMOVE_ALL = 3;
+
+    // Marks the end of the modifications of a closed store
+    private static final Modification CLOSE = new Modification(REMOVE_ALL, null, null);
+
+    // The store serving lookups
+    private final ConcurrentCookieStore cookieStore;
+    // The store the modifications are written to
+    private final CookieStore backingStore;
+    private final BlockingQueue<Modification> queue;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final Thread writer;
+    // Orders the modifications of the in-memory store and of the queue, never held by the writer
+    private final ReentrantLock modificationLock = new ReentrantLock();
+    // The number of modifications queued and applied, guarded by this
+    private long queuedCount;
+    private long appliedCount;
+    // Whether the end of the modifications has been queued, guarded by the modification lock
+    private boolean closed;
+
+    /**
+     * Create a new WriteBehindCookieStore with the default queue capacity, batch size and flush interval.
+     *
+     * @param backingStore the store the modifications are written to.
+     */
+    public WriteBehindCookieStore(final CookieStore backingStore) {
+        this(backingStore, DEFAULT_QUEUE_CAPACITY, DEFAULT_BATCH_SIZE,
+            DEFAULT_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create a new WriteBehindCookieStore.
+     *
+     * @param backingStore  the store the modifications are written to.
+     * @param queueCapacity the number of modifications the queue holds.
+     * @param batchSize     the maximum number of modifications applied in a batch.
+     * @param flushInterval the time a modification waits for its batch to fill up.
+     * @param unit          the unit of the flush interval.
+     */
+    public WriteBehindCookieStore(final CookieStore backingStore, final int queueCapacity, final int batchSize,
+                                  final long flushInterval, final TimeUnit unit) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queueCapacity must be positive: " + queueCapacity);
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        if (flushInterval < 0) {
+            throw new IllegalArgumentException("flushInterval must not be negative: " + flushInterval);
+        }
+        this.cookieStore = new ConcurrentCookieStore(Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+        this.backingStore = backingStore;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = unit.toNanos(flushInterval);
+        load();
+        this.writer = new Thread(this::writeBatches, "grpc-cookie-write-behind");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Loads the cookies of the backing store, host-only cookies are looked up for the hosts they were
+     * received from.
+     */
+    private void load() {
+        for (final HttpCookie cookie : backingStore.getCookies()) {
+            if (cookie.getDomain() != null) {
+                cookieStore.add(null, cookie);
+            }
+        }
+        for (final URI uri : backingStore.getURIs()) {
+            for (final HttpCookie cookie : backingStore.get(uri)) {
+                if (cookie.getDomain() == null) {
+                    cookieStore.add(uri, cookie);
+                }
+            }
+        }
+    }
+
+    @Override
+    public long version() {
+        return cookieStore.version();
+    }
+
+    @Override
+    public boolean removesExpiredCookies() {
+        return cookieStore.removesExpiredCookies();
+    }
+
+    @Override
+    public void modifyInBatch(final Runnable modifications) {
+        modificationLock.lock();
+        try {
+            modifications.run();
+        } finally {
+            modificationLock.unlock();
+        }
+    }
+
+    @Override
+    public void add(final URI uri, final HttpCookie cookie) {
+        modificationLock.lock();
+        try {
+            ensureOpen();
+            cookieStore.add(uri, cookie);
+            enqueue(new Modification(ADD, uri, cookie));
+        } finally {
+            modificationLock.unlock();
+        }
+    }
+
+    @Override
+    public List<HttpCookie> get(final URI uri) {
+        return cookieStore.get(uri);
+    }
+
+    @Override
+    public List<HttpCookie> getMatching(final URI uri) {
+        return cookieStore.getMatching(uri);
+    }
+
+    @Override
+    public List<HttpCookie> getCookies() {
+        return cookieStore.getCookies();
+    }
+
+    @Override
+    public List<URI> getURIs() {
+        return cookieStore.getURIs();
+    }
+
+    @Override
+    public boolean remove(final URI uri, final HttpCookie cookie) {
+        modificationLock.lock();
+        try {
+            ensureOpen();
+            if (!cookieStore.remove(uri, cookie)) {
+                return false;
+            }
+            enqueue(new Modification(REMOVE, uri, cookie));
+            return true;
+        } finally {
+            modificationLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean removeAll() {
+        modificationLock.lock();
+        try {
+            ensureOpen();
+            if (!cookieStore.removeAll()) {
+                return false;
+            }
+            enqueue(new Modification(REMOVE_ALL, null, null));
+            return true;
+        } finally {
+            modificationLock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the modifications made so far have been applied to the backing store.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public synchronized void flush() throws InterruptedException {
+        final long target = queuedCount;
+        while (appliedCount < target && writer.isAlive()) {
+            wait(TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos) + 1);
+        }
+    }
+
+    /**
+     * Applies the queued modifications and closes the backing store if it is {@link Closeable}, the store
+     * can no longer be modified.
+     */
+    @Override
+    public void close() throws IOException {
+        modificationLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            // the writer stops once it reaches the end of the queue, no modification is queued after it
+            put(CLOSE);
+        } finally {
+            modificationLock.unlock();
+        }
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (final InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (backingStore instanceof Closeable) {
+            ((Closeable) backingStore).close();
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("cookie store is closed");
+        }
+    }
+
+    /**
+     * Queues the modification, waiting for room in the queue when it is full, while holding the modification
+     * lock.
+     */
+    private void enqueue(final Modification modification) {
+        synchronized (this) {
+            queuedCount++;
+        }
+        put(modification);
+    }
+
+    private void put(final Modification modification) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(modification);
+                break;
+            } catch (final InterruptedException ex) {
+                // the modification must reach the backing store, in order
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeBatches() {
+        final List<Modification> batch = new ArrayList<>(batchSize);
+        boolean closing = false;
+        while (!closing) {
+            try {
+                final Modification first = queue.take();
+                batch.add(first);
+                final long deadline = first.queuedNanos + flushIntervalNanos;
+                while (batch.size() < batchSize && first != CLOSE) {
+                    final Modification next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    if (next == CLOSE) {
+                        break;
+                    }
+                }
+            } catch (final InterruptedException ex) {
+                // the writer is only stopped by closing the store
+            }
+            closing = !batch.isEmpty() && batch.get(batch.size() - 1) == CLOSE;
+            if (closing) {
+                batch.remove(batch.size() - 1);
+            }
+            apply(batch);
+            batch.clear();
+        }
+    }
+
+    private void apply(final List<Modification> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (backingStore instanceof BatchModifiedCookieStore) {
+            // e.g. a PersistentCookieStore flushes its log once per batch rather than once per modification
+            ((BatchModifiedCookieStore) backingStore).modifyInBatch(() -> applyEach(batch));
+        } else {
+            applyEach(batch);
+        }
+        synchronized (this) {
+            appliedCount += batch.size();
+            notifyAll();
+        }
+    }
+
+    private void applyEach(final List<Modification> batch) {
+        for (final Modification modification : batch) {
+            try {
+                modification.applyTo(backingStore);
+            } catch (final Throwable th) {
+                logger.log(Level.SEVERE, "error in writing cookies", th);
+            }
+        }
+    }
+
+    /**
+     * A modification of the store waiting to be applied to the backing store.
+     */
+    private static final class Modification {
+
+        private final byte operation;
+        private final URI uri;
+        private final HttpCookie cookie;
+        private final long queuedNanos;
+
+        private Modification(final byte operation, final URI uri, final HttpCookie cookie) {
+            this.operation = operation;
+            this.uri = uri;
+            this.cookie = cookie;
+            this.queuedNanos = System.nanoTime();
+        }
+
+        private void applyTo(final CookieStore backingStore) {
+            if (operation == ADD) {
+                final long maxAge = cookie.getMaxAge();
+                if (maxAge > 0) {
+                    // the cookie expires at the same time in the backing store, the cookie is copied as it
+                    // may have been handed to other stores
+                    final HttpCookie copy = (HttpCookie) cookie.clone();
+                    final long waitedSeconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - queuedNanos);
+                    copy.setMaxAge(Math.max(0, maxAge - waitedSeconds));
+                    backingStore.add(uri, copy);
+                } else {
+                    backingStore.add(uri, cookie);
+                }
+            } else if (operation == REMOVE) {
+                backingStore.remove(uri, cookie);
+            } else {
+                backingStore.removeAll();
+            }
+        }
+    }
+}
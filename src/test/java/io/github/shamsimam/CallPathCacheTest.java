@@ -0,0 +1,72 @@
+package io.github.shamsimam;
+
+import io.grpc.MethodDescriptor;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+
+public class CallPathCacheTest extends TestCase {
+
+    private static MethodDescriptor<Void, Void> methodDescriptor(final String fullMethodName) {
+        final VoidMarshaller marshaller = new VoidMarshaller();
+        return MethodDescriptor.<Void, Void>newBuilder(marshaller, marshaller).
+            setFullMethodName(fullMethodName).
+            setType(MethodDescriptor.MethodType.UNARY).
+            build();
+    }
+
+    public void testUriCreatedForMethod() {
+
+        final CallPathCache cache = new CallPathCache(false, 16);
+        final URI uri = cache.get("www.test.com:8443", methodDescriptor("grpc.Service/GetCookies"));
+
+        assertEquals(URI.create("https://www.test.com:8443/grpc.Service/GetCookies"), uri);
+        assertEquals("www.test.com", uri.getHost());
+        assertEquals("/grpc.Service/GetCookies", uri.getPath());
+    }
+
+    public void testPlainTextUsesHttpScheme() {
+
+        final CallPathCache cache = new CallPathCache(true, 16);
+        final URI uri = cache.get("www.test.com", methodDescriptor("grpc.Service/GetCookies"));
+
+        assertEquals(URI.create("http://www.test.com/grpc.Service/GetCookies"), uri);
+    }
+
+    public void testUriReusedForSameAuthorityAndMethod() {
+
+        final CallPathCache cache = new CallPathCache(false, 16);
+        final MethodDescriptor<Void, Void> getCookies = methodDescriptor("grpc.Service/GetCookies");
+        final MethodDescriptor<Void, Void> postCookies = methodDescriptor("grpc.Service/PostCookies");
+
+        final URI uri = cache.get("www.test.com", getCookies);
+        assertSame(uri, cache.get("www.test.com", getCookies));
+        assertNotSame(uri, cache.get("api.test.com", getCookies));
+        assertNotSame(uri, cache.get("www.test.com", postCookies));
+        assertEquals(3, cache.size());
+    }
+
+    public void testCacheBoundedByMaximumSize() {
+
+        final CallPathCache cache = new CallPathCache(false, 4);
+        for (int i = 0; i < 100; i++) {
+            final URI uri = cache.get("www.test.com", methodDescriptor("grpc.Service/Method" + i));
+            assertEquals("/grpc.Service/Method" + i, uri.getPath());
+            assertTrue(cache.size() <= 4);
+        }
+    }
+
+    private static class VoidMarshaller implements MethodDescriptor.Marshaller<Void> {
+        @Override
+        public InputStream stream(final Void value) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public Void parse(final InputStream stream) {
+            return null;
+        }
+    }
+}
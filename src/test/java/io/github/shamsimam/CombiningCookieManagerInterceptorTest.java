@@ -0,0 +1,14 @@
+package io.github.shamsimam;
+
+import java.net.CookieManager;
+
+/**
+ * Runs the CookieStoreInterceptor tests against a CombiningCookieManager.
+ */
+public class CombiningCookieManagerInterceptorTest extends CookieStoreInterceptorTest {
+
+    @Override
+    protected CookieManager newCookieManager() {
+        return new CombiningCookieManager(new CookieManager());
+    }
+}
@@ -0,0 +1,14 @@
+package io.github.shamsimam;
+
+import java.net.CookieManager;
+
+/**
+ * Runs the CookieStoreInterceptor tests against the ConcurrentCookieStore.
+ */
+public class ConcurrentCookieStoreInterceptorTest extends CookieStoreInterceptorTest {
+
+    @Override
+    protected CookieManager newCookieManager() {
+        return new CookieManager(new ConcurrentCookieStore(), null);
+    }
+}
@@ -0,0 +1,368 @@
+package io.github.shamsimam;
+
+import junit.framework.TestCase;
+
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ConcurrentCookieStoreTest extends TestCase {
+
+    private static final URI WWW_URI = URI.create("https://www.test.com/grpc.Service/GetCookies");
+    private static final URI API_URI = URI.create("https://api.test.com/grpc.Service/GetCookies");
+
+    private ConcurrentCookieStore cookieStore;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cookieStore = new ConcurrentCookieStore();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cookieStore = null;
+        super.tearDown();
+    }
+
+    private static HttpCookie cookie(final String name, final String value, final String domain) {
+        final HttpCookie cookie = new HttpCookie(name, value);
+        cookie.setVersion(0);
+        cookie.setDomain(domain);
+        cookie.setPath("/");
+        return cookie;
+    }
+
+    private static List<String> names(final List<HttpCookie> cookies) {
+        final List<String> names = new ArrayList<>();
+        for (final HttpCookie cookie : cookies) {
+            names.add(cookie.getName() + "=" + cookie.getValue());
+        }
+        return names;
+    }
+
+    public void testCookiesReturnedForMatchingDomains() {
+
+        cookieStore.add(WWW_URI, cookie("host", "1", "www.test.com"));
+        cookieStore.add(WWW_URI, cookie("parent", "2", ".test.com"));
+        cookieStore.add(API_URI, cookie("other", "3", "api.test.com"));
+
+        assertEquals(2, cookieStore.get(WWW_URI).size());
+        assertTrue(names(cookieStore.get(WWW_URI)).contains("host=1"));
+        assertTrue(names(cookieStore.get(WWW_URI)).contains("parent=2"));
+        assertEquals(2, cookieStore.get(API_URI).size());
+        assertTrue(cookieStore.get(URI.create("https://www.domain.com/")).isEmpty());
+        assertEquals(3, cookieStore.getCookies().size());
+        assertEquals(2, cookieStore.getURIs().size());
+    }
+
+    public void testDomainsMatchOnLabelBoundaries() {
+
+        cookieStore.add(WWW_URI, cookie("parent", "1", "test.com"));
+        cookieStore.add(URI.create("https://a.b.test.com/"), cookie("deep", "2", "a.b.test.com"));
+
+        assertEquals(1, cookieStore.get(WWW_URI).size());
+        assertEquals(2, cookieStore.get(URI.create("https://x.a.b.test.com/")).size());
+        assertTrue(cookieStore.get(URI.create("https://xtest.com/")).isEmpty());
+    }
+
+    public void testHostOnlyCookieWithoutDots() {
+
+        final URI localUri = URI.create("http://localhost:8080/grpc.Service/GetCookies");
+        cookieStore.add(localUri, cookie("foo", "bar", "localhost.local"));
+
+        assertEquals(1, cookieStore.get(localUri).size());
+        assertTrue(cookieStore.get(URI.create("http://otherhost/")).isEmpty());
+    }
+
+    public void testMatchingCookiesFilteredByPath() {
+
+        final HttpCookie rootCookie = cookie("root", "1", "www.test.com");
+        final HttpCookie serviceCookie = cookie("service", "2", "www.test.com");
+        serviceCookie.setPath("/grpc.Service");
+        final HttpCookie methodCookie = cookie("method", "3", "www.test.com");
+        methodCookie.setPath("/grpc.Service/GetCookies");
+        final HttpCookie healthCookie = cookie("health", "4", ".test.com");
+        healthCookie.setPath("/grpc.Health/");
+        for (final HttpCookie cookie : Arrays.asList(rootCookie, serviceCookie, methodCookie, healthCookie)) {
+            cookieStore.add(WWW_URI, cookie);
+        }
+
+        assertEquals(Arrays.asList("root=1", "service=2", "method=3"), names(cookieStore.getMatching(WWW_URI)));
+        assertEquals(Arrays.asList("root=1", "service=2"),
+            names(cookieStore.getMatching(URI.create("https://www.test.com/grpc.Service/PostCookies"))));
+        assertEquals(Arrays.asList("health=4", "root=1"),
+            names(cookieStore.getMatching(URI.create("https://www.test.com/grpc.Health/Check"))));
+        assertEquals(Arrays.asList("root=1"), names(cookieStore.getMatching(URI.create("https://www.test.com"))));
+        assertEquals(4, cookieStore.get(WWW_URI).size());
+    }
+
+    public void testCookieReplacedAndVersionUpdated() {
+
+        final long initialVersion = cookieStore.version();
+        cookieStore.add(WWW_URI, cookie("foo", "bar", "www.test.com"));
+        final long addedVersion = cookieStore.version();
+        assertTrue(addedVersion > initialVersion);
+
+        cookieStore.add(WWW_URI, cookie("foo", "foe", "WWW.test.com"));
+        assertTrue(cookieStore.version() > addedVersion);
+        assertEquals(1, cookieStore.getCookies().size());
+        assertEquals("foe", cookieStore.get(WWW_URI).get(0).getValue());
+    }
+
+    public void testContainsUnchangedCookie() {
+
+        final HttpCookie srcCookie = cookie("foo", "bar", "www.test.com");
+        srcCookie.setMaxAge(3600);
+        assertFalse(cookieStore.contains(WWW_URI, srcCookie));
+        cookieStore.add(WWW_URI, srcCookie);
+
+        assertTrue(cookieStore.contains(WWW_URI, (HttpCookie) srcCookie.clone()));
+        final HttpCookie otherValue = cookie("foo", "foe", "www.test.com");
+        otherValue.setMaxAge(3600);
+        assertFalse(cookieStore.contains(WWW_URI, otherValue));
+        final HttpCookie otherExpiry = cookie("foo", "bar", "www.test.com");
+        otherExpiry.setMaxAge(3602);
+        assertFalse(cookieStore.contains(WWW_URI, otherExpiry));
+        final HttpCookie secure = (HttpCookie) srcCookie.clone();
+        secure.setSecure(true);
+        assertFalse(cookieStore.contains(WWW_URI, secure));
+        final HttpCookie expired = (HttpCookie) srcCookie.clone();
+        expired.setMaxAge(0);
+        assertFalse(cookieStore.contains(WWW_URI, expired));
+        // host-only cookies are held for the host they were received from
+        assertFalse(cookieStore.contains(API_URI, (HttpCookie) srcCookie.clone()));
+    }
+
+    public void testExpiredCookieRemovesStoredCookie() {
+
+        cookieStore.add(WWW_URI, cookie("foo", "bar", "www.test.com"));
+        final HttpCookie expiredCookie = cookie("foo", "", "www.test.com");
+        expiredCookie.setMaxAge(0);
+        cookieStore.add(WWW_URI, expiredCookie);
+
+        assertTrue(cookieStore.get(WWW_URI).isEmpty());
+        assertTrue(cookieStore.getCookies().isEmpty());
+        assertEquals(1, cookieStore.stats().purgedCount());
+        assertEquals(0, cookieStore.stats().expiredCount());
+    }
+
+    public void testCookiesExpireOnTheWheel() {
+
+        final HttpCookie shortCookie = cookie("short", "1", "www.test.com");
+        shortCookie.setMaxAge(10);
+        final HttpCookie longCookie = cookie("long", "2", "www.test.com");
+        longCookie.setMaxAge(7200);
+        cookieStore.add(WWW_URI, shortCookie);
+        cookieStore.add(WWW_URI, longCookie);
+        cookieStore.add(WWW_URI, cookie("session", "3", "www.test.com"));
+        final long now = System.currentTimeMillis();
+        final long version = cookieStore.version();
+
+        cookieStore.expireCookies(now + 5_000);
+        assertEquals(3, cookieStore.get(WWW_URI).size());
+        assertEquals(version, cookieStore.version());
+
+        cookieStore.expireCookies(now + 12_000);
+        assertEquals(Arrays.asList("long=2", "session=3"), names(cookieStore.get(WWW_URI)));
+        assertTrue(cookieStore.version() > version);
+        assertEquals(1, cookieStore.stats().expiredCount());
+
+        cookieStore.expireCookies(now + 7_202_000);
+        assertEquals(Arrays.asList("session=3"), names(cookieStore.get(WWW_URI)));
+        assertEquals(2, cookieStore.stats().expiredCount());
+        assertEquals(0, cookieStore.stats().purgedCount());
+    }
+
+    public void testExpiredCookieSkippedBeforeRemoval() throws Exception {
+
+        final HttpCookie expiringCookie = cookie("foo", "1", "www.test.com");
+        expiringCookie.setMaxAge(1);
+        // holding the monitor of the store keeps its expiry wheel from removing the cookie
+        synchronized (cookieStore) {
+            cookieStore.add(WWW_URI, expiringCookie);
+            cookieStore.add(WWW_URI, cookie("session", "2", "www.test.com"));
+            final long version = cookieStore.version();
+
+            Thread.sleep(1100);
+
+            assertEquals(Arrays.asList("session=2"), names(cookieStore.get(WWW_URI)));
+            assertEquals(Arrays.asList("session=2"), names(cookieStore.getMatching(WWW_URI)));
+            assertEquals(Arrays.asList("session=2"), names(cookieStore.getCookies()));
+            assertFalse(cookieStore.contains(WWW_URI, (HttpCookie) expiringCookie.clone()));
+            assertEquals(version, cookieStore.version());
+            assertEquals(0, cookieStore.stats().expiredCount());
+        }
+    }
+
+    public void testReplacedCookieDoesNotExpire() {
+
+        final HttpCookie expiringCookie = cookie("foo", "1", "www.test.com");
+        expiringCookie.setMaxAge(10);
+        cookieStore.add(WWW_URI, expiringCookie);
+        cookieStore.add(WWW_URI, cookie("foo", "2", "www.test.com"));
+
+        cookieStore.expireCookies(System.currentTimeMillis() + 60_000);
+
+        assertEquals(Arrays.asList("foo=2"), names(cookieStore.get(WWW_URI)));
+        assertEquals(0, cookieStore.stats().expiredCount());
+    }
+
+    public void testRemovedCookieDoesNotExpire() {
+
+        final HttpCookie expiringCookie = cookie("foo", "1", "www.test.com");
+        expiringCookie.setMaxAge(10);
+        cookieStore.add(WWW_URI, expiringCookie);
+        assertTrue(cookieStore.remove(WWW_URI, expiringCookie));
+        cookieStore.add(WWW_URI, cookie("foo", "2", "www.test.com"));
+
+        cookieStore.expireCookies(System.currentTimeMillis() + 60_000);
+
+        assertEquals(Arrays.asList("foo=2"), names(cookieStore.get(WWW_URI)));
+        assertEquals(0, cookieStore.stats().expiredCount());
+    }
+
+    public void testFullDomainEvictsLeastRecentlyUsedCookie() {
+
+        cookieStore = new ConcurrentCookieStore(3, 100, Long.MAX_VALUE);
+        cookieStore.add(WWW_URI, cookie("a", "1", "www.test.com"));
+        cookieStore.add(WWW_URI, cookie("b", "2", "www.test.com"));
+        cookieStore.add(WWW_URI, cookie("c", "3", "www.test.com"));
+        cookieStore.add(API_URI, cookie("d", "4", "api.test.com"));
+        final HttpCookie lookedUpCookie = cookie("a", "1", "www.test.com");
+        lookedUpCookie.setPath("/other");
+        cookieStore.add(WWW_URI, lookedUpCookie);
+        cookieStore.get(WWW_URI);
+        cookieStore.add(WWW_URI, cookie("b", "5", "www.test.com"));
+
+        cookieStore.add(WWW_URI, cookie("e", "6", "www.test.com"));
+
+        assertEquals(Arrays.asList("a=1", "b=5", "e=6"), names(cookieStore.get(WWW_URI)));
+        assertEquals(1, cookieStore.get(API_URI).size());
+        assertEquals(2, cookieStore.stats().domainEvictedCount());
+        assertEquals(4, cookieStore.stats().cookieCount());
+    }
+
+    public void testTotalLimitEvictsLeastRecentlyUsedCookies() {
+
+        cookieStore = new ConcurrentCookieStore(100, 40, Long.MAX_VALUE);
+        for (int i = 0; i < 40; i++) {
+            cookieStore.add(WWW_URI, cookie("c" + i, "v", i % 4 + ".test.com"));
+        }
+        cookieStore.get(URI.create("https://0.test.com/"));
+
+        cookieStore.add(WWW_URI, cookie("new", "v", "4.test.com"));
+
+        assertEquals(38, cookieStore.getCookies().size());
+        assertEquals(38, cookieStore.stats().cookieCount());
+        assertEquals(3, cookieStore.stats().capacityEvictedCount());
+        assertEquals(10, cookieStore.get(URI.create("https://0.test.com/")).size());
+        assertEquals(1, cookieStore.get(URI.create("https://4.test.com/")).size());
+        assertFalse(names(cookieStore.get(URI.create("https://1.test.com/"))).contains("c1=v"));
+    }
+
+    public void testByteBudgetEvictsCookies() {
+
+        cookieStore.add(WWW_URI, cookie("c00", "v", "www.test.com"));
+        final long cookieSize = cookieStore.stats().estimatedBytes();
+        cookieStore = new ConcurrentCookieStore(100, 100, cookieSize * 10);
+        for (int i = 0; i < 20; i++) {
+            cookieStore.add(WWW_URI, cookie("c" + (10 + i), "v", "www.test.com"));
+        }
+
+        assertTrue(cookieStore.stats().estimatedBytes() <= cookieSize * 10);
+        assertEquals(cookieStore.getCookies().size() * cookieSize, cookieStore.stats().estimatedBytes());
+        assertTrue(names(cookieStore.get(WWW_URI)).contains("c29=v"));
+        assertFalse(names(cookieStore.get(WWW_URI)).contains("c10=v"));
+
+        final StringBuilder value = new StringBuilder();
+        for (int i = 0; i < cookieSize * 10; i++) {
+            value.append('x');
+        }
+        final long evictedCount = cookieStore.stats().capacityEvictedCount();
+        cookieStore.add(WWW_URI, cookie("huge", value.toString(), "www.test.com"));
+        assertEquals(evictedCount + 1, cookieStore.stats().capacityEvictedCount());
+        assertFalse(names(cookieStore.get(WWW_URI)).contains("huge=" + value));
+    }
+
+    public void testAccountingFollowsRemovals() {
+
+        cookieStore.add(WWW_URI, cookie("a", "1", "www.test.com"));
+        cookieStore.add(WWW_URI, cookie("a", "2", "www.test.com"));
+        cookieStore.add(API_URI, cookie("b", "3", "api.test.com"));
+        assertEquals(2, cookieStore.stats().cookieCount());
+        cookieStore.remove(API_URI, cookie("b", "3", "api.test.com"));
+        assertEquals(1, cookieStore.stats().cookieCount());
+        cookieStore.removeAll();
+
+        assertEquals(0, cookieStore.stats().cookieCount());
+        assertEquals(0, cookieStore.stats().estimatedBytes());
+    }
+
+    public void testSecureCookieOnlyReturnedOverHttps() {
+
+        final HttpCookie secureCookie = cookie("foo", "bar", "www.test.com");
+        secureCookie.setSecure(true);
+        cookieStore.add(WWW_URI, secureCookie);
+
+        assertEquals(1, cookieStore.get(WWW_URI).size());
+        assertTrue(cookieStore.get(URI.create("http://www.test.com/grpc.Service/GetCookies")).isEmpty());
+    }
+
+    public void testRemove() {
+
+        final HttpCookie fooCookie = cookie("foo", "bar", "www.test.com");
+        cookieStore.add(WWW_URI, fooCookie);
+        cookieStore.add(API_URI, cookie("lorem", "ipsum", "api.test.com"));
+
+        final long version = cookieStore.version();
+        assertTrue(cookieStore.remove(WWW_URI, fooCookie));
+        assertFalse(cookieStore.remove(WWW_URI, fooCookie));
+        assertTrue(cookieStore.version() > version);
+        assertTrue(cookieStore.get(WWW_URI).isEmpty());
+
+        assertTrue(cookieStore.removeAll());
+        assertFalse(cookieStore.removeAll());
+        assertTrue(cookieStore.getCookies().isEmpty());
+    }
+
+    public void testConcurrentWritersAndReaders() throws Exception {
+
+        cookieStore = new ConcurrentCookieStore(Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+        final int numThreads = 8;
+        final int numCookies = 500;
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            final CountDownLatch startLatch = new CountDownLatch(1);
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < numThreads; t++) {
+                final int threadId = t;
+                futures.add(executor.submit(() -> {
+                    startLatch.await();
+                    for (int i = 0; i < numCookies; i++) {
+                        final String domain = (i % 4) + ".test.com";
+                        cookieStore.add(WWW_URI, cookie("c" + threadId + "-" + i, "v", domain));
+                        cookieStore.get(URI.create("https://" + domain + "/"));
+                    }
+                    return null;
+                }));
+            }
+            startLatch.countDown();
+            for (final Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(numThreads * numCookies, cookieStore.getCookies().size());
+        assertEquals(numThreads * numCookies / 4, cookieStore.get(URI.create("https://0.test.com/")).size());
+    }
+}
@@ -0,0 +1,96 @@
+package io.github.shamsimam;
+
+import junit.framework.TestCase;
+
+import java.net.CookieManager;
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CookieHeadersTest extends TestCase {
+
+    private CookieManager cookieManager;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cookieManager = new CookieManager();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cookieManager = null;
+        super.tearDown();
+    }
+
+    private void storeCookies(final URI uri, final String... setCookieHeaders) throws Exception {
+        final Map<String, List<String>> responseHeaders = new HashMap<>();
+        responseHeaders.put("set-cookie", Arrays.asList(setCookieHeaders));
+        cookieManager.put(uri, responseHeaders);
+    }
+
+    private void assertSameAsCookieManager(final URI uri) throws Exception {
+        final CookieStore cookieStore = cookieManager.getCookieStore();
+        final List<String> expected = cookieManager.get(uri, Collections.emptyMap()).get("Cookie");
+        final List<String> actual = Arrays.asList(CookieHeaders.render(CookieHeaders.select(cookieStore, uri)));
+        assertEquals(expected, actual);
+    }
+
+    public void testSortedByPathLength() throws Exception {
+
+        final URI uri = URI.create("https://www.test.com/grpc.Service/GetCookies");
+        storeCookies(uri, "a=1; Path=/", "b=2; Path=/grpc.Service/GetCookies", "c=3; Path=/grpc.Service");
+
+        final List<HttpCookie> cookies = CookieHeaders.select(cookieManager.getCookieStore(), uri);
+
+        assertEquals(3, cookies.size());
+        assertEquals("b", cookies.get(0).getName());
+        assertEquals("c", cookies.get(1).getName());
+        assertEquals("a", cookies.get(2).getName());
+        assertSameAsCookieManager(uri);
+    }
+
+    public void testVersionedCookiesRendered() throws Exception {
+
+        final URI uri = URI.create("https://www.test.com/grpc.Service/GetCookies");
+        storeCookies(uri, "foo=\"bar\"; Version=1; Max-Age=600");
+
+        final String[] headerValues = CookieHeaders.render(CookieHeaders.select(cookieManager.getCookieStore(), uri));
+
+        assertEquals(2, headerValues.length);
+        assertEquals("$Version=\"1\"", headerValues[0]);
+        assertSameAsCookieManager(uri);
+    }
+
+    public void testSecureAndPortRestrictionsApplied() throws Exception {
+
+        final URI secureUri = URI.create("https://www.test.com:8443/grpc.Service/GetCookies");
+        storeCookies(secureUri, "foo=bar; Secure", "lorem=ipsum; Version=1; Port=\"8443\"");
+
+        assertEquals(2, CookieHeaders.select(cookieManager.getCookieStore(), secureUri).size());
+        assertSameAsCookieManager(secureUri);
+
+        final URI plainTextUri = URI.create("http://www.test.com:8443/grpc.Service/GetCookies");
+        assertEquals(1, CookieHeaders.select(cookieManager.getCookieStore(), plainTextUri).size());
+        assertSameAsCookieManager(plainTextUri);
+
+        final URI otherPortUri = URI.create("https://www.test.com/grpc.Service/GetCookies");
+        assertEquals(1, CookieHeaders.select(cookieManager.getCookieStore(), otherPortUri).size());
+        assertSameAsCookieManager(otherPortUri);
+    }
+
+    public void testNoMatchingCookies() throws Exception {
+
+        final URI uri = URI.create("https://www.test.com/grpc.Service/GetCookies");
+        storeCookies(uri, "foo=bar; Path=/grpc.Health");
+
+        assertTrue(CookieHeaders.select(cookieManager.getCookieStore(), uri).isEmpty());
+        assertEquals(0, CookieHeaders.render(Collections.emptyList()).length);
+        assertSameAsCookieManager(uri);
+    }
+}
@@ -0,0 +1,78 @@
+package io.github.shamsimam;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class CookieIngestionQueuesTest extends TestCase {
+
+    public void testTasksOfAuthorityRunInOrder() throws Exception {
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final CookieIngestionQueues queues = new CookieIngestionQueues(executor);
+            final List<Integer> wwwOrder = Collections.synchronizedList(new ArrayList<>());
+            final List<Integer> apiOrder = Collections.synchronizedList(new ArrayList<>());
+            for (int i = 0; i < 10_000; i++) {
+                final int task = i;
+                queues.submit("www.test.com", () -> wwwOrder.add(task));
+                queues.submit("api.test.com", () -> apiOrder.add(task));
+            }
+            queues.awaitSubmitted("www.test.com");
+            queues.awaitSubmitted("api.test.com");
+
+            assertEquals(10_000, wwwOrder.size());
+            assertEquals(10_000, apiOrder.size());
+            for (int i = 0; i < 10_000; i++) {
+                assertEquals(i, wwwOrder.get(i).intValue());
+                assertEquals(i, apiOrder.get(i).intValue());
+            }
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    public void testAwaitRunsQueuedTasks() {
+
+        final List<Runnable> scheduled = new ArrayList<>();
+        final CookieIngestionQueues queues = new CookieIngestionQueues(scheduled::add);
+        final List<Integer> order = new ArrayList<>();
+        queues.submit("www.test.com", () -> order.add(1));
+        queues.submit("www.test.com", () -> {
+            throw new IllegalStateException("failing task");
+        });
+        queues.submit("www.test.com", () -> order.add(3));
+        queues.submit("api.test.com", () -> order.add(4));
+        assertEquals(2, scheduled.size());
+
+        queues.awaitSubmitted("www.test.com");
+        assertEquals(Arrays.asList(1, 3), order);
+        queues.awaitSubmitted("unknown.test.com");
+
+        // the scheduled drains run the remaining tasks only
+        for (final Runnable drain : scheduled) {
+            drain.run();
+        }
+        assertEquals(Arrays.asList(1, 3, 4), order);
+    }
+
+    public void testRejectedTasksRunOnSubmittingThread() {
+
+        final CookieIngestionQueues queues = new CookieIngestionQueues(task -> {
+            throw new RejectedExecutionException("shut down");
+        });
+        final List<Integer> order = new ArrayList<>();
+        queues.submit("www.test.com", () -> order.add(1));
+        queues.submit("www.test.com", () -> order.add(2));
+
+        assertEquals(Arrays.asList(1, 2), order);
+    }
+}
@@ -0,0 +1,146 @@
+package io.github.shamsimam;
+
+import junit.framework.TestCase;
+
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+public class CookieJarRegistryTest extends TestCase {
+
+    private static final long IDLE_TIMEOUT_MILLIS = 60_000;
+
+    private CookieJarRegistry registry;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        registry = new CookieJarRegistry(CookieManager::new, IDLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        registry = null;
+        super.tearDown();
+    }
+
+    public void testJarCreatedOnFirstUse() {
+
+        assertNull(registry.cookieManager("alice"));
+        assertEquals(0, registry.size());
+
+        final CookieJar jar = registry.jar("alice", System.currentTimeMillis());
+
+        assertSame(jar, registry.jar("alice", System.currentTimeMillis()));
+        assertSame(jar.cookieManager(), registry.cookieManager("alice"));
+        assertEquals(1, registry.size());
+    }
+
+    public void testJarsOfTenantsDistinct() {
+
+        final long nowMillis = System.currentTimeMillis();
+        final CookieJar aliceJar = registry.jar("alice", nowMillis);
+        final CookieJar bobJar = registry.jar("bob", nowMillis);
+
+        assertNotSame(aliceJar, bobJar);
+        assertNotSame(aliceJar.cookieManager().getCookieStore(), bobJar.cookieManager().getCookieStore());
+        assertEquals(2, registry.size());
+    }
+
+    public void testRemove() {
+
+        registry.jar("alice", System.currentTimeMillis());
+
+        assertTrue(registry.remove("alice"));
+        assertFalse(registry.remove("alice"));
+        assertNull(registry.cookieManager("alice"));
+        assertEquals(0, registry.size());
+    }
+
+    public void testIdleJarsEvicted() {
+
+        final long nowMillis = System.currentTimeMillis();
+        registry.jar("alice", nowMillis);
+        registry.jar("bob", nowMillis);
+
+        registry.evictIdleJars(nowMillis + IDLE_TIMEOUT_MILLIS / 2);
+        assertEquals(2, registry.size());
+
+        // bob keeps using his jar
+        registry.jar("bob", nowMillis + IDLE_TIMEOUT_MILLIS);
+        registry.evictIdleJars(nowMillis + IDLE_TIMEOUT_MILLIS + 5_000);
+
+        assertNull(registry.cookieManager("alice"));
+        assertNotNull(registry.cookieManager("bob"));
+        assertEquals(1, registry.size());
+    }
+
+    public void testJarsOfCallsInFlightRetained() {
+
+        final long nowMillis = System.currentTimeMillis();
+        final CookieJar jar = registry.startCall("alice", nowMillis);
+        assertSame(jar, registry.startCall("alice", nowMillis));
+
+        registry.evictIdleJars(nowMillis + IDLE_TIMEOUT_MILLIS + 5_000);
+        assertSame(jar.cookieManager(), registry.cookieManager("alice"));
+
+        // the jar is idle from the end of its last call
+        registry.endCall(jar, nowMillis + IDLE_TIMEOUT_MILLIS + 10_000);
+        registry.evictIdleJars(nowMillis + IDLE_TIMEOUT_MILLIS + 20_000);
+        assertEquals(1, registry.size());
+        registry.endCall(jar, nowMillis + IDLE_TIMEOUT_MILLIS + 20_000);
+        registry.evictIdleJars(nowMillis + 2 * IDLE_TIMEOUT_MILLIS + 30_000);
+        assertEquals(0, registry.size());
+    }
+
+    public void testEvictionRateLimited() {
+
+        final long nowMillis = System.currentTimeMillis();
+        registry.jar("alice", nowMillis);
+
+        registry.evictIdleJars(nowMillis + IDLE_TIMEOUT_MILLIS - 1_000);
+        // idle jars are looked for at most every tenth of the idle timeout
+        registry.evictIdleJars(nowMillis + IDLE_TIMEOUT_MILLIS + 1_000);
+        assertEquals(1, registry.size());
+
+        registry.evictIdleJars(nowMillis + IDLE_TIMEOUT_MILLIS + 6_000);
+        assertEquals(0, registry.size());
+    }
+
+    public void testStoresOfEvictedAndRemovedJarsClosed() {
+
+        final OffHeapCookieArena arena = new OffHeapCookieArena();
+        final CookieJarRegistry offHeapRegistry = new CookieJarRegistry(
+            () -> new CookieManager(arena.newStore(), CookiePolicy.ACCEPT_ALL),
+            IDLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        final long nowMillis = System.currentTimeMillis();
+        offHeapRegistry.jar("alice", nowMillis).cookieManager().getCookieStore()
+            .add(URI.create("https://www.test.com/"), new HttpCookie("foo", "bar"));
+        offHeapRegistry.jar("bob", nowMillis).cookieManager().getCookieStore()
+            .add(URI.create("https://www.test.com/"), new HttpCookie("lorem", "ipsum"));
+        final long usedBytes = arena.usedBytes();
+        assertTrue(usedBytes > 0);
+
+        offHeapRegistry.evictIdleJars(nowMillis + IDLE_TIMEOUT_MILLIS + 5_000);
+        assertEquals(0, offHeapRegistry.size());
+        assertEquals(0, arena.usedBytes());
+
+        offHeapRegistry.jar("carol", nowMillis).cookieManager().getCookieStore()
+            .add(URI.create("https://www.test.com/"), new HttpCookie("foo", "bar"));
+        assertTrue(arena.usedBytes() > 0);
+
+        assertTrue(offHeapRegistry.remove("carol"));
+        assertEquals(0, arena.usedBytes());
+    }
+
+    public void testInvalidIdleTimeout() {
+        try {
+            new CookieJarRegistry(CookieManager::new, 0, TimeUnit.MINUTES);
+            fail("IllegalArgumentException expected");
+        } catch (final IllegalArgumentException expected) {
+            // expected
+        }
+    }
+}
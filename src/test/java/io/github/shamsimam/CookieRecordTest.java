@@ -0,0 +1,170 @@
+package io.github.shamsimam;
+
+import junit.framework.TestCase;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.net.CookieManager;
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.List;
+import java.util.logging.Logger;
+
+public class CookieRecordTest extends TestCase {
+
+    private static final Logger logger = Logger.getLogger(CookieRecordTest.class.getName());
+
+    static {
+        // lets JOL walk the fields of JDK classes, e.g. the locks held by the stores
+        System.setProperty("jol.magicFieldOffset", "true");
+    }
+
+    private static final long NOW_MILLIS = 1_000_000_000L;
+    private static final int FOOTPRINT_COOKIES = 1000;
+
+    private static HttpCookie sessionCookie(final int index) {
+        final List<HttpCookie> cookies =
+            HttpCookie.parse(String.format("Set-Cookie: sid=%08d; Domain=s%d.test.com; Path=/", index, index));
+        return cookies.get(0);
+    }
+
+    private static HttpCookie storedCookie(final int index) {
+        final List<HttpCookie> cookies = HttpCookie.parse(
+            String.format("Set-Cookie: sid%d=%08d; Domain=s%d.test.com; Path=/", index % 50, index, index / 50));
+        return cookies.get(0);
+    }
+
+    private static void assertSameCookie(final HttpCookie expected, final HttpCookie actual) {
+        assertEquals(expected, actual);
+        assertEquals(expected.getValue(), actual.getValue());
+        assertEquals(expected.getVersion(), actual.getVersion());
+        assertEquals(expected.getPortlist(), actual.getPortlist());
+        assertEquals(expected.getComment(), actual.getComment());
+        assertEquals(expected.getCommentURL(), actual.getCommentURL());
+        assertEquals(expected.getSecure(), actual.getSecure());
+        assertEquals(expected.isHttpOnly(), actual.isHttpOnly());
+        assertEquals(expected.getDiscard(), actual.getDiscard());
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    public void testRecordRoundTrip() {
+
+        final HttpCookie cookie = new HttpCookie("Session", "s123456");
+        cookie.setVersion(1);
+        cookie.setDomain(".test.com");
+        cookie.setPath("/grpc.Service");
+        cookie.setPortlist("443,8443");
+        cookie.setComment("comment");
+        cookie.setCommentURL("https://www.test.com/cookies");
+        cookie.setSecure(true);
+        cookie.setHttpOnly(true);
+        cookie.setDiscard(true);
+        cookie.setMaxAge(60);
+
+        final CookieRecord record = new CookieRecord(cookie, NOW_MILLIS);
+        final HttpCookie copy = record.toHttpCookie(cookie.getDomain(), NOW_MILLIS + 20_500);
+
+        assertSameCookie(cookie, copy);
+        assertEquals(NOW_MILLIS + 60_000, record.expiresAt());
+        assertEquals(40, copy.getMaxAge());
+    }
+
+    public void testRecordWithoutOptionalFields() {
+
+        final HttpCookie cookie = new HttpCookie("foo", "");
+        cookie.setVersion(0);
+
+        final CookieRecord record = new CookieRecord(cookie, NOW_MILLIS);
+        final HttpCookie copy = record.toHttpCookie(null, NOW_MILLIS);
+
+        assertSameCookie(cookie, copy);
+        assertNull(record.path());
+        assertEquals(Long.MAX_VALUE, record.expiresAt());
+        assertEquals(-1, copy.getMaxAge());
+    }
+
+    public void testNonAsciiAndLongFields() {
+
+        final StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            value.append((char) ('a' + i % 26));
+        }
+        final HttpCookie cookie = new HttpCookie("name", value.toString());
+        cookie.setPath("/café/☃");
+
+        final CookieRecord record = new CookieRecord(cookie, NOW_MILLIS);
+
+        assertSameCookie(cookie, record.toHttpCookie(null, NOW_MILLIS));
+        assertEquals("/café/☃", record.path());
+    }
+
+    public void testHasNameAndPath() {
+
+        final HttpCookie cookie = new HttpCookie("Session", "1");
+        cookie.setPath("/grpc");
+        final CookieRecord record = new CookieRecord(cookie, NOW_MILLIS);
+
+        final HttpCookie sameCookie = new HttpCookie("sESSION", "2");
+        sameCookie.setPath("/grpc");
+        assertTrue(record.hasNameAndPath(sameCookie));
+
+        final HttpCookie otherPath = new HttpCookie("Session", "1");
+        otherPath.setPath("/GRPC");
+        assertFalse(record.hasNameAndPath(otherPath));
+        assertFalse(record.hasNameAndPath(new HttpCookie("Session", "1")));
+        assertFalse(record.hasNameAndPath(new HttpCookie("Sessions", "1")));
+
+        final HttpCookie nonAscii = new HttpCookie("Session", "1");
+        nonAscii.setPath("/café");
+        final CookieRecord nonAsciiRecord = new CookieRecord(nonAscii, NOW_MILLIS);
+        final HttpCookie samePath = new HttpCookie("session", "2");
+        samePath.setPath("/café");
+        assertTrue(nonAsciiRecord.hasNameAndPath(samePath));
+        samePath.setPath("/cafe");
+        assertFalse(nonAsciiRecord.hasNameAndPath(samePath));
+        samePath.setPath("/caf");
+        assertFalse(nonAsciiRecord.hasNameAndPath(samePath));
+    }
+
+    public void testRecordFootprint() {
+
+        final HttpCookie[] cookies = new HttpCookie[FOOTPRINT_COOKIES];
+        final CookieRecord[] records = new CookieRecord[FOOTPRINT_COOKIES];
+        for (int i = 0; i < FOOTPRINT_COOKIES; i++) {
+            cookies[i] = sessionCookie(i);
+            records[i] = new CookieRecord(cookies[i], NOW_MILLIS);
+        }
+
+        final long cookieBytes = GraphLayout.parseInstance((Object[]) cookies).totalSize() / FOOTPRINT_COOKIES;
+        final long recordBytes = GraphLayout.parseInstance((Object[]) records).totalSize() / FOOTPRINT_COOKIES;
+        logger.info("bytes per session cookie: HttpCookie=" + cookieBytes + ", CookieRecord=" + recordBytes);
+
+        assertTrue(cookieBytes + " <= 3 * " + recordBytes, cookieBytes > 3 * recordBytes);
+    }
+
+    public void testStoreFootprint() {
+
+        final CookieStore defaultStore = new CookieManager().getCookieStore();
+        final ConcurrentCookieStore concurrentStore = new ConcurrentCookieStore();
+        // domains hold the default maximum of 50 cookies, so that the footprint is dominated by the cookies,
+        // and share their URI as the interceptor does
+        URI uri = null;
+        for (int i = 0; i < FOOTPRINT_COOKIES; i++) {
+            if (i % 50 == 0) {
+                uri = URI.create("https://s" + i / 50 + ".test.com/");
+            }
+            defaultStore.add(uri, storedCookie(i));
+            concurrentStore.add(uri, storedCookie(i));
+        }
+        // the stores are measured against an empty store to exclude their fixed footprint
+        final long defaultBytes = (GraphLayout.parseInstance(defaultStore).totalSize()
+            - GraphLayout.parseInstance(new CookieManager().getCookieStore()).totalSize()) / FOOTPRINT_COOKIES;
+        final long concurrentBytes = (GraphLayout.parseInstance(concurrentStore).totalSize()
+            - GraphLayout.parseInstance(new ConcurrentCookieStore()).totalSize()) / FOOTPRINT_COOKIES;
+        final long estimatedBytes = concurrentStore.stats().estimatedBytes() / FOOTPRINT_COOKIES;
+        logger.info("bytes per stored session cookie: default store=" + defaultBytes
+            + ", ConcurrentCookieStore=" + concurrentBytes + ", estimated=" + estimatedBytes);
+
+        assertTrue(defaultBytes + " <= 2 * " + concurrentBytes, defaultBytes > 2 * concurrentBytes);
+    }
+}
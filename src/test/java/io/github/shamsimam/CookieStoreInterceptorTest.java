@@ -3,6 +3,7 @@ package io.github.shamsimam;
 import io.grpc.CallOptions;
 import io.grpc.Channel;
 import io.grpc.ClientCall;
+import io.grpc.Context;
 import io.grpc.Metadata;
 import io.grpc.MethodDescriptor;
 import io.grpc.Status;
@@ -11,13 +12,18 @@ import junit.framework.TestCase;
 import javax.annotation.Nullable;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.CookieManager;
 import java.net.HttpCookie;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -37,10 +43,14 @@ public class CookieStoreInterceptorTest extends TestCase {
 
     private CookieStoreInterceptor interceptor;
 
+    protected CookieManager newCookieManager() {
+        return new CookieManager();
+    }
+
     @Override
     protected void setUp() throws Exception {
         super.setUp();
-        final CookieManager cookieManager = new CookieManager();
+        final CookieManager cookieManager = newCookieManager();
         interceptor = new CookieStoreInterceptor(cookieManager);
     }
 
@@ -86,6 +96,44 @@ public class CookieStoreInterceptorTest extends TestCase {
         assertCookies(actualRequestHeaders, srcCookie1, srcCookie2);
     }
 
+    public void testMultipleSetCookieHeadersReceived() {
+
+        final URI path = URI.create("https://www.test.com/grpc.Service/GetCookies");
+        final Metadata requestHeaders = new Metadata();
+        final Metadata responseHeaders = new Metadata();
+        final HttpCookie srcCookie1 = new HttpCookie("foo", "bar");
+        final HttpCookie srcCookie2 = new HttpCookie("lorem", "ipsum");
+        final HttpCookie srcCookie3 = new HttpCookie("dolor", "sit");
+        responseHeaders.put(SET_COOKIE_KEY, srcCookie1.toString());
+        responseHeaders.put(SET_COOKIE_KEY, srcCookie2.toString());
+        responseHeaders.put(SET_COOKIE_KEY, srcCookie3.toString());
+        interceptor.processResponseCookies(path, responseHeaders);
+
+        final Metadata dummyResponseHeaders = new Metadata();
+        final Metadata actualRequestHeaders = runInterceptCall(path, requestHeaders, dummyResponseHeaders);
+
+        assertNotNull(actualRequestHeaders);
+        assertCookies(actualRequestHeaders, srcCookie1, srcCookie2, srcCookie3);
+    }
+
+    public void testSetCookieAndSetCookie2HeadersReceived() {
+
+        final URI path = URI.create("https://www.test.com/grpc.Service/GetCookies");
+        final Metadata requestHeaders = new Metadata();
+        final Metadata responseHeaders = new Metadata();
+        final HttpCookie srcCookie1 = new HttpCookie("foo", "bar");
+        final HttpCookie srcCookie2 = new HttpCookie("lorem", "ipsum");
+        responseHeaders.put(SET_COOKIE_KEY, srcCookie1.toString());
+        responseHeaders.put(Metadata.Key.of("set-cookie2", Metadata.ASCII_STRING_MARSHALLER), srcCookie2.toString());
+        interceptor.processResponseCookies(path, responseHeaders);
+
+        final Metadata dummyResponseHeaders = new Metadata();
+        final Metadata actualRequestHeaders = runInterceptCall(path, requestHeaders, dummyResponseHeaders);
+
+        assertNotNull(actualRequestHeaders);
+        assertCookies(actualRequestHeaders, srcCookie1, srcCookie2);
+    }
+
     public void testMultipleCookiesOnSingleHeaderAcceptsFirst() {
 
         final URI path = URI.create("https://www.test.com/grpc.Service/GetCookies");
@@ -227,7 +275,7 @@ public class CookieStoreInterceptorTest extends TestCase {
 
     public void testMatchingSecureCookieRejectedOverHttp() {
 
-        final CookieManager cookieManager = new CookieManager();
+        final CookieManager cookieManager = newCookieManager();
         interceptor = new CookieStoreInterceptor(true, cookieManager);
 
         final URI path = URI.create("http://www.test.com/grpc.Service/GetCookies");
@@ -337,6 +385,178 @@ public class CookieStoreInterceptorTest extends TestCase {
         assertTrue(actualRequestHeaders3.keys().isEmpty());
     }
 
+    public void testExistingCookieHeaderRetained() {
+
+        final URI path = URI.create("https://www.test.com/grpc.Service/GetCookies");
+        final Metadata responseHeaders = new Metadata();
+        final HttpCookie srcCookie = new HttpCookie("foo", "bar");
+        responseHeaders.put(SET_COOKIE_KEY, srcCookie.toString());
+        interceptor.processResponseCookies(path, responseHeaders);
+
+        final HttpCookie existingCookie = new HttpCookie("lorem", "ipsum");
+        final Metadata requestHeaders = new Metadata();
+        requestHeaders.put(COOKIE_KEY, cookieString(existingCookie));
+        final Metadata dummyResponseHeaders = new Metadata();
+        final Metadata actualRequestHeaders = runInterceptCall(path, requestHeaders, dummyResponseHeaders);
+
+        assertNotNull(actualRequestHeaders);
+        assertCookies(actualRequestHeaders, existingCookie, srcCookie);
+    }
+
+    public void testCustomCookieManagerReceivesRequestHeaders() {
+
+        final AtomicReference<Map<String, List<String>>> receivedHeadersStore = new AtomicReference<>(null);
+        final CookieManager cookieManager = new CookieManager() {
+            @Override
+            public Map<String, List<String>> get(
+                final URI uri, final Map<String, List<String>> requestHeaders) throws IOException {
+                receivedHeadersStore.set(requestHeaders);
+                return super.get(uri, requestHeaders);
+            }
+        };
+        interceptor = new CookieStoreInterceptor(cookieManager);
+
+        final URI path = URI.create("https://www.test.com/grpc.Service/GetCookies");
+        final Metadata responseHeaders = new Metadata();
+        final HttpCookie srcCookie = new HttpCookie("foo", "bar");
+        responseHeaders.put(SET_COOKIE_KEY, srcCookie.toString());
+        interceptor.processResponseCookies(path, responseHeaders);
+
+        final Metadata requestHeaders = new Metadata();
+        requestHeaders.put(Metadata.Key.of("x-trace-id", Metadata.ASCII_STRING_MARSHALLER), "t123");
+        final Metadata dummyResponseHeaders = new Metadata();
+        final Metadata actualRequestHeaders = runInterceptCall(path, requestHeaders, dummyResponseHeaders);
+
+        assertNotNull(actualRequestHeaders);
+        assertCookies(actualRequestHeaders, srcCookie);
+        assertEquals(Collections.singletonList("t123"), receivedHeadersStore.get().get("x-trace-id"));
+    }
+
+    public void testVersionedStoreForwardsUpdatedCookies() {
+
+        interceptor = new CookieStoreInterceptor();
+
+        final URI path = URI.create("https://www.test.com/grpc.Service/GetCookies");
+        final Metadata responseHeaders = new Metadata();
+        final HttpCookie srcCookie = new HttpCookie("foo", "bar");
+        responseHeaders.put(SET_COOKIE_KEY, srcCookie.toString());
+        interceptor.processResponseCookies(path, responseHeaders);
+
+        final Metadata dummyResponseHeaders1 = new Metadata();
+        final HttpCookie newCookie = new HttpCookie("foo", "foe");
+        dummyResponseHeaders1.put(SET_COOKIE_KEY, newCookie.toString());
+        final Metadata actualRequestHeaders1 = runInterceptCall(path, new Metadata(), dummyResponseHeaders1);
+
+        assertNotNull(actualRequestHeaders1);
+        assertCookies(actualRequestHeaders1, srcCookie);
+
+        final Metadata actualRequestHeaders2 = runInterceptCall(path, new Metadata(), new Metadata());
+
+        assertNotNull(actualRequestHeaders2);
+        assertCookies(actualRequestHeaders2, newCookie);
+
+        final Metadata actualRequestHeaders3 = runInterceptCall(path, new Metadata(), new Metadata());
+
+        assertNotNull(actualRequestHeaders3);
+        assertCookies(actualRequestHeaders3, newCookie);
+    }
+
+    public void testTrailersOnlyCookieReceived() {
+
+        final URI path = URI.create("https://www.test.com/grpc.Service/GetCookies");
+        final HttpCookie srcCookie = new HttpCookie("foo", "bar");
+        final Metadata responseTrailers = new Metadata();
+        responseTrailers.put(SET_COOKIE_KEY, srcCookie.toString());
+        runInterceptCall(interceptor, path, CallOptions.DEFAULT, new Metadata(), null, responseTrailers);
+
+        final Metadata actualRequestHeaders = runInterceptCall(path, new Metadata(), new Metadata());
+
+        assertNotNull(actualRequestHeaders);
+        assertCookies(actualRequestHeaders, srcCookie);
+    }
+
+    public void testTrailerCookieReceived() {
+
+        final URI path = URI.create("https://www.test.com/grpc.Service/GetCookies");
+        final HttpCookie srcCookie1 = new HttpCookie("foo", "bar");
+        final Metadata responseHeaders = new Metadata();
+        responseHeaders.put(SET_COOKIE_KEY, srcCookie1.toString());
+        final HttpCookie srcCookie2 = new HttpCookie("lorem", "ipsum");
+        final Metadata responseTrailers = new Metadata();
+        responseTrailers.put(SET_COOKIE_KEY, srcCookie2.toString());
+        runInterceptCall(interceptor, path, CallOptions.DEFAULT, new Metadata(), responseHeaders, responseTrailers);
+
+        final Metadata actualRequestHeaders = runInterceptCall(path, new Metadata(), new Metadata());
+
+        assertNotNull(actualRequestHeaders);
+        assertCookies(actualRequestHeaders, srcCookie1, srcCookie2);
+    }
+
+    public void testHeadersClosingCallProcessedOnce() {
+
+        final AtomicInteger numPuts = new AtomicInteger();
+        final CookieManager cookieManager = new CookieManager() {
+            @Override
+            public void put(final URI uri, final Map<String, List<String>> responseHeaders) throws IOException {
+                numPuts.incrementAndGet();
+                super.put(uri, responseHeaders);
+            }
+        };
+        interceptor = new CookieStoreInterceptor(cookieManager);
+
+        final URI path = URI.create("https://www.test.com/grpc.Service/GetCookies");
+        final HttpCookie srcCookie = new HttpCookie("foo", "bar");
+        final Metadata responseHeaders = new Metadata();
+        responseHeaders.put(SET_COOKIE_KEY, srcCookie.toString());
+        runInterceptCall(interceptor, path, CallOptions.DEFAULT, new Metadata(), responseHeaders, responseHeaders);
+
+        assertEquals(1, numPuts.get());
+        assertCookies(runInterceptCall(path, new Metadata(), new Metadata()), srcCookie);
+    }
+
+    public void testResponseCookiesStoredOnExecutor() {
+
+        final List<Runnable> tasks = new ArrayList<>();
+        interceptor = new CookieStoreInterceptor(
+            false, newCookieManager(), null, tasks::add, CookieConsistency.EVENTUAL);
+
+        final URI path = URI.create("https://www.test.com/grpc.Service/GetCookies");
+        final HttpCookie srcCookie = new HttpCookie("foo", "bar");
+        final Metadata responseHeaders = new Metadata();
+        responseHeaders.put(SET_COOKIE_KEY, srcCookie.toString());
+        runInterceptCall(path, new Metadata(), responseHeaders);
+        // responses without cookies are not handed to the executor
+        runInterceptCall(path, new Metadata(), new Metadata());
+        assertEquals(1, tasks.size());
+        assertFalse(runInterceptCall(path, new Metadata(), new Metadata()).containsKey(COOKIE_KEY));
+
+        tasks.remove(0).run();
+        assertCookies(runInterceptCall(path, new Metadata(), new Metadata()), srcCookie);
+    }
+
+    public void testReadYourWritesAwaitsQueuedCookies() {
+
+        final List<Runnable> tasks = new ArrayList<>();
+        interceptor = new CookieStoreInterceptor(
+            false, newCookieManager(), null, tasks::add, CookieConsistency.READ_YOUR_WRITES);
+
+        final URI path = URI.create("https://www.test.com/grpc.Service/GetCookies");
+        final HttpCookie srcCookie1 = new HttpCookie("foo", "bar");
+        final Metadata responseHeaders1 = new Metadata();
+        responseHeaders1.put(SET_COOKIE_KEY, srcCookie1.toString());
+        runInterceptCall(path, new Metadata(), responseHeaders1);
+        final HttpCookie srcCookie2 = new HttpCookie("foo", "foe");
+        final Metadata responseHeaders2 = new Metadata();
+        responseHeaders2.put(SET_COOKIE_KEY, srcCookie2.toString());
+        runInterceptCall(path, new Metadata(), responseHeaders2);
+        assertEquals(1, tasks.size());
+
+        // the call stores the queued cookies, in order, as the executor has not run yet
+        assertCookies(runInterceptCall(path, new Metadata(), new Metadata()), srcCookie2);
+        tasks.remove(0).run();
+        assertCookies(runInterceptCall(path, new Metadata(), new Metadata()), srcCookie2);
+    }
+
     private void assertCookies(final Metadata requestHeaders, final HttpCookie... expectedCookies) {
         assertTrue(requestHeaders.containsKey(COOKIE_KEY));
         final Iterable<String> actualCookies = requestHeaders.getAll(COOKIE_KEY);
@@ -351,7 +571,130 @@ public class CookieStoreInterceptorTest extends TestCase {
         assertEquals(expectedCookieList, actualCookieList);
     }
 
+    public void testTenantJarsIsolated() {
+
+        final CookieJarRegistry registry = new CookieJarRegistry();
+        final CookieStoreInterceptor tenantInterceptor = new CookieStoreInterceptor(registry);
+        final URI path = URI.create("https://www.test.com/grpc.Service/GetCookies");
+        final CallOptions aliceOptions = CallOptions.DEFAULT.withOption(CookieJarRegistry.TENANT_KEY, "alice");
+        final CallOptions bobOptions = CallOptions.DEFAULT.withOption(CookieJarRegistry.TENANT_KEY, "bob");
+
+        final HttpCookie aliceCookie = new HttpCookie("sid", "alice");
+        final Metadata aliceResponseHeaders = new Metadata();
+        aliceResponseHeaders.put(SET_COOKIE_KEY, aliceCookie.toString());
+        runInterceptCall(tenantInterceptor, path, aliceOptions, new Metadata(), aliceResponseHeaders);
+
+        final HttpCookie bobCookie = new HttpCookie("sid", "bob");
+        final Metadata bobResponseHeaders = new Metadata();
+        bobResponseHeaders.put(SET_COOKIE_KEY, bobCookie.toString());
+        runInterceptCall(tenantInterceptor, path, bobOptions, new Metadata(), bobResponseHeaders);
+
+        assertCookies(runInterceptCall(tenantInterceptor, path, aliceOptions, new Metadata(), new Metadata()),
+            aliceCookie);
+        assertCookies(runInterceptCall(tenantInterceptor, path, bobOptions, new Metadata(), new Metadata()),
+            bobCookie);
+        // calls without a tenant use the default jar
+        final Metadata defaultRequestHeaders =
+            runInterceptCall(tenantInterceptor, path, CallOptions.DEFAULT, new Metadata(), new Metadata());
+        assertFalse(defaultRequestHeaders.containsKey(COOKIE_KEY));
+        assertEquals(2, registry.size());
+    }
+
+    public void testJarOfCallInFlightNotEvicted() {
+
+        final long idleTimeoutMillis = 60_000;
+        final CookieJarRegistry registry =
+            new CookieJarRegistry(CookieManager::new, idleTimeoutMillis, TimeUnit.MILLISECONDS);
+        final CookieStoreInterceptor tenantInterceptor = new CookieStoreInterceptor(registry);
+        final URI path = URI.create("https://www.test.com/grpc.Service/GetCookies");
+        final CallOptions aliceOptions = CallOptions.DEFAULT.withOption(CookieJarRegistry.TENANT_KEY, "alice");
+        final CallOptions bobOptions = CallOptions.DEFAULT.withOption(CookieJarRegistry.TENANT_KEY, "bob");
+        final long nowMillis = System.currentTimeMillis();
+
+        // the call of alice is not closed, the call of bob is
+        runInterceptCall(tenantInterceptor, path, aliceOptions, new Metadata(), new Metadata(), null);
+        runInterceptCall(tenantInterceptor, path, bobOptions, new Metadata(), new Metadata(), new Metadata());
+        registry.evictIdleJars(nowMillis + 2 * idleTimeoutMillis);
+
+        assertNotNull(registry.cookieManager("alice"));
+        assertNull(registry.cookieManager("bob"));
+    }
+
+    public void testTenantIgnoredWithoutRegistry() {
+
+        final URI path = URI.create("https://www.test.com/grpc.Service/GetCookies");
+        final HttpCookie srcCookie = new HttpCookie("foo", "bar");
+        final Metadata responseHeaders = new Metadata();
+        responseHeaders.put(SET_COOKIE_KEY, srcCookie.toString());
+        interceptor.processResponseCookies(path, responseHeaders);
+
+        final CallOptions tenantOptions = CallOptions.DEFAULT.withOption(CookieJarRegistry.TENANT_KEY, "alice");
+        final Metadata actualRequestHeaders =
+            runInterceptCall(interceptor, path, tenantOptions, new Metadata(), new Metadata());
+
+        assertCookies(actualRequestHeaders, srcCookie);
+    }
+
+    public void testContextJarsIsolated() throws Exception {
+
+        final URI path = URI.create("https://www.test.com/grpc.Service/GetCookies");
+        final Context.CancellableContext requestContext1 = Context.current().withCancellation();
+        final Context jarContext1 = ContextCookieJars.withNewJar(requestContext1);
+        final Context jarContext2 = ContextCookieJars.withNewJar(Context.current());
+
+        final HttpCookie srcCookie = new HttpCookie("foo", "bar");
+        final Metadata responseHeaders = new Metadata();
+        responseHeaders.put(SET_COOKIE_KEY, srcCookie.toString());
+        jarContext1.run(() -> runInterceptCall(path, new Metadata(), responseHeaders));
+
+        assertCookies(jarContext1.call(() -> runInterceptCall(path, new Metadata(), new Metadata())), srcCookie);
+        assertFalse(jarContext2.call(() -> runInterceptCall(path, new Metadata(), new Metadata()))
+            .containsKey(COOKIE_KEY));
+        // calls outside of the contexts use the default jar
+        assertFalse(runInterceptCall(path, new Metadata(), new Metadata()).containsKey(COOKIE_KEY));
+
+        // the jar is dropped once the request completes
+        requestContext1.cancel(null);
+        jarContext1.run(() -> runInterceptCall(path, new Metadata(), responseHeaders));
+        assertFalse(jarContext1.call(() -> runInterceptCall(path, new Metadata(), new Metadata()))
+            .containsKey(COOKIE_KEY));
+    }
+
+    public void testTenantPreferredOverContextJar() throws Exception {
+
+        final CookieStoreInterceptor tenantInterceptor = new CookieStoreInterceptor(new CookieJarRegistry());
+        final URI path = URI.create("https://www.test.com/grpc.Service/GetCookies");
+        final CallOptions aliceOptions = CallOptions.DEFAULT.withOption(CookieJarRegistry.TENANT_KEY, "alice");
+        final Context jarContext = ContextCookieJars.withNewJar(Context.current());
+
+        final HttpCookie srcCookie = new HttpCookie("foo", "bar");
+        final Metadata responseHeaders = new Metadata();
+        responseHeaders.put(SET_COOKIE_KEY, srcCookie.toString());
+        jarContext.run(() -> runInterceptCall(tenantInterceptor, path, aliceOptions, new Metadata(), responseHeaders));
+
+        assertCookies(runInterceptCall(tenantInterceptor, path, aliceOptions, new Metadata(), new Metadata()),
+            srcCookie);
+        assertFalse(jarContext.call(() -> runInterceptCall(
+            tenantInterceptor, path, CallOptions.DEFAULT, new Metadata(), new Metadata())).containsKey(COOKIE_KEY));
+    }
+
     private Metadata runInterceptCall(final URI uri, final Metadata requestHeaders, final Metadata responseHeaders) {
+        return runInterceptCall(interceptor, uri, CallOptions.DEFAULT, requestHeaders, responseHeaders);
+    }
+
+    private Metadata runInterceptCall(final CookieStoreInterceptor interceptor, final URI uri,
+                                      final CallOptions baseCallOptions, final Metadata requestHeaders,
+                                      final Metadata responseHeaders) {
+        return runInterceptCall(interceptor, uri, baseCallOptions, requestHeaders, responseHeaders, null);
+    }
+
+    /**
+     * @param responseHeaders  the headers of the response, none are received if null
+     * @param responseTrailers the trailers closing the call, the call is not closed if null
+     */
+    private Metadata runInterceptCall(final CookieStoreInterceptor interceptor, final URI uri,
+                                      final CallOptions baseCallOptions, final Metadata requestHeaders,
+                                      final Metadata responseHeaders, final Metadata responseTrailers) {
 
         final AtomicReference<Metadata> actualRequestHeadersStore = new AtomicReference<>(null);
 
@@ -361,7 +704,7 @@ public class CookieStoreInterceptorTest extends TestCase {
             setFullMethodName(uri.getPath().substring(1)).
             setType(MethodDescriptor.MethodType.UNARY).
             build();
-        final CallOptions callOptions = CallOptions.DEFAULT.withAuthority(uri.getAuthority());
+        final CallOptions callOptions = baseCallOptions.withAuthority(uri.getAuthority());
         final Channel channel = new Channel() {
             @Override
             public <RequestT, ResponseT> ClientCall<RequestT, ResponseT> newCall(
@@ -371,7 +714,12 @@ public class CookieStoreInterceptorTest extends TestCase {
                     @Override
                     public void start(final Listener<ResponseT> responseListener, final Metadata requestHeaders) {
                         actualRequestHeadersStore.set(requestHeaders);
-                        responseListener.onHeaders(responseHeaders);
+                        if (responseHeaders != null) {
+                            responseListener.onHeaders(responseHeaders);
+                        }
+                        if (responseTrailers != null) {
+                            responseListener.onClose(Status.UNAVAILABLE, responseTrailers);
+                        }
                     }
 
                     @Override
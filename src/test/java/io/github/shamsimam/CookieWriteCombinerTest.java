@@ -0,0 +1,168 @@
+package io.github.shamsimam;
+
+import junit.framework.TestCase;
+
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CookieWriteCombinerTest extends TestCase {
+
+    private static Map<String, List<String>> setCookie(final String cookie) {
+        return Collections.singletonMap("Set-Cookie", Collections.singletonList(cookie));
+    }
+
+    public void testConcurrentPutsApplied() throws Exception {
+
+        final ConcurrentCookieStore cookieStore =
+            new ConcurrentCookieStore(Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+        final CookieWriteCombiner combiner =
+            new CookieWriteCombiner(new CookieManager(cookieStore, CookiePolicy.ACCEPT_ALL));
+        final int threadCount = 16;
+        final int putCount = 500;
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            final CountDownLatch startLatch = new CountDownLatch(1);
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                final URI uri = URI.create("https://s" + t + ".test.com/grpc.Service/GetCookies");
+                futures.add(executor.submit(() -> {
+                    startLatch.await();
+                    for (int i = 0; i < putCount; i++) {
+                        combiner.put(uri, setCookie("c" + i + "=v; Path=/"));
+                        // the put returns once its cookie is stored
+                        assertEquals(i + 1, cookieStore.get(uri).size());
+                    }
+                    return null;
+                }));
+            }
+            startLatch.countDown();
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(threadCount * putCount, cookieStore.getCookies().size());
+    }
+
+    public void testFailingPutLogged() {
+
+        final AtomicInteger putCount = new AtomicInteger();
+        final CookieWriteCombiner combiner = new CookieWriteCombiner(new CookieManager() {
+            @Override
+            public void put(final URI uri, final Map<String, List<String>> responseHeaders) {
+                putCount.incrementAndGet();
+                throw new IllegalStateException("failing put");
+            }
+        });
+        final URI uri = URI.create("https://www.test.com/grpc.Service/GetCookies");
+        combiner.put(uri, setCookie("foo=bar"));
+        combiner.put(uri, setCookie("foo=bar"));
+
+        assertEquals(2, putCount.get());
+    }
+
+    public void testBatchAppliedUnderOneStoreLock() throws Exception {
+
+        final LockCountingCookieStore cookieStore = new LockCountingCookieStore();
+        final CookieWriteCombiner combiner =
+            new CookieWriteCombiner(new CookieManager(cookieStore, CookiePolicy.ACCEPT_ALL));
+        final int threadCount = 8;
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            final URI uri = URI.create("https://s" + t + ".test.com/grpc.Service/GetCookies");
+            threads.add(new Thread(() -> combiner.put(uri, setCookie("c=v; Path=/"))));
+        }
+        // the first put holds the combiner until the puts of the other threads are queued
+        threads.get(0).start();
+        assertTrue(cookieStore.adding.await(5, TimeUnit.SECONDS));
+        for (int t = 1; t < threadCount; t++) {
+            threads.get(t).start();
+        }
+        Thread.sleep(200);
+        cookieStore.blocked.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(threadCount, cookieStore.getCookies().size());
+        assertEquals(threadCount, cookieStore.lockedAddCount.get());
+        assertEquals(1, cookieStore.batchCount.get());
+    }
+
+    /**
+     * A store counting its batches and the cookies added under its lock, whose first add blocks.
+     */
+    private static final class LockCountingCookieStore implements BatchModifiedCookieStore {
+
+        private final ConcurrentCookieStore delegate =
+            new ConcurrentCookieStore(Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+        private final CountDownLatch adding = new CountDownLatch(1);
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final AtomicInteger batchCount = new AtomicInteger();
+        private final AtomicInteger lockedAddCount = new AtomicInteger();
+        private boolean inBatch;
+
+        @Override
+        public synchronized void modifyInBatch(final Runnable modifications) {
+            batchCount.incrementAndGet();
+            inBatch = true;
+            try {
+                modifications.run();
+            } finally {
+                inBatch = false;
+            }
+        }
+
+        @Override
+        public synchronized void add(final URI uri, final HttpCookie cookie) {
+            adding.countDown();
+            try {
+                blocked.await();
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            if (inBatch) {
+                lockedAddCount.incrementAndGet();
+            }
+            delegate.add(uri, cookie);
+        }
+
+        @Override
+        public List<HttpCookie> get(final URI uri) {
+            return delegate.get(uri);
+        }
+
+        @Override
+        public List<HttpCookie> getCookies() {
+            return delegate.getCookies();
+        }
+
+        @Override
+        public List<URI> getURIs() {
+            return delegate.getURIs();
+        }
+
+        @Override
+        public synchronized boolean remove(final URI uri, final HttpCookie cookie) {
+            return delegate.remove(uri, cookie);
+        }
+
+        @Override
+        public synchronized boolean removeAll() {
+            return delegate.removeAll();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package io.github.shamsimam;
+
+import junit.framework.TestCase;
+
+import java.net.HttpCookie;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+public class DomainChainTableTest extends TestCase {
+
+    private static final long NONE = -1;
+
+    private HeapTable table;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        table = new HeapTable(64);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        table = null;
+        super.tearDown();
+    }
+
+    private static HttpCookie cookie(final String name, final String value, final String domain) {
+        final HttpCookie cookie = new HttpCookie(name, value);
+        cookie.setVersion(0);
+        cookie.setDomain(domain);
+        cookie.setPath("/");
+        return cookie;
+    }
+
+    private void add(final HttpCookie cookie, final String host) {
+        final String key = DomainChainTable.key(cookie.getDomain() == null ? host : cookie.getDomain());
+        final long storedCookie = table.store(cookie, host);
+        final int slot = table.find(key);
+        if (slot < 0) {
+            table.insertSlot(key.hashCode(), storedCookie);
+        } else {
+            table.append(slot, storedCookie);
+        }
+    }
+
+    private List<String> collect(final String host) {
+        final List<HttpCookie> cookies = new ArrayList<>();
+        table.collect(host, true, System.currentTimeMillis(), cookies);
+        final List<String> names = new ArrayList<>();
+        for (final HttpCookie cookie : cookies) {
+            names.add(cookie.getName() + "=" + cookie.getValue());
+        }
+        return names;
+    }
+
+    public void testCookiesOfDomainSuffixesCollected() {
+
+        add(cookie("root", "1", ".test.com"), "www.test.com");
+        add(cookie("www", "2", "www.test.com"), "www.test.com");
+        add(cookie("other", "3", "api.test.com"), "api.test.com");
+        add(cookie("host", "4", null), "a.www.test.com");
+
+        // the suffixes are visited from the shortest one
+        assertEquals(Arrays.asList("root=1", "www=2", "host=4"), collect("a.www.test.com"));
+        assertEquals(Arrays.asList("root=1", "www=2"), collect("www.test.com"));
+        assertEquals(Arrays.asList("root=1"), collect("xwww.test.com"));
+    }
+
+    public void testRemovedSlotsKeepOtherDomainsReachable() {
+
+        for (int i = 0; i < 30; i++) {
+            add(cookie("c", Integer.toString(i), "d" + i + ".test"), null);
+        }
+        for (int i = 0; i < 30; i += 2) {
+            assertTrue(table.remove(null, cookie("c", Integer.toString(i), "d" + i + ".test")));
+        }
+
+        assertEquals(15, table.domainCount());
+        for (int i = 0; i < 30; i++) {
+            assertEquals(i % 2 == 1, table.find("d" + i + ".test") >= 0);
+        }
+        assertEquals(15, table.released);
+    }
+
+    public void testExpiredCookiesUnlinked() {
+
+        final HttpCookie expiringCookie = cookie("expiring", "1", "www.test.com");
+        expiringCookie.setMaxAge(60);
+        add(expiringCookie, "www.test.com");
+        add(cookie("session", "2", "www.test.com"), "www.test.com");
+
+        final List<HttpCookie> cookies = new ArrayList<>();
+        assertTrue(table.collect("www.test.com", true, System.currentTimeMillis() + 120_000, cookies));
+
+        assertEquals(1, cookies.size());
+        assertEquals(1, table.released);
+        assertFalse(table.collect("www.test.com", true, System.currentTimeMillis() + 120_000, cookies));
+    }
+
+    public void testRemoveOfLastCookieRemovesSlot() {
+
+        add(cookie("foo", "1", "www.test.com"), "www.test.com");
+        add(cookie("bar", "2", "www.test.com"), "www.test.com");
+        final int slot = table.find("www.test.com");
+        assertTrue(table.contains(slot, cookie("foo", "other", "www.test.com")));
+
+        assertTrue(table.remove("www.test.com", cookie("foo", "1", "www.test.com")));
+        assertEquals(1, table.domainCount());
+        assertTrue(table.remove("www.test.com", cookie("bar", "2", "www.test.com")));
+        assertEquals(0, table.domainCount());
+        assertEquals(-1, table.find("www.test.com"));
+
+        final Set<String> hosts = new LinkedHashSet<>();
+        table.collectHosts(hosts);
+        assertTrue(hosts.isEmpty());
+    }
+
+    /**
+     * A table whose slots are arrays and whose cookies are the indices of a list.
+     */
+    private static final class HeapTable extends DomainChainTable {
+
+        private final long[] heads;
+        private final int[] hashes;
+        private final List<CookieRecord> records = new ArrayList<>();
+        private final List<String> domains = new ArrayList<>();
+        private final List<String> hosts = new ArrayList<>();
+        private final List<Long> nexts = new ArrayList<>();
+        private int domainCount;
+        private int released;
+
+        private HeapTable(final int capacity) {
+            super(NONE);
+            heads = new long[capacity];
+            hashes = new int[capacity];
+            Arrays.fill(heads, NONE);
+        }
+
+        private long store(final HttpCookie cookie, final String host) {
+            records.add(new CookieRecord(cookie, System.currentTimeMillis()));
+            domains.add(cookie.getDomain());
+            hosts.add(host);
+            nexts.add(NONE);
+            return records.size() - 1;
+        }
+
+        @Override
+        int capacity() {
+            return heads.length;
+        }
+
+        @Override
+        long head(final int slot) {
+            return heads[slot];
+        }
+
+        @Override
+        void setHead(final int slot, final long cookie) {
+            heads[slot] = cookie;
+        }
+
+        @Override
+        int hash(final int slot) {
+            return hashes[slot];
+        }
+
+        @Override
+        void setHash(final int slot, final int hash) {
+            hashes[slot] = hash;
+        }
+
+        @Override
+        int domainCount() {
+            return domainCount;
+        }
+
+        @Override
+        void setDomainCount(final int domainCount) {
+            this.domainCount = domainCount;
+        }
+
+        @Override
+        long next(final long cookie) {
+            return nexts.get((int) cookie);
+        }
+
+        @Override
+        void setNext(final long cookie, final long next) {
+            nexts.set((int) cookie, next);
+        }
+
+        @Override
+        CookieRecord record(final long cookie) {
+            return records.get((int) cookie);
+        }
+
+        @Override
+        String domain(final long cookie) {
+            return domains.get((int) cookie);
+        }
+
+        @Override
+        String host(final long cookie) {
+            return hosts.get((int) cookie);
+        }
+
+        @Override
+        void release(final long cookie) {
+            released++;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package io.github.shamsimam;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DomainTrieTest extends TestCase {
+
+    private static final String EMPTY = "";
+    private static final String DETACHED = new String("");
+
+    private DomainTrie<String> trie;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        trie = new DomainTrie<>(EMPTY, DETACHED);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        trie = null;
+        super.tearDown();
+    }
+
+    private void put(final String domain, final String value) {
+        final DomainTrie.Node<String> node = trie.findOrCreate(domain);
+        assertTrue(node.compareAndSet(node.value(), value));
+    }
+
+    private List<String> pathValues(final String host) {
+        final List<String> values = new ArrayList<>();
+        for (final DomainTrie.Node<String> node : trie.path(host)) {
+            values.add(node.value());
+        }
+        return values;
+    }
+
+    public void testPathVisitsParentDomains() {
+
+        put("test.com", "test");
+        put(".b.test.com", "b");
+        put("a.b.test.com", "a");
+        put("c.test.com", "c");
+
+        final List<String> expected = new ArrayList<>();
+        expected.add(EMPTY);
+        expected.add("test");
+        expected.add("b");
+        expected.add("a");
+        assertEquals(expected, pathValues("a.b.test.com"));
+        assertEquals(expected.subList(0, 3), pathValues("z.b.test.com"));
+        assertTrue(pathValues("xtest.com").size() == 1);
+        assertTrue(pathValues("test.org").isEmpty());
+    }
+
+    public void testFindDoesNotCreateNodes() {
+
+        assertNull(trie.find("www.test.com"));
+        put("www.test.com", "www");
+        assertEquals("www", trie.find("www.test.com").value());
+        assertSame(trie.find("www.test.com"), trie.find(".www.test.com"));
+        assertEquals(EMPTY, trie.find("test.com").value());
+    }
+
+    public void testPruneRemovesEmptyNodes() {
+
+        put("a.b.test.com", "a");
+        put("test.com", "test");
+
+        final DomainTrie.Node<String> node = trie.find("a.b.test.com");
+        assertTrue(node.compareAndSet("a", EMPTY));
+        trie.prune(node);
+
+        assertTrue(trie.isDetached(node.value()));
+        assertNull(trie.find("a.b.test.com"));
+        assertNull(trie.find("b.test.com"));
+        assertEquals("test", trie.find("test.com").value());
+
+        put("a.b.test.com", "a2");
+        assertEquals("a2", trie.find("a.b.test.com").value());
+    }
+
+    public void testPruneRetainsNodesWithChildren() {
+
+        put("b.test.com", "b");
+        put("a.b.test.com", "a");
+
+        final DomainTrie.Node<String> node = trie.find("b.test.com");
+        assertTrue(node.compareAndSet("b", EMPTY));
+        trie.prune(node);
+
+        assertSame(node, trie.find("b.test.com"));
+        assertEquals("a", trie.find("a.b.test.com").value());
+    }
+}
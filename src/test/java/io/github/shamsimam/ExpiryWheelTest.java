@@ -0,0 +1,108 @@
+package io.github.shamsimam;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ExpiryWheelTest extends TestCase {
+
+    private static final long START_MILLIS = 1_000_000_000L;
+
+    private List<String> firedEntries;
+    private ExpiryWheel expiryWheel;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        firedEntries = new ArrayList<>();
+        expiryWheel = new ExpiryWheel(START_MILLIS, entry -> firedEntries.add(((TestEntry) entry).name));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        expiryWheel = null;
+        firedEntries = null;
+        super.tearDown();
+    }
+
+    private static final class TestEntry extends ExpiryWheel.Entry {
+
+        private final String name;
+        private final long deadline;
+
+        private TestEntry(final String name, final long delayMillis) {
+            this.name = name;
+            this.deadline = START_MILLIS + delayMillis;
+        }
+
+        @Override
+        long deadline() {
+            return deadline;
+        }
+    }
+
+    public void testEntriesNeverFireBeforeTheirDeadline() {
+
+        expiryWheel.schedule(new TestEntry("a", 2_500));
+        expiryWheel.schedule(new TestEntry("b", 2_000));
+
+        expiryWheel.advance(START_MILLIS + 1_000);
+        assertTrue(firedEntries.isEmpty());
+        assertEquals(2, expiryWheel.size());
+
+        expiryWheel.advance(START_MILLIS + 2_000);
+        assertEquals(1, firedEntries.size());
+        assertEquals("b", firedEntries.get(0));
+
+        expiryWheel.advance(START_MILLIS + 2_999);
+        assertEquals(1, firedEntries.size());
+        expiryWheel.advance(START_MILLIS + 3_000);
+        assertEquals(2, firedEntries.size());
+        assertEquals(0, expiryWheel.size());
+    }
+
+    public void testEntriesCascadeFromHigherLevels() {
+
+        final long[] delays = {5_000, 63_000, 64_000, 3_600_000, 4_096_000, 86_400_000, 262_144_000};
+        for (final long delay : delays) {
+            expiryWheel.schedule(new TestEntry(Long.toString(delay), delay));
+        }
+
+        for (final long delay : delays) {
+            expiryWheel.advance(START_MILLIS + delay - 1_000);
+            assertFalse(firedEntries.contains(Long.toString(delay)));
+            expiryWheel.advance(START_MILLIS + delay);
+            assertEquals(Long.toString(delay), firedEntries.get(firedEntries.size() - 1));
+        }
+        assertEquals(delays.length, firedEntries.size());
+        assertEquals(0, expiryWheel.size());
+    }
+
+    public void testPastDeadlineFiresOnNextAdvance() {
+
+        expiryWheel.schedule(new TestEntry("past", -10_000));
+        expiryWheel.advance(START_MILLIS);
+
+        assertEquals(1, firedEntries.size());
+    }
+
+    public void testCancelledEntriesDoNotFire() {
+
+        final List<TestEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final TestEntry entry = new TestEntry("e" + i, 10_000 + i);
+            entries.add(entry);
+            expiryWheel.schedule(entry);
+        }
+        expiryWheel.advance(START_MILLIS);
+        for (int i = 0; i < 1000; i += 2) {
+            expiryWheel.cancel(entries.get(i));
+        }
+
+        expiryWheel.advance(START_MILLIS + 20_000);
+        assertEquals(500, firedEntries.size());
+        assertFalse(firedEntries.contains("e0"));
+        assertTrue(firedEntries.contains("e1"));
+    }
+}
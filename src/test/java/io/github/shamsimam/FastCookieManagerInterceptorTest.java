@@ -0,0 +1,38 @@
+package io.github.shamsimam;
+
+import java.net.CookieManager;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the CookieStoreInterceptor tests against the FastCookieManager.
+ */
+public class FastCookieManagerInterceptorTest extends CookieStoreInterceptorTest {
+
+    @Override
+    protected CookieManager newCookieManager() {
+        return new FastCookieManager(new ConcurrentCookieStore(), null);
+    }
+
+    public void testRepeatedSetCookieLeavesStoreUnchanged() {
+
+        final ConcurrentCookieStore cookieStore = new ConcurrentCookieStore();
+        final FastCookieManager cookieManager = new FastCookieManager(cookieStore, null);
+        final URI path = URI.create("https://www.test.com/grpc.Service/GetCookies");
+        final Map<String, List<String>> responseHeaders = Collections.singletonMap("set-cookie",
+            Collections.singletonList("affinity=node-1; Path=/; Max-Age=3600"));
+
+        cookieManager.put(path, responseHeaders);
+        final long version = cookieStore.version();
+        cookieManager.put(path, responseHeaders);
+        cookieManager.put(URI.create("https://www.test.com/grpc.Service/GetOtherCookies"), responseHeaders);
+        assertEquals(version, cookieStore.version());
+
+        cookieManager.put(path, Collections.singletonMap("set-cookie",
+            Collections.singletonList("affinity=node-2; Path=/; Max-Age=3600")));
+        assertTrue(cookieStore.version() > version);
+        assertEquals("node-2", cookieStore.get(path).get(0).getValue());
+    }
+}
@@ -0,0 +1,170 @@
+package io.github.shamsimam;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class MappedCookieStoreTest extends TestCase {
+
+    private static final URI WWW_URI = URI.create("https://www.test.com/grpc.Service/GetCookies");
+    private static final URI API_URI = URI.create("https://api.test.com/grpc.Service/GetCookies");
+
+    private Path directory;
+    private Path file;
+    private MappedCookieStore cookieStore;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = Files.createTempDirectory("cookies");
+        file = directory.resolve("cookies.bin");
+        cookieStore = new MappedCookieStore(file, 4096);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cookieStore.close();
+        cookieStore = null;
+        try (final Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        super.tearDown();
+    }
+
+    private static HttpCookie cookie(final String name, final String value, final String domain) {
+        final HttpCookie cookie = new HttpCookie(name, value);
+        cookie.setVersion(0);
+        cookie.setDomain(domain);
+        cookie.setPath("/");
+        return cookie;
+    }
+
+    private static List<String> names(final List<HttpCookie> cookies) {
+        final List<String> names = new ArrayList<>();
+        for (final HttpCookie cookie : cookies) {
+            names.add(cookie.getName() + "=" + cookie.getValue());
+        }
+        return names;
+    }
+
+    private void reopen() throws IOException {
+        cookieStore.close();
+        cookieStore = new MappedCookieStore(file, 4096);
+    }
+
+    public void testCookiesReturnedForMatchingDomains() {
+
+        cookieStore.add(WWW_URI, cookie("host", "1", "www.test.com"));
+        cookieStore.add(WWW_URI, cookie("parent", "2", ".test.com"));
+        cookieStore.add(API_URI, cookie("other", "3", "api.test.com"));
+        cookieStore.add(API_URI, cookie("origin", "4", null));
+
+        assertEquals(Arrays.asList("parent=2", "host=1"), names(cookieStore.get(WWW_URI)));
+        assertEquals(Arrays.asList("parent=2", "other=3", "origin=4"), names(cookieStore.get(API_URI)));
+        assertTrue(cookieStore.get(URI.create("https://xtest.com/")).isEmpty());
+        assertEquals(4, cookieStore.getCookies().size());
+        assertEquals(new HashSet<>(Arrays.asList(URI.create("http://www.test.com"), URI.create("http://api.test.com"))),
+            new HashSet<>(cookieStore.getURIs()));
+    }
+
+    public void testCookiesSurviveReopening() throws IOException {
+
+        final HttpCookie expiring = cookie("expiring", "1", ".test.com");
+        expiring.setMaxAge(3600);
+        expiring.setSecure(true);
+        cookieStore.add(WWW_URI, expiring);
+        cookieStore.add(API_URI, cookie("origin", "2", null));
+        reopen();
+
+        final List<HttpCookie> cookies = cookieStore.get(API_URI);
+        assertEquals(Arrays.asList("expiring=1", "origin=2"), names(cookies));
+        assertTrue(cookies.get(0).getSecure());
+        assertTrue(cookies.get(0).getMaxAge() > 3500);
+        assertEquals(Arrays.asList("expiring=1"), names(cookieStore.get(WWW_URI)));
+    }
+
+    public void testReplacedAndRemovedCookies() throws IOException {
+
+        cookieStore.add(WWW_URI, cookie("a", "1", ".test.com"));
+        cookieStore.add(WWW_URI, cookie("b", "2", ".test.com"));
+        cookieStore.add(WWW_URI, cookie("A", "3", ".test.com"));
+        assertTrue(cookieStore.remove(WWW_URI, cookie("b", "", ".test.com")));
+        assertFalse(cookieStore.remove(WWW_URI, cookie("b", "", ".test.com")));
+        final HttpCookie expired = cookie("c", "", ".test.com");
+        cookieStore.add(WWW_URI, cookie("c", "4", ".test.com"));
+        expired.setMaxAge(0);
+        cookieStore.add(WWW_URI, expired);
+        reopen();
+
+        assertEquals(Arrays.asList("A=3"), names(cookieStore.get(WWW_URI)));
+        assertTrue(cookieStore.removeAll());
+        assertFalse(cookieStore.removeAll());
+        reopen();
+        assertTrue(cookieStore.getCookies().isEmpty());
+    }
+
+    public void testExpiredCookiesAreRemoved() throws Exception {
+
+        final HttpCookie cookie = cookie("short", "1", ".test.com");
+        cookie.setMaxAge(1);
+        cookieStore.add(WWW_URI, cookie);
+        cookieStore.add(WWW_URI, cookie("long", "2", ".test.com"));
+        final long version = cookieStore.version();
+
+        Thread.sleep(1100);
+
+        assertEquals(Arrays.asList("long=2"), names(cookieStore.get(WWW_URI)));
+        assertTrue(cookieStore.version() > version);
+    }
+
+    public void testFileGrowsAndReclaimsSpace() throws IOException {
+
+        // the cookies of many domains outgrow both the table and the file
+        for (int i = 0; i < 500; i++) {
+            cookieStore.add(URI.create("https://s" + i + ".test.com/"), cookie("sid", "v" + i, null));
+        }
+        assertTrue(Files.size(file) > 4096);
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 500; i++) {
+                cookieStore.add(URI.create("https://s" + i + ".test.com/"), cookie("sid", "r" + round, null));
+            }
+        }
+        final long size = Files.size(file);
+        reopen();
+
+        assertEquals(500, cookieStore.getCookies().size());
+        assertEquals(Arrays.asList("sid=r19"), names(cookieStore.get(URI.create("https://s123.test.com/"))));
+        // the space of replaced cookies is reused rather than growing the file with every round
+        assertTrue(size < 500 * 20 * 64);
+    }
+
+    public void testFileLockedWhileOpen() throws IOException {
+        try {
+            new MappedCookieStore(file);
+            fail("IOException expected");
+        } catch (final IOException expected) {
+            // expected
+        }
+    }
+
+    public void testClosedStoreRejectsOperations() throws IOException {
+
+        cookieStore.close();
+        try {
+            cookieStore.get(WWW_URI);
+            fail("IllegalStateException expected");
+        } catch (final IllegalStateException expected) {
+            // expected
+        }
+    }
+}
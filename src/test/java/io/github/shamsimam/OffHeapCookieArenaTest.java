@@ -0,0 +1,45 @@
+package io.github.shamsimam;
+
+import junit.framework.TestCase;
+
+public class OffHeapCookieArenaTest extends TestCase {
+
+    public void testFreedBlocksAreReused() {
+
+        final OffHeapCookieArena arena = new OffHeapCookieArena(1024);
+        final long first = arena.allocate(100);
+        final long second = arena.allocate(100);
+        assertFalse(first == second);
+        assertEquals(256, arena.usedBytes());
+        assertEquals(1024, arena.reservedBytes());
+
+        arena.free(first, 100);
+        assertEquals(128, arena.usedBytes());
+        assertEquals(first, arena.allocate(120));
+        assertFalse(first == arena.allocate(100));
+    }
+
+    public void testSlabsAreAddedAsNeeded() {
+
+        final OffHeapCookieArena arena = new OffHeapCookieArena(256);
+        for (int i = 0; i < 5; i++) {
+            final long handle = arena.allocate(64);
+            arena.buffer(handle).putLong(OffHeapCookieArena.offset(handle), i);
+        }
+        final long largeBlock = arena.allocate(1000);
+
+        assertEquals(256 * 2 + 1024, arena.reservedBytes());
+        assertEquals(0, OffHeapCookieArena.offset(largeBlock));
+        assertEquals(64 * 5 + 1024, arena.usedBytes());
+    }
+
+    public void testInvalidSlabSize() {
+
+        try {
+            new OffHeapCookieArena(1000);
+            fail("IllegalArgumentException expected");
+        } catch (final IllegalArgumentException expected) {
+            // expected
+        }
+    }
+}
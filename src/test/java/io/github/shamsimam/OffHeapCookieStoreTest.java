@@ -0,0 +1,150 @@
+package io.github.shamsimam;
+
+import junit.framework.TestCase;
+
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class OffHeapCookieStoreTest extends TestCase {
+
+    private static final URI WWW_URI = URI.create("https://www.test.com/grpc.Service/GetCookies");
+    private static final URI API_URI = URI.create("https://api.test.com/grpc.Service/GetCookies");
+
+    private OffHeapCookieArena arena;
+    private OffHeapCookieStore cookieStore;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        arena = new OffHeapCookieArena(4096);
+        cookieStore = arena.newStore();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cookieStore.close();
+        cookieStore = null;
+        arena = null;
+        super.tearDown();
+    }
+
+    private static HttpCookie cookie(final String name, final String value, final String domain) {
+        final HttpCookie cookie = new HttpCookie(name, value);
+        cookie.setVersion(0);
+        cookie.setDomain(domain);
+        cookie.setPath("/");
+        return cookie;
+    }
+
+    private static List<String> names(final List<HttpCookie> cookies) {
+        final List<String> names = new ArrayList<>();
+        for (final HttpCookie cookie : cookies) {
+            names.add(cookie.getName() + "=" + cookie.getValue());
+        }
+        return names;
+    }
+
+    public void testCookiesReturnedForMatchingDomains() {
+
+        cookieStore.add(WWW_URI, cookie("host", "1", "www.test.com"));
+        cookieStore.add(WWW_URI, cookie("parent", "2", ".test.com"));
+        cookieStore.add(API_URI, cookie("other", "3", "api.test.com"));
+        cookieStore.add(API_URI, cookie("origin", "4", null));
+
+        assertEquals(Arrays.asList("parent=2", "host=1"), names(cookieStore.get(WWW_URI)));
+        assertEquals(Arrays.asList("parent=2", "other=3", "origin=4"), names(cookieStore.get(API_URI)));
+        assertTrue(cookieStore.get(URI.create("https://xtest.com/")).isEmpty());
+        assertEquals(4, cookieStore.getCookies().size());
+        assertEquals(2, cookieStore.getURIs().size());
+        assertEquals(".test.com", cookieStore.get(WWW_URI).get(0).getDomain());
+    }
+
+    public void testReplacedCookieMovesToTheEnd() {
+
+        cookieStore.add(WWW_URI, cookie("a", "1", "www.test.com"));
+        cookieStore.add(WWW_URI, cookie("b", "2", "www.test.com"));
+        final long version = cookieStore.version();
+        cookieStore.add(WWW_URI, cookie("A", "3", "www.test.com"));
+
+        assertEquals(Arrays.asList("b=2", "A=3"), names(cookieStore.get(WWW_URI)));
+        assertTrue(cookieStore.version() > version);
+    }
+
+    public void testExpiredCookiesAreRemoved() throws Exception {
+
+        final HttpCookie expiringCookie = cookie("foo", "1", "www.test.com");
+        expiringCookie.setMaxAge(1);
+        cookieStore.add(WWW_URI, expiringCookie);
+        cookieStore.add(WWW_URI, cookie("bar", "2", "www.test.com"));
+        assertEquals(2, cookieStore.get(WWW_URI).size());
+
+        Thread.sleep(1100);
+        assertEquals(Arrays.asList("bar=2"), names(cookieStore.get(WWW_URI)));
+
+        final HttpCookie deletingCookie = cookie("bar", "", "www.test.com");
+        deletingCookie.setMaxAge(0);
+        cookieStore.add(WWW_URI, deletingCookie);
+        assertTrue(cookieStore.get(WWW_URI).isEmpty());
+        assertEquals(0, arena.usedBytes());
+    }
+
+    public void testSecureCookieOnlyReturnedOverHttps() {
+
+        final HttpCookie secureCookie = cookie("secure", "1", "www.test.com");
+        secureCookie.setSecure(true);
+        cookieStore.add(WWW_URI, secureCookie);
+
+        assertEquals(1, cookieStore.get(WWW_URI).size());
+        assertTrue(cookieStore.get(URI.create("http://www.test.com/")).isEmpty());
+    }
+
+    public void testHostOnlyCookieWithoutDots() {
+
+        final URI localUri = URI.create("http://localhost:8080/grpc.Service/GetCookies");
+        cookieStore.add(localUri, cookie("foo", "bar", "localhost.local"));
+
+        assertEquals(1, cookieStore.get(localUri).size());
+        assertTrue(cookieStore.get(URI.create("http://otherhost/")).isEmpty());
+    }
+
+    public void testManyDomainsGrowAndShrinkTheTable() {
+
+        for (int i = 0; i < 100; i++) {
+            cookieStore.add(WWW_URI, cookie("c", Integer.toString(i), "d" + i + ".test.com"));
+        }
+        for (int i = 0; i < 100; i += 2) {
+            assertTrue(cookieStore.remove(WWW_URI, cookie("c", "", "d" + i + ".test.com")));
+        }
+
+        for (int i = 0; i < 100; i++) {
+            final List<HttpCookie> cookies = cookieStore.get(URI.create("https://d" + i + ".test.com/"));
+            assertEquals(i % 2 == 0 ? 0 : 1, cookies.size());
+        }
+        assertEquals(50, cookieStore.getCookies().size());
+        assertFalse(cookieStore.remove(WWW_URI, cookie("c", "", "d0.test.com")));
+    }
+
+    public void testRemoveAllAndCloseFreeTheArena() {
+
+        final OffHeapCookieStore otherStore = arena.newStore();
+        cookieStore.add(WWW_URI, cookie("a", "1", "www.test.com"));
+        otherStore.add(WWW_URI, cookie("b", "2", "www.test.com"));
+        assertEquals(Arrays.asList("a=1"), names(cookieStore.get(WWW_URI)));
+
+        assertTrue(cookieStore.removeAll());
+        assertFalse(cookieStore.removeAll());
+        assertEquals(Arrays.asList("b=2"), names(otherStore.get(WWW_URI)));
+
+        otherStore.close();
+        assertEquals(0, arena.usedBytes());
+        try {
+            otherStore.get(WWW_URI);
+            fail("IllegalStateException expected");
+        } catch (final IllegalStateException expected) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.shamsimam;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class PathIndexTest extends TestCase {
+
+    private static final String[] PATHS = {
+        "/", "/grpc.Service", "/grpc.Service/", "/grpc.Service/GetCookies", "/grpc.Health/Check", "/grpc", null, "/"
+    };
+
+    private static List<String> matches(final PathIndex<String> index, final String requestPath) {
+        final List<String> matches = new ArrayList<>();
+        index.forEachMatch(requestPath, matches::add);
+        return matches;
+    }
+
+    private static List<String> expectedMatches(final String requestPath) {
+        final List<String> matches = new ArrayList<>();
+        for (final String path : PATHS) {
+            if (path != null && requestPath.startsWith(path)) {
+                matches.add(path);
+            }
+        }
+        matches.sort((p1, p2) -> Integer.compare(p1.length(), p2.length()));
+        return matches;
+    }
+
+    public void testMatchesSameAsStartsWith() {
+
+        final PathIndex<String> index = PathIndex.of(PATHS, path -> path);
+        for (final String requestPath : Arrays.asList(
+            "/", "/grpc.Service/GetCookies", "/grpc.Service/PostCookies", "/grpc.ServiceV2/GetCookies",
+            "/grpc.Health/Check", "/grpc.Health/Watch", "/other.Service/Method", "/gr", "")) {
+            assertEquals(requestPath, expectedMatches(requestPath), matches(index, requestPath));
+        }
+    }
+
+    public void testItemsOfSamePathRetainOrder() {
+
+        final String[] items = {"a:/x", "b:/x", "c:/", "d:/x"};
+        final PathIndex<String> index = PathIndex.of(items, item -> item.substring(2));
+
+        assertEquals(Arrays.asList("c:/", "a:/x", "b:/x", "d:/x"), matches(index, "/x/y"));
+    }
+
+    public void testEmptyIndex() {
+
+        final PathIndex<String> index = PathIndex.of(new String[] {null}, path -> path);
+
+        assertSame(PathIndex.empty(), index);
+        assertEquals(Collections.emptyList(), matches(index, "/grpc.Service/GetCookies"));
+    }
+}
@@ -0,0 +1,202 @@
+package io.github.shamsimam;
+
+import junit.framework.TestCase;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class PersistentCookieStoreTest extends TestCase {
+
+    private static final URI URI_WWW = URI.create("https://www.test.com/grpc.Service/GetCookies");
+
+    private Path directory;
+
+    private static HttpCookie cookie(final String header) {
+        return HttpCookie.parse("Set-Cookie: " + header).get(0);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = Files.createTempDirectory("cookies");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try (final Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+        directory = null;
+        super.tearDown();
+    }
+
+    public void testCookiesRestored() throws IOException {
+
+        final HttpCookie sessionCookie = cookie("sid=1; Path=/");
+        final HttpCookie permanentCookie = cookie("user=2; Domain=.test.com; Path=/; Max-Age=3600; Secure");
+        try (final PersistentCookieStore cookieStore = new PersistentCookieStore(directory)) {
+            cookieStore.add(URI_WWW, sessionCookie);
+            cookieStore.add(URI_WWW, permanentCookie);
+        }
+
+        try (final PersistentCookieStore cookieStore = new PersistentCookieStore(directory)) {
+            assertEquals(2, cookieStore.get(URI_WWW).size());
+            // host-only cookies are restored for the host they were received from
+            final List<HttpCookie> cookies = cookieStore.get(URI.create("https://api.test.com/"));
+            assertEquals(1, cookies.size());
+            assertEquals("2", cookies.get(0).getValue());
+            assertTrue(cookies.get(0).getSecure());
+            assertTrue(cookies.get(0).getMaxAge() > 3500);
+        }
+    }
+
+    public void testLogReplayedWithoutClose() throws IOException {
+
+        final PersistentCookieStore cookieStore = new PersistentCookieStore(directory);
+        cookieStore.add(URI_WWW, cookie("a=1; Path=/"));
+        cookieStore.add(URI_WWW, cookie("b=2; Path=/"));
+        cookieStore.add(URI_WWW, cookie("a=3; Path=/"));
+        cookieStore.remove(URI_WWW, cookie("b=2; Path=/"));
+        cookieStore.add(URI_WWW, cookie("c=4; Path=/"));
+        cookieStore.add(URI_WWW, cookie("c=; Path=/; Max-Age=0"));
+
+        try (final PersistentCookieStore restoredStore = new PersistentCookieStore(directory)) {
+            final List<HttpCookie> cookies = restoredStore.getCookies();
+            assertEquals(1, cookies.size());
+            assertEquals("a", cookies.get(0).getName());
+            assertEquals("3", cookies.get(0).getValue());
+        }
+    }
+
+    public void testRemoveAllReplayed() throws IOException {
+
+        final PersistentCookieStore cookieStore = new PersistentCookieStore(directory);
+        cookieStore.add(URI_WWW, cookie("a=1; Path=/"));
+        assertTrue(cookieStore.removeAll());
+        cookieStore.add(URI_WWW, cookie("b=2; Path=/"));
+
+        try (final PersistentCookieStore restoredStore = new PersistentCookieStore(directory)) {
+            final List<HttpCookie> cookies = restoredStore.getCookies();
+            assertEquals(1, cookies.size());
+            assertEquals("b", cookies.get(0).getName());
+        }
+    }
+
+    public void testSessionCookiesExcluded() throws IOException {
+
+        try (final PersistentCookieStore cookieStore = new PersistentCookieStore(directory, false, 100)) {
+            cookieStore.add(URI_WWW, cookie("a=1; Path=/; Max-Age=3600"));
+            cookieStore.add(URI_WWW, cookie("b=2; Path=/"));
+            // the session cookie replaces the persisted cookie
+            cookieStore.add(URI_WWW, cookie("a=3; Path=/"));
+            cookieStore.add(URI_WWW, cookie("c=4; Path=/; Max-Age=3600"));
+            assertEquals(3, cookieStore.getCookies().size());
+        }
+
+        try (final PersistentCookieStore cookieStore = new PersistentCookieStore(directory, false, 100)) {
+            final List<HttpCookie> cookies = cookieStore.getCookies();
+            assertEquals(1, cookies.size());
+            assertEquals("c", cookies.get(0).getName());
+        }
+    }
+
+    public void testLogCompacted() throws IOException {
+
+        final PersistentCookieStore cookieStore = new PersistentCookieStore(directory, true, 10);
+        for (int i = 0; i < 95; i++) {
+            cookieStore.add(URI_WWW, cookie("sid=" + i + "; Path=/"));
+        }
+        final Path logFile = directory.resolve(PersistentCookieStore.LOG_FILE);
+        assertTrue(Files.exists(directory.resolve(PersistentCookieStore.SNAPSHOT_FILE)));
+        // the log only holds the records written since the last snapshot
+        assertTrue(Files.size(logFile) < 10 * 64);
+
+        try (final PersistentCookieStore restoredStore = new PersistentCookieStore(directory)) {
+            final List<HttpCookie> cookies = restoredStore.getCookies();
+            assertEquals(1, cookies.size());
+            assertEquals("94", cookies.get(0).getValue());
+        }
+    }
+
+    public void testTornRecordDiscarded() throws IOException {
+
+        final PersistentCookieStore cookieStore = new PersistentCookieStore(directory);
+        cookieStore.add(URI_WWW, cookie("a=1; Path=/"));
+        try (final OutputStream out = Files.newOutputStream(
+            directory.resolve(PersistentCookieStore.LOG_FILE), StandardOpenOption.APPEND)) {
+            out.write(new byte[] {0, 0, 0, 40, 1, 2, 3, 4, 5});
+        }
+
+        try (final PersistentCookieStore restoredStore = new PersistentCookieStore(directory)) {
+            assertEquals(1, restoredStore.getCookies().size());
+            restoredStore.add(URI_WWW, cookie("b=2; Path=/"));
+        }
+        try (final PersistentCookieStore restoredStore = new PersistentCookieStore(directory)) {
+            assertEquals(2, restoredStore.getCookies().size());
+        }
+    }
+
+    public void testRecordOfUnknownOperationSkipped() throws IOException {
+
+        final PersistentCookieStore cookieStore = new PersistentCookieStore(directory);
+        cookieStore.add(URI_WWW, cookie("a=1; Path=/"));
+        final byte[] payload = {42};
+        try (final DataOutputStream out = new DataOutputStream(Files.newOutputStream(
+            directory.resolve(PersistentCookieStore.LOG_FILE), StandardOpenOption.APPEND))) {
+            out.writeInt(payload.length);
+            out.writeInt(CookieLogCodec.checksum(payload, 0, payload.length));
+            out.write(payload);
+        }
+
+        try (final PersistentCookieStore restoredStore = new PersistentCookieStore(directory)) {
+            assertEquals(1, restoredStore.getCookies().size());
+            restoredStore.add(URI_WWW, cookie("b=2; Path=/"));
+        }
+        try (final PersistentCookieStore restoredStore = new PersistentCookieStore(directory)) {
+            assertEquals(2, restoredStore.getCookies().size());
+        }
+    }
+
+    public void testStaleLogIgnored() throws IOException {
+
+        try (final PersistentCookieStore cookieStore = new PersistentCookieStore(directory)) {
+            cookieStore.add(URI_WWW, cookie("a=1; Path=/"));
+        }
+        final Path logFile = directory.resolve(PersistentCookieStore.LOG_FILE);
+        final byte[] staleLog = Files.readAllBytes(logFile);
+        try (final PersistentCookieStore cookieStore = new PersistentCookieStore(directory)) {
+            cookieStore.add(URI_WWW, cookie("b=2; Path=/"));
+            cookieStore.removeAll();
+            cookieStore.add(URI_WWW, cookie("c=3; Path=/"));
+        }
+        // a crash between writing a snapshot and starting the log over leaves the log of the previous snapshot
+        Files.write(logFile, staleLog);
+
+        try (final PersistentCookieStore cookieStore = new PersistentCookieStore(directory)) {
+            final List<HttpCookie> cookies = cookieStore.getCookies();
+            assertEquals(1, cookies.size());
+            assertEquals("c", cookies.get(0).getName());
+        }
+    }
+
+    public void testClosedStoreRejectsModifications() throws IOException {
+
+        final PersistentCookieStore cookieStore = new PersistentCookieStore(directory);
+        cookieStore.close();
+        try {
+            cookieStore.add(URI_WWW, cookie("a=1; Path=/"));
+            fail("IllegalStateException expected");
+        } catch (final IllegalStateException expected) {
+            // expected
+        }
+    }
+}
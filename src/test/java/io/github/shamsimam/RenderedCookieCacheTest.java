@@ -0,0 +1,107 @@
+package io.github.shamsimam;
+
+import junit.framework.TestCase;
+
+import java.net.CookieManager;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.Arrays;
+
+public class RenderedCookieCacheTest extends TestCase {
+
+    private static final URI GET_PATH = URI.create("https://www.test.com/grpc.Service/GetCookies");
+    private static final URI POST_PATH = URI.create("https://www.test.com/grpc.Service/PostCookies");
+
+    private VersionedCookieStore cookieStore;
+    private RenderedCookieCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cookieStore = new VersionTrackingCookieStore(new CookieManager().getCookieStore());
+        cache = new RenderedCookieCache(cookieStore, 16);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cache = null;
+        cookieStore = null;
+        super.tearDown();
+    }
+
+    private static HttpCookie cookie(final String name, final String value, final long maxAge) {
+        final HttpCookie cookie = new HttpCookie(name, value);
+        cookie.setVersion(0);
+        cookie.setDomain("www.test.com");
+        cookie.setPath("/grpc.Service/");
+        cookie.setMaxAge(maxAge);
+        return cookie;
+    }
+
+    public void testHeaderValuesReusedUntilStoreModified() {
+
+        cookieStore.add(GET_PATH, cookie("foo", "bar", -1));
+
+        final String[] headerValues = cache.get(GET_PATH);
+        assertEquals(Arrays.asList("foo=bar"), Arrays.asList(headerValues));
+        assertSame(headerValues, cache.get(GET_PATH));
+
+        cookieStore.add(GET_PATH, cookie("lorem", "ipsum", -1));
+
+        final String[] newHeaderValues = cache.get(GET_PATH);
+        assertEquals(Arrays.asList("foo=bar", "lorem=ipsum"), Arrays.asList(newHeaderValues));
+        assertSame(newHeaderValues, cache.get(GET_PATH));
+    }
+
+    public void testHeaderValuesCachedPerCallPath() {
+
+        cookieStore.add(GET_PATH, cookie("foo", "bar", -1));
+
+        final String[] getHeaderValues = cache.get(GET_PATH);
+        final String[] postHeaderValues = cache.get(POST_PATH);
+        assertNotSame(getHeaderValues, postHeaderValues);
+        assertEquals(Arrays.asList(getHeaderValues), Arrays.asList(postHeaderValues));
+        assertSame(getHeaderValues, cache.get(GET_PATH));
+        assertSame(postHeaderValues, cache.get(POST_PATH));
+    }
+
+    public void testRemovedCookieNotRendered() {
+
+        final HttpCookie cookie = cookie("foo", "bar", -1);
+        cookieStore.add(GET_PATH, cookie);
+        assertEquals(1, cache.get(GET_PATH).length);
+
+        cookieStore.remove(GET_PATH, cookie);
+        assertEquals(0, cache.get(GET_PATH).length);
+    }
+
+    public void testExpiredCookieNotRendered() throws Exception {
+
+        cookieStore.add(GET_PATH, cookie("foo", "bar", 1));
+        cookieStore.add(GET_PATH, cookie("lorem", "ipsum", -1));
+        assertEquals(2, cache.get(GET_PATH).length);
+
+        // HttpCookie expiry has a resolution of seconds
+        Thread.sleep(2100);
+
+        assertEquals(Arrays.asList("lorem=ipsum"), Arrays.asList(cache.get(GET_PATH)));
+    }
+
+    public void testCookieExpiredInConcurrentStoreNotRendered() throws Exception {
+
+        final ConcurrentCookieStore concurrentStore = new ConcurrentCookieStore();
+        final RenderedCookieCache concurrentCache = new RenderedCookieCache(concurrentStore, 16);
+        // holding the monitor of the store keeps its expiry wheel from removing the cookie
+        synchronized (concurrentStore) {
+            concurrentStore.add(GET_PATH, cookie("foo", "bar", 1));
+            concurrentStore.add(GET_PATH, cookie("lorem", "ipsum", -1));
+            assertEquals(2, concurrentCache.get(GET_PATH).length);
+            final long version = concurrentStore.version();
+
+            Thread.sleep(1100);
+
+            assertEquals(Arrays.asList("lorem=ipsum"), Arrays.asList(concurrentCache.get(GET_PATH)));
+            assertEquals(version, concurrentStore.version());
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package io.github.shamsimam;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+public class ReplicatedCookieStoreTest extends TestCase {
+
+    private static final URI WWW_URI = URI.create("https://www.test.com/grpc.Service/GetCookies");
+    private static final URI API_URI = URI.create("https://api.test.com/grpc.Service/GetCookies");
+
+    private static HttpCookie cookie(final String name, final String value, final String domain) {
+        final HttpCookie cookie = new HttpCookie(name, value);
+        cookie.setVersion(0);
+        cookie.setDomain(domain);
+        cookie.setPath("/");
+        return cookie;
+    }
+
+    private static List<String> names(final List<HttpCookie> cookies) {
+        final List<String> names = new ArrayList<>();
+        for (final HttpCookie cookie : cookies) {
+            names.add(cookie.getName() + "=" + cookie.getValue());
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    public void testModificationsReplicatedToOtherNodes() throws IOException {
+
+        final LoopbackReplicationTransport transport = new LoopbackReplicationTransport();
+        try (final ReplicatedCookieStore firstStore = new ReplicatedCookieStore(transport);
+             final ReplicatedCookieStore secondStore = new ReplicatedCookieStore(transport.newPeer());
+             final ReplicatedCookieStore thirdStore = new ReplicatedCookieStore(transport.newPeer())) {
+
+            firstStore.add(WWW_URI, cookie("session", "1", ".test.com"));
+            secondStore.add(API_URI, cookie("origin", "2", null));
+
+            assertEquals(Arrays.asList("origin=2", "session=1"), names(thirdStore.get(API_URI)));
+            assertEquals(Arrays.asList("origin=2", "session=1"), names(firstStore.get(API_URI)));
+
+            assertTrue(thirdStore.remove(WWW_URI, cookie("session", "1", ".test.com")));
+            assertEquals(Collections.singletonList("origin=2"), names(firstStore.get(API_URI)));
+
+            assertTrue(firstStore.removeAll());
+            assertTrue(secondStore.getCookies().isEmpty());
+            assertTrue(thirdStore.getCookies().isEmpty());
+        }
+    }
+
+    public void testLastWriterWinsWhateverTheDeliveryOrder() throws IOException {
+
+        final RecordingTransport transport = new RecordingTransport();
+        final RecordingTransport otherTransport = new RecordingTransport();
+        try (final ReplicatedCookieStore firstStore = new ReplicatedCookieStore(transport);
+             final ReplicatedCookieStore secondStore = new ReplicatedCookieStore(otherTransport)) {
+
+            firstStore.add(WWW_URI, cookie("session", "1", ".test.com"));
+            firstStore.add(WWW_URI, cookie("session", "2", ".test.com"));
+            firstStore.remove(WWW_URI, cookie("session", "2", ".test.com"));
+            firstStore.add(WWW_URI, cookie("session", "3", ".test.com"));
+            firstStore.add(WWW_URI, cookie("other", "4", ".test.com"));
+            assertEquals(5, transport.deltas.size());
+
+            // delivered out of order and twice
+            for (int i = transport.deltas.size() - 1; i >= 0; i--) {
+                otherTransport.deliver(transport.deltas.get(i));
+            }
+            for (final byte[] delta : transport.deltas) {
+                otherTransport.deliver(delta);
+            }
+
+            assertEquals(Arrays.asList("other=4", "session=3"), names(secondStore.get(WWW_URI)));
+        }
+    }
+
+    public void testRemovalOfAllCookiesKeepsLaterCookies() throws Exception {
+
+        final RecordingTransport transport = new RecordingTransport();
+        final RecordingTransport otherTransport = new RecordingTransport();
+        try (final ReplicatedCookieStore firstStore = new ReplicatedCookieStore(transport);
+             final ReplicatedCookieStore secondStore = new ReplicatedCookieStore(otherTransport)) {
+
+            firstStore.add(WWW_URI, cookie("session", "1", ".test.com"));
+            otherTransport.deliver(transport.deltas.get(0));
+            firstStore.removeAll();
+            // the removal is stamped at most a millisecond ahead of the clock, the later cookie must be stamped
+            // after it rather than tie with it
+            final long removedMillis = System.currentTimeMillis();
+            while (System.currentTimeMillis() <= removedMillis + 1) {
+                Thread.sleep(1);
+            }
+            secondStore.add(WWW_URI, cookie("other", "2", ".test.com"));
+            otherTransport.deliver(transport.deltas.get(1));
+
+            assertEquals(Collections.singletonList("other=2"), names(secondStore.get(WWW_URI)));
+        }
+    }
+
+    public void testStampsOfEvictedCookiesDropped() throws IOException {
+
+        final ConcurrentCookieStore localStore = new ConcurrentCookieStore(4, 16, Long.MAX_VALUE);
+        try (final ReplicatedCookieStore cookieStore =
+                 new ReplicatedCookieStore(localStore, new RecordingTransport())) {
+
+            // unique session cookies, which never expire, beyond the limits of the local store
+            for (int i = 0; i < 2_000; i++) {
+                final URI uri = URI.create("https://s" + (i % 50) + ".test.com/grpc.Service/GetCookies");
+                cookieStore.add(uri, cookie("session" + i, Integer.toString(i), i % 2 == 0 ? null : ".test.com"));
+            }
+
+            // the stamps of the cookies the local store holds are kept
+            assertTrue(localStore.getCookies().size() <= 16);
+            assertTrue(cookieStore.stampCount() >= localStore.getCookies().size());
+            assertTrue(cookieStore.stampCount() <= 256);
+        }
+    }
+
+    public void testMalformedDeltasIgnored() throws IOException {
+
+        final RecordingTransport transport = new RecordingTransport();
+        try (final ReplicatedCookieStore cookieStore = new ReplicatedCookieStore(transport)) {
+
+            transport.deliver(new byte[4]);
+            transport.deliver(new byte[32]);
+            cookieStore.add(WWW_URI, cookie("session", "1", ".test.com"));
+
+            assertEquals(Collections.singletonList("session=1"), names(cookieStore.get(WWW_URI)));
+        }
+    }
+
+    public void testClosedStoreLeavesTheOtherNodes() throws IOException {
+
+        final LoopbackReplicationTransport transport = new LoopbackReplicationTransport();
+        try (final ReplicatedCookieStore firstStore = new ReplicatedCookieStore(transport)) {
+            final ReplicatedCookieStore secondStore = new ReplicatedCookieStore(transport.newPeer());
+            secondStore.close();
+            firstStore.add(WWW_URI, cookie("session", "1", ".test.com"));
+
+            assertTrue(secondStore.getCookies().isEmpty());
+            try {
+                secondStore.add(WWW_URI, cookie("other", "2", ".test.com"));
+                fail("IllegalStateException expected");
+            } catch (final IllegalStateException ex) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * A transport recording the deltas broadcast and delivering deltas on demand.
+     */
+    private static final class RecordingTransport implements CookieReplicationTransport {
+
+        private final List<byte[]> deltas = new ArrayList<>();
+        private Consumer<byte[]> receiver;
+
+        @Override
+        public void start(final Consumer<byte[]> receiver) {
+            this.receiver = receiver;
+        }
+
+        @Override
+        public void broadcast(final byte[] delta) {
+            deltas.add(delta);
+        }
+
+        private void deliver(final byte[] delta) {
+            receiver.accept(delta);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
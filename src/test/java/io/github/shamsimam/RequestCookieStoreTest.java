@@ -0,0 +1,112 @@
+package io.github.shamsimam;
+
+import junit.framework.TestCase;
+
+import java.net.HttpCookie;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+
+public class RequestCookieStoreTest extends TestCase {
+
+    private static final URI URI_WWW = URI.create("https://www.test.com/grpc.Service/GetCookies");
+    private static final URI URI_API = URI.create("https://api.test.com/grpc.Service/GetCookies");
+
+    private RequestCookieStore cookieStore;
+
+    private static HttpCookie cookie(final String header) {
+        return HttpCookie.parse("Set-Cookie: " + header).get(0);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cookieStore = new RequestCookieStore();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cookieStore = null;
+        super.tearDown();
+    }
+
+    public void testHostOnlyCookie() {
+
+        final HttpCookie cookie = cookie("sid=1; Path=/");
+        cookieStore.add(URI_WWW, cookie);
+
+        assertEquals(Collections.singletonList(cookie), cookieStore.get(URI_WWW));
+        assertTrue(cookieStore.get(URI_API).isEmpty());
+        assertEquals(Collections.singletonList(URI.create("http://www.test.com")), cookieStore.getURIs());
+    }
+
+    public void testDomainCookie() {
+
+        final HttpCookie cookie = cookie("sid=1; Domain=.test.com; Path=/");
+        cookieStore.add(URI_WWW, cookie);
+
+        assertEquals(Collections.singletonList(cookie), cookieStore.get(URI_WWW));
+        assertEquals(Collections.singletonList(cookie), cookieStore.get(URI_API));
+        assertTrue(cookieStore.get(URI.create("https://xtest.com/")).isEmpty());
+    }
+
+    public void testSecureCookie() {
+
+        cookieStore.add(URI_WWW, cookie("sid=1; Path=/; Secure"));
+
+        assertEquals(1, cookieStore.get(URI_WWW).size());
+        assertTrue(cookieStore.get(URI.create("http://www.test.com/")).isEmpty());
+    }
+
+    public void testCookieReplaced() {
+
+        final long version = cookieStore.version();
+        cookieStore.add(URI_WWW, cookie("sid=1; Path=/"));
+        final HttpCookie replacement = cookie("SID=2; Path=/");
+        cookieStore.add(URI_WWW, replacement);
+        cookieStore.add(URI_API, cookie("sid=3; Path=/"));
+
+        final List<HttpCookie> cookies = cookieStore.get(URI_WWW);
+        assertEquals(1, cookies.size());
+        assertEquals("2", cookies.get(0).getValue());
+        assertEquals(2, cookieStore.getCookies().size());
+        assertEquals(version + 3, cookieStore.version());
+    }
+
+    public void testExpiredCookieRemovesStoredCookie() {
+
+        cookieStore.add(URI_WWW, cookie("sid=1; Path=/"));
+        cookieStore.add(URI_WWW, cookie("sid=; Path=/; Max-Age=0"));
+
+        assertTrue(cookieStore.get(URI_WWW).isEmpty());
+        assertTrue(cookieStore.getCookies().isEmpty());
+    }
+
+    public void testRemove() {
+
+        final HttpCookie cookie = cookie("sid=1; Path=/");
+        cookieStore.add(URI_WWW, cookie);
+
+        assertFalse(cookieStore.remove(URI_API, cookie));
+        assertTrue(cookieStore.remove(URI_WWW, cookie));
+        assertFalse(cookieStore.remove(URI_WWW, cookie));
+
+        cookieStore.add(URI_WWW, cookie);
+        assertTrue(cookieStore.removeAll());
+        assertFalse(cookieStore.removeAll());
+        assertTrue(cookieStore.getCookies().isEmpty());
+    }
+
+    public void testClose() {
+
+        cookieStore.add(URI_WWW, cookie("sid=1; Path=/"));
+        final long version = cookieStore.version();
+
+        cookieStore.close();
+        cookieStore.add(URI_WWW, cookie("sid=2; Path=/"));
+
+        assertTrue(cookieStore.get(URI_WWW).isEmpty());
+        assertTrue(cookieStore.getCookies().isEmpty());
+        assertEquals(version + 1, cookieStore.version());
+    }
+}
@@ -0,0 +1,85 @@
+package io.github.shamsimam;
+
+import junit.framework.TestCase;
+
+import java.net.HttpCookie;
+
+public class SetCookieCacheTest extends TestCase {
+
+    private static final long NOW_MILLIS = 1_500_000_000_000L;
+
+    public void testHeaderParsedOnce() {
+
+        final SetCookieCache cache = new SetCookieCache(4);
+        final HttpCookie[] cookies1 = cache.get("foo=bar; Path=/; Secure", NOW_MILLIS);
+        assertEquals(1, cache.size());
+        final HttpCookie[] cookies2 = cache.get("foo=bar; Path=/; Secure", NOW_MILLIS);
+        assertEquals(1, cache.size());
+
+        assertEquals(1, cookies2.length);
+        assertNotSame(cookies1[0], cookies2[0]);
+        assertEquals(cookies1[0], cookies2[0]);
+        assertEquals("bar", cookies2[0].getValue());
+        assertTrue(cookies2[0].getSecure());
+        assertEquals(-1, cookies2[0].getMaxAge());
+
+        // the returned cookies may be modified by the caller
+        cookies2[0].setDomain("www.test.com");
+        assertNull(cache.get("foo=bar; Path=/; Secure", NOW_MILLIS)[0].getDomain());
+    }
+
+    public void testRelativeExpiryKept() {
+
+        final SetCookieCache cache = new SetCookieCache(4);
+        assertEquals(60, cache.get("foo=bar; Max-Age=60", NOW_MILLIS)[0].getMaxAge());
+        assertEquals(60, cache.get("foo=bar; Max-Age=60", NOW_MILLIS + 30_000)[0].getMaxAge());
+    }
+
+    public void testAbsoluteExpiryShortened() {
+
+        final SetCookieCache cache = new SetCookieCache(4);
+        final String header = "foo=bar; Expires=Wed, 21 Oct 2037 07:28:00 GMT";
+        final long maxAge = cache.get(header, NOW_MILLIS)[0].getMaxAge();
+        assertTrue(maxAge > 0);
+        assertEquals(maxAge - 30, cache.get(header, NOW_MILLIS + 30_000)[0].getMaxAge());
+        assertEquals(0, cache.get(header, NOW_MILLIS + (maxAge + 10) * 1000)[0].getMaxAge());
+    }
+
+    public void testExpiresAndMaxAgeNotCached() {
+
+        final SetCookieCache cache = new SetCookieCache(4);
+        cache.get("foo=bar; Max-Age=60; Expires=Wed, 21 Oct 2037 07:28:00 GMT", NOW_MILLIS);
+        assertEquals(0, cache.size());
+    }
+
+    public void testMalformedHeaderNotCached() {
+
+        final SetCookieCache cache = new SetCookieCache(4);
+        try {
+            cache.get("foo", NOW_MILLIS);
+            fail("IllegalArgumentException expected");
+        } catch (final IllegalArgumentException ex) {
+            // expected
+        }
+        assertEquals(0, cache.size());
+    }
+
+    public void testCacheClearedWhenFull() {
+
+        final SetCookieCache cache = new SetCookieCache(2);
+        cache.get("a=1", NOW_MILLIS);
+        cache.get("b=2", NOW_MILLIS);
+        assertEquals(2, cache.size());
+        cache.get("c=3", NOW_MILLIS);
+        assertEquals(1, cache.size());
+    }
+
+    public void testInvalidMaximumSize() {
+        try {
+            new SetCookieCache(0);
+            fail("IllegalArgumentException expected");
+        } catch (final IllegalArgumentException ex) {
+            assertEquals("maximumSize must be positive: 0", ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package io.github.shamsimam;
+
+import junit.framework.TestCase;
+
+import java.net.HttpCookie;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the cookies of the SetCookieParser with those of HttpCookie.parse.
+ */
+public class SetCookieParserTest extends TestCase {
+
+    private static final List<String> HEADERS = Arrays.asList(
+        "foo=bar",
+        "foo=\"bar\"",
+        "foo='bar'",
+        "foo=\"\"",
+        "foo=",
+        " foo = bar ; Path = /api ; Domain = .Test.COM ",
+        "foo=bar; Path=/; Secure; HttpOnly",
+        "foo=bar; path=/a; path=/b; domain=a.com; domain=b.com",
+        "foo=bar;;; secure;;",
+        ";foo=bar",
+        "foo=bar; Max-Age=3600",
+        "foo=bar; max-age=\"60\"",
+        "foo=bar; Max-Age=-1; Max-Age=10",
+        "foo=bar; Max-Age=abc",
+        "foo=bar; Max-Age",
+        "foo=bar; Max-Age=+42",
+        "foo=bar; Max-Age=0",
+        "foo=bar; Max-Age=99999999999999999999",
+        "foo=bar; Expires=Wed, 21 Oct 2037 07:28:00 GMT",
+        "foo=bar; expires=Wed, 21-Oct-2037 07:28:00 GMT",
+        "foo=bar; Expires=Thu, 21 Oct 2037 07:28:00 GMT",
+        "foo=bar; Expires=Wed, 21 Oct 2015 07:28:00 GMT",
+        "foo=bar; Expires=Sun, 06 Nov 1994 08:49:37 GMT",
+        "foo=bar; Expires=Wed, 21-Oct-37 07:28:00 GMT",
+        "foo=bar; Expires=Wed Oct 21 2037 07:28:00 GMT+0000",
+        "foo=bar; Expires=Wed, 31 Feb 2037 07:28:00 GMT",
+        "foo=bar; Expires=Wed, 21 Oct 2037 24:28:00 GMT",
+        "foo=bar; Expires=wed, 21 oct 2037 07:28:00 gmt",
+        "foo=bar; Expires=\"Wed, 21 Oct 2037 07:28:00 GMT\"",
+        "foo=bar; Expires=tomorrow",
+        "foo=bar; Expires",
+        "foo=bar; Max-Age=100; Expires=Wed, 21 Oct 2037 07:28:00 GMT",
+        "foo=bar; Expires=Wed, 21 Oct 2037 07:28:00 GMT; Max-Age=100",
+        "foo=bar; Version=1",
+        "foo=bar; Version=\"1\"",
+        "foo=bar; Version=x",
+        "foo=bar; Version=2",
+        "foo=bar; Version=1; Comment=hello; CommentURL=\"http://x.com/\"; Discard; Port=\"80,443\"",
+        "foo=bar; Version=1; Port",
+        "foo=bar; Version=1; Port=; Port=80",
+        "foo=bar; Version=1, baz=qux; Version=1",
+        "foo=bar; Version=1; Port=\"80,443\", baz=qux",
+        "foo=bar; Version=1,",
+        "foo=bar; Max-Age=10, baz=qux",
+        "foo=bar; Expires=Wed, 21 Oct 2037 07:28:00 GMT, baz=qux",
+        "Set-Cookie: foo=bar; Path=/",
+        "set-cookie2: foo=bar",
+        "SET-COOKIE2: foo=bar; Version=1, baz=qux",
+        "set-cookie:",
+        "",
+        ";;",
+        "foo",
+        "=bar",
+        "$foo=bar",
+        "fo o=bar",
+        "fo,o=bar",
+        "foo=bar=baz; x=y=z",
+        "foo=bar; unknown=1; Unknown; HTTPONLY; SECURE",
+        "foo=bar; Domain; Path; Comment",
+        "foo=bar\t;\tpath=/\t");
+
+    private static final String[] NAMES = {"foo", "SID", "a_b", "x-y", "$bad", "b ad", "", " pad "};
+    private static final String[] VALUES = {"bar", "", "\"q\"", "'q'", "\"", "a b", "a=b", "a,b", " v "};
+    private static final String[] ATTRIBUTES = {
+        "Path=/", "path=/api", "Domain=.test.com", "domain=WWW.test.com", "Secure", "secure=1", "HttpOnly",
+        "Max-Age=60", "max-age=\"5\"", "Max-Age=x", "Max-Age=-1", "Expires=Wed, 21 Oct 2037 07:28:00 GMT",
+        "expires=Fri, 01-Jan-2038 00:00:00 GMT", "Expires=Fri, 01 Jan 2038 00:00:00 GMT", "Expires=bogus",
+        "Version=1", "version=0", "Version=3", "Version=a", "Comment=c", "CommentURL=u", "Discard",
+        "Port", "Port=\"80\"", "Port=8080,443", "Other=1", "", " ", "=x"};
+    private static final String[] SEPARATORS = {";", "; ", " ; ", ";;", ",", ", "};
+
+    public void testHeadersParsedLikeHttpCookie() {
+        for (final String header : HEADERS) {
+            assertParsedLikeHttpCookie(header);
+        }
+    }
+
+    public void testRandomHeadersParsedLikeHttpCookie() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            final StringBuilder header = new StringBuilder();
+            if (random.nextInt(10) == 0) {
+                header.append(random.nextBoolean() ? "Set-Cookie: " : "set-cookie2:");
+            }
+            final int cookies = 1 + random.nextInt(2);
+            for (int c = 0; c < cookies; c++) {
+                if (c > 0) {
+                    header.append(", ");
+                }
+                header.append(NAMES[random.nextInt(NAMES.length)]).append('=')
+                    .append(VALUES[random.nextInt(VALUES.length)]);
+                final int attributes = random.nextInt(5);
+                for (int a = 0; a < attributes; a++) {
+                    header.append(SEPARATORS[random.nextInt(SEPARATORS.length)])
+                        .append(ATTRIBUTES[random.nextInt(ATTRIBUTES.length)]);
+                }
+            }
+            assertParsedLikeHttpCookie(header.toString());
+        }
+    }
+
+    private static void assertParsedLikeHttpCookie(final String header) {
+        List<HttpCookie> expected = null;
+        IllegalArgumentException expectedException = null;
+        try {
+            expected = HttpCookie.parse(header);
+        } catch (final IllegalArgumentException ex) {
+            expectedException = ex;
+        }
+        List<HttpCookie> actual = null;
+        try {
+            actual = SetCookieParser.parse(header);
+        } catch (final IllegalArgumentException ex) {
+            if (expectedException == null) {
+                fail("unexpected " + ex + " for " + header);
+            }
+            return;
+        }
+        assertNull("IllegalArgumentException expected for " + header, expectedException);
+
+        assertEquals(header, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            final HttpCookie expectedCookie = expected.get(i);
+            final HttpCookie actualCookie = actual.get(i);
+            assertEquals(header, expectedCookie.getName(), actualCookie.getName());
+            assertEquals(header, expectedCookie.getValue(), actualCookie.getValue());
+            assertEquals(header, expectedCookie.getDomain(), actualCookie.getDomain());
+            assertEquals(header, expectedCookie.getPath(), actualCookie.getPath());
+            assertEquals(header, expectedCookie.getPortlist(), actualCookie.getPortlist());
+            assertEquals(header, expectedCookie.getComment(), actualCookie.getComment());
+            assertEquals(header, expectedCookie.getCommentURL(), actualCookie.getCommentURL());
+            assertEquals(header, expectedCookie.getDiscard(), actualCookie.getDiscard());
+            assertEquals(header, expectedCookie.getSecure(), actualCookie.getSecure());
+            assertEquals(header, expectedCookie.isHttpOnly(), actualCookie.isHttpOnly());
+            assertEquals(header, expectedCookie.getVersion(), actualCookie.getVersion());
+            // the expiry is relative to the creation of the cookies
+            assertTrue(header, Math.abs(expectedCookie.getMaxAge() - actualCookie.getMaxAge()) <= 1);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package io.github.shamsimam;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+public class SharedCookieStoreTest extends TestCase {
+
+    private static final URI WWW_URI = URI.create("https://www.test.com/grpc.Service/GetCookies");
+    private static final URI API_URI = URI.create("https://api.test.com/grpc.Service/GetCookies");
+
+    private Path directory;
+    private Path file;
+    private SharedCookieStore firstStore;
+    private SharedCookieStore secondStore;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = Files.createTempDirectory("cookies");
+        file = directory.resolve("cookies.shared");
+        firstStore = new SharedCookieStore(file, 4096);
+        secondStore = new SharedCookieStore(file, 4096);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        firstStore.close();
+        secondStore.close();
+        firstStore = null;
+        secondStore = null;
+        try (final Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        super.tearDown();
+    }
+
+    private static HttpCookie cookie(final String name, final String value, final String domain) {
+        final HttpCookie cookie = new HttpCookie(name, value);
+        cookie.setVersion(0);
+        cookie.setDomain(domain);
+        cookie.setPath("/");
+        return cookie;
+    }
+
+    private static List<String> names(final List<HttpCookie> cookies) {
+        final List<String> names = new ArrayList<>();
+        for (final HttpCookie cookie : cookies) {
+            names.add(cookie.getName() + "=" + cookie.getValue());
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    public void testCookiesSharedBetweenStores() {
+
+        firstStore.add(WWW_URI, cookie("session", "1", ".test.com"));
+        secondStore.add(API_URI, cookie("origin", "2", null));
+
+        assertEquals(Arrays.asList("origin=2", "session=1"), names(firstStore.get(API_URI)));
+        assertEquals(Arrays.asList("origin=2", "session=1"), names(secondStore.get(API_URI)));
+        assertEquals(Collections.singletonList("session=1"), names(secondStore.get(WWW_URI)));
+        assertEquals(2, firstStore.getURIs().size());
+    }
+
+    public void testRemovalsSharedBetweenStores() {
+
+        firstStore.add(WWW_URI, cookie("session", "1", ".test.com"));
+        firstStore.add(WWW_URI, cookie("other", "2", ".test.com"));
+
+        assertTrue(secondStore.remove(WWW_URI, cookie("session", "1", ".test.com")));
+        assertFalse(firstStore.remove(WWW_URI, cookie("session", "1", ".test.com")));
+        assertEquals(Collections.singletonList("other=2"), names(firstStore.get(WWW_URI)));
+
+        assertTrue(firstStore.removeAll());
+        assertTrue(secondStore.getCookies().isEmpty());
+        assertFalse(secondStore.removeAll());
+    }
+
+    public void testVersionChangesWithOtherStores() {
+
+        final long version = secondStore.version();
+        firstStore.add(WWW_URI, cookie("session", "1", ".test.com"));
+
+        assertTrue(secondStore.version() > version);
+    }
+
+    public void testCookiesSurviveReopening() throws IOException {
+
+        firstStore.add(WWW_URI, cookie("session", "1", ".test.com"));
+        firstStore.close();
+        secondStore.close();
+        firstStore = new SharedCookieStore(file, 4096);
+        secondStore = new SharedCookieStore(file, 4096);
+
+        assertEquals(Collections.singletonList("session=1"), names(secondStore.get(WWW_URI)));
+    }
+
+    public void testCompactionRemapsOtherStores() throws IOException {
+
+        firstStore.add(API_URI, cookie("origin", "0", null));
+        final long version = secondStore.version();
+        for (int i = 0; i < 1_000; i++) {
+            firstStore.add(WWW_URI, cookie("session", String.valueOf(i), ".test.com"));
+        }
+
+        assertEquals(4096, Files.size(file));
+        assertEquals(Arrays.asList("origin=0", "session=999"), names(secondStore.get(API_URI)));
+        assertTrue(secondStore.version() > version);
+
+        secondStore.add(WWW_URI, cookie("session", "1000", ".test.com"));
+        assertEquals(Collections.singletonList("session=1000"), names(firstStore.get(WWW_URI)));
+    }
+
+    public void testPermissionsSurviveCompaction() throws IOException {
+
+        if (!Files.getFileStore(file).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            return;
+        }
+        final Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-rw-r--");
+        Files.setPosixFilePermissions(file, permissions);
+        for (int i = 0; i < 1_000; i++) {
+            firstStore.add(WWW_URI, cookie("session", String.valueOf(i), ".test.com"));
+        }
+
+        // the file was compacted into a new file
+        assertEquals(Collections.singletonList("session=999"), names(secondStore.get(WWW_URI)));
+        assertEquals(permissions, Files.getPosixFilePermissions(file));
+    }
+
+    public void testFileGrowsWhenFull() throws IOException {
+
+        for (int i = 0; i < 200; i++) {
+            firstStore.add(WWW_URI, cookie("session" + i, String.valueOf(i), ".test.com"));
+        }
+
+        assertTrue(Files.size(file) > 4096);
+        assertEquals(200, secondStore.get(WWW_URI).size());
+    }
+
+    public void testConcurrentWritersShareAllCookies() throws InterruptedException {
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final SharedCookieStore cookieStore = t % 2 == 0 ? firstStore : secondStore;
+            final String prefix = "thread" + t + "-";
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (final InterruptedException ex) {
+                    return;
+                }
+                for (int i = 0; i < 100; i++) {
+                    cookieStore.add(WWW_URI, cookie(prefix + i, "1", ".test.com"));
+                    cookieStore.get(WWW_URI);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(400, firstStore.get(WWW_URI).size());
+        assertEquals(400, secondStore.get(WWW_URI).size());
+    }
+
+    public void testNotASharedFile() throws IOException {
+
+        final Path other = directory.resolve("other.bin");
+        Files.write(other, Arrays.copyOf(new byte[] {1, 2, 3, 4}, 128));
+
+        try {
+            new SharedCookieStore(other, 4096);
+            fail("IOException expected");
+        } catch (final IOException ex) {
+            // expected
+        }
+    }
+
+    public void testClosedStoreRejectsModifications() throws IOException {
+
+        firstStore.add(WWW_URI, cookie("session", "1", ".test.com"));
+        firstStore.close();
+
+        try {
+            firstStore.add(WWW_URI, cookie("other", "2", ".test.com"));
+            fail("IllegalStateException expected");
+        } catch (final IllegalStateException ex) {
+            // expected
+        }
+        assertEquals(Collections.singletonList("session=1"), names(firstStore.get(WWW_URI)));
+        assertEquals(Collections.singletonList("session=1"), names(secondStore.get(WWW_URI)));
+    }
+}
@@ -0,0 +1,284 @@
+package io.github.shamsimam;
+
+import junit.framework.TestCase;
+
+import java.io.Closeable;
+import java.net.CookieManager;
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+public class WriteBehindCookieStoreTest extends TestCase {
+
+    private static final URI WWW_URI = URI.create("https://www.test.com/grpc.Service/GetCookies");
+
+    private static HttpCookie cookie(final String header) {
+        return HttpCookie.parse("Set-Cookie: " + header).get(0);
+    }
+
+    public void testModificationsVisibleBeforeWritten() throws Exception {
+
+        final RecordingCookieStore backingStore = new RecordingCookieStore();
+        backingStore.blocked = new CountDownLatch(1);
+        final WriteBehindCookieStore cookieStore =
+            new WriteBehindCookieStore(backingStore, 16, 4, 0, TimeUnit.MILLISECONDS);
+
+        cookieStore.add(WWW_URI, cookie("sid=1; Path=/"));
+        assertEquals(1, cookieStore.get(WWW_URI).size());
+
+        backingStore.blocked.countDown();
+        cookieStore.flush();
+        assertEquals(1, backingStore.delegate.get(WWW_URI).size());
+        cookieStore.close();
+    }
+
+    public void testModificationsWrittenInOrderOffTheCallingThread() throws Exception {
+
+        final RecordingCookieStore backingStore = new RecordingCookieStore();
+        final WriteBehindCookieStore cookieStore = new WriteBehindCookieStore(backingStore);
+
+        cookieStore.add(WWW_URI, cookie("a=1; Path=/"));
+        cookieStore.add(WWW_URI, cookie("b=2; Path=/"));
+        cookieStore.remove(WWW_URI, cookie("a=1; Path=/"));
+        cookieStore.add(WWW_URI, cookie("c=3; Path=/; Max-Age=3600"));
+        cookieStore.flush();
+
+        assertEquals(4, backingStore.operations.size());
+        assertFalse(backingStore.calledFromThread(Thread.currentThread()));
+        final List<HttpCookie> cookies = backingStore.delegate.get(WWW_URI);
+        assertEquals(2, cookies.size());
+        assertEquals("b", cookies.get(0).getName());
+        assertEquals("c", cookies.get(1).getName());
+        assertTrue(cookies.get(1).getMaxAge() > 3500);
+        cookieStore.close();
+    }
+
+    public void testModificationsBatched() throws Exception {
+
+        final RecordingCookieStore backingStore = new RecordingCookieStore();
+        final WriteBehindCookieStore cookieStore =
+            new WriteBehindCookieStore(backingStore, 100, 10, 1, TimeUnit.HOURS);
+
+        for (int i = 0; i < 25; i++) {
+            cookieStore.add(WWW_URI, cookie("c" + i + "=" + i + "; Path=/"));
+        }
+        // full batches are written without waiting for the flush interval
+        while (backingStore.operations.size() < 20) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals(20, backingStore.operations.size());
+
+        // closing writes the remaining modifications
+        cookieStore.close();
+        assertEquals(25, backingStore.operations.size());
+        assertTrue(backingStore.closed.get());
+    }
+
+    public void testPersistentLogFlushedOncePerBatch() throws Exception {
+
+        final Path directory = Files.createTempDirectory("cookies");
+        try {
+            final PersistentCookieStore backingStore = new PersistentCookieStore(directory);
+            final WriteBehindCookieStore cookieStore =
+                new WriteBehindCookieStore(backingStore, 100, 10, 1, TimeUnit.HOURS);
+            final long initialFlushes = backingStore.logFlushes();
+
+            for (int i = 0; i < 25; i++) {
+                cookieStore.add(WWW_URI, cookie("c" + i + "=" + i + "; Path=/; Max-Age=3600"));
+            }
+            cookieStore.close();
+
+            // two full batches and the batch applied on close
+            assertEquals(3, backingStore.logFlushes() - initialFlushes);
+            try (final PersistentCookieStore restoredStore = new PersistentCookieStore(directory)) {
+                assertEquals(25, restoredStore.getCookies().size());
+            }
+        } finally {
+            try (final Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    public void testFullQueueBlocksWriters() throws Exception {
+
+        final RecordingCookieStore backingStore = new RecordingCookieStore();
+        backingStore.blocked = new CountDownLatch(1);
+        final WriteBehindCookieStore cookieStore =
+            new WriteBehindCookieStore(backingStore, 2, 1, 0, TimeUnit.MILLISECONDS);
+
+        final CountDownLatch added = new CountDownLatch(1);
+        final Thread writer = new Thread(() -> {
+            // one modification is held by the blocked writer thread, two fill the queue
+            for (int i = 0; i < 4; i++) {
+                cookieStore.add(WWW_URI, cookie("c" + i + "=" + i + "; Path=/"));
+            }
+            added.countDown();
+        });
+        writer.start();
+
+        assertFalse(added.await(200, TimeUnit.MILLISECONDS));
+        backingStore.blocked.countDown();
+        assertTrue(added.await(5, TimeUnit.SECONDS));
+        cookieStore.close();
+        assertEquals(4, backingStore.delegate.getCookies().size());
+    }
+
+    public void testCookiesLoadedFromBackingStore() throws Exception {
+
+        final RecordingCookieStore backingStore = new RecordingCookieStore();
+        backingStore.delegate.add(WWW_URI, cookie("host=1; Path=/"));
+        backingStore.delegate.add(WWW_URI, cookie("domain=2; Domain=.test.com; Path=/"));
+
+        final WriteBehindCookieStore cookieStore = new WriteBehindCookieStore(backingStore);
+
+        assertEquals(2, cookieStore.get(WWW_URI).size());
+        assertEquals(1, cookieStore.get(URI.create("https://api.test.com/")).size());
+        cookieStore.close();
+    }
+
+    public void testClosedStoreRejectsModifications() throws Exception {
+
+        final WriteBehindCookieStore cookieStore = new WriteBehindCookieStore(new RecordingCookieStore());
+        cookieStore.close();
+        try {
+            cookieStore.add(WWW_URI, cookie("a=1; Path=/"));
+            fail("IllegalStateException expected");
+        } catch (final IllegalStateException expected) {
+            // expected
+        }
+    }
+
+    public void testConcurrentModificationsWrittenInTheirOrder() throws Exception {
+
+        final RecordingCookieStore backingStore = new RecordingCookieStore();
+        final WriteBehindCookieStore cookieStore =
+            new WriteBehindCookieStore(backingStore, 64, 8, 0, TimeUnit.MILLISECONDS);
+        final Thread[] writers = new Thread[4];
+        for (int i = 0; i < writers.length; i++) {
+            final int writerIndex = i;
+            writers[i] = new Thread(() -> {
+                for (int j = 0; j < 500; j++) {
+                    cookieStore.add(WWW_URI, cookie("sid=" + writerIndex + "-" + j + "; Path=/"));
+                }
+            });
+            writers[i].start();
+        }
+        for (final Thread writer : writers) {
+            writer.join();
+        }
+        cookieStore.flush();
+
+        // the backing store holds the value the lookups return
+        final String value = cookieStore.get(WWW_URI).get(0).getValue();
+        assertEquals(value, backingStore.delegate.get(WWW_URI).get(0).getValue());
+        cookieStore.close();
+    }
+
+    public void testModificationsRacingCloseWrittenOrRejected() throws Exception {
+
+        final RecordingCookieStore backingStore = new RecordingCookieStore();
+        final WriteBehindCookieStore cookieStore =
+            new WriteBehindCookieStore(backingStore, 4, 1, 0, TimeUnit.MILLISECONDS);
+        final AtomicInteger addedCount = new AtomicInteger();
+        final Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; ; i++) {
+                    cookieStore.add(WWW_URI, cookie("c" + i + "=" + i + "; Path=/"));
+                    addedCount.incrementAndGet();
+                }
+            } catch (final IllegalStateException expected) {
+                // the store was closed
+            }
+        });
+        writer.start();
+        while (addedCount.get() < 100) {
+            Thread.sleep(1);
+        }
+
+        cookieStore.close();
+        writer.join(5_000);
+
+        assertFalse(writer.isAlive());
+        assertEquals(addedCount.get(), backingStore.operations.size());
+    }
+
+    /**
+     * A store recording the threads modifying it, which can be blocked to fill the queue.
+     */
+    private static final class RecordingCookieStore implements CookieStore, Closeable {
+
+        private final CookieStore delegate = new CookieManager().getCookieStore();
+        private final List<Thread> operations = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile CountDownLatch blocked;
+
+        private void record() {
+            final CountDownLatch latch = blocked;
+            if (latch != null) {
+                try {
+                    latch.await();
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            operations.add(Thread.currentThread());
+        }
+
+        private boolean calledFromThread(final Thread thread) {
+            synchronized (operations) {
+                return operations.contains(thread);
+            }
+        }
+
+        @Override
+        public void add(final URI uri, final HttpCookie cookie) {
+            record();
+            delegate.add(uri, cookie);
+        }
+
+        @Override
+        public List<HttpCookie> get(final URI uri) {
+            return delegate.get(uri);
+        }
+
+        @Override
+        public List<HttpCookie> getCookies() {
+            return delegate.getCookies();
+        }
+
+        @Override
+        public List<URI> getURIs() {
+            return delegate.getURIs();
+        }
+
+        @Override
+        public boolean remove(final URI uri, final HttpCookie cookie) {
+            record();
+            return delegate.remove(uri, cookie);
+        }
+
+        @Override
+        public boolean removeAll() {
+            record();
+            return delegate.removeAll();
+        }
+
+        @Override
+        public void close() {
+            closed.set(true);
+        }
+    }
+}